@@ -36,6 +36,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JInternalFrame;
 import javax.swing.JOptionPane;
+import jmr.db.DescriptorCache;
 import jmr.db.ListDB;
 import jmr.descriptor.DescriptorList;
 import jmr.descriptor.GriddedDescriptor;
@@ -98,6 +99,7 @@ public class JMRFrame extends javax.swing.JFrame {
             @Override
             public void windowClosing(java.awt.event.WindowEvent windowEvent) {
                 clasificador.closeConnection();
+                closeDescriptorCache();
                 System.exit(0);
             }
         });
@@ -988,6 +990,8 @@ public class JMRFrame extends javax.swing.JFrame {
     private void botonNewDBActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_botonNewDBActionPerformed
         // Creamos la base de datos vacía
         database = new ListDB(getDBDescriptorClasses());
+        createLabelIndex();
+        setDescriptorCache();
         // Activamos/desactivamos botones
         setDataBaseButtonStatus(false);
         this.dbOpen = false;
@@ -995,6 +999,60 @@ public class JMRFrame extends javax.swing.JFrame {
         updateInfoDBStatusBar("New DB (not saved)");
     }//GEN-LAST:event_botonNewDBActionPerformed
 
+    /**
+     * Crea el índice de etiquetas de la base de datos (si incluye etiquetas y
+     * no lo tiene ya), usado en las consultas por etiqueta.
+     */
+    private void createLabelIndex() {
+        for (Class c : database.getDescriptorClasses()) {
+            if (LabelDescriptor.class.isAssignableFrom(c)) {
+                if (database.getLabelIndex() == null) {
+                    database.createLabelIndex();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Asocia a la base de datos la caché persistente de descriptores (que se
+     * abre la primera vez), de forma que no se recalculan los descriptores de
+     * las imágenes ya procesadas. Los descriptores de etiquetas dependen del
+     * modo del clasificador (CNN o RCNN), que se actualiza en cada llamada;
+     * si cambia el modelo del clasificador, hay que borrar el fichero de la
+     * caché.
+     */
+    private void setDescriptorCache() {
+        if (descriptorCache == null) {
+            try {
+                descriptorCache = new DescriptorCache(new File(BASE_PATH_DBS + "descriptors.cache"));
+            } catch (IOException ex) {
+                System.err.println(ex);
+                return;
+            }
+        }
+        descriptorCache.setParameters(ImageRegionLabelDescriptor.class, clasificador.isActiveRCNN() ? "RCNN" : "CNN");
+        database.setDescriptorCache(descriptorCache);
+    }
+
+    /**
+     * Cierra la caché persistente de descriptores (si está abierta),
+     * desasociándola antes de la base de datos.
+     */
+    private void closeDescriptorCache() {
+        if (descriptorCache != null) {
+            if (database != null && database.getDescriptorCache() == descriptorCache) {
+                database.setDescriptorCache(null);
+            }
+            try {
+                descriptorCache.close();
+            } catch (IOException ex) {
+                System.err.println(ex);
+            }
+            descriptorCache = null;
+        }
+    }
+
     private void botonCloseDBActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_botonCloseDBActionPerformed
         database.clear();
         database = null;
@@ -1012,6 +1070,7 @@ public class JMRFrame extends javax.swing.JFrame {
         if (database != null) {
             java.awt.Cursor cursor = this.getCursor();
             setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
+            setDescriptorCache();
             //Incorporamos a la BD todas las imágenes del escritorio
             JInternalFrame ventanas[] = escritorio.getAllFrames();
             JMRImageInternalFrame viAnalyzed;
@@ -1038,6 +1097,7 @@ public class JMRFrame extends javax.swing.JFrame {
                 if (pathImg != null) {
 
                     LabelDescriptor.setDefaultClassifier(clasificador);
+                    setDescriptorCache();
 
                     ListDB.Record record = database.new Record(pathImg);
                     List<ResultMetadata> queryResult = database.queryMetadata(record);
@@ -1127,6 +1187,8 @@ public class JMRFrame extends javax.swing.JFrame {
             File file = dlg.getSelectedFile();
             try {
                 database = ListDB.open(file);
+                createLabelIndex();
+                setDescriptorCache();
                 setDataBaseButtonStatus(false);
                 this.dbOpen = true;
 
@@ -1447,6 +1509,7 @@ public class JMRFrame extends javax.swing.JFrame {
 
     // Variables no generadas automáticamente 
     ListDB<String> database = null;
+    DescriptorCache descriptorCache = null;
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JToolBar barraArchivo;
@@ -0,0 +1,263 @@
+package jmr.db;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import jmr.descriptor.MediaDescriptor;
+
+/**
+ * Class representing a cascade of descriptors for the approximate top-k
+ * queries of a {@link ListDB} (see
+ * {@link ListDB#queryCascade(jmr.db.ListDB.Record, int, jmr.db.Cascade, jmr.db.Fusion)}).
+ *
+ * A cascade is given by a sequence of stages, each one associated to a
+ * descriptor and to the fraction of candidate records kept by the stage. At
+ * the first stage, all the records are candidates; they are ranked on the
+ * basis of the distance of the first descriptor, and the given fraction of
+ * them is kept. At each next stage, the candidates are ranked on the basis of
+ * the fusion of the distances calculated so far (with zero distance for the
+ * descriptors not compared yet), and so on. Finally, the fused distance of the
+ * remaining candidates is calculated (reusing the distances already
+ * calculated), and the k nearest ones are returned. So, most of the records
+ * are compared only with the first descriptors of the cascade, which should be
+ * the cheapest ones.
+ *
+ * The result is approximate: a record can be discarded at a stage even if it
+ * is among the k nearest ones. The recall of a cascade (with respect to the
+ * exhaustive query) can be measured by means of
+ * {@link ListDB#recallCascade(java.util.List, int, jmr.db.Cascade, jmr.db.Fusion)}.
+ * At least k candidates are kept at each stage.
+ *
+ * The order of the stages can be given, or it can be chosen automatically on
+ * the basis of the measured cost of each descriptor (see
+ * {@link #automatic(jmr.db.ListDB, double...)}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class Cascade {
+
+    /**
+     * Number of comparisons used for measuring the cost of a descriptor.
+     */
+    private static final int COST_SAMPLES = 256;
+    /**
+     * Number of rounds used for measuring the cost of a descriptor.
+     */
+    private static final int COST_ROUNDS = 8;
+    /**
+     * Sum of the distances calculated when measuring costs (it is stored, so
+     * the comparisons cannot be optimized away).
+     */
+    private static volatile double sink;
+    /**
+     * The position of the descriptor of each stage.
+     */
+    private final int order[];
+    /**
+     * The fraction of candidates kept by each stage.
+     */
+    private final double fractions[];
+
+    /**
+     * Constructs a new cascade.
+     *
+     * @param order the position of the descriptor of each stage (different
+     * positions)
+     * @param fractions the fraction of candidates kept by each stage (values
+     * in (0,1])
+     */
+    public Cascade(int order[], double... fractions) {
+        if (order.length == 0 || order.length != fractions.length) {
+            throw new InvalidParameterException("A fraction must be given for each stage.");
+        }
+        for (int i = 0; i < order.length; i++) {
+            if (order[i] < 0) {
+                throw new InvalidParameterException("Invalid descriptor position: " + order[i]);
+            }
+            for (int j = 0; j < i; j++) {
+                if (order[i] == order[j]) {
+                    throw new InvalidParameterException("Repeated descriptor position: " + order[i]);
+                }
+            }
+            if (!(fractions[i] > 0.0 && fractions[i] <= 1.0)) {
+                throw new InvalidParameterException("The fractions must be in (0,1].");
+            }
+        }
+        this.order = order.clone();
+        this.fractions = fractions.clone();
+    }
+
+    /**
+     * Constructs a cascade whose stages are the descriptors of the given
+     * database in ascending order of cost, measured by comparing the
+     * descriptors of some of its records. There are as many stages as
+     * fractions are given.
+     *
+     * @param database the database
+     * @param fractions the fraction of candidates kept by each stage (values
+     * in (0,1])
+     * @return the new cascade
+     */
+    public static Cascade automatic(ListDB<?> database, double... fractions) {
+        double costs[] = costs(database);
+        if (fractions.length > costs.length) {
+            throw new InvalidParameterException("The number of stages must not exceed " + costs.length);
+        }
+        int order[] = DistanceOrder.sort(costs);
+        return new Cascade(Arrays.copyOf(order, fractions.length), fractions);
+    }
+
+    /**
+     * Measures the cost of comparing each descriptor of the records of the
+     * given database (the mean time of a comparison, in nanoseconds). The
+     * first record is compared with a sample of records spread over the
+     * database.
+     *
+     * @param database the database
+     * @return the cost of each descriptor
+     */
+    public static double[] costs(ListDB<?> database) {
+        if (database.size() < 2) {
+            throw new InvalidParameterException("At least two records are required.");
+        }
+        int size = database.get(0).size(), samples = Math.min(COST_SAMPLES, database.size() - 1);
+        int step = (database.size() - 1) / samples;
+        double costs[] = new double[size], checksum = 0.0;
+        for (int c = 0; c < size; c++) {
+            MediaDescriptor<?> descriptor = database.get(0).get(c);
+            // The minimum time of several rounds is taken (the first ones 
+            // warm up the comparator)
+            costs[c] = Double.POSITIVE_INFINITY;
+            for (int round = 0; round < COST_ROUNDS; round++) {
+                long time = System.nanoTime();
+                for (int i = 1; i <= samples; i++) {
+                    checksum += descriptor.distance(database.get(i * step).get(c));
+                }
+                costs[c] = Math.min(costs[c], (double) (System.nanoTime() - time) / samples);
+            }
+        }
+        sink = checksum;
+        return costs;
+    }
+
+    /**
+     * Returns the number of stages of this cascade.
+     *
+     * @return the number of stages
+     */
+    public int getStageCount() {
+        return order.length;
+    }
+
+    /**
+     * Returns the position of the descriptor of the given stage.
+     *
+     * @param stage the stage
+     * @return the position of the descriptor
+     */
+    public int getComponent(int stage) {
+        return order[stage];
+    }
+
+    /**
+     * Returns the fraction of candidates kept by the given stage.
+     *
+     * @param stage the stage
+     * @return the fraction of candidates
+     */
+    public double getFraction(int stage) {
+        return fractions[stage];
+    }
+
+    /**
+     * Checks that this cascade can be applied to records with the given
+     * number of descriptors.
+     *
+     * @param size the number of descriptors of the records
+     * @throws InvalidParameterException if some stage refers to a descriptor
+     * out of range
+     */
+    void check(int size) {
+        for (int component : order) {
+            if (component >= size) {
+                throw new InvalidParameterException("Invalid descriptor position: " + component);
+            }
+        }
+    }
+
+    /**
+     * Returns a collector with the (approximate) k nearest records to the given
+     * query.
+     *
+     * @param <T> the media type of the database
+     * @param database the database
+     * @param query the query record
+     * @param k the number of nearest records to be collected
+     * @param fusion the fusion of the descriptor distances
+     * @return a collector with the positions and distances of the nearest
+     * records
+     */
+    <T> TopKCollector nearest(ListDB<T> database, ListDB<T>.Record query, int k, Fusion fusion) {
+        int n = database.size(), size = query.size();
+        int candidates[] = new int[n], count = n;
+        for (int i = 0; i < n; i++) {
+            candidates[i] = i;
+        }
+        // Distances of the compared descriptors (in the database order)
+        double distances[][] = new double[size][];
+        boolean known[] = new boolean[size];
+        double row[] = new double[size];
+        for (int s = 0; s < order.length && count > k; s++) {
+            int component = order[s];
+            MediaDescriptor<?> descriptor = query.get(component);
+            int keep = Math.max(k, (int) Math.ceil(fractions[s] * count));
+            TopKCollector stage = database.collector(Math.min(keep, count));
+            double stageDistances[] = new double[n];
+            for (int c = 0; c < count; c++) {
+                int position = candidates[c];
+                row(distances, position, row);
+                // The distance is calculated with the bound of the stage, so
+                // it is exact for the kept candidates
+                stage.offer(fusion.fuse(descriptor, database.get(position).get(component), component, row, stage.bound()), position);
+                stageDistances[position] = row[component];
+            }
+            distances[component] = stageDistances;
+            known[component] = true;
+            candidates = stage.positions();
+            Arrays.sort(candidates); // Database order (memory locality)
+            count = candidates.length;
+        }
+        TopKCollector collector = database.collector(k);
+        for (int c = 0; c < count; c++) {
+            int position = candidates[c];
+            row(distances, position, row);
+            collector.offer(fusion.distance(query, database.get(position), known, row, collector.bound()), position);
+        }
+        return collector;
+    }
+
+    /**
+     * Fills the given row with the calculated descriptor distances of the
+     * given record (zero for the descriptors not compared yet).
+     *
+     * @param distances the distances of the compared descriptors
+     * @param position the position of the record
+     * @param row the row to be filled
+     * @return the filled row
+     */
+    private static double[] row(double distances[][], int position, double row[]) {
+        for (int c = 0; c < row.length; c++) {
+            row[c] = distances[c] != null ? distances[c][position] : 0.0;
+        }
+        return row;
+    }
+
+    /**
+     * Returns a string representation of this cascade.
+     *
+     * @return a string representation of this cascade
+     */
+    @Override
+    public String toString() {
+        return "Cascade: [order=" + Arrays.toString(order) + ", fractions=" + Arrays.toString(fractions) + "]";
+    }
+}
@@ -0,0 +1,554 @@
+package jmr.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a database whose records can be appended (or replaced)
+ * while it is being queried from other threads.
+ *
+ * The queries are not executed on the database, but on a snapshot of it (see
+ * {@link #snapshot()}): an immutable version with the records stored when it
+ * was taken, which is not affected by the later modifications. Taking a
+ * snapshot does not copy the records and needs no lock, so the searches can
+ * be served while the ingestion runs continuously.
+ *
+ * The records are stored in segments of {@link #SEGMENT_SIZE} records. A new
+ * record is written in the free part of the last segment (not visible by the
+ * existing snapshots, which only see their own number of records), and then
+ * a new version is published; the segments are only copied when a record is
+ * replaced (copy-on-write), so the published versions never change. The
+ * writers are serialized among them, but the descriptors of the new records
+ * are calculated before taking the lock.
+ *
+ * The records are never removed, so the position of a record does not change
+ * (it can be used as its id).
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ConcurrentListDB<T> {
+
+    /**
+     * Number of bits of the position of a record in its segment.
+     */
+    static final int SEGMENT_BITS = 10;
+    /**
+     * Number of records per segment.
+     */
+    static public final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    /**
+     * The descriptor classes of the records.
+     */
+    private final Class<?> descriptorClasses[];
+    /**
+     * Empty database with the descriptor classes of this one, used for
+     * calculating the new records and the query records.
+     */
+    private final ListDB<T> prototype;
+    /**
+     * The last published version of this database.
+     */
+    private volatile Snapshot current;
+    /**
+     * Lock serializing the writers.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Segments of the version being written (between {@link #append} and
+     * {@link #publish()}; guarded by the write lock).
+     */
+    private ListDB<T>.Record pendingSegments[][] = null;
+    /**
+     * Number of records of the version being written (guarded by the write
+     * lock).
+     */
+    private int pendingSize = 0;
+
+    /**
+     * Constructs an empty database.
+     *
+     * @param descriptorClasses the list of descriptor classes that will
+     * determine the set of descriptor associated to this database (see
+     * {@link ListDB#ListDB(java.lang.Class...)})
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentListDB(Class<?>... descriptorClasses) {
+        this.descriptorClasses = descriptorClasses;
+        this.prototype = new ListDB<>(descriptorClasses);
+        this.current = new Snapshot((ListDB<T>.Record[][]) new ListDB<?>.Record[0][], 0, 0);
+    }
+
+    /**
+     * Constructs a database with the records of the given one (except the
+     * deleted ones), in the same order.
+     *
+     * @param database the database whose records are appended
+     */
+    public ConcurrentListDB(ListDB<T> database) {
+        this(database.getDescriptorClasses().toArray(new Class<?>[0]));
+        synchronized (writeLock) {
+            for (int i = 0; i < database.size(); i++) {
+                if (!database.isDeleted(i)) {
+                    append(database.get(i));
+                }
+            }
+            publish();
+        }
+    }
+
+    /**
+     * Returns the current version of this database. The returned snapshot
+     * does not change, even if this database is modified.
+     *
+     * @return the current snapshot of this database
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Returns the number of records of the current version of this database.
+     *
+     * @return the number of records of this database
+     */
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Returns the record at the specified position in the current version of
+     * this database.
+     *
+     * @param index index of the record to return
+     * @return the record at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public ListDB<T>.Record get(int index) {
+        return current.get(index);
+    }
+
+    /**
+     * Returns the descriptor classes of this database.
+     *
+     * @return the descriptor classes of this database
+     */
+    public List<Class<?>> getDescriptorClasses() {
+        return Arrays.asList(descriptorClasses);
+    }
+
+    /**
+     * Appends the specified record to the end of this database, publishing a
+     * new version.
+     *
+     * @param record record to be appended to this database
+     * @return <tt>true</tt> (as specified by
+     * {@link java.util.Collection#add(java.lang.Object) })
+     * @throws InvalidParameterException if the new record does not share the
+     * database structure.
+     */
+    public boolean add(ListDB<T>.Record record) {
+        check(record);
+        synchronized (writeLock) {
+            append(record);
+            publish();
+        }
+        return true;
+    }
+
+    /**
+     * Appends a new record to the end of this database, publishing a new
+     * version. The descriptors are calculated before locking the database.
+     *
+     * @param media media from which the new record is calculated
+     * @return <tt>true</tt> (as specified by
+     * {@link java.util.Collection#add(java.lang.Object) })
+     */
+    public boolean add(T media) {
+        return add(prototype.new Record(media));
+    }
+
+    /**
+     * Appends a new record to the end of this database, publishing a new
+     * version. The descriptors are calculated before locking the database.
+     *
+     * @param media media from which the new record is calculated
+     * @param locator the media locator of the new record
+     * @return <tt>true</tt> (as specified by
+     * {@link java.util.Collection#add(java.lang.Object) })
+     */
+    public boolean add(T media, URL locator) {
+        return add(prototype.new Record(media, locator));
+    }
+
+    /**
+     * Appends all the given records to the end of this database, in the order
+     * of the collection, publishing a single new version (so the snapshots
+     * contain all of them or none).
+     *
+     * @param records records to be appended to this database
+     * @return <tt>true</tt> if this database changed
+     * @throws InvalidParameterException if some record does not share the
+     * database structure (in that case, no record is appended).
+     */
+    public boolean addAll(Collection<? extends ListDB<T>.Record> records) {
+        for (ListDB<T>.Record record : records) {
+            check(record);
+        }
+        synchronized (writeLock) {
+            for (ListDB<T>.Record record : records) {
+                append(record);
+            }
+            publish();
+        }
+        return !records.isEmpty();
+    }
+
+    /**
+     * Replaces the record at the specified position in this database with the
+     * specified record, publishing a new version. The segment of the record
+     * is copied, so the previous versions keep the replaced record.
+     *
+     * @param index index of the record to replace
+     * @param record record to be stored at the specified position
+     * @return the record previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws InvalidParameterException if the new record does not share the
+     * database structure.
+     */
+    @SuppressWarnings("unchecked")
+    public ListDB<T>.Record set(int index, ListDB<T>.Record record) {
+        check(record);
+        synchronized (writeLock) {
+            Snapshot snapshot = current;
+            ListDB<T>.Record previous = snapshot.get(index);
+            ListDB<T>.Record segments[][] = snapshot.segments.clone();
+            int s = index >>> SEGMENT_BITS;
+            segments[s] = segments[s].clone();
+            segments[s][index & (SEGMENT_SIZE - 1)] = record;
+            current = new Snapshot(segments, snapshot.size, snapshot.version + 1);
+            return previous;
+        }
+    }
+
+    /**
+     * Saves the current version of this database in a file, as a
+     * {@link ListDB} (see {@link Snapshot#save(java.io.File)}).
+     *
+     * @param file the file where the database is saved
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void save(File file) throws IOException {
+        current.save(file);
+    }
+
+    /**
+     * Writes the given record after the last one of the version being
+     * written. The record is written in the free part of the last segment, or
+     * in a new segment (and a new array of segments) if it is full, so the
+     * published versions are not modified. Must be called with the write
+     * lock.
+     *
+     * @param record the record to be appended
+     */
+    @SuppressWarnings("unchecked")
+    private void append(ListDB<T>.Record record) {
+        if (pendingSegments == null) {
+            pendingSegments = current.segments;
+            pendingSize = current.size;
+        }
+        int s = pendingSize >>> SEGMENT_BITS;
+        if (s == pendingSegments.length) {
+            pendingSegments = Arrays.copyOf(pendingSegments, s + 1);
+            pendingSegments[s] = (ListDB<T>.Record[]) new ListDB<?>.Record[SEGMENT_SIZE];
+        }
+        pendingSegments[s][pendingSize & (SEGMENT_SIZE - 1)] = record;
+        pendingSize++;
+    }
+
+    /**
+     * Publishes the version being written (if any) as the current one. Must
+     * be called with the write lock.
+     */
+    private void publish() {
+        if (pendingSegments != null) {
+            current = new Snapshot(pendingSegments, pendingSize, current.version + 1);
+            pendingSegments = null;
+        }
+    }
+
+    /**
+     * Checks if the given record shares the database structure.
+     *
+     * @param record the record
+     * @throws InvalidParameterException if the record does not share the
+     * database structure
+     */
+    private void check(ListDB<T>.Record record) {
+        // The record may belong to another database with other classes
+        boolean compatible = record.isCompatible() && record.size() == descriptorClasses.length;
+        for (int i = 0; i < record.size() && compatible; i++) {
+            compatible = record.get(i).getClass() == descriptorClasses[i];
+        }
+        if (!compatible) {
+            throw new InvalidParameterException("The new record does not share the database structure.");
+        }
+    }
+
+    /**
+     * Returns a string representation of this database.
+     *
+     * @return a string representation of this database
+     */
+    @Override
+    public String toString() {
+        return "ConcurrentListDB: " + current;
+    }
+
+    /**
+     * Inner class representing an immutable version of the database. The
+     * queries have the same semantics as in {@link ListDB} (they are executed
+     * on a read-only {@link ListDB} view of the records of this version,
+     * without indexes), and they can run concurrently among them and with the
+     * modifications of the database.
+     */
+    public class Snapshot {
+
+        /**
+         * The segments of this version (only the first {@link #size} records
+         * belong to it).
+         */
+        private final ListDB<T>.Record segments[][];
+        /**
+         * The number of records of this version.
+         */
+        private final int size;
+        /**
+         * The version number (incremented by each modification).
+         */
+        private final long version;
+        /**
+         * Read-only database view of the records of this version.
+         */
+        private final ListDB<T> view;
+
+        /**
+         * Constructs a new version with the first records of the given
+         * segments.
+         *
+         * @param segments the segments of the records
+         * @param size the number of records
+         * @param version the version number
+         */
+        private Snapshot(ListDB<T>.Record segments[][], int size, long version) {
+            this.segments = segments;
+            this.size = size;
+            this.version = version;
+            this.view = new ListDB<>(descriptorClasses, new SegmentList<>(segments, size));
+        }
+
+        /**
+         * Returns the version number of this snapshot. Each modification of
+         * the database publishes a new version with a higher number.
+         *
+         * @return the version number
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the number of records of this snapshot.
+         *
+         * @return the number of records
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the record at the specified position in this snapshot.
+         *
+         * @param index index of the record to return
+         * @return the record at the specified position
+         * @throws IndexOutOfBoundsException if the index is out of range
+         */
+        public ListDB<T>.Record get(int index) {
+            return view.get(index);
+        }
+
+        /**
+         * Returns a read-only database with the records of this snapshot (its
+         * modifications throw {@link UnsupportedOperationException}). The id
+         * of each record is its position (see {@link ListDB#getId(int)}).
+         *
+         * @return a read-only view of this snapshot
+         */
+        public ListDB<T> getDatabase() {
+            return view;
+        }
+
+        /**
+         * Returns the nearest records to the given query, sorted on the basis
+         * of their distance to the query (see
+         * {@link ListDB#query(jmr.db.ListDB.Record, int)}).
+         *
+         * @param queryRecord the query record
+         * @param size the size of the output subset
+         * @return the nearest records sorted by distance
+         */
+        public List<ListDB<T>.Record> query(ListDB<T>.Record queryRecord, int size) {
+            return view.query(queryRecord, size);
+        }
+
+        /**
+         * Returns the nearest records to the given query media, sorted on the
+         * basis of their distance to the query (see
+         * {@link ListDB#query(java.lang.Object, int)}).
+         *
+         * @param queryMedia the query media
+         * @param size the size of the output subset
+         * @return the nearest records sorted by distance
+         */
+        public List<ListDB<T>.Record> query(T queryMedia, int size) {
+            return view.query(prototype.new Record(queryMedia), size);
+        }
+
+        /**
+         * Returns the nearest records to the given query, sorted on the basis
+         * of their distance to the query (see
+         * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int)}).
+         *
+         * @param queryRecord the query record
+         * @param k the number of nearest records to be returned
+         * @return a list of ordered metadata
+         */
+        public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) {
+            return view.queryMetadata(queryRecord, k);
+        }
+
+        /**
+         * Returns the nearest records to the given query, calculated by means
+         * of the given fusion of the descriptor distances (see
+         * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int, jmr.db.Fusion)}).
+         *
+         * @param queryRecord the query record
+         * @param k the number of nearest records to be returned
+         * @param fusion the fusion of the descriptor distances
+         * @return a list of ordered metadata
+         */
+        public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k, Fusion fusion) {
+            return view.queryMetadata(queryRecord, k, fusion);
+        }
+
+        /**
+         * Returns, for each of the given queries, the nearest records sorted
+         * on the basis of their distance to the query (see
+         * {@link ListDB#queryMetadata(java.util.List, int, boolean)}).
+         *
+         * @param queryRecords the query records
+         * @param k the number of nearest records to be returned for each
+         * query
+         * @param parallel if <tt>true</tt>, the snapshot is scanned in
+         * parallel
+         * @return a list with the ordered metadata of each query
+         */
+        public List<List<ResultMetadata<Double, ListDB<T>.Record>>> queryMetadata(List<ListDB<T>.Record> queryRecords, int k, boolean parallel) {
+            return view.queryMetadata(queryRecords, k, parallel);
+        }
+
+        /**
+         * Returns the records of this snapshot whose distance to the given
+         * query is less than or equal to the given radius (see
+         * {@link ListDB#queryRange(jmr.db.ListDB.Record, double, boolean)}).
+         * Since the snapshot does not change, the stream can be consumed while
+         * the database is modified.
+         *
+         * @param queryRecord the query record
+         * @param radius the maximum distance to the query
+         * @param sorted if <tt>true</tt>, the records are sorted on the basis
+         * of their distance to the query
+         * @return a stream of metadata
+         */
+        public Stream<ResultMetadata<Double, ListDB<T>.Record>> queryRange(ListDB<T>.Record queryRecord, double radius, boolean sorted) {
+            return view.queryRange(queryRecord, radius, sorted);
+        }
+
+        /**
+         * Saves this snapshot in a file, as a {@link ListDB} with its records
+         * (which can be opened by means of
+         * {@link ListDB#open(java.io.File)}).
+         *
+         * @param file the file where the snapshot is saved
+         * @throws IOException if an I/O error occurs while writing the file
+         */
+        public void save(File file) throws IOException {
+            ListDB<T> database = new ListDB<>(descriptorClasses);
+            for (int i = 0; i < size; i++) {
+                database.add(get(i));
+            }
+            database.save(file);
+        }
+
+        /**
+         * Returns a string representation of this snapshot.
+         *
+         * @return a string representation of this snapshot
+         */
+        @Override
+        public String toString() {
+            return "[version=" + version + ", records=" + size + "]";
+        }
+    }
+
+    /**
+     * Read-only list of the first records of an array of segments.
+     *
+     * @param <R> the type of the records
+     */
+    private static class SegmentList<R> extends AbstractList<R> implements RandomAccess {
+
+        /**
+         * The segments of the records.
+         */
+        private final R segments[][];
+        /**
+         * The number of records of the list.
+         */
+        private final int size;
+
+        /**
+         * Constructs a list with the first records of the given segments.
+         *
+         * @param segments the segments of the records
+         * @param size the number of records
+         */
+        SegmentList(R segments[][], int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        @Override
+        public R get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return segments[index >>> SEGMENT_BITS][index & (SEGMENT_SIZE - 1)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
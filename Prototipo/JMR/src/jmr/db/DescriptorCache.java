@@ -0,0 +1,623 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import jmr.descriptor.DescriptorCodec;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.MediaDescriptor;
+
+/**
+ * Class representing a persistent cache of descriptors, stored in a local
+ * file, so the descriptors of a media already processed (in this or in
+ * a previous run, and under any path or locator) are read instead of being
+ * calculated again.
+ *
+ * The descriptors are stored by the content hash of the media (a SHA-256 
+ * hash), the descriptor class and its versions and parameters (see 
+ * {@link #getVersion(java.lang.Class)} and 
+ * {@link #setParameters(java.lang.Class, java.lang.String)}). The content 
+ * hash of a media file is the hash of its bytes, and the one of a decoded
+ * image is the hash of its pixel data (see 
+ * {@link #contentHash(java.awt.image.BufferedImage)}). The content hash of 
+ * each file is also stored, by path, length and modification time, so the 
+ * files not modified since they were hashed are not read again.
+ *
+ * A database uses the cache when its records are calculated from a media file
+ * path (a <code>String</code> or a <code>File</code>) or from a decoded image
+ * (see {@link ListDB#setDescriptorCache(jmr.db.DescriptorCache)}); the
+ * descriptors of other media are not cached. Only the serializable 
+ * descriptors are cached. The descriptors read from the cache have no
+ * source; the database attaches them to the media of the record (see
+ * {@link jmr.descriptor.MediaDescriptor#attachSource(java.lang.Object)}).
+ *
+ * The cache file is an append-only log: each entry is written at the end of
+ * the file as soon as it is added. When the cache is opened, the entries are
+ * indexed (the descriptors are read on demand) and an incomplete last entry
+ * (for example, if the process was killed while writing it) is discarded.
+ *
+ * This class is thread-safe.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DescriptorCache implements Closeable {
+
+    /**
+     * Header of the cache files.
+     */
+    private static final int MAGIC = 0x4A4D5244;
+    /**
+     * Version of the format of the cache files.
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Type of the entries with the content hash of a file.
+     */
+    private static final byte ENTRY_CONTENT = 1;
+    /**
+     * Type of the entries with a descriptor.
+     */
+    private static final byte ENTRY_DESCRIPTOR = 2;
+    /**
+     * Name of the static field with the version of the extraction algorithm
+     * of a descriptor class (see {@link #getVersion(java.lang.Class)}).
+     */
+    static public final String EXTRACTOR_VERSION_FIELD = "EXTRACTOR_VERSION";
+    /**
+     * The cache file.
+     */
+    private final File file;
+    /**
+     * Random access to the cache file.
+     */
+    private final RandomAccessFile data;
+    /**
+     * Content hash of each file, by path, length and modification time.
+     */
+    private final HashMap<String, String> contents = new HashMap<>();
+    /**
+     * Position in the cache file of each descriptor, by content hash, class
+     * and parameters.
+     */
+    private final HashMap<String, Long> descriptors = new HashMap<>();
+    /**
+     * Parameters of each descriptor class.
+     */
+    private final HashMap<Class<?>, String> parameters = new HashMap<>();
+    /**
+     * Version of each descriptor class (see {@link #getVersion(java.lang.Class)}).
+     */
+    private final HashMap<Class<?>, String> versions = new HashMap<>();
+    /**
+     * Descriptor classes that are not cached.
+     */
+    private final HashSet<Class<?>> excluded = new HashSet<>();
+    /**
+     * Number of descriptors read from the cache.
+     */
+    private long hitCount = 0;
+    /**
+     * Number of descriptors not found in the cache.
+     */
+    private long missCount = 0;
+
+    /**
+     * Opens the cache stored in the given file, creating it if it does not
+     * exist.
+     *
+     * @param file the cache file
+     * @throws IOException if an I/O error occurs, or if the file is not a
+     * cache file
+     */
+    public DescriptorCache(File file) throws IOException {
+        this.file = file;
+        this.data = new RandomAccessFile(file, "rw");
+        try {
+            load();
+        } catch (IOException ex) {
+            data.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the index of the entries of the cache file (or writes the header
+     * of a new file), discarding the incomplete last entry (if any).
+     *
+     * @throws IOException if an I/O error occurs, or if the file is not a
+     * cache file
+     */
+    private void load() throws IOException {
+        if (data.length() == 0) {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            return;
+        }
+        long length = data.length(), position = 8;
+        // The file is read sequentially (not by means of the random access)
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try (DataInputStream in = new DataInputStream(counter)) {
+            if (length < 8 || in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a descriptor cache file.");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported descriptor cache version: " + version);
+            }
+            while (position < length) {
+                byte type = in.readByte();
+                String key = in.readUTF();
+                int size = in.readInt();
+                if (size < 0 || counter.count + size > length) {
+                    break;
+                }
+                if (type == ENTRY_CONTENT) {
+                    byte value[] = new byte[size];
+                    in.readFully(value);
+                    contents.put(key, new String(value, "UTF-8"));
+                } else if (type == ENTRY_DESCRIPTOR) {
+                    descriptors.put(key, counter.count - 4);
+                    in.skipBytes(size);
+                } else {
+                    break;
+                }
+                position = counter.count;
+            }
+        } catch (EOFException ex) {
+            // Incomplete last entry
+        }
+        if (position < length) {
+            data.setLength(position);
+        }
+    }
+
+    /**
+     * Returns the cache file.
+     *
+     * @return the cache file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the parameters of the given descriptor class: the data, besides
+     * the media, the descriptors of the class depend on (for example, the
+     * classifier of a label descriptor). The descriptors calculated with
+     * other parameters are not used.
+     *
+     * @param descriptorClass the descriptor class
+     * @param parameters the parameters of the class (<tt>null</tt> for none)
+     */
+    public synchronized void setParameters(Class<?> descriptorClass, String parameters) {
+        if (parameters == null) {
+            this.parameters.remove(descriptorClass);
+        } else {
+            this.parameters.put(descriptorClass, parameters);
+        }
+    }
+
+    /**
+     * Sets whether the descriptors of the given class are cached (by default,
+     * the descriptors of all the serializable classes are cached).
+     *
+     * @param descriptorClass the descriptor class
+     * @param cached <tt>true</tt> if its descriptors are cached
+     */
+    public synchronized void setCached(Class<?> descriptorClass, boolean cached) {
+        if (cached) {
+            excluded.remove(descriptorClass);
+        } else {
+            excluded.add(descriptorClass);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the descriptors of the given class are cached.
+     *
+     * @param descriptorClass the descriptor class
+     * @return <tt>true</tt> if its descriptors are cached
+     */
+    public synchronized boolean isCached(Class<?> descriptorClass) {
+        return Serializable.class.isAssignableFrom(descriptorClass) && !excluded.contains(descriptorClass);
+    }
+
+    /**
+     * Returns the content hash of the given file: the SHA-256 hash of its
+     * bytes, in hexadecimal. If the file has not been modified since it was
+     * hashed, the stored hash is returned without reading it.
+     *
+     * @param mediaFile the file
+     * @return the content hash of the file
+     * @throws IOException if an I/O error occurs while reading the file
+     */
+    public String contentHash(File mediaFile) throws IOException {
+        String key = mediaFile.getCanonicalPath() + "\0" + mediaFile.length() + "\0" + mediaFile.lastModified();
+        synchronized (this) {
+            String hash = contents.get(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(mediaFile)) {
+            byte buffer[] = new byte[1 << 16];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        String hash = toHex(digest.digest());
+        synchronized (this) {
+            if (!contents.containsKey(key)) {
+                contents.put(key, hash);
+                append(ENTRY_CONTENT, key, hash.getBytes("UTF-8"));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the content hash of the given decoded image: the SHA-256 hash
+     * of its type, size and pixel data, in hexadecimal. The pixel data are
+     * hashed as they are stored in the raster (the data elements of its
+     * transfer type, read row by row), so no sample is widened nor converted.
+     * Thus, the images with the same pixel data have the same hash, whatever
+     * file (if any) they were decoded from.
+     *
+     * @param image the image
+     * @return the content hash of the image
+     */
+    public String contentHash(BufferedImage image) {
+        MessageDigest digest = newDigest();
+        Raster raster = image.getRaster();
+        int width = raster.getWidth(), height = raster.getHeight(), bands = raster.getNumBands();
+        int transferType = raster.getTransferType();
+        ByteBuffer header = ByteBuffer.allocate(20);
+        header.putInt(image.getType()).putInt(width).putInt(height).putInt(bands).putInt(transferType);
+        digest.update(header.array());
+        Object elements = null;
+        ByteBuffer row = null;
+        for (int y = 0; y < height; y++) {
+            elements = raster.getDataElements(raster.getMinX(), raster.getMinY() + y, width, 1, elements);
+            switch (transferType) {
+                case DataBuffer.TYPE_BYTE:
+                    digest.update((byte[]) elements);
+                    continue;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    short shorts[] = (short[]) elements;
+                    row = row != null ? row : ByteBuffer.allocate(shorts.length * Short.BYTES);
+                    row.clear();
+                    row.asShortBuffer().put(shorts);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    int ints[] = (int[]) elements;
+                    row = row != null ? row : ByteBuffer.allocate(ints.length * Integer.BYTES);
+                    row.clear();
+                    row.asIntBuffer().put(ints);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    float floats[] = (float[]) elements;
+                    row = row != null ? row : ByteBuffer.allocate(floats.length * Float.BYTES);
+                    row.clear();
+                    row.asFloatBuffer().put(floats);
+                    break;
+                case DataBuffer.TYPE_DOUBLE:
+                    double doubles[] = (double[]) elements;
+                    row = row != null ? row : ByteBuffer.allocate(doubles.length * Double.BYTES);
+                    row.clear();
+                    row.asDoubleBuffer().put(doubles);
+                    break;
+                default:
+                    throw new InvalidParameterException("Unsupported transfer type: " + transferType);
+            }
+            digest.update(row.array());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the content hash of the media of a record, or <tt>null</tt> if
+     * its descriptors are not cached. The media can be a file path (the file
+     * bytes are hashed) or a decoded image (its pixel data are hashed). The
+     * locator of the record is not used, since the media is not necessarily
+     * the one stored in the located file.
+     *
+     * @param media the media of the record
+     * @return the content hash of the media, or <tt>null</tt>
+     */
+    String contentHash(Object media) {
+        if (media instanceof BufferedImage) {
+            return contentHash((BufferedImage) media);
+        }
+        File mediaFile = null;
+        if (media instanceof File) {
+            mediaFile = (File) media;
+        } else if (media instanceof String) {
+            mediaFile = new File((String) media);
+        }
+        try {
+            return mediaFile != null && mediaFile.isFile() ? contentHash(mediaFile) : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a new SHA-256 message digest.
+     *
+     * @return a new message digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the given bytes in hexadecimal.
+     *
+     * @param bytes the bytes
+     * @return the hexadecimal string
+     */
+    private static String toHex(byte bytes[]) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns the version of the given descriptor class used in the keys of
+     * its descriptors, so the descriptors calculated by a previous version
+     * of the class are not used. It is made up of:
+     * <ul>
+     * <li> The version of the extraction algorithm, given by the public static
+     * <code>int</code> field {@link #EXTRACTOR_VERSION_FIELD} of the class 
+     * (0 if it is not declared), which must be incremented when the 
+     * calculated descriptors change.
+     * <li> The version of the serialized format: the version of the codec of
+     * the class (see {@link DescriptorCodecs}), or its serial version id if
+     * it has no codec.
+     * </ul>
+     *
+     * @param descriptorClass the descriptor class
+     * @return the version of the class
+     */
+    public synchronized String getVersion(Class<?> descriptorClass) {
+        String version = versions.get(descriptorClass);
+        if (version == null) {
+            int extractorVersion = 0;
+            try {
+                Field field = descriptorClass.getField(EXTRACTOR_VERSION_FIELD);
+                if (Modifier.isStatic(field.getModifiers()) && field.getType() == int.class) {
+                    extractorVersion = field.getInt(null);
+                }
+                // The class is initialized, so its codec (if any) is registered
+                Class.forName(descriptorClass.getName(), true, descriptorClass.getClassLoader());
+            } catch (NoSuchFieldException | IllegalAccessException | ClassNotFoundException ex) {
+                // Without extractor version
+            }
+            DescriptorCodec<?> codec = DescriptorCodecs.get(descriptorClass);
+            ObjectStreamClass streamClass = ObjectStreamClass.lookup(descriptorClass);
+            version = extractorVersion + "." + (codec != null ? "c" + codec.getVersion()
+                    : streamClass != null ? streamClass.getSerialVersionUID() : 0L);
+            versions.put(descriptorClass, version);
+        }
+        return version;
+    }
+
+    /**
+     * Returns the descriptor of the given class calculated from the media
+     * file with the given content hash (and the current parameters of the
+     * class).
+     *
+     * @param <T> the media type of the descriptor
+     * @param contentHash the content hash of the media file
+     * @param descriptorClass the descriptor class
+     * @return the descriptor (without source), or <tt>null</tt> if it is not
+     * in the cache (or it cannot be read)
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> MediaDescriptor<T> get(String contentHash, Class<?> descriptorClass) {
+        Long position = isCached(descriptorClass) ? descriptors.get(key(contentHash, descriptorClass)) : null;
+        if (position != null) {
+            try {
+                data.seek(position);
+                byte value[] = new byte[data.readInt()];
+                data.readFully(value);
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value))) {
+                    Object descriptor = in.readObject();
+                    if (descriptorClass.isInstance(descriptor)) {
+                        hitCount++;
+                        return (MediaDescriptor<T>) descriptor;
+                    }
+                }
+            } catch (IOException | ClassNotFoundException ex) {
+                // Not readable (for example, a class no longer available)
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Stores the given descriptor, calculated from the media file with the
+     * given content hash (and the current parameters of its class). The
+     * descriptors whose class is not cached are ignored.
+     *
+     * @param contentHash the content hash of the media file
+     * @param descriptor the descriptor
+     * @throws IOException if an I/O error occurs while writing the cache
+     * file, or if the descriptor cannot be serialized
+     */
+    public synchronized void put(String contentHash, MediaDescriptor<?> descriptor) throws IOException {
+        if (!isCached(descriptor.getClass())) {
+            return;
+        }
+        String key = key(contentHash, descriptor.getClass());
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(value)) {
+            out.writeObject(descriptor);
+        }
+        descriptors.put(key, append(ENTRY_DESCRIPTOR, key, value.toByteArray()));
+    }
+
+    /**
+     * Returns the key of a descriptor: the content hash of the media, the
+     * descriptor class, its version and its parameters.
+     *
+     * @param contentHash the content hash of the media
+     * @param descriptorClass the descriptor class
+     * @return the key of the descriptor
+     */
+    private String key(String contentHash, Class<?> descriptorClass) {
+        String classParameters = parameters.get(descriptorClass);
+        return contentHash + "\0" + descriptorClass.getName() + "\0" + getVersion(descriptorClass)
+                + (classParameters != null ? "\0" + classParameters : "");
+    }
+
+    /**
+     * Writes a new entry at the end of the cache file.
+     *
+     * @param type the type of entry
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the position of the value (of its length) in the file
+     * @throws IOException if an I/O error occurs
+     */
+    private long append(byte type, String key, byte value[]) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length + key.length() + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(key);
+        int valuePosition = out.size();
+        out.writeInt(value.length);
+        out.write(value);
+        long position = data.length();
+        data.seek(position);
+        data.write(bytes.toByteArray()); // A single write for the whole entry
+        return position + valuePosition;
+    }
+
+    /**
+     * Returns the number of descriptors stored in the cache.
+     *
+     * @return the number of descriptors
+     */
+    public synchronized int size() {
+        return descriptors.size();
+    }
+
+    /**
+     * Returns the number of descriptors read from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of descriptors not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Closes the cache file.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        data.close();
+    }
+
+    /**
+     * Returns a string representation of this cache.
+     *
+     * @return a string representation of this cache
+     */
+    @Override
+    public synchronized String toString() {
+        return "DescriptorCache: [file=" + file + ", descriptors=" + descriptors.size()
+                + ", files=" + contents.size() + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+
+    /**
+     * Input stream counting the bytes read from the underlying stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /**
+         * Number of bytes read.
+         */
+        private long count = 0;
+
+        /**
+         * Constructs a counting stream over the given one.
+         *
+         * @param in the underlying stream
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
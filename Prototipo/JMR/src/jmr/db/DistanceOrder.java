@@ -0,0 +1,83 @@
+package jmr.db;
+
+/**
+ * Utility class for sorting items on the basis of their (primitive) distances
+ * without boxing them.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class DistanceOrder {
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private DistanceOrder() {
+    }
+
+    /**
+     * Returns the indices of the given distances sorted in ascending order of
+     * distance. The sort is stable (items with the same distance keep their
+     * relative order) and uses the {@link Double#compare(double, double)}
+     * order, so the result is the same that the one obtained by sorting the
+     * boxed distances.
+     *
+     * @param distances the distances to be sorted
+     * @return the indices of the distances in ascending order
+     */
+    static int[] sort(double[] distances) {
+        return sort(distances, null, distances.length);
+    }
+
+    /**
+     * Returns the indices of the first <code>length</code> given distances
+     * sorted in ascending order of distance. Ties are resolved by the given
+     * positions (if not null) or by the indices (in other case).
+     *
+     * @param distances the distances to be sorted
+     * @param positions the positions used for resolving ties (it may be null)
+     * @param length the number of distances to be sorted
+     * @return the indices of the distances in ascending order
+     */
+    static int[] sort(double[] distances, int[] positions, int length) {
+        int n = length;
+        int[] index = new int[n], aux = new int[n], swap;
+        for (int i = 0; i < n; i++) {
+            index[i] = i;
+        }
+        // Bottom-up merge sort
+        for (int width = 1; width < n; width <<= 1) {
+            for (int low = 0; low < n; low += width << 1) {
+                int mid = Math.min(low + width, n), high = Math.min(low + (width << 1), n);
+                int i = low, j = mid, k = low;
+                while (i < mid && j < high) {
+                    aux[k++] = less(distances, positions, index[j], index[i]) ? index[j++] : index[i++];
+                }
+                while (i < mid) {
+                    aux[k++] = index[i++];
+                }
+                while (j < high) {
+                    aux[k++] = index[j++];
+                }
+            }
+            swap = index;
+            index = aux;
+            aux = swap;
+        }
+        return index;
+    }
+
+    /**
+     * Checks if the item at the first index is strictly less than the one at
+     * the second index.
+     *
+     * @param distances the distances of the items
+     * @param positions the positions used for resolving ties (it may be null)
+     * @param i the first index
+     * @param j the second index
+     * @return <tt>true</tt> if the first item is less than the second one
+     */
+    private static boolean less(double[] distances, int[] positions, int i, int j) {
+        int cmp = Double.compare(distances[i], distances[j]);
+        return cmp < 0 || (cmp == 0 && positions != null && positions[i] < positions[j]);
+    }
+}
@@ -0,0 +1,370 @@
+package jmr.db;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.MediaDescriptor;
+
+/**
+ * Class representing a fusion of descriptor distances: the way the distances
+ * between the descriptors of two records are combined into the record
+ * distance. It is given to the {@link ListDB} queries, so the record distance
+ * can be changed for each query without changing the comparator of the
+ * records.
+ *
+ * A fusion is given by a type of aggregation and a (non-negative) weight for
+ * each descriptor. Being <code>d_i</code> the distance between the i-th
+ * descriptors and <code>w_i</code> its weight, the fused distance is:
+ * <ul>
+ * <li>{@link #TYPE_L1}: <code>sum(w_i * d_i)</code></li>
+ * <li>{@link #TYPE_L2}: <code>sqrt(sum(w_i * d_i^2))</code></li>
+ * <li>{@link #TYPE_MAX}: <code>max(w_i * d_i)</code></li>
+ * <li>{@link #TYPE_WEIGHTED_SUM}: <code>sum(w_i * d_i) / sum(w_i)</code></li>
+ * </ul>
+ * Descriptors with zero weight are not compared. The {@link #TYPE_L2} fusion
+ * with unit weights is the default record distance (see
+ * {@link DescriptorList.DefaultComparator}), and it gives the same values.
+ *
+ * Fusions are immutable, so they can be shared by several queries. The fused
+ * distance is calculated from the primitive descriptor distances, without
+ * allocating objects.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class Fusion {
+
+    /**
+     * Type of fusion based on the weighted sum of distances.
+     */
+    static public final int TYPE_L1 = 1;
+    /**
+     * Type of fusion based on the weighted Euclidean distance.
+     */
+    static public final int TYPE_L2 = 2;
+    /**
+     * Type of fusion based on the maximum weighted distance.
+     */
+    static public final int TYPE_MAX = 3;
+    /**
+     * Type of fusion based on the weighted mean of distances.
+     */
+    static public final int TYPE_WEIGHTED_SUM = 4;
+    /**
+     * The default fusion (the default record distance).
+     */
+    static public final Fusion DEFAULT = new Fusion(TYPE_L2);
+    /**
+     * The type of aggregation of this fusion.
+     */
+    private final int type;
+    /**
+     * The weight of each descriptor (<tt>null</tt> for unit weights).
+     */
+    private final double weights[];
+    /**
+     * The sum of the weights (if they are not unit weights).
+     */
+    private final double sum;
+
+    /**
+     * Constructs a new fusion.
+     *
+     * @param type the type of aggregation
+     * @param weights the weight of each descriptor (non-negative values). If
+     * no weight is given, unit weights are used.
+     */
+    public Fusion(int type, double... weights) {
+        switch (type) {
+            case TYPE_L1:
+            case TYPE_L2:
+            case TYPE_MAX:
+            case TYPE_WEIGHTED_SUM:
+                break;
+            default:
+                throw new InvalidParameterException("Invalid fusion type");
+        }
+        for (double weight : weights) {
+            if (!(weight >= 0.0) || Double.isInfinite(weight)) {
+                throw new InvalidParameterException("The weights must be non-negative finite values.");
+            }
+        }
+        this.type = type;
+        this.weights = weights.length > 0 ? weights.clone() : null;
+        double sum = 0.0;
+        for (double weight : weights) {
+            sum += weight;
+        }
+        this.sum = sum;
+    }
+
+    /**
+     * Returns the type of aggregation of this fusion.
+     *
+     * @return the type of aggregation
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the weight of the given descriptor.
+     *
+     * @param component the position of the descriptor
+     * @return the weight of the descriptor
+     */
+    public double getWeight(int component) {
+        return weights != null ? weights[component] : 1.0;
+    }
+
+    /**
+     * Checks that this fusion can be applied to records with the given number
+     * of descriptors.
+     *
+     * @param size the number of descriptors of the records
+     * @throws InvalidParameterException if the number of weights is not the
+     * number of descriptors, or if all the weights are zero
+     */
+    void check(int size) {
+        if (weights != null && weights.length != size) {
+            throw new InvalidParameterException("The number of weights must be " + size);
+        }
+        if (total(size) == 0.0) {
+            throw new InvalidParameterException("At least one weight must be positive.");
+        }
+    }
+
+    /**
+     * Returns the fused distance between the given records.
+     *
+     * @param t the first record
+     * @param u the second record
+     * @return the fused distance
+     */
+    public double distance(DescriptorList<?> t, DescriptorList<?> u) {
+        return distance(t, u, null, null, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns the fused distance between the given records, abandoning the
+     * calculation as soon as the partial distance exceeds the given bound
+     * (each descriptor is compared with the bound left by the previous ones,
+     * so the descriptors can abandon their calculation too).
+     *
+     * @param t the first record
+     * @param u the second record
+     * @param bound the upper bound of the distances of interest
+     * @return the fused distance if it is not greater than the bound, a
+     * partial distance greater than the bound in other case
+     */
+    public double distance(DescriptorList<?> t, DescriptorList<?> u, double bound) {
+        return distance(t, u, null, null, bound);
+    }
+
+    /**
+     * Returns the fused distance between the given records, abandoning the
+     * calculation as soon as the partial distance exceeds the given bound.
+     * The distances of some descriptors can be given, so they are not
+     * calculated again.
+     *
+     * @param t the first record
+     * @param u the second record
+     * @param known the descriptors whose distance is given (<tt>null</tt> if
+     * no distance is given)
+     * @param distances the given distances (only the positions of the known
+     * descriptors are used)
+     * @param bound the upper bound of the distances of interest
+     * @return the fused distance if it is not greater than the bound, a
+     * partial distance greater than the bound in other case
+     */
+    double distance(DescriptorList<?> t, DescriptorList<?> u, boolean known[], double distances[], double bound) {
+        int size = t.size();
+        double total = total(size), limit = limit(bound, total);
+        double weight, item_distance, item_bound, partial, accumulated = 0.0;
+        for (int c = 0; c < size; c++) {
+            weight = getWeight(c);
+            if (weight == 0.0) {
+                continue;
+            }
+            if (known != null && known[c]) {
+                item_distance = distances[c];
+            } else {
+                MediaDescriptor<?> descriptor = t.get(c);
+                item_bound = itemBound(limit, accumulated, weight);
+                item_distance = descriptor.distance(u.get(c), item_bound);
+                if (item_distance > item_bound) {
+                    partial = accumulate(accumulated, weight, item_distance);
+                    if (partial > limit && finish(partial, total) > bound) {
+                        return finish(partial, total);
+                    }
+                    // Rounding limit case: the item distance could be
+                    // partial, so it is calculated again
+                    item_distance = descriptor.distance(u.get(c));
+                }
+            }
+            partial = accumulate(accumulated, weight, item_distance);
+            if (partial > limit && finish(partial, total) > bound) {
+                return finish(partial, total);
+            }
+            accumulated = partial;
+        }
+        return finish(accumulated, total);
+    }
+
+    /**
+     * Returns the fusion of the given descriptor distances, calculated as for
+     * the records (in the same order, so the rounding is the same). Since the
+     * fusion is monotone, the fusion of lower bounds of the descriptor
+     * distances is a lower bound of the fused distance.
+     *
+     * @param distances the descriptor distances
+     * @return the fused distance
+     */
+    double fuse(double distances[]) {
+        double total = total(distances.length), accumulated = 0.0;
+        for (int c = 0; c < distances.length; c++) {
+            if (getWeight(c) != 0.0) {
+                accumulated = accumulate(accumulated, getWeight(c), distances[c]);
+            }
+        }
+        return finish(accumulated, total);
+    }
+
+    /**
+     * Returns the fusion of the given descriptor distances, after calculating
+     * the distance of the given descriptor (which is stored in the array of
+     * distances). As in {@link #distance(jmr.descriptor.DescriptorList, jmr.descriptor.DescriptorList, double)},
+     * the calculation is abandoned as soon as the partial distance exceeds the
+     * given bound.
+     *
+     * @param t the first descriptor
+     * @param u the second descriptor
+     * @param component the position of the descriptor
+     * @param distances the distances of the rest of descriptors (the distance
+     * of the given descriptor is stored at its position)
+     * @param bound the upper bound of the distances of interest
+     * @return the fusion of the distances if it is not greater than the bound,
+     * a value greater than the bound in other case (in such case, the stored
+     * distance may be partial)
+     */
+    double fuse(MediaDescriptor<?> t, MediaDescriptor<?> u, int component, double distances[], double bound) {
+        double weight = getWeight(component);
+        distances[component] = 0.0;
+        if (weight == 0.0) {
+            return fuse(distances);
+        }
+        double accumulated = 0.0;
+        for (int c = 0; c < distances.length; c++) {
+            if (getWeight(c) != 0.0) {
+                accumulated = accumulate(accumulated, getWeight(c), distances[c]);
+            }
+        }
+        double item_bound = itemBound(limit(bound, total(distances.length)), accumulated, weight);
+        distances[component] = t.distance(u, item_bound);
+        double output = fuse(distances);
+        if (distances[component] > item_bound && !(output > bound)) {
+            // Rounding limit case: the item distance could be partial, so it
+            // is calculated again
+            distances[component] = t.distance(u);
+            output = fuse(distances);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the sum of the weights of the given number of descriptors.
+     *
+     * @param size the number of descriptors
+     * @return the sum of the weights
+     */
+    private double total(int size) {
+        return weights != null ? sum : size;
+    }
+
+    /**
+     * Adds the given descriptor distance to the accumulated value.
+     *
+     * @param accumulated the accumulated value
+     * @param weight the weight of the descriptor
+     * @param distance the descriptor distance
+     * @return the new accumulated value
+     */
+    private double accumulate(double accumulated, double weight, double distance) {
+        switch (type) {
+            case TYPE_L2:
+                return accumulated + weight * (distance * distance);
+            case TYPE_MAX:
+                return Math.max(accumulated, weight * distance);
+            default:
+                return accumulated + weight * distance;
+        }
+    }
+
+    /**
+     * Returns the fused distance given the accumulated value.
+     *
+     * @param accumulated the accumulated value
+     * @param total the sum of the weights
+     * @return the fused distance
+     */
+    private double finish(double accumulated, double total) {
+        switch (type) {
+            case TYPE_L2:
+                return Math.sqrt(accumulated);
+            case TYPE_WEIGHTED_SUM:
+                return accumulated / total;
+            default:
+                return accumulated;
+        }
+    }
+
+    /**
+     * Returns the accumulated value corresponding to the given bound of the
+     * fused distance.
+     *
+     * @param bound the bound of the fused distance
+     * @param total the sum of the weights
+     * @return the bound of the accumulated value
+     */
+    private double limit(double bound, double total) {
+        switch (type) {
+            case TYPE_L2:
+                return bound * bound;
+            case TYPE_WEIGHTED_SUM:
+                return bound * total;
+            default:
+                return bound;
+        }
+    }
+
+    /**
+     * Returns the bound of a descriptor distance, given the bound of the
+     * accumulated value and the value accumulated by the previous descriptors.
+     *
+     * @param limit the bound of the accumulated value
+     * @param accumulated the accumulated value
+     * @param weight the weight of the descriptor
+     * @return the bound of the descriptor distance
+     */
+    private double itemBound(double limit, double accumulated, double weight) {
+        switch (type) {
+            case TYPE_L2:
+                return Math.sqrt(Math.max(0.0, limit - accumulated) / weight);
+            case TYPE_MAX:
+                return Math.max(0.0, limit) / weight;
+            default:
+                return Math.max(0.0, limit - accumulated) / weight;
+        }
+    }
+
+    /**
+     * Returns a string representation of this fusion.
+     *
+     * @return a string representation of this fusion
+     */
+    @Override
+    public String toString() {
+        String names[] = {"L1", "L2", "MAX", "WEIGHTED_SUM"};
+        return "Fusion: [type=" + names[type - 1] + ", weights="
+                + (weights != null ? Arrays.toString(weights) : "unit") + "]";
+    }
+}
@@ -0,0 +1,533 @@
+package jmr.db;
+
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import jmr.descriptor.VectorDescriptor;
+
+/**
+ * Class representing a locality-sensitive hashing (LSH) index over a vector
+ * descriptor of the records of a {@link ListDB} (see {@link VectorDescriptor}),
+ * used for the approximate nearest records queries.
+ *
+ * Since the distance between vector descriptors is the l1-norm, the hash
+ * functions are based on 1-stable (Cauchy) random projections (Datar et al.):
+ * being <code>a</code> a vector of independent Cauchy values and
+ * <code>b</code> a uniform value in <code>[0,w)</code>, the hash of a vector
+ * <code>v</code> is <code>floor((a·v + b) / w)</code>. The projection of the
+ * difference of two vectors follows a Cauchy distribution whose scale is
+ * their l1-norm, so near vectors get the same hash with higher probability
+ * than far ones. Each table combines several hashes into a key (the hash
+ * width), and each record is stored in the bucket of its key in every table.
+ *
+ * At query time, the candidate records are the ones sharing a bucket with the
+ * query in some table; only their distances are calculated (by means of the
+ * record comparator), and the nearest ones are returned. The result is
+ * approximate: a near record can be missed if it does not share any bucket
+ * with the query, and less than k records are returned if there are not
+ * enough candidates. More tables increase the recall (and the number of
+ * candidates); wider hashes and narrower buckets reduce the number of
+ * candidates (and the recall). The recall of a configuration can be measured
+ * by means of {@link ListDB#recallApproximate(java.util.List, int)}.
+ *
+ * The index is built by means of the
+ * {@link ListDB#createLSHIndex(int, int, int, double)} method, it is updated
+ * on each modification of the database and it is serialized together with it
+ * (the projections are generated from a fixed seed, so they are the same
+ * for equal configurations).
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LSHIndex<T> implements RecordIndex<T> {
+
+    private static final long serialVersionUID = -8597644532909185923L;
+
+    /**
+     * Seed of the random projections.
+     */
+    private static final long SEED = 0x5DEECE66DL;
+    /**
+     * Multiplier used for combining the hashes of a table into a key.
+     */
+    private static final long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /**
+     * The indexed database.
+     */
+    private final ListDB<T> database;
+    /**
+     * Position of the vector descriptor in the records.
+     */
+    private final int component;
+    /**
+     * The number of hash tables.
+     */
+    private final int numTables;
+    /**
+     * The number of hashes combined in the key of each table (hash width).
+     */
+    private final int numProjections;
+    /**
+     * The width of the buckets of each hash.
+     */
+    private final double bucketWidth;
+    /**
+     * The dimension of the vectors (-1 until the first vector is indexed).
+     */
+    private int dimension = -1;
+    /**
+     * The projection vectors of each table, one after another
+     * (<tt>null</tt> until the dimension is known).
+     */
+    private double projections[][] = null;
+    /**
+     * The offsets of the hashes of each table.
+     */
+    private double offsets[][] = null;
+    /**
+     * The buckets of each table, indexed by key.
+     */
+    private final ArrayList<HashMap<Long, Bucket>> tables;
+    /**
+     * The key of each record in each table (in the database order).
+     */
+    private final ArrayList<long[]> keys;
+    /**
+     * Number of queries solved by this index (since it was loaded).
+     */
+    private transient long queries = 0;
+    /**
+     * Number of candidate records examined by this index (since it was
+     * loaded).
+     */
+    private transient long candidates = 0;
+
+    /**
+     * Constructs a LSH index over the given database.
+     *
+     * @param database the database to be indexed
+     * @param component the position of the vector descriptor in the records
+     * @param numTables the number of hash tables
+     * @param numProjections the number of hashes combined in the key of each
+     * table
+     * @param bucketWidth the width of the buckets of each hash
+     */
+    LSHIndex(ListDB<T> database, int component, int numTables, int numProjections, double bucketWidth) {
+        if (numTables < 1 || numProjections < 1) {
+            throw new InvalidParameterException("At least one table and one projection are required.");
+        }
+        if (!(bucketWidth > 0.0) || Double.isInfinite(bucketWidth)) {
+            throw new InvalidParameterException("The bucket width must be a positive finite value.");
+        }
+        this.database = database;
+        this.component = component;
+        this.numTables = numTables;
+        this.numProjections = numProjections;
+        this.bucketWidth = bucketWidth;
+        this.tables = new ArrayList<>(numTables);
+        for (int t = 0; t < numTables; t++) {
+            tables.add(new HashMap<>());
+        }
+        this.keys = new ArrayList<>(database.size());
+        for (int i = 0; i < database.size(); i++) {
+            add(i, database.get(i));
+        }
+    }
+
+    /**
+     * Returns the position of the vector descriptor in the records.
+     *
+     * @return the position of the vector descriptor in the records
+     */
+    public int getComponent() {
+        return component;
+    }
+
+    /**
+     * Returns the number of hash tables of this index.
+     *
+     * @return the number of hash tables
+     */
+    public int getTableCount() {
+        return numTables;
+    }
+
+    /**
+     * Returns the number of hashes combined in the key of each table.
+     *
+     * @return the hash width
+     */
+    public int getProjectionCount() {
+        return numProjections;
+    }
+
+    /**
+     * Returns the width of the buckets of each hash.
+     *
+     * @return the bucket width
+     */
+    public double getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * Returns the mean number of buckets per table.
+     *
+     * @return the mean number of buckets per table
+     */
+    public double getBucketsPerTable() {
+        long buckets = 0;
+        for (HashMap<Long, Bucket> table : tables) {
+            buckets += table.size();
+        }
+        return (double) buckets / numTables;
+    }
+
+    /**
+     * Returns the mean number of candidate records (i.e., records whose
+     * distance was calculated) per query solved by this index.
+     *
+     * @return the mean number of candidates per query
+     */
+    public double getCandidatesPerQuery() {
+        return queries > 0 ? (double) candidates / queries : 0.0;
+    }
+
+    /**
+     * Returns the mean rate of candidate records in the queries solved by this
+     * index.
+     *
+     * @return the candidate rate, in [0,1]
+     */
+    public double getCandidateRate() {
+        return queries > 0 && !keys.isEmpty() ? (double) candidates / (queries * keys.size()) : 0.0;
+    }
+
+    /**
+     * Resets the query statistics of this index.
+     */
+    public void resetStatistics() {
+        queries = candidates = 0;
+    }
+
+    /**
+     * Returns a collector with the (approximate) nearest records to the given
+     * query: the nearest ones among the records sharing a bucket with the
+     * query in some table.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @return a collector with the positions and distances of the nearest
+     * candidate records
+     */
+    TopKCollector nearest(ListDB<T>.Record queryRecord, int k) {
+        TopKCollector collector = database.collector(k);
+        long queryKeys[] = keys(queryRecord);
+        if (queryKeys == null) {
+            return collector; // Empty index
+        }
+        BitSet found = new BitSet(keys.size());
+        for (int t = 0; t < numTables; t++) {
+            Bucket bucket = tables.get(t).get(queryKeys[t]);
+            if (bucket != null) {
+                for (int i = 0; i < bucket.size; i++) {
+                    found.set(bucket.positions[i]);
+                }
+            }
+        }
+        // The candidates are visited in the database order
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            collector.offer(queryRecord.distance(database.get(i), collector.bound()), i);
+        }
+        queries++;
+        candidates += found.cardinality();
+        return collector;
+    }
+
+    /**
+     * Returns the key of the given record in each table.
+     *
+     * @param record the record
+     * @return the keys of the record (<tt>null</tt> if the dimension of the
+     * vectors is not known yet)
+     * @throws InvalidParameterException if the vector descriptor of the
+     * record does not have the dimension of the indexed ones
+     */
+    private long[] keys(ListDB<T>.Record record) {
+        if (dimension < 0) {
+            return null;
+        }
+        double vector[] = ((VectorDescriptor) record.get(component)).getVector();
+        if (vector.length != dimension) {
+            throw new InvalidParameterException("The vector dimension must be " + dimension);
+        }
+        long output[] = new long[numTables];
+        double dot;
+        for (int t = 0; t < numTables; t++) {
+            double projection[] = projections[t];
+            long key = 0;
+            for (int j = 0, p = 0; j < numProjections; j++) {
+                dot = offsets[t][j];
+                for (int d = 0; d < dimension; d++, p++) {
+                    dot += projection[p] * vector[d];
+                }
+                key = key * KEY_MULTIPLIER + (long) Math.floor(dot / bucketWidth);
+            }
+            output[t] = key;
+        }
+        return output;
+    }
+
+    /**
+     * Generates the random projections for vectors of the given dimension. The
+     * components of the projection vectors follow a standard Cauchy
+     * distribution, and the offsets are uniform in [0,w).
+     *
+     * @param dimension the dimension of the vectors
+     */
+    private void project(int dimension) {
+        Random random = new Random(SEED);
+        this.dimension = dimension;
+        projections = new double[numTables][numProjections * dimension];
+        offsets = new double[numTables][numProjections];
+        for (int t = 0; t < numTables; t++) {
+            for (int p = 0; p < projections[t].length; p++) {
+                projections[t][p] = Math.tan(Math.PI * (random.nextDouble() - 0.5));
+            }
+            for (int j = 0; j < numProjections; j++) {
+                offsets[t][j] = random.nextDouble() * bucketWidth;
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the given record to be indexed, generating the
+     * projections if it is the first indexed vector.
+     *
+     * @param record the record
+     * @return the keys of the record
+     */
+    private long[] entry(ListDB<T>.Record record) {
+        if (dimension < 0) {
+            project(((VectorDescriptor) record.get(component)).getDimension());
+        }
+        return keys(record);
+    }
+
+    /**
+     * Adds the new record to its bucket of each table.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    @Override
+    public void add(int index, ListDB<T>.Record record) {
+        long entry[] = entry(record);
+        if (index < keys.size()) {
+            shift(index, 1);
+        }
+        keys.add(index, entry);
+        insert(index, entry);
+    }
+
+    /**
+     * Moves the replaced record to the buckets of the new one.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    @Override
+    public void set(int index, ListDB<T>.Record record) {
+        long entry[] = entry(record);
+        delete(index, keys.get(index));
+        keys.set(index, entry);
+        insert(index, entry);
+    }
+
+    /**
+     * Removes the removed record from its buckets.
+     *
+     * @param index the position of the removed record
+     */
+    @Override
+    public void remove(int index) {
+        delete(index, keys.remove(index));
+        if (index < keys.size()) {
+            shift(index, -1);
+        }
+    }
+
+    /**
+     * Removes the removed records from their buckets and renumbers the rest
+     * of records in a single pass over the buckets.
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    @Override
+    public void compact(int map[]) {
+        for (HashMap<Long, Bucket> table : tables) {
+            Iterator<Bucket> iterator = table.values().iterator();
+            while (iterator.hasNext()) {
+                Bucket bucket = iterator.next();
+                int size = 0;
+                for (int i = 0; i < bucket.size; i++) {
+                    if (map[bucket.positions[i]] >= 0) {
+                        bucket.positions[size++] = map[bucket.positions[i]];
+                    }
+                }
+                bucket.size = size;
+                if (size == 0) {
+                    iterator.remove();
+                }
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] >= 0) {
+                keys.set(count++, keys.get(i));
+            }
+        }
+        keys.subList(count, keys.size()).clear();
+    }
+
+    /**
+     * Removes all the buckets of the index (the projections are kept).
+     */
+    @Override
+    public void clear() {
+        for (HashMap<Long, Bucket> table : tables) {
+            table.clear();
+        }
+        keys.clear();
+    }
+
+    /**
+     * Inserts the given record in its buckets.
+     *
+     * @param index the position of the record
+     * @param entry the keys of the record
+     */
+    private void insert(int index, long entry[]) {
+        for (int t = 0; t < numTables; t++) {
+            tables.get(t).computeIfAbsent(entry[t], key -> new Bucket()).insert(index);
+        }
+    }
+
+    /**
+     * Deletes the given record from its buckets.
+     *
+     * @param index the position of the record
+     * @param entry the keys of the record
+     */
+    private void delete(int index, long entry[]) {
+        for (int t = 0; t < numTables; t++) {
+            Bucket bucket = tables.get(t).get(entry[t]);
+            bucket.delete(index);
+            if (bucket.size == 0) {
+                tables.get(t).remove(entry[t]);
+            }
+        }
+    }
+
+    /**
+     * Shifts the positions greater than or equal to the given one.
+     *
+     * @param index the first position to be shifted
+     * @param offset the offset
+     */
+    private void shift(int index, int offset) {
+        for (HashMap<Long, Bucket> table : tables) {
+            for (Bucket bucket : table.values()) {
+                for (int i = bucket.search(index); i < bucket.size; i++) {
+                    bucket.positions[i] += offset;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of this index, including its query
+     * statistics.
+     *
+     * @return a string representation of this index
+     */
+    @Override
+    public String toString() {
+        return "LSHIndex: [tables=" + numTables + ", projections=" + numProjections
+                + ", bucket width=" + bucketWidth + ", records=" + keys.size()
+                + ", buckets per table=" + getBucketsPerTable() + ", queries=" + queries
+                + ", candidates per query=" + getCandidatesPerQuery() + "]";
+    }
+
+    /**
+     * Inner class representing a bucket of a hash table: the positions of the
+     * records stored in it (in ascending order).
+     */
+    private static class Bucket implements Serializable {
+
+        private static final long serialVersionUID = 3006084515618760462L;
+
+        /**
+         * The positions of the records.
+         */
+        int positions[] = new int[2];
+        /**
+         * The number of records.
+         */
+        int size = 0;
+
+        /**
+         * Returns the first record whose position is greater than or equal to
+         * the given position.
+         *
+         * @param position the position
+         * @return the index of the record (<code>size</code> if there is not)
+         */
+        int search(int position) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions[mid] < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Inserts a record, keeping the ascending order of positions.
+         *
+         * @param position the position of the record
+         */
+        void insert(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            int i = search(position);
+            System.arraycopy(positions, i, positions, i + 1, size - i);
+            positions[i] = position;
+            size++;
+        }
+
+        /**
+         * Deletes the record of the given position (if any).
+         *
+         * @param position the position of the record
+         */
+        void delete(int position) {
+            int i = search(position);
+            if (i < size && positions[i] == position) {
+                System.arraycopy(positions, i + 1, positions, i, size - i - 1);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,942 @@
+package jmr.db;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.label.LabelDescriptor;
+import jmr.descriptor.label.LabelDictionary;
+
+/**
+ * Class representing an inverted index over the labels of a {@link ListDB}
+ * whose records include a {@link LabelDescriptor}.
+ *
+ * For each label, the index stores a posting list with the positions of the
+ * records containing it (in ascending order) together with the weight of
+ * the label in each record (the weight of its first occurrence, as used by
+ * the weighted comparators). Labels are compared ignoring case, as in the
+ * {@link LabelDescriptor} comparators.
+ *
+ * Given a query, the index returns the candidate records, i.e. the records
+ * whose label distance to the query may be finite; the rest of records are
+ * at infinite distance, so their distance is not calculated. The candidates
+ * are obtained by intersecting (or merging) the posting lists of the query
+ * labels, depending on the comparator of the query label descriptor:
+ * {@link LabelDescriptor.InclusionComparator},
+ * {@link LabelDescriptor.EqualComparator},
+ * {@link LabelDescriptor.SoftEqualComparator} and
+ * {@link LabelDescriptor.WeightBasedComparator} are supported. Queries using
+ * other comparators are solved without the index.
+ * 
+ * Top-k queries using a {@link LabelDescriptor.WeightBasedComparator} are
+ * solved by means of the threshold algorithm: the posting list of each query
+ * label is also sorted by weight, so the records are visited in ascending
+ * order of label distance (from the weight of the label in the query), and
+ * the scan stops as soon as the aggregation of these label distances (a lower
+ * bound of the distance of any record not visited yet) exceeds the distance
+ * of the current k-th nearest record.
+ *
+ * The index is built by means of the {@link ListDB#createLabelIndex()}
+ * method, it is updated on each modification of the database and it is
+ * serialized together with it.
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LabelIndex<T> implements RecordIndex<T> {
+
+    private static final long serialVersionUID = 443033924305524612L;
+
+    /**
+     * The indexed database.
+     */
+    private final ListDB<T> database;
+    /**
+     * Position of the label descriptor in the records.
+     */
+    private final int component;
+    /**
+     * Posting list of each label (indexed by its case-folded form).
+     */
+    private final HashMap<String, Postings> postings;
+    /**
+     * Labels of each record (in the database order).
+     */
+    private final ArrayList<Entry> entries;
+    /**
+     * Number of queries solved by this index (since it was loaded).
+     */
+    private transient long queries = 0;
+    /**
+     * Number of candidate records returned by this index (since it was
+     * loaded).
+     */
+    private transient long candidates = 0;
+
+    /**
+     * Constructs a label index over the given database.
+     *
+     * @param database the database to be indexed
+     * @param component the position of the label descriptor in the records
+     */
+    LabelIndex(ListDB<T> database, int component) {
+        this.database = database;
+        this.component = component;
+        this.postings = new HashMap<>();
+        this.entries = new ArrayList<>(database.size());
+        for (int i = 0; i < database.size(); i++) {
+            add(i, database.get(i));
+        }
+    }
+
+    /**
+     * Returns the position of the label descriptor in the records.
+     *
+     * @return the position of the label descriptor in the records
+     */
+    public int getComponent() {
+        return component;
+    }
+
+    /**
+     * Returns the number of different labels (ignoring case) in the database.
+     *
+     * @return the number of different labels
+     */
+    public int getLabelCount() {
+        return postings.size();
+    }
+
+    /**
+     * Returns the number of records containing the given label (ignoring
+     * case).
+     *
+     * @param label the label
+     * @return the number of records containing the label
+     */
+    public int getFrequency(String label) {
+        Postings list = postings.get(LabelDictionary.fold(label));
+        return list != null ? list.size : 0;
+    }
+
+    /**
+     * Returns the mean rate of candidate records (i.e., records whose distance
+     * was calculated) in the queries solved by this index.
+     *
+     * @return the candidate rate, in [0,1]
+     */
+    public double getCandidateRate() {
+        return queries > 0 && !entries.isEmpty() ? (double) candidates / (queries * entries.size()) : 0.0;
+    }
+
+    /**
+     * Resets the query statistics of this index.
+     */
+    public void resetStatistics() {
+        queries = candidates = 0;
+    }
+
+    /**
+     * Returns the positions (in ascending order) of the records whose label
+     * distance to the given query may be finite. The distance to the rest of
+     * records is infinite, given the comparator of the query label
+     * descriptor.
+     *
+     * @param queryRecord the query record
+     * @return the positions of the candidate records, or <tt>null</tt> if the
+     * query cannot be solved by this index (the record comparator is not the
+     * default one, or the label comparator is not supported)
+     */
+    int[] candidates(ListDB<T>.Record queryRecord) {
+        LabelDescriptor<?> query = query(queryRecord);
+        int output[] = query != null ? candidates(query) : null;
+        if (output != null) {
+            queries++;
+            candidates += output.length;
+        }
+        return output;
+    }
+
+    /**
+     * Returns the positions (in ascending order) of the records whose label
+     * distance to the given query label descriptor may be finite.
+     *
+     * @param query the query label descriptor
+     * @return the positions of the candidate records, or <tt>null</tt> if the
+     * label comparator is not supported
+     */
+    private int[] candidates(LabelDescriptor<?> query) {
+        Object comparator = query.getComparator();
+        String keys[] = keys(query);
+        if (comparator.getClass() == LabelDescriptor.InclusionComparator.class) {
+            return including(keys);
+        } else if (comparator.getClass() == LabelDescriptor.EqualComparator.class) {
+            return equal(keys, query.size());
+        } else if (comparator.getClass() == LabelDescriptor.SoftEqualComparator.class) {
+            return union(including(keys), included(keys));
+        } else if (comparator.getClass() == LabelDescriptor.WeightBasedComparator.class) {
+            if (((LabelDescriptor.WeightBasedComparator) comparator).isOnlyInclusion()) {
+                return including(keys);
+            } else {
+                return sized(including(keys), query.size());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a collector with the nearest records to the given query. Only
+     * the distances of the candidate records (see
+     * {@link #candidates(jmr.db.ListDB.Record)}) are calculated; the rest of
+     * records are at infinite distance, so they are collected, in the
+     * database order, only if there are not enough candidates at finite
+     * distance.
+     *
+     * If the query label descriptor is weighted and uses a
+     * {@link LabelDescriptor.WeightBasedComparator}, and there are more than
+     * <code>k</code> candidates, the candidates are visited by means of the
+     * threshold algorithm (see
+     * {@link #threshold(jmr.db.ListDB.Record, jmr.descriptor.label.LabelDescriptor, int[], jmr.db.TopKCollector)}),
+     * so most of their distances are not calculated.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @return a collector with the positions and distances of the nearest
+     * records (the same that the ones obtained by a full scan), or
+     * <tt>null</tt> if the query cannot be solved by this index
+     */
+    TopKCollector nearest(ListDB<T>.Record queryRecord, int k) {
+        LabelDescriptor<?> query = query(queryRecord);
+        int positions[] = query != null ? candidates(query) : null;
+        if (positions == null) {
+            return null;
+        }
+        TopKCollector collector = database.collector(k);
+        int visited = positions.length;
+        if (positions.length <= k || (visited = threshold(queryRecord, query, positions, collector)) < 0) {
+            visited = positions.length;
+            for (int i : positions) {
+                collector.offer(queryRecord.distance(database.get(i), collector.bound()), i);
+            }
+        }
+        // The rest of records are at infinite distance
+        for (int i = 0, c = 0; i < entries.size() && collector.bound() == Double.POSITIVE_INFINITY; i++) {
+            if (c < positions.length && positions[c] == i) {
+                c++;
+            } else {
+                collector.offer(Double.POSITIVE_INFINITY, i);
+            }
+        }
+        queries++;
+        candidates += visited;
+        return collector;
+    }
+
+    /**
+     * Collects the nearest candidate records to the given query by means of
+     * the threshold algorithm, if the query label descriptor is weighted and
+     * uses a {@link LabelDescriptor.WeightBasedComparator}.
+     *
+     * Each query label is associated to a stream returning the records with
+     * that label in ascending order of label distance, i.e., the difference
+     * between the weight of the label in the record and in the query. The
+     * streams are consumed in turn, and the distance of each candidate is
+     * calculated the first time it is returned. The next label distance of
+     * each stream is a lower bound of the label distance of the records not
+     * returned yet, so their aggregation is a lower bound of the distance of
+     * any candidate not visited yet; the scan stops as soon as it is greater
+     * than the distance of the current k-th nearest record, or when all the
+     * candidates have been visited.
+     *
+     * @param queryRecord the query record
+     * @param query the query label descriptor
+     * @param positions the positions of the candidate records
+     * @param collector the collector of the nearest records
+     * @return the number of visited candidates, or -1 if the query cannot be
+     * solved in this way (in such case, the collector is not modified)
+     */
+    private int threshold(ListDB<T>.Record queryRecord, LabelDescriptor<?> query, int positions[], TopKCollector collector) {
+        if (query.isEmpty() || !query.isWeighted()
+                || query.getComparator().getClass() != LabelDescriptor.WeightBasedComparator.class) {
+            return -1;
+        }
+        Stream streams[] = new Stream[query.size()];
+        for (int i = 0; i < streams.length; i++) {
+            Ranking ranking = postings.get(LabelDictionary.fold(query.getLabel(i))).ranking();
+            double weight = query.getWeight(i);
+            if (Double.isNaN(weight) || Double.isNaN(ranking.weights[ranking.size - 1])) {
+                return -1; // Unweighted labels are not comparable
+            }
+            streams[i] = new Stream(ranking, weight);
+        }
+        int type = ((LabelDescriptor.WeightBasedComparator) query.getComparator()).getType();
+        BitSet pending = new BitSet(entries.size());
+        for (int i : positions) {
+            pending.set(i);
+        }
+        double frontier[] = new double[streams.length], bound;
+        int remaining = positions.length, position;
+        while (remaining > 0) {
+            // Every candidate is in every stream, so no stream is exhausted 
+            // while there are pending candidates
+            for (int i = 0; i < streams.length && remaining > 0; i++) {
+                position = streams[i].next();
+                if (pending.get(position)) {
+                    pending.clear(position);
+                    remaining--;
+                    collector.offer(queryRecord.distance(database.get(position), collector.bound()), position);
+                }
+                frontier[i] = streams[i].frontier();
+            }
+            // Lower bound of the label distance of the records not visited
+            // yet, which is also a lower bound of their record distance (the
+            // label distance is one of the terms of the Euclidean fusion of
+            // the default record comparator, see query())
+            bound = aggregate(frontier, type);
+            if (bound > collector.bound()) {
+                break;
+            }
+        }
+        return positions.length - remaining;
+    }
+
+    /**
+     * Returns the label descriptor of the given query record, if the query
+     * can be solved by this index (the record comparator is the default one
+     * and the label descriptor has a comparator).
+     *
+     * @param queryRecord the query record
+     * @return the label descriptor of the query, or <tt>null</tt> if the query
+     * cannot be solved by this index
+     */
+    private LabelDescriptor<?> query(ListDB<T>.Record queryRecord) {
+        if (queryRecord.getComparator() == null
+                || queryRecord.getComparator().getClass() != DescriptorList.DefaultComparator.class) {
+            return null;
+        }
+        MediaDescriptor<?> descriptor = queryRecord.get(component);
+        if (!(descriptor instanceof LabelDescriptor) || ((LabelDescriptor<?>) descriptor).getComparator() == null) {
+            return null;
+        }
+        return (LabelDescriptor<?>) descriptor;
+    }
+
+    /**
+     * Aggregates the given label distances as the weight-based comparator
+     * does (in the same order, so the rounding is the same).
+     *
+     * @param distances the label distances
+     * @param type the type of distance aggregation (see
+     * {@link LabelDescriptor.WeightBasedComparator})
+     * @return the aggregated distance
+     */
+    private static double aggregate(double distances[], int type) {
+        double output = 0.0, distance;
+        for (int i = 0; i < distances.length; i++) {
+            distance = distances[i];
+            if (type == LabelDescriptor.WeightBasedComparator.TYPE_EUCLIDEAN) {
+                distance *= distance;
+            }
+            if (i == 0) {
+                output = distance;
+            } else if (type == LabelDescriptor.WeightBasedComparator.TYPE_MAX) {
+                output = Math.max(output, distance);
+            } else if (type == LabelDescriptor.WeightBasedComparator.TYPE_MIN) {
+                output = Math.min(output, distance);
+            } else {
+                output += distance;
+            }
+        }
+        if (type == LabelDescriptor.WeightBasedComparator.TYPE_MEAN) {
+            return output / distances.length;
+        }
+        if (type == LabelDescriptor.WeightBasedComparator.TYPE_EUCLIDEAN) {
+            return Math.sqrt(output);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the positions of the records including all the given labels
+     * (by intersecting their posting lists, from the shortest one).
+     *
+     * @param keys the case-folded labels
+     * @return the positions of the records including the labels
+     */
+    private int[] including(String keys[]) {
+        if (keys.length == 0) {
+            int output[] = new int[entries.size()];
+            for (int i = 0; i < output.length; i++) {
+                output[i] = i;
+            }
+            return output;
+        }
+        Postings lists[] = new Postings[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = postings.get(keys[i]);
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, (l1, l2) -> Integer.compare(l1.size, l2.size));
+        int output[] = Arrays.copyOf(lists[0].positions, lists[0].size), size = output.length;
+        for (int l = 1; l < lists.length && size > 0; l++) {
+            int next = 0, j = 0;
+            for (int i = 0; i < size; i++) {
+                j = lists[l].search(output[i], j);
+                if (j < lists[l].size && lists[l].positions[j] == output[i]) {
+                    output[next++] = output[i];
+                }
+            }
+            size = next;
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    /**
+     * Returns the positions of the records whose labels are all included in
+     * the given ones (including the records without labels).
+     *
+     * @param keys the case-folded labels
+     * @return the positions of the records included in the labels
+     */
+    private int[] included(String keys[]) {
+        // Number of query labels found in each record
+        HashMap<Integer, Integer> found = new HashMap<>();
+        for (String key : keys) {
+            Postings list = postings.get(key);
+            for (int i = 0; list != null && i < list.size; i++) {
+                found.merge(list.positions[i], 1, Integer::sum);
+            }
+        }
+        int output[] = new int[entries.size()], size = 0;
+        for (int i = 0; i < output.length; i++) {
+            if (entries.get(i).keys.length == found.getOrDefault(i, 0)) {
+                output[size++] = i;
+            }
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    /**
+     * Returns the positions of the records with the same labels (ignoring case
+     * and position) than the given ones and the given number of labels.
+     *
+     * @param keys the case-folded labels
+     * @param size the number of labels (with repetitions)
+     * @return the positions of the records with the same labels
+     */
+    private int[] equal(String keys[], int size) {
+        int output[] = sized(including(keys), size), next = 0;
+        for (int i : output) {
+            if (entries.get(i).keys.length == keys.length) {
+                output[next++] = i;
+            }
+        }
+        return Arrays.copyOf(output, next);
+    }
+
+    /**
+     * Returns the given positions whose records have the given number of
+     * labels (with repetitions).
+     *
+     * @param positions the positions of the records
+     * @param size the number of labels
+     * @return the positions of the records with that number of labels
+     */
+    private int[] sized(int positions[], int size) {
+        int next = 0;
+        for (int i : positions) {
+            if (entries.get(i).size == size) {
+                positions[next++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, next);
+    }
+
+    /**
+     * Returns the union of the given sorted positions (sorted, without
+     * repetitions).
+     *
+     * @param p1 the first positions
+     * @param p2 the second positions
+     * @return the union of the positions
+     */
+    private static int[] union(int p1[], int p2[]) {
+        int output[] = new int[p1.length + p2.length], i = 0, j = 0, size = 0;
+        while (i < p1.length || j < p2.length) {
+            if (j == p2.length || (i < p1.length && p1[i] < p2[j])) {
+                output[size++] = p1[i++];
+            } else if (i == p1.length || p2[j] < p1[i]) {
+                output[size++] = p2[j++];
+            } else {
+                output[size++] = p1[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    /**
+     * Returns the different case-folded labels of the given descriptor (in
+     * order of first occurrence).
+     *
+     * @param descriptor the label descriptor
+     * @return the different case-folded labels
+     */
+    private static String[] keys(LabelDescriptor<?> descriptor) {
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        for (int i = 0; i < descriptor.size(); i++) {
+            keys.add(LabelDictionary.fold(descriptor.getLabel(i)));
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Returns the entry associated to the given record.
+     *
+     * @param record the record
+     * @return the entry of the record
+     */
+    private Entry entry(ListDB<T>.Record record) {
+        MediaDescriptor<?> descriptor = record.get(component);
+        if (!(descriptor instanceof LabelDescriptor)) {
+            return new Entry(new String[0], new double[0], 0);
+        }
+        LabelDescriptor<?> labels = (LabelDescriptor<?>) descriptor;
+        String keys[] = keys(labels);
+        double weights[] = new double[keys.length];
+        for (int k = 0, i = 0; i < labels.size() && k < keys.length; i++) {
+            if (LabelDictionary.fold(labels.getLabel(i)).equals(keys[k])) {
+                Double weight = labels.getWeight(i);
+                weights[k++] = weight != null ? weight : Double.NaN;
+            }
+        }
+        return new Entry(keys, weights, labels.size());
+    }
+
+    /**
+     * Adds the postings of the new record to the index.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    @Override
+    public void add(int index, ListDB<T>.Record record) {
+        if (index < entries.size()) {
+            shift(index, 1);
+        }
+        Entry entry = entry(record);
+        entries.add(index, entry);
+        insert(index, entry);
+    }
+
+    /**
+     * Replaces the postings of the replaced record.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    @Override
+    public void set(int index, ListDB<T>.Record record) {
+        delete(index, entries.get(index));
+        Entry entry = entry(record);
+        entries.set(index, entry);
+        insert(index, entry);
+    }
+
+    /**
+     * Removes the postings of the removed record from the index.
+     *
+     * @param index the position of the removed record
+     */
+    @Override
+    public void remove(int index) {
+        delete(index, entries.remove(index));
+        if (index < entries.size()) {
+            shift(index, -1);
+        }
+    }
+
+    /**
+     * Removes the postings of the removed records and renumbers the rest of
+     * records in a single pass over the postings.
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    @Override
+    public void compact(int map[]) {
+        Iterator<Postings> iterator = postings.values().iterator();
+        while (iterator.hasNext()) {
+            Postings list = iterator.next();
+            int size = 0;
+            for (int i = 0; i < list.size; i++) {
+                if (map[list.positions[i]] >= 0) {
+                    list.positions[size] = map[list.positions[i]];
+                    list.weights[size++] = list.weights[i];
+                }
+            }
+            list.size = size;
+            list.ranking = null;
+            if (size == 0) {
+                iterator.remove();
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] >= 0) {
+                entries.set(count++, entries.get(i));
+            }
+        }
+        entries.subList(count, entries.size()).clear();
+    }
+
+    /**
+     * Removes all the postings of the index.
+     */
+    @Override
+    public void clear() {
+        postings.clear();
+        entries.clear();
+    }
+
+    /**
+     * Inserts the postings of the given record.
+     *
+     * @param index the position of the record
+     * @param entry the entry of the record
+     */
+    private void insert(int index, Entry entry) {
+        for (int k = 0; k < entry.keys.length; k++) {
+            postings.computeIfAbsent(entry.keys[k], key -> new Postings()).insert(index, entry.weights[k]);
+        }
+    }
+
+    /**
+     * Deletes the postings of the given record.
+     *
+     * @param index the position of the record
+     * @param entry the entry of the record
+     */
+    private void delete(int index, Entry entry) {
+        for (String key : entry.keys) {
+            Postings list = postings.get(key);
+            list.delete(index);
+            if (list.size == 0) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Shifts the positions greater than or equal to the given one.
+     *
+     * @param index the first position to be shifted
+     * @param offset the offset
+     */
+    private void shift(int index, int offset) {
+        for (Postings list : postings.values()) {
+            for (int i = list.search(index, 0); i < list.size; i++) {
+                list.positions[i] += offset;
+            }
+            list.ranking = null;
+        }
+    }
+
+    /**
+     * Returns a string representation of this index, including its query
+     * statistics.
+     *
+     * @return a string representation of this index
+     */
+    @Override
+    public String toString() {
+        return "LabelIndex: [labels=" + postings.size() + ", records=" + entries.size()
+                + ", queries=" + queries + ", candidate rate=" + getCandidateRate() + "]";
+    }
+
+    /**
+     * Inner class representing the labels of a record.
+     */
+    private static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 5790488914222227826L;
+
+        /**
+         * The different case-folded labels of the record.
+         */
+        final String keys[];
+        /**
+         * The weight of the first occurrence of each label (NaN if the record
+         * is not weighted).
+         */
+        final double weights[];
+        /**
+         * The number of labels of the record (with repetitions).
+         */
+        final int size;
+
+        /**
+         * Constructs a new entry.
+         *
+         * @param keys the different case-folded labels of the record
+         * @param weights the weight of each label
+         * @param size the number of labels of the record
+         */
+        Entry(String keys[], double weights[], int size) {
+            this.keys = keys;
+            this.weights = weights;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Inner class representing the posting list of a label: the positions of
+     * the records containing it (in ascending order) and the weight of the
+     * label in each record.
+     */
+    private static class Postings implements Serializable {
+
+        private static final long serialVersionUID = 8383028935999296639L;
+
+        /**
+         * The positions of the records.
+         */
+        int positions[] = new int[4];
+        /**
+         * The weight of the label in each record.
+         */
+        double weights[] = new double[4];
+        /**
+         * The number of postings.
+         */
+        int size = 0;
+        /**
+         * The postings sorted by weight (<tt>null</tt> if they have not been
+         * sorted since the last modification).
+         */
+        transient volatile Ranking ranking = null;
+
+        /**
+         * Returns the postings sorted by weight, sorting them if they have been
+         * modified.
+         *
+         * @return the postings sorted by weight
+         */
+        Ranking ranking() {
+            Ranking output = ranking;
+            if (output == null) {
+                synchronized (this) {
+                    if (ranking == null) {
+                        ranking = new Ranking(this);
+                    }
+                    output = ranking;
+                }
+            }
+            return output;
+        }
+
+        /**
+         * Returns the first posting (from the given one) whose position is
+         * greater than or equal to the given position.
+         *
+         * @param position the position
+         * @param from the first posting to be considered
+         * @return the index of the posting (<code>size</code> if there is not)
+         */
+        int search(int position, int from) {
+            int low = from, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions[mid] < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Inserts a posting, keeping the ascending order of positions.
+         *
+         * @param position the position of the record
+         * @param weight the weight of the label in the record
+         */
+        void insert(int position, double weight) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            int i = search(position, 0);
+            System.arraycopy(positions, i, positions, i + 1, size - i);
+            System.arraycopy(weights, i, weights, i + 1, size - i);
+            positions[i] = position;
+            weights[i] = weight;
+            size++;
+            ranking = null;
+        }
+
+        /**
+         * Deletes the posting of the given position (if any).
+         *
+         * @param position the position of the record
+         */
+        void delete(int position) {
+            int i = search(position, 0);
+            if (i < size && positions[i] == position) {
+                System.arraycopy(positions, i + 1, positions, i, size - i - 1);
+                System.arraycopy(weights, i + 1, weights, i, size - i - 1);
+                size--;
+                ranking = null;
+            }
+        }
+    }
+
+    /**
+     * Inner class representing the postings of a label sorted in ascending
+     * order of weight (ties are resolved by position, and unweighted postings
+     * are placed at the end).
+     */
+    private static class Ranking {
+
+        /**
+         * The positions of the records.
+         */
+        final int positions[];
+        /**
+         * The weight of the label in each record.
+         */
+        final double weights[];
+        /**
+         * The number of postings.
+         */
+        final int size;
+
+        /**
+         * Constructs the ranking of the given postings.
+         *
+         * @param list the postings
+         */
+        Ranking(Postings list) {
+            int order[] = DistanceOrder.sort(list.weights, null, list.size);
+            size = list.size;
+            positions = new int[size];
+            weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = list.positions[order[i]];
+                weights[i] = list.weights[order[i]];
+            }
+        }
+
+        /**
+         * Returns the first posting whose weight is greater than or equal to
+         * the given one.
+         *
+         * @param weight the weight
+         * @return the index of the posting (<code>size</code> if there is not)
+         */
+        int search(double weight) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (weights[mid] < weight) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Inner class representing a stream of the postings of a label in
+     * ascending order of label distance, i.e. of the difference between their
+     * weight and a given one (starting from the nearest postings and moving 
+     * outwards on both sides).
+     */
+    private static class Stream {
+
+        /**
+         * The postings sorted by weight.
+         */
+        final Ranking ranking;
+        /**
+         * The weight of the label in the query.
+         */
+        final double weight;
+        /**
+         * The next posting at the left side (-1 if there is not).
+         */
+        int low;
+        /**
+         * The next posting at the right side (<code>size</code> if there is
+         * not).
+         */
+        int high;
+
+        /**
+         * Constructs a new stream.
+         *
+         * @param ranking the postings sorted by weight
+         * @param weight the weight of the label in the query
+         */
+        Stream(Ranking ranking, double weight) {
+            this.ranking = ranking;
+            this.weight = weight;
+            this.high = ranking.search(weight);
+            this.low = high - 1;
+        }
+
+        /**
+         * Returns the position of the next record of this stream.
+         *
+         * @return the position of the next record, -1 if the stream is
+         * exhausted
+         */
+        int next() {
+            if (low < 0 && high == ranking.size) {
+                return -1;
+            }
+            if (high == ranking.size || (low >= 0 && distance(low) <= distance(high))) {
+                return ranking.positions[low--];
+            }
+            return ranking.positions[high++];
+        }
+
+        /**
+         * Returns the label distance of the next record of this stream, a lower
+         * bound of the label distance of the records not returned yet.
+         *
+         * @return the label distance of the next record,
+         * <code>Double.POSITIVE_INFINITY</code> if the stream is exhausted
+         */
+        double frontier() {
+            double output = Double.POSITIVE_INFINITY;
+            if (low >= 0) {
+                output = distance(low);
+            }
+            if (high < ranking.size) {
+                output = Math.min(output, distance(high));
+            }
+            return output;
+        }
+
+        /**
+         * Returns the label distance of the given posting.
+         *
+         * @param i the index of the posting
+         * @return the label distance of the posting
+         */
+        private double distance(int i) {
+            return Math.abs(weight - ranking.weights[i]);
+        }
+    }
+}
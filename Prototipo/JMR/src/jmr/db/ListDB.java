@@ -9,29 +9,63 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import jmr.descriptor.DescriptorList;
+import jmr.descriptor.ExtractionContext;
 import jmr.descriptor.MediaDescriptor;
 import jmr.descriptor.MediaDescriptorFactory;
+import jmr.descriptor.VectorDescriptor;
+import jmr.descriptor.label.LabelDescriptor;
 import jmr.result.ResultMetadata;
 
 /**
  * Class representing a database stored as a list of descriptors in the main 
  * memory.
  *
+ * Besides its position, each record has a stable id, assigned when it is
+ * inserted (see {@link #getId(int)}). The records can be deleted by id (see
+ * {@link #delete(long)}): the deletion is logical (the record is marked in a
+ * tombstone set, and it is ignored by the queries and the indexes), so the
+ * positions of the rest of records do not change until the database is 
+ * compacted (see {@link #compact()}). The compaction is never done 
+ * automatically, since it changes the positions of the records: the ids are
+ * the only references to the records that remain valid after it.
+ *
  * @param <T> the media type of this database
  *
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
 
  */
 public class ListDB<T> implements Serializable{
+    /**
+     * Version of the serialized form of this class, fixed to the one computed
+     * for its first version, so the files saved by any version can be read
+     * (the fields added later take their default value, see 
+     * {@link #readObject(java.io.ObjectInputStream)}).
+     */
+    private static final long serialVersionUID = 3055840421807858780L;
+
     /**
      * List of database records
      */
-    private ArrayList<Record> database = null;
+    private List<Record> database = null;
     /**
      * List of the descriptor classes associated to this database
      */
@@ -40,6 +74,92 @@ public class ListDB<T> implements Serializable{
      * Reference for record ordering.
      */
     private Record orderReference = null;
+    /**
+     * Number of records per block in the batch queries. A block of records 
+     * is scored against all the queries of the batch before moving to the
+     * next one, so its descriptors are kept in the cache.
+     */
+    static final int BATCH_BLOCK_SIZE = 64;
+    /**
+     * Indexes of this database, notified on each modification.
+     */
+    private ArrayList<RecordIndex<T>> indexes = null;
+    /**
+     * Pivot-based index used for speeding up the nearest records queries.
+     */
+    private PivotIndex<T> pivotIndex = null;
+    /**
+     * Inverted index over the labels of the records, used for speeding up the
+     * label queries.
+     */
+    private LabelIndex<T> labelIndex = null;
+    /**
+     * Locality-sensitive hashing index used for the approximate nearest 
+     * records queries.
+     */
+    private LSHIndex<T> lshIndex = null;
+    /**
+     * Product-quantized index used for the approximate nearest records 
+     * queries on compressed descriptors.
+     */
+    private PQIndex<T> pqIndex = null;
+    /**
+     * Off-heap copy of a vector descriptor, used for scanning it without
+     * visiting the records.
+     */
+    private OffHeapStore<T> offHeapStore = null;
+    /**
+     * Default fraction of deleted records from which the database should be
+     * compacted (see {@link #setCompactionThreshold(double)}).
+     */
+    static public final double DEFAULT_COMPACTION_THRESHOLD = 0.25;
+    /**
+     * Id of each record (in the database order). It is <tt>null</tt> in the
+     * read-only views, where the id of each record is its position.
+     */
+    private long ids[] = new long[16];
+    /**
+     * Id of the next inserted record.
+     */
+    private long nextId = 0;
+    /**
+     * Positions of the deleted records not compacted yet (<tt>null</tt> if 
+     * there is not).
+     */
+    private BitSet deleted = null;
+    /**
+     * Number of deleted records not compacted yet.
+     */
+    private int deletedCount = 0;
+    /**
+     * Fraction of deleted records from which the database should be 
+     * compacted.
+     */
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    /**
+     * Position of each id (<tt>null</tt> if not calculated yet; it is 
+     * discarded by the modifications shifting the records).
+     */
+    private transient HashMap<Long,Integer> positions = null;
+    /**
+     * Number of modifications of this database (see {@link #getVersion()}).
+     */
+    private transient long version = 0;
+    /**
+     * Persistent cache of the descriptors of the media (<tt>null</tt> if not
+     * used).
+     */
+    private transient DescriptorCache descriptorCache = null;
+    /**
+     * If <tt>true</tt>, the records of this database do not keep their media
+     * source in memory (see {@link #setSourceDetached(boolean)}).
+     */
+    private transient boolean sourceDetached = false;
+    /**
+     * Loader of the media of the records from their locators (<tt>null</tt>
+     * if not available).
+     */
+    private transient SourceLoader<T> sourceLoader = null;
     
     /**
      * Constructs an empty database.
@@ -54,6 +174,25 @@ public class ListDB<T> implements Serializable{
         database = new ArrayList();
     }
     
+    /**
+     * Constructs a read-only view of the given records, with the given 
+     * descriptor classes and without indexes (used for the snapshots of a
+     * {@link ConcurrentListDB}). The records are not copied, so the given 
+     * list must not change while the view is used; the modifications of the
+     * view are not supported. The id of each record is its position (as in
+     * the {@link ConcurrentListDB}, whose records are never removed), so no
+     * id is stored.
+     * 
+     * @param descriptorClasses the descriptor classes of the records
+     * @param records the records of the view
+     */
+    ListDB(Class<?> descriptorClasses[], List<Record> records){
+        this.descriptorClasses = descriptorClasses;
+        database = Collections.unmodifiableList(records);
+        ids = null;
+        nextId = records.size();
+    }
+    
     /**
      * Appends the specified record to the end of this database.
      *
@@ -67,7 +206,9 @@ public class ListDB<T> implements Serializable{
         if (!record.isCompatible()) {
             throw new InvalidParameterException("The new record does not share the database structure.");
         }
-        return database.add(record);
+        database.add(record);
+        inserted(database.size()-1, record);
+        return true;
     }
     
     /**
@@ -80,12 +221,16 @@ public class ListDB<T> implements Serializable{
      */
     public boolean add(T media){
         Record record = new Record(media);
-        return database.add(record);
+        database.add(record);
+        inserted(database.size()-1, record);
+        return true;
     }
     
     public boolean add(T media, URL locator){
         Record record = new Record(media, locator);
-        return database.add(record);
+        database.add(record);
+        inserted(database.size()-1, record);
+        return true;
     }
 
     /**
@@ -103,6 +248,7 @@ public class ListDB<T> implements Serializable{
             throw new InvalidParameterException("The new record does not share the data base structure.");
         }
         database.add(index, record);
+        inserted(index, record);
     }
     
     /**
@@ -118,6 +264,7 @@ public class ListDB<T> implements Serializable{
     public void add(int index, T media) {
         Record record = new Record(media);
         database.add(index, record);
+        inserted(index, record);
     }
 
     /**
@@ -134,227 +281,1510 @@ public class ListDB<T> implements Serializable{
         if (!record.isCompatible()) {
             throw new InvalidParameterException("The new record does not share the data base structure.");
         }
-        return database.set(index, record);
+        Record previous = database.set(index, record);
+        indexSet(index, record);
+        return previous;
+    }
+
+    /**
+     * Replaces the record at the specified position in this database with a
+     * new record calculated from the given media.
+     *
+     * @param index index of the record to replace
+     * @param media media from which the new record is calculated
+     * @return the record previously at the specified position
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     * @throws InvalidParameterException
+     */
+    public Record set(int index, T media) {
+        Record record = new Record(media);
+        Record previous = database.set(index, record);
+        indexSet(index, record);
+        return previous;
+    }
+    
+    /**
+     * Returns the record at the specified position in this database.
+     *
+     * @param index index of the record to return
+     * @return the record at the specified position in this database
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    public Record get(int index) {
+        return database.get(index);
+    }
+
+    /**
+     * Removes the record at the specified position in this database. Shifts any
+     * subsequent record to the left (subtracts one from their indices).
+     *
+     * @param index the index of the record to be removed
+     * @return the record that was removed from the database
+     * @throws IndexOutOfBoundsException {@inheritDoc}
+     */
+    public Record remove(int index) {
+        Record previous = database.remove(index);
+        version++;
+        System.arraycopy(ids, index + 1, ids, index, database.size() - index);
+        positions = null;
+        if (deleted != null) {
+            if (deleted.get(index)) {
+                deletedCount--;
+            }
+            // The flags of the subsequent records are shifted to the left
+            BitSet tail = deleted.get(index + 1, Math.max(index + 1, deleted.length()));
+            deleted.clear(index, Math.max(index, deleted.length()));
+            for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+                deleted.set(index + i);
+            }
+        }
+        if (indexes != null) {
+            for (RecordIndex<T> i : indexes) {
+                i.remove(index);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Removes all of the record from this database. The database will be empty
+     * after this call returns.
+     */
+    public void clear() {
+        database.clear();
+        version++;
+        deleted = null;
+        deletedCount = 0;
+        positions = null;
+        if (indexes != null) {
+            for (RecordIndex<T> i : indexes) {
+                i.clear();
+            }
+        }
+    }
+
+    /**
+     * Assigns a new id to the record inserted at the given position, and
+     * notifies the indexes of this database that it has been inserted.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    private void inserted(int index, Record record) {
+        if (sourceDetached) {
+            record.detachSource();
+        }
+        int n = database.size();
+        if (n > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(n, ids.length * 3 / 2));
+        }
+        System.arraycopy(ids, index, ids, index + 1, n - 1 - index);
+        ids[index] = nextId++;
+        version++;
+        if (index < n - 1) {
+            positions = null;
+            if (deleted != null) {
+                // The flags of the subsequent records are shifted to the right
+                BitSet tail = deleted.get(index, Math.max(index, deleted.length()));
+                deleted.clear(index, Math.max(index, deleted.length()));
+                for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+                    deleted.set(index + 1 + i);
+                }
+            }
+        } else if (positions != null) {
+            positions.put(ids[index], index);
+        }
+        if (indexes != null) {
+            for (RecordIndex<T> i : indexes) {
+                i.add(index, record);
+            }
+        }
+    }
+
+    /**
+     * Notifies the indexes of this database that a record has been replaced.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    private void indexSet(int index, Record record) {
+        if (sourceDetached) {
+            record.detachSource();
+        }
+        version++;
+        if (indexes != null) {
+            for (RecordIndex<T> i : indexes) {
+                i.set(index, record);
+            }
+        }
+    }
+
+    /**
+     * Registers a new index in this database.
+     *
+     * @param index the index to be registered
+     */
+    private void addIndex(RecordIndex<T> index) {
+        if (indexes == null) {
+            indexes = new ArrayList<>();
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * Builds a pivot-based index (see {@link PivotIndex}) over the current
+     * records of this database, replacing the previous one (if any). Once
+     * created, the index is updated on each modification of the database, it
+     * is used in the nearest records queries and it is saved together with
+     * the database.
+     *
+     * The index requires the record distance to be a metric; in such case,
+     * the query results are the same that the ones obtained without index.
+     *
+     * @param numPivots the number of pivots (it is limited by the database
+     * size)
+     * @return the new index
+     */
+    public PivotIndex<T> createPivotIndex(int numPivots) {
+        removePivotIndex();
+        pivotIndex = new PivotIndex<>(this, numPivots);
+        addIndex(pivotIndex);
+        return pivotIndex;
+    }
+
+    /**
+     * Returns the pivot-based index of this database.
+     *
+     * @return the pivot-based index of this database (<tt>null</tt> if not
+     * created)
+     */
+    public PivotIndex<T> getPivotIndex() {
+        return pivotIndex;
+    }
+
+    /**
+     * Removes the pivot-based index of this database (if any).
+     */
+    public void removePivotIndex() {
+        if (pivotIndex != null) {
+            indexes.remove(pivotIndex);
+            pivotIndex = null;
+        }
+    }
+
+    /**
+     * Builds an inverted index over the labels of the current records of this
+     * database (see {@link LabelIndex}), replacing the previous one (if any).
+     * The labels are taken from the first {@link LabelDescriptor} of the 
+     * database structure. Once created, the index is updated on each 
+     * modification of the database, it is used in the queries whose label 
+     * comparator is supported by the index and it is saved together with the
+     * database.
+     *
+     * The query results are the same that the ones obtained without index.
+     *
+     * @return the new index
+     * @throws InvalidParameterException if the database structure does not
+     * include a label descriptor.
+     */
+    public LabelIndex<T> createLabelIndex() {
+        int component = -1;
+        for (int i = 0; i < descriptorClasses.length && component < 0; i++) {
+            if (LabelDescriptor.class.isAssignableFrom(descriptorClasses[i])) {
+                component = i;
+            }
+        }
+        if (component < 0) {
+            throw new InvalidParameterException("The database structure does not include a label descriptor.");
+        }
+        removeLabelIndex();
+        labelIndex = new LabelIndex<>(this, component);
+        addIndex(labelIndex);
+        return labelIndex;
+    }
+
+    /**
+     * Returns the label index of this database.
+     *
+     * @return the label index of this database (<tt>null</tt> if not created)
+     */
+    public LabelIndex<T> getLabelIndex() {
+        return labelIndex;
+    }
+
+    /**
+     * Removes the label index of this database (if any).
+     */
+    public void removeLabelIndex() {
+        if (labelIndex != null) {
+            indexes.remove(labelIndex);
+            labelIndex = null;
+        }
+    }
+
+    /**
+     * Builds a locality-sensitive hashing index over the given vector 
+     * descriptor of the current records of this database (see 
+     * {@link LSHIndex}), replacing the previous one (if any). Once created, 
+     * the index is updated on each modification of the database, it is used
+     * in the approximate queries (see 
+     * {@link #queryApproximate(jmr.db.ListDB.Record, int)}) and it is saved 
+     * together with the database.
+     *
+     * @param component the position of the vector descriptor in the records
+     * @param numTables the number of hash tables
+     * @param numProjections the number of hashes combined in the key of each
+     * table (hash width)
+     * @param bucketWidth the width of the buckets of each hash (in distance 
+     * units of the descriptor)
+     * @return the new index
+     * @throws InvalidParameterException if the descriptor at the given 
+     * position is not a vector descriptor.
+     */
+    public LSHIndex<T> createLSHIndex(int component, int numTables, int numProjections, double bucketWidth) {
+        if (component < 0 || component >= descriptorClasses.length
+                || !VectorDescriptor.class.isAssignableFrom(descriptorClasses[component])) {
+            throw new InvalidParameterException("The descriptor at position " + component + " is not a vector descriptor.");
+        }
+        removeLSHIndex();
+        lshIndex = new LSHIndex<>(this, component, numTables, numProjections, bucketWidth);
+        addIndex(lshIndex);
+        return lshIndex;
+    }
+
+    /**
+     * Returns the locality-sensitive hashing index of this database.
+     *
+     * @return the LSH index of this database (<tt>null</tt> if not created)
+     */
+    public LSHIndex<T> getLSHIndex() {
+        return lshIndex;
+    }
+
+    /**
+     * Removes the locality-sensitive hashing index of this database (if any).
+     */
+    public void removeLSHIndex() {
+        if (lshIndex != null) {
+            indexes.remove(lshIndex);
+            lshIndex = null;
+        }
+    }
+
+    /**
+     * Builds a product-quantized index over the vector descriptors of the 
+     * current records of this database (see {@link PQIndex}), replacing the
+     * previous one (if any). The codebooks are trained from a sample of the
+     * records. Once created, the index is updated on each modification of the
+     * database, it is used in the quantized queries (see 
+     * {@link #queryQuantized(jmr.db.ListDB.Record, int, int)}) and it is saved
+     * together with the database.
+     *
+     * @param numSubspaces the number of subspaces of each vector descriptor
+     * (the bytes of its code)
+     * @param sampleSize the number of records used for training the codebooks
+     * @return the new index
+     * @throws InvalidParameterException if the database structure does not
+     * include a vector descriptor, or if the database is empty.
+     */
+    public PQIndex<T> createPQIndex(int numSubspaces, int sampleSize) {
+        int components[] = new int[descriptorClasses.length], count = 0;
+        for (int i = 0; i < descriptorClasses.length; i++) {
+            if (VectorDescriptor.class.isAssignableFrom(descriptorClasses[i])) {
+                components[count++] = i;
+            }
+        }
+        if (count == 0) {
+            throw new InvalidParameterException("The database structure does not include a vector descriptor.");
+        }
+        removePQIndex();
+        pqIndex = new PQIndex<>(this, Arrays.copyOf(components, count), numSubspaces, sampleSize);
+        addIndex(pqIndex);
+        return pqIndex;
+    }
+
+    /**
+     * Returns the product-quantized index of this database.
+     *
+     * @return the product-quantized index of this database (<tt>null</tt> if
+     * not created)
+     */
+    public PQIndex<T> getPQIndex() {
+        return pqIndex;
+    }
+
+    /**
+     * Removes the product-quantized index of this database (if any).
+     */
+    public void removePQIndex() {
+        if (pqIndex != null) {
+            indexes.remove(pqIndex);
+            pqIndex = null;
+        }
+    }
+
+    /**
+     * Builds an off-heap copy of the given vector descriptor of the current
+     * records of this database (see {@link OffHeapStore}), replacing the 
+     * previous one (if any). Once created, the store is updated on each 
+     * modification of the database, it is used in the off-heap queries (see
+     * {@link #queryOffHeap(jmr.db.ListDB.Record, int)}) and it is saved 
+     * together with the database. The descriptors keep their heap data, so
+     * the rest of queries are not affected by the store.
+     *
+     * @param component the position of the vector descriptor in the records
+     * @return the new store
+     * @throws InvalidParameterException if the descriptor at the given 
+     * position is not a vector descriptor.
+     */
+    public OffHeapStore<T> createOffHeapStore(int component) {
+        if (component < 0 || component >= descriptorClasses.length
+                || !VectorDescriptor.class.isAssignableFrom(descriptorClasses[component])) {
+            throw new InvalidParameterException("The descriptor at position " + component + " is not a vector descriptor.");
+        }
+        removeOffHeapStore();
+        offHeapStore = new OffHeapStore<>(this, component);
+        addIndex(offHeapStore);
+        return offHeapStore;
+    }
+
+    /**
+     * Returns the off-heap store of this database.
+     *
+     * @return the off-heap store of this database (<tt>null</tt> if not 
+     * created)
+     */
+    public OffHeapStore<T> getOffHeapStore() {
+        return offHeapStore;
+    }
+
+    /**
+     * Removes the off-heap store of this database (if any).
+     */
+    public void removeOffHeapStore() {
+        if (offHeapStore != null) {
+            indexes.remove(offHeapStore);
+            offHeapStore = null;
+        }
+    }
+    
+    /**
+     * Sets the persistent cache of descriptors used when the records of this
+     * database are calculated from a media file path or a decoded image (see
+     * {@link DescriptorCache}): the descriptors of the media already processed
+     * (with the same content) are read from the cache
+     * instead of being calculated, and the calculated ones are stored in it.
+     * The cache is not saved with the database.
+     * 
+     * @param descriptorCache the descriptor cache (<tt>null</tt> for not 
+     * using a cache)
+     */
+    public void setDescriptorCache(DescriptorCache descriptorCache) {
+        this.descriptorCache = descriptorCache;
+    }
+    
+    /**
+     * Returns the persistent cache of descriptors of this database.
+     * 
+     * @return the descriptor cache (<tt>null</tt> if not used)
+     */
+    public DescriptorCache getDescriptorCache() {
+        return descriptorCache;
+    }
+    
+    /**
+     * Sets whether the records of this database keep their media source in
+     * memory or not. 
+     * 
+     * By default, each record keeps the media from which it was calculated
+     * (and so do its descriptors), that is, the whole decoded media is kept
+     * alive as long as the record is in the database. If the source is 
+     * detached, the records only keep their descriptors and locator once the
+     * descriptors have been calculated, so the memory used by the database
+     * depends on the size of the descriptors, not on the size of the media;
+     * if needed (for example, to show it), the source is loaded again from
+     * the locator (see {@link ListDB.Record#loadSource()}). The records 
+     * already in the database are also detached. 
+     * 
+     * Note that the records of a database opened from a file have no source
+     * (it is not saved), so this mode only affects the new records. 
+     * 
+     * @param sourceDetached <tt>true</tt> if the records do not keep their
+     * media source
+     */
+    public void setSourceDetached(boolean sourceDetached) {
+        this.sourceDetached = sourceDetached;
+        if (sourceDetached) {
+            for (Record record : database) {
+                record.detachSource();
+            }
+        }
+    }
+    
+    /**
+     * Returns whether the records of this database keep their media source in
+     * memory or not.
+     * 
+     * @return <tt>true</tt> if the records do not keep their media source
+     */
+    public boolean isSourceDetached() {
+        return sourceDetached;
+    }
+    
+    /**
+     * Sets the loader used for loading the media of the records from their 
+     * locators (see {@link ListDB.Record#loadSource()}).
+     * 
+     * @param sourceLoader the media loader (<tt>null</tt> if the media cannot
+     * be loaded)
+     */
+    public void setSourceLoader(SourceLoader<T> sourceLoader) {
+        this.sourceLoader = sourceLoader;
+    }
+    
+    /**
+     * Returns the loader used for loading the media of the records from their
+     * locators.
+     * 
+     * @return the media loader (<tt>null</tt> if not available)
+     */
+    public SourceLoader<T> getSourceLoader() {
+        return sourceLoader;
+    }
+
+    /**
+     * Returns the number of records in this database, including the deleted
+     * records not compacted yet (see {@link #isDeleted(int)}).
+     *
+     * @return the number of records in this database
+     */
+    public int size() {
+        return database.size();
+    }
+
+    /**
+     * Returns the version of this database: a number incremented by each
+     * modification of its records (additions, replacements, removals and 
+     * deletions), so it can be used for detecting that the results of a 
+     * previous query are no longer valid (see {@link QueryCache}). The 
+     * modifications of the stored records themselves (for example, of their
+     * comparators) are not detected. The version is not saved with the 
+     * database.
+     *
+     * @return the version of this database
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this database contains no record.
+     *
+     * @return <tt>true</tt> if this database contains no record
+     */
+    public boolean isEmpty() {
+        return database.isEmpty();
+    }
+    
+    /**
+     * Returns the id of the record at the specified position in this 
+     * database. The id of a record does not change while it is stored in 
+     * this database (even if its position changes), and it is not reused.
+     *
+     * @param index index of the record
+     * @return the id of the record
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public long getId(int index) {
+        if (index < 0 || index >= database.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + database.size());
+        }
+        return ids != null ? ids[index] : index;
+    }
+    
+    /**
+     * Returns the position of the record with the given id.
+     *
+     * @param id the id of the record
+     * @return the position of the record, or -1 if there is no record with 
+     * the given id (or it has been deleted)
+     */
+    public int indexOf(long id) {
+        if (ids == null) {
+            return id >= 0 && id < database.size() ? (int) id : -1;
+        }
+        if (positions == null) {
+            positions = new HashMap<>(database.size() * 2);
+            for (int i = 0; i < database.size(); i++) {
+                positions.put(ids[i], i);
+            }
+        }
+        Integer index = positions.get(id);
+        return index == null || isDeleted(index) ? -1 : index;
+    }
+    
+    /**
+     * Returns the record with the given id.
+     *
+     * @param id the id of the record
+     * @return the record with the given id, or <tt>null</tt> if there is no 
+     * record with the given id (or it has been deleted)
+     */
+    public Record getById(long id) {
+        int index = indexOf(id);
+        return index < 0 ? null : database.get(index);
+    }
+    
+    /**
+     * Replaces the record with the given id by the given record, which keeps
+     * the id and the position of the replaced one (see 
+     * {@link #set(int, jmr.db.ListDB.Record)}).
+     *
+     * @param id the id of the record to be replaced
+     * @param record the new record
+     * @return the replaced record
+     * @throws InvalidParameterException if there is no record with the given
+     * id, or if the new record does not share the database structure.
+     */
+    public Record update(long id, Record record) {
+        int index = indexOf(id);
+        if (index < 0) {
+            throw new InvalidParameterException("There is no record with id " + id);
+        }
+        return set(index, record);
+    }
+    
+    /**
+     * Deletes the record with the given id. The record is marked as deleted 
+     * (tombstone), so it is ignored by the queries but it keeps its position
+     * (and so do the rest of records) until the database is compacted by 
+     * means of {@link #compact()}. The database is not compacted 
+     * automatically; see {@link #needsCompaction()} for deciding when to do 
+     * it.
+     *
+     * @param id the id of the record to be deleted
+     * @return <tt>true</tt> if the record has been deleted, <tt>false</tt> if
+     * there is no record with the given id (or it was already deleted)
+     * @throws UnsupportedOperationException if this database is a read-only
+     * view
+     */
+    public boolean delete(long id) {
+        if (ids == null) {
+            throw new UnsupportedOperationException("The database is a read-only view.");
+        }
+        int index = indexOf(id);
+        if (index < 0) {
+            return false;
+        }
+        if (deleted == null) {
+            deleted = new BitSet(database.size());
+        }
+        deleted.set(index);
+        deletedCount++;
+        version++;
+        return true;
+    }
+    
+    /**
+     * Returns <tt>true</tt> if the record at the specified position has been
+     * deleted (see {@link #delete(long)}) and the database has not been 
+     * compacted yet.
+     *
+     * @param index index of the record
+     * @return <tt>true</tt> if the record has been deleted
+     */
+    public boolean isDeleted(int index) {
+        return deleted != null && deleted.get(index);
+    }
+    
+    /**
+     * Returns the number of deleted records not compacted yet.
+     *
+     * @return the number of deleted records
+     */
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+    
+    /**
+     * Sets the fraction of deleted records from which this database should be
+     * compacted (by default, {@link #DEFAULT_COMPACTION_THRESHOLD}; see 
+     * {@link #needsCompaction()}).
+     *
+     * @param compactionThreshold the fraction of deleted records, in [0,1]
+     * @throws InvalidParameterException if the threshold is not in [0,1]
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        if (!(compactionThreshold >= 0.0 && compactionThreshold <= 1.0)) {
+            throw new InvalidParameterException("The compaction threshold must be in [0,1].");
+        }
+        this.compactionThreshold = compactionThreshold;
+    }
+    
+    /**
+     * Returns the fraction of deleted records from which this database should
+     * be compacted.
+     *
+     * @return the compaction threshold
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+    
+    /**
+     * Returns <tt>true</tt> if the fraction of deleted records of this 
+     * database exceeds the compaction threshold (see 
+     * {@link #setCompactionThreshold(double)}), so it should be compacted by
+     * means of {@link #compact()}.
+     *
+     * @return <tt>true</tt> if this database should be compacted
+     */
+    public boolean needsCompaction() {
+        return deletedCount > 0 && deletedCount > compactionThreshold * database.size();
+    }
+    
+    /**
+     * Removes the deleted records from this database in a single pass, 
+     * shifting the rest of records to the left (their ids do not change). 
+     * The indexes are compacted in the same way.
+     *
+     * The positions of the records are not stable across this method: any
+     * position obtained before (for example, by {@link #indexOf(long)} or 
+     * in a query result) is no longer valid, and the records must be 
+     * referenced by their ids (see {@link #getId(int)}).
+     *
+     * @return the number of removed records
+     */
+    public int compact() {
+        if (deletedCount == 0) {
+            deleted = null;
+            return 0;
+        }
+        int n = database.size(), map[] = new int[n], size = 0;
+        ArrayList<Record> live = new ArrayList<>(n - deletedCount);
+        for (int i = 0; i < n; i++) {
+            if (deleted.get(i)) {
+                map[i] = -1;
+            } else {
+                map[i] = size;
+                ids[size++] = ids[i];
+                live.add(database.get(i));
+            }
+        }
+        database = live;
+        ids = Arrays.copyOf(ids, Math.max(size, 16));
+        deleted = null;
+        deletedCount = 0;
+        positions = null;
+        if (indexes != null) {
+            for (RecordIndex<T> i : indexes) {
+                i.compact(map);
+            }
+        }
+        return n - size;
+    }
+    
+    /**
+     * Compacts the database stored in the given file (see 
+     * {@link #compact()}). The compacted database is written in a temporary 
+     * file, which replaces the given one once it is complete.
+     *
+     * @param file the file with the serialized database
+     * @return the number of removed records
+     * @throws IOException if an I/O error occurs while reading or writing 
+     * the file
+     * @throws ClassNotFoundException if some class of a serialized object
+     * cannot be found
+     */
+    static public int compact(File file) throws IOException, ClassNotFoundException {
+        ListDB database = open(file);
+        int removed = database.compact();
+        if (removed > 0) {
+            File temp = new File(file.getPath() + ".tmp");
+            database.save(temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return removed;
+    }
+    
+    /**
+     * Returns a new collector of the nearest records, which rejects the 
+     * deleted records.
+     *
+     * @param k the number of nearest records to be collected (it is limited
+     * by the database size)
+     * @return a new collector
+     */
+    TopKCollector collector(int k){
+        return new TopKCollector(Math.min(k, database.size()), deleted);
+    }
+    
+    /**
+     * Returns the list of descriptor classes associated to this database.
+     * 
+     * @return the list of descriptor classes
+     */
+    public List<Class> getDescriptorClasses(){ 
+        return Arrays.asList(this.descriptorClasses);
+    }
+    
+    /**
+     * Set a record as reference for record ordering.
+     * 
+     * The record order is based on the distance to a reference record: a record 
+     * will be less than, equal to, or greater than other if its distance to the 
+     * reference is less than, equal to, or greater than the distance of the
+     * other record to the same reference.
+     * 
+     * The reference record can be stored in the database or not. If not, it 
+     * have to share the database structure.
+     * 
+     * @param orderReference the new reference
+     * throws InvalidParameterException
+     */
+    public void setOrderReference(Record orderReference){
+        if (!orderReference.isCompatible()) {
+            throw new InvalidParameterException("The new record does not share the data base structure.");
+        }
+        this.orderReference = orderReference;
+    }
+    
+    /**
+     * Returns the record used as reference for record ordering.
+     * 
+     * @return the record used as reference for record ordering.
+     */
+    Record getOrderReference(){
+        return this.orderReference;
+    }
+    
+    /**
+     * Returns the records of this database ordered on the basis of its distance
+     * to the given query.
+     * 
+     * @param queryRecord the query record
+     * @return a list of records ordered by distante to <code>queryRecord</code>
+     */
+    public List<Record> query(Record queryRecord){
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        // The distances are calculated only once (instead of twice for each
+        // comparison made by the sorting algorithm)
+        double distances[] = new double[database.size()];
+        List<Record> output = new ArrayList<>(distances.length);
+        for(int i : order(queryRecord, distances)){
+            if (!isDeleted(i)) {
+                output.add(database.get(i));
+            }
+        }
+        return output;
+    }
+    
+    /**
+     * Returns a collector with the nearest records to the given query. The 
+     * distance of each record is calculated using, as upper bound, the 
+     * distance of the current k-th nearest record, so most of the calculations
+     * are abandoned before being completed. If a pivot index is available 
+     * (and the query uses the default comparator), it is used for discarding
+     * records without calculating their distance.
+     * If the label index can solve the query, only the distances of (some of)
+     * the candidate records are calculated.
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @return a collector with the positions and distances of the nearest
+     * records
+     */
+    private TopKCollector nearest(Record queryRecord, int k){
+        TopKCollector collector = labelIndex != null ? labelIndex.nearest(queryRecord, k) : null;
+        if (collector != null) {
+            return collector;
+        }
+        collector = pivotIndex != null ? pivotIndex.nearest(queryRecord, k) : null;
+        if (collector != null) {
+            return collector;
+        }
+        collector = collector(k);
+        double distance;
+        for(int i=0; i<database.size(); i++){
+            if (!collector.excludes(i)) {
+                distance = queryRecord.distance(database.get(i), collector.bound());
+                collector.offer(distance, i);
+            }
+        }
+        return collector;
+    }
+    
+    /**
+     * Calculates the distances from the given query to each record of this
+     * database and returns the positions of the records sorted on the basis 
+     * of their distance (ties are resolved by position). The distances are 
+     * calculated by means of the primitive distance of the records, so no 
+     * result is boxed.
+     * 
+     * If the label index can solve the query, only the distances of the 
+     * candidate records are calculated and sorted; the rest of records are at
+     * infinite distance, so they are merged in the database order.
+     * 
+     * @param queryRecord the query record
+     * @param distances the array where the distances are stored (in the 
+     * database order)
+     * @return the positions of the records sorted by distance
+     */
+    private int[] order(Record queryRecord, double distances[]){
+        int candidates[] = labelIndex != null ? labelIndex.candidates(queryRecord) : null;
+        if (candidates == null) {
+            for(int i=0; i<distances.length; i++){
+                distances[i] = queryRecord.distance(database.get(i));
+            }
+            return DistanceOrder.sort(distances);
+        }
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        double candidateDistances[] = new double[candidates.length];
+        for(int c=0; c<candidates.length; c++){
+            candidateDistances[c] = distances[candidates[c]] = queryRecord.distance(database.get(candidates[c]));
+        }
+        int sorted[] = DistanceOrder.sort(candidateDistances, candidates, candidates.length);
+        int output[] = new int[distances.length], size = 0, c = 0;
+        // Candidates at finite distance
+        while(c < sorted.length && candidateDistances[sorted[c]] < Double.POSITIVE_INFINITY){
+            output[size++] = candidates[sorted[c++]];
+        }
+        // Records at infinite distance (candidates or not), in the database
+        // order, followed by the candidates at NaN distance (if any)
+        for(int i=0; i<distances.length; i++){
+            if(distances[i] == Double.POSITIVE_INFINITY){
+                output[size++] = i;
+            }
+        }
+        for(; c < sorted.length; c++){
+            if(Double.isNaN(candidateDistances[sorted[c]])){
+                output[size++] = candidates[sorted[c]];
+            }
+        }
+        return output;
+    }
+    
+    /**
+     * Returns the records of this database ordered on the basis of its distance
+     * to the given query.
+     * 
+     * @param queryMedia the query media
+     * @return a list of records ordered by distante to <code>queryRecord</code>
+     */
+    public List<Record> query(T queryMedia){
+        Record queryRecord = new Record(queryMedia);
+        return this.query(queryRecord);       
+    }
+    
+    /**
+     * Returns a subset of this database corresponding to the nearest records to 
+     * the given query one. The output is sorted on the basis of the distance 
+     * to the query.
+     * 
+     * @param queryRecord the query record
+     * @param size the size of the output subset 
+     * @return the nearest records sorted by distance
+     */
+    public List<Record> query(Record queryRecord, int size){
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        // Instead of sorting the whole database (O(n·logn)), the nearest 
+        // records are collected in a bounded heap (O(n·logm), with m<<n), whose
+        // worst distance is used for early-abandoning the distance calculation
+        List<Record> output = new ArrayList<>();
+        for(int i : nearest(queryRecord, size).positions()){
+            output.add(database.get(i));
+        }
+        return output;
+    }
+    
+    /**
+     * Returns a subset of this database corresponding to the nearest records to 
+     * the given query one. The output is sorted on the basis of the distance 
+     * to the query.
+     * 
+     * @param queryMedia the query media
+     * @param size the size of the output subset 
+     * @return the nearest records sorted by distance
+     */
+    public List<Record> query(T queryMedia, int size){
+        Record queryRecord = new Record(queryMedia);
+        return this.query(queryRecord, size);        
+    }
+    
+    /**
+     * Returns the records of this database ordered on the basis of its distance
+     * to the given query. For each record, metadata info about its distance to 
+     * the given query is provided.
+     * 
+     * The returned info is a list o pairs [distance, record] encapsulated in a 
+     * {@link jmr.result.ResultMetadata} object, where the result type is a 
+     * {@link java.lang.Double} representing the distance to the query, and the
+     * metadata type is the record associated to that distance.
+     * 
+     * @param queryRecord the query record
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double,Record>> queryMetadata(Record queryRecord){ 
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        double distances[] = new double[database.size()];
+        List<ResultMetadata<Double,Record>> output = new ArrayList<>(distances.length);
+        for(int i : order(queryRecord, distances)){
+            if (!isDeleted(i)) {
+                output.add(new ResultMetadata<>(distances[i], database.get(i)));
+            }
+        }
+        return output;
+    }
+    
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query. For each record, metadata info about its 
+     * distance to the given query is provided (see 
+     * {@link #queryMetadata(jmr.db.ListDB.Record)}).
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double,Record>> queryMetadata(Record queryRecord, int k){ 
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        return metadata(nearest(queryRecord, k));
+    }
+    
+    /**
+     * Returns the records of this database sorted on the basis of their 
+     * distance to the given query, calculated by means of the given fusion 
+     * of the descriptor distances (instead of the record comparator). For 
+     * each record, metadata info about its distance to the given query is 
+     * provided (see {@link #queryMetadata(jmr.db.ListDB.Record)}).
+     * 
+     * @param queryRecord the query record
+     * @param fusion the fusion of the descriptor distances
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double,Record>> queryMetadata(Record queryRecord, Fusion fusion){ 
+        check(queryRecord, fusion);
+        double distances[] = new double[database.size()];
+        for(int i=0; i<distances.length; i++){
+            distances[i] = fusion.distance(queryRecord, database.get(i));
+        }
+        List<ResultMetadata<Double,Record>> output = new ArrayList<>(distances.length);
+        for(int i : DistanceOrder.sort(distances)){
+            if (!isDeleted(i)) {
+                output.add(new ResultMetadata<>(distances[i], database.get(i)));
+            }
+        }
+        return output;
+    }
+    
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query, calculated by means of the given fusion of
+     * the descriptor distances (see 
+     * {@link #queryMetadata(jmr.db.ListDB.Record, jmr.db.Fusion)}). As in 
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int)}, each distance is 
+     * calculated using as upper bound the distance of the current k-th 
+     * nearest record.
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @param fusion the fusion of the descriptor distances
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double,Record>> queryMetadata(Record queryRecord, int k, Fusion fusion){ 
+        check(queryRecord, fusion);
+        TopKCollector collector = collector(k);
+        for(int i=0; i<database.size(); i++){
+            collector.offer(fusion.distance(queryRecord, database.get(i), collector.bound()), i);
+        }
+        return metadata(collector);
     }
-
+    
     /**
-     * Replaces the record at the specified position in this database with a
-     * new record calculated from the given media.
-     *
-     * @param index index of the record to replace
-     * @param media media from which the new record is calculated
-     * @return the record previously at the specified position
-     * @throws IndexOutOfBoundsException {@inheritDoc}
-     * @throws InvalidParameterException
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query, calculated by means of the given fusion of
+     * the descriptor distances (see 
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int, jmr.db.Fusion)}).
+     * 
+     * The query is solved by means of the threshold algorithm: the given 
+     * (sorted) descriptors are compared for all the records, and the records 
+     * are visited in ascending order of distance of these descriptors; the 
+     * rest of descriptors are compared only for the visited records, and the 
+     * query stops as soon as no record not visited yet can be among the 
+     * nearest ones. So, the sorted descriptors should be the cheapest ones.
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @param fusion the fusion of the descriptor distances (if <tt>null</tt>,
+     * the default fusion is used, so the result is the same that the one 
+     * obtained by {@link #queryMetadata(jmr.db.ListDB.Record, int)})
+     * @param sortedComponents the positions of the descriptors whose 
+     * distance is calculated for all the records
+     * @return a list of ordered metadata
      */
-    public Record set(int index, T media) {
-        Record record = new Record(media);
-        return database.set(index, record);
+    public List<ResultMetadata<Double,Record>> queryThreshold(Record queryRecord, int k, Fusion fusion, int... sortedComponents){ 
+        if (fusion == null) {
+            fusion = Fusion.DEFAULT;
+        }
+        check(queryRecord, fusion);
+        if (sortedComponents.length == 0) {
+            throw new InvalidParameterException("At least one sorted descriptor is required.");
+        }
+        boolean sorted[] = new boolean[descriptorClasses.length];
+        for (int component : sortedComponents) {
+            if (component < 0 || component >= sorted.length) {
+                throw new InvalidParameterException("Invalid descriptor position: " + component);
+            }
+            if (sorted[component]) {
+                throw new InvalidParameterException("Repeated descriptor position: " + component);
+            }
+            sorted[component] = true;
+        }
+        return metadata(new ThresholdQuery<>(this, queryRecord, fusion).nearest(k, sortedComponents));
     }
     
     /**
-     * Returns the record at the specified position in this database.
-     *
-     * @param index index of the record to return
-     * @return the record at the specified position in this database
-     * @throws IndexOutOfBoundsException {@inheritDoc}
+     * Returns the (approximate) nearest records to the given query, sorted on
+     * the basis of their distance to the query, calculated by means of the 
+     * given fusion of the descriptor distances. The query is solved by means
+     * of the given cascade of descriptors: the candidate records are filtered
+     * by the descriptors of the cascade (in order), and the fused distance is
+     * calculated only for the remaining candidates (see {@link Cascade}).
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @param cascade the cascade of descriptors
+     * @param fusion the fusion of the descriptor distances (if <tt>null</tt>,
+     * the default fusion is used)
+     * @return a list of ordered metadata
      */
-    public Record get(int index) {
-        return database.get(index);
+    public List<ResultMetadata<Double,Record>> queryCascade(Record queryRecord, int k, Cascade cascade, Fusion fusion){ 
+        if (fusion == null) {
+            fusion = Fusion.DEFAULT;
+        }
+        check(queryRecord, fusion);
+        cascade.check(descriptorClasses.length);
+        return metadata(cascade.nearest(this, queryRecord, k, fusion));
     }
-
+    
     /**
-     * Removes the record at the specified position in this database. Shifts any
-     * subsequent record to the left (subtracts one from their indices).
-     *
-     * @param index the index of the record to be removed
-     * @return the record that was removed from the database
-     * @throws IndexOutOfBoundsException {@inheritDoc}
+     * Returns the mean recall of the given cascade of descriptors for the
+     * given queries, i.e., the mean fraction of the k nearest records (given
+     * by the exhaustive query) that are returned by the cascade query (see 
+     * {@link #queryCascade(jmr.db.ListDB.Record, int, jmr.db.Cascade, jmr.db.Fusion)}).
+     * 
+     * @param queryRecords the query records
+     * @param k the number of nearest records of each query
+     * @param cascade the cascade of descriptors
+     * @param fusion the fusion of the descriptor distances (if <tt>null</tt>,
+     * the default fusion is used)
+     * @return the mean recall, in [0,1]
      */
-    public Record remove(int index) {
-        return database.remove(index);
+    public double recallCascade(List<Record> queryRecords, int k, Cascade cascade, Fusion fusion){ 
+        if (fusion == null) {
+            fusion = Fusion.DEFAULT;
+        }
+        double recall = 0.0;
+        for (Record queryRecord : queryRecords) {
+            recall += recall(queryMetadata(queryRecord, k, fusion), queryCascade(queryRecord, k, cascade, fusion));
+        }
+        return queryRecords.isEmpty() ? 1.0 : recall / queryRecords.size();
     }
-
+    
     /**
-     * Removes all of the record from this database. The database will be empty
-     * after this call returns.
+     * Returns the (approximate) nearest records to the given query, sorted on
+     * the basis of their distance to the query. If a locality-sensitive 
+     * hashing index is available, only the distances of the records sharing 
+     * some bucket with the query are calculated (see {@link LSHIndex}), so 
+     * less than k records can be returned; in other case, the query is exact
+     * (see {@link #queryMetadata(jmr.db.ListDB.Record, int)}).
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
      */
-    public void clear() {
-        database.clear();
+    public List<ResultMetadata<Double,Record>> queryApproximate(Record queryRecord, int k){ 
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        return metadata(lshIndex != null ? lshIndex.nearest(queryRecord, k) : nearest(queryRecord, k));
     }
-
+    
     /**
-     * Returns the number of records in this database.
-     *
-     * @return the number of records in this database
+     * Returns the nearest records to the given query, sorted on the basis of
+     * the distance of the descriptor copied in the off-heap store (see 
+     * {@link OffHeapStore}). The distances are calculated by scanning the 
+     * store, so the records are only visited for building the result. The
+     * distance is always the l1-norm between the stored vectors, so only the
+     * query records with the default comparator of the 
+     * {@link DescriptorList} class are accepted. If the records have only the
+     * stored descriptor, the result is the same that the one obtained by 
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int)} (up to the float 
+     * rounding of the stored vectors).
+     * 
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     * @throws InvalidParameterException if the database has no off-heap 
+     * store, or if the query record does not use the default comparator
      */
-    public int size() {
-        return database.size();
+    public List<ResultMetadata<Double,Record>> queryOffHeap(Record queryRecord, int k){ 
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        if (offHeapStore == null) {
+            throw new InvalidParameterException("The database has no off-heap store.");
+        }
+        return metadata(offHeapStore.nearest(queryRecord, k, deleted));
     }
-
+    
     /**
-     * Returns <tt>true</tt> if this database contains no record.
-     *
-     * @return <tt>true</tt> if this database contains no record
+     * Returns the mean recall of the approximate queries for the given 
+     * queries, i.e., the mean fraction of the k nearest records (given by the
+     * exact query) that are returned by the approximate query (see 
+     * {@link #queryApproximate(jmr.db.ListDB.Record, int)}).
+     * 
+     * @param queryRecords the query records
+     * @param k the number of nearest records of each query
+     * @return the mean recall, in [0,1]
      */
-    public boolean isEmpty() {
-        return database.isEmpty();
+    public double recallApproximate(List<Record> queryRecords, int k){ 
+        double recall = 0.0;
+        for (Record queryRecord : queryRecords) {
+            recall += recall(queryMetadata(queryRecord, k), queryApproximate(queryRecord, k));
+        }
+        return queryRecords.isEmpty() ? 1.0 : recall / queryRecords.size();
     }
     
     /**
-     * Returns the list of descriptor classes associated to this database.
+     * Returns the (approximate) nearest records to the given query, sorted on
+     * the basis of their distance to the query. The records are ranked by the
+     * approximate distance of the compressed descriptors of the 
+     * product-quantized index, and the exact distances of the given number of
+     * best candidates are calculated (see {@link PQIndex}).
      * 
-     * @return the list of descriptor classes
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @param rerank the number of candidates whose exact distance is 
+     * calculated
+     * @return a list of ordered metadata
+     * @throws InvalidParameterException if the database has no 
+     * product-quantized index
      */
-    public List<Class> getDescriptorClasses(){ 
-        return Arrays.asList(this.descriptorClasses);
+    public List<ResultMetadata<Double,Record>> queryQuantized(Record queryRecord, int k, int rerank){ 
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        if (pqIndex == null) {
+            throw new InvalidParameterException("The database has no product-quantized index.");
+        }
+        return metadata(pqIndex.nearest(queryRecord, k, rerank));
     }
     
     /**
-     * Set a record as reference for record ordering.
-     * 
-     * The record order is based on the distance to a reference record: a record 
-     * will be less than, equal to, or greater than other if its distance to the 
-     * reference is less than, equal to, or greater than the distance of the
-     * other record to the same reference.
-     * 
-     * The reference record can be stored in the database or not. If not, it 
-     * have to share the database structure.
+     * Returns the mean recall of the quantized queries for the given queries
+     * (see {@link #queryQuantized(jmr.db.ListDB.Record, int, int)} and 
+     * {@link #recallApproximate(java.util.List, int)}).
      * 
-     * @param orderReference the new reference
-     * throws InvalidParameterException
+     * @param queryRecords the query records
+     * @param k the number of nearest records of each query
+     * @param rerank the number of candidates whose exact distance is 
+     * calculated
+     * @return the mean recall, in [0,1]
      */
-    public void setOrderReference(Record orderReference){
-        if (!orderReference.isCompatible()) {
-            throw new InvalidParameterException("The new record does not share the data base structure.");
+    public double recallQuantized(List<Record> queryRecords, int k, int rerank){ 
+        double recall = 0.0;
+        for (Record queryRecord : queryRecords) {
+            recall += recall(queryMetadata(queryRecord, k), queryQuantized(queryRecord, k, rerank));
         }
-        this.orderReference = orderReference;
+        return queryRecords.isEmpty() ? 1.0 : recall / queryRecords.size();
     }
     
     /**
-     * Returns the record used as reference for record ordering.
+     * Returns the fraction of the expected records that are included in the
+     * given result (records are compared by identity).
      * 
-     * @return the record used as reference for record ordering.
+     * @param expected the expected result
+     * @param result the result to be checked
+     * @return the recall of the result, in [0,1]
      */
-    Record getOrderReference(){
-        return this.orderReference;
+    private double recall(List<ResultMetadata<Double,Record>> expected, List<ResultMetadata<Double,Record>> result){ 
+        Set<Record> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ResultMetadata<Double,Record> item : result) {
+            found.add(item.getMetadata());
+        }
+        int hits = 0;
+        for (ResultMetadata<Double,Record> item : expected) {
+            if (found.contains(item.getMetadata())) {
+                hits++;
+            }
+        }
+        return expected.isEmpty() ? 1.0 : (double) hits / expected.size();
     }
     
     /**
-     * Returns the records of this database ordered on the basis of its distance
-     * to the given query.
+     * Checks that the given query record and fusion can be used for querying
+     * this database.
      * 
      * @param queryRecord the query record
-     * @return a list of records ordered by distante to <code>queryRecord</code>
+     * @param fusion the fusion of the descriptor distances
+     * @throws InvalidParameterException if the query record does not share 
+     * the data base structure, or if the fusion cannot be applied to it
      */
-    public List<Record> query(Record queryRecord){
+    private void check(Record queryRecord, Fusion fusion){
         if (!queryRecord.isCompatible()) {
             throw new InvalidParameterException("The query record does not share the data base structure.");
         }
-        List output = (List)database.clone(); // Shallow copy 
-        // The output will be ordered by using the query record as reference  
-        Record actual_orderReference = orderReference;
-        this.orderReference = queryRecord;
-        output.sort(null);
-        this.orderReference = actual_orderReference;
-        
+        fusion.check(descriptorClasses.length);
+    }
+    
+    /**
+     * Returns the metadata of the records collected by the given collector, 
+     * sorted on the basis of their distance.
+     * 
+     * @param nearest the collector of the nearest records
+     * @return a list of ordered metadata
+     */
+    private List<ResultMetadata<Double,Record>> metadata(TopKCollector nearest){
+        int positions[] = nearest.positions();
+        double distances[] = nearest.distances();
+        List<ResultMetadata<Double,Record>> output = new ArrayList<>(positions.length);
+        for(int i=0; i<positions.length; i++){
+            output.add(new ResultMetadata<>(distances[i], database.get(positions[i])));
+        }
         return output;
     }
     
     /**
-     * Returns the records of this database ordered on the basis of its distance
-     * to the given query.
+     * Returns, for each of the given queries, the nearest records sorted on 
+     * the basis of their distance to the query (see
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int)}).
      * 
-     * @param queryMedia the query media
-     * @return a list of records ordered by distante to <code>queryRecord</code>
+     * Instead of scanning the database once per query, the database is 
+     * scanned only once: it is traversed in blocks of records, and each block
+     * is scored against all the queries of the batch (keeping the k nearest 
+     * records of each query), so the memory traffic is shared by the batch.
+     * 
+     * @param queryRecords the query records
+     * @param k the number of nearest records to be returned for each query
+     * @return a list with the ordered metadata of each query (in the same 
+     * order than the queries)
      */
-    public List<Record> query(T queryMedia){
-        Record queryRecord = new Record(queryMedia);
-        return this.query(queryRecord);       
+    public List<List<ResultMetadata<Double,Record>>> queryMetadata(List<Record> queryRecords, int k){ 
+        return queryMetadata(queryRecords, k, false);
     }
     
     /**
-     * Returns a subset of this database corresponding to the nearest records to 
-     * the given query one. The output is sorted on the basis of the distance 
-     * to the query.
+     * Returns, for each of the given queries, the nearest records sorted on 
+     * the basis of their distance to the query (see
+     * {@link #queryMetadata(java.util.List, int)}). Optionally, the blocks of
+     * records can be scored in parallel; the output is the same in both cases.
      * 
-     * @param queryRecord the query record
-     * @param size the size of the output subset 
-     * @return the nearest records sorted by distance
+     * @param queryRecords the query records
+     * @param k the number of nearest records to be returned for each query
+     * @param parallel if <tt>true</tt>, the database is split in several 
+     * parts (as many as available processors), which are scanned in parallel
+     * @return a list with the ordered metadata of each query (in the same 
+     * order than the queries)
      */
-    public List<Record> query(Record queryRecord, int size){
-        if (!queryRecord.isCompatible()) {
-            throw new InvalidParameterException("The query record does not share the data base structure.");
+    public List<List<ResultMetadata<Double,Record>>> queryMetadata(List<Record> queryRecords, int k, boolean parallel){ 
+        for (Record queryRecord : queryRecords) {
+            if (!queryRecord.isCompatible()) {
+                throw new InvalidParameterException("The query record does not share the data base structure.");
+            }
         }
-        List output = query(queryRecord);
-        return output.subList(0, size);
-        
-        //Record actual_orderReference = orderReference;
-        //this.orderReference = queryRecord;         
-        //size = Math.min(Math.max(size,0), database.size());
-        //TreeSet<Record> output = new TreeSet(database.subList(0,size)); //Sorted    
-        //Record current, last = output.last(); // Highest element currently in output
-        //for(int i=size; i<database.size(); i++){
-        //    current = database.get(i);  
-        //    if(last.compareTo(current)>0) {
-        //        output.remove(last);                
-        //        output.add(database.get(i)); // Added in a sorted way
-        //        last = output.last();
-        //    }
-        //}
-        //this.orderReference = actual_orderReference;
-        //return new ArrayList(output);
-        // NOTE: the previous implementation is faster than the easiest following
-        // code: (1) call to query(queryRecord) and (2) return the sublist by
-        // calling subList(0,size). If the size of the database (n) is very high,  
-        // the sorting in the query method (O(n·logn)) have more cost than the  
-        // insertion made in this implementation (O(n·m), with m<<n) For example,
-        // if m=10 (the size parameter), this implementaion is faster for n>1024.
+        List<Record> queries = new ArrayList<>(queryRecords);
+        int n = database.size();
+        TopKCollector nearest[];
+        if (parallel && n > BATCH_BLOCK_SIZE) {
+            // Each part (a set of consecutive blocks) has its own collectors,
+            // which are merged at the end
+            int numParts = Math.min(Runtime.getRuntime().availableProcessors(), (n + BATCH_BLOCK_SIZE - 1) / BATCH_BLOCK_SIZE);
+            int partSize = (n + numParts - 1) / numParts;
+            nearest = IntStream.range(0, numParts).parallel()
+                    .mapToObj(p -> nearest(queries, k, p * partSize, Math.min(n, (p + 1) * partSize)))
+                    .reduce((c1, c2) -> {
+                        for (int q = 0; q < c1.length; q++) {
+                            c1[q].merge(c2[q]);
+                        }
+                        return c1;
+                    }).get();
+        } else {
+            nearest = nearest(queries, k, 0, n);
+        }
+        List<List<ResultMetadata<Double,Record>>> output = new ArrayList<>(queries.size());
+        for (TopKCollector collector : nearest) {
+            int positions[] = collector.positions();
+            double distances[] = collector.distances();
+            List<ResultMetadata<Double,Record>> result = new ArrayList<>(positions.length);
+            for(int i=0; i<positions.length; i++){
+                result.add(new ResultMetadata<>(distances[i], database.get(positions[i])));
+            }
+            output.add(result);
+        }
+        return output;
     }
     
     /**
-     * Returns a subset of this database corresponding to the nearest records to 
-     * the given query one. The output is sorted on the basis of the distance 
-     * to the query.
+     * Returns, for each of the given queries, a collector with the nearest 
+     * records in the given range of positions. The range is traversed in 
+     * blocks of {@link #BATCH_BLOCK_SIZE} records, and each block is scored
+     * against all the queries before moving to the next one.
      * 
-     * @param queryMedia the query media
-     * @param size the size of the output subset 
-     * @return the nearest records sorted by distance
+     * @param queries the query records
+     * @param k the number of nearest records to be collected for each query
+     * @param from the first position of the range (inclusive)
+     * @param to the last position of the range (exclusive)
+     * @return the collectors of the queries (in the same order)
      */
-    public List<Record> query(T queryMedia, int size){
-        Record queryRecord = new Record(queryMedia);
-        return this.query(queryRecord, size);        
+    private TopKCollector[] nearest(List<Record> queries, int k, int from, int to){
+        TopKCollector nearest[] = new TopKCollector[queries.size()];
+        for (int q = 0; q < nearest.length; q++) {
+            nearest[q] = collector(k);
+        }
+        TopKCollector collector;
+        for (int block = from; block < to; block += BATCH_BLOCK_SIZE) {
+            int end = Math.min(block + BATCH_BLOCK_SIZE, to);
+            for (int q = 0; q < nearest.length; q++) {
+                collector = nearest[q];
+                for (int i = block; i < end; i++) {
+                    collector.offer(queries.get(q).distance(database.get(i), collector.bound()), i);
+                }
+            }
+        }
+        return nearest;
     }
     
     /**
-     * Returns the records of this database ordered on the basis of its distance
-     * to the given query. For each record, metadata info about its distance to 
-     * the given query is provided.
+     * Returns the records of this database whose distance to the given query
+     * is less than or equal to the given radius. For each record, metadata 
+     * info about its distance to the given query is provided (see 
+     * {@link #queryMetadata(jmr.db.ListDB.Record)}).
      * 
-     * The returned info is a list o pairs [distance, record] encapsulated in a 
-     * {@link jmr.result.ResultMetadata} object, where the result type is a 
-     * {@link java.lang.Double} representing the distance to the query, and the
-     * metadata type is the record associated to that distance.
+     * The records are returned as a lazy stream: the database is traversed as
+     * the stream is consumed, the distances are early-abandoned against the 
+     * radius and, if a pivot index is available, the records whose lower 
+     * bound exceeds the radius are discarded without calculating their 
+     * distance. If the output is not sorted, the records are given in the 
+     * database order and no result is stored; if sorted, the hits (but not the
+     * rest of records) are stored until the database has been traversed. 
+     * 
+     * The database should not be modified while the stream is consumed.
      * 
      * @param queryRecord the query record
-     * @return a list of ordered metadata
+     * @param radius the maximum distance to the query
+     * @param sorted if <tt>true</tt>, the records are sorted on the basis of 
+     * their distance to the query; if <tt>false</tt>, they are given in the
+     * database order
+     * @return a stream of metadata
      */
-    public List<ResultMetadata<Double,Record>> queryMetadata(Record queryRecord){ 
+    public Stream<ResultMetadata<Double,Record>> queryRange(Record queryRecord, double radius, boolean sorted){ 
         if (!queryRecord.isCompatible()) {
             throw new InvalidParameterException("The query record does not share the data base structure.");
         }
-        List output = new ArrayList<>();
-        Object distance;
-        for(Record r: database){
-            distance = queryRecord.compare(r);
-            output.add(new ResultMetadata(distance, r));
+        Iterator<ResultMetadata<Double,Record>> iterator = new RangeIterator(queryRecord, radius);
+        if (!sorted) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
         }
-        output.sort(null);
-        return output;
+        // Only the hits are stored (in the database order, so the sort keeps
+        // the same order than the full query in case of ties)
+        List<ResultMetadata<Double,Record>> hits = new ArrayList<>();
+        iterator.forEachRemaining(hits::add);
+        double distances[] = new double[hits.size()];
+        for(int i=0; i<distances.length; i++){
+            distances[i] = hits.get(i).getResult();
+        }
+        List<ResultMetadata<Double,Record>> output = new ArrayList<>(distances.length);
+        for(int i : DistanceOrder.sort(distances)){
+            output.add(hits.get(i));
+        }
+        return output.stream();
     }
     
     /**
-     * Read a serialized <code>ListDB</code> object from a file.
+     * Returns the records of this database whose distance to the given query
+     * is less than or equal to the given radius (see 
+     * {@link #queryRange(jmr.db.ListDB.Record, double, boolean)}).
+     * 
+     * @param queryMedia the query media
+     * @param radius the maximum distance to the query
+     * @param sorted if <tt>true</tt>, the records are sorted on the basis of 
+     * their distance to the query; if <tt>false</tt>, they are given in the
+     * database order
+     * @return a stream of metadata
+     */
+    public Stream<ResultMetadata<Double,Record>> queryRange(T queryMedia, double radius, boolean sorted){ 
+        Record queryRecord = new Record(queryMedia);
+        return this.queryRange(queryRecord, radius, sorted);
+    }
+
+    /**
+     * Similarity self-join: emits all the pairs of records of this database
+     * whose distance is less than or equal to the given threshold (for
+     * example, for detecting near-duplicates). Each pair is emitted once, with
+     * the record of lowest position first.
+     *
+     * Records are blocked on the basis of a coarse descriptor (a
+     * <code>SingleColorDescriptor</code> or <code>MPEG7ScalableColor</code>
+     * of the record, if any), so most of the distant pairs are skipped without
+     * calculating their distance; the result is the same that the one obtained
+     * comparing all the pairs. The blocking is only exact for the default 
+     * comparators (the Euclidean fusion of the descriptor distances of the
+     * {@link DescriptorList} comparator), so, if any record uses another 
+     * comparator, all the pairs are compared. Pairs are given to the sink as
+     * they are found (they are not stored), so the memory used does not 
+     * depend on the number of pairs.
+     *
+     * The database should not be modified during the join.
+     *
+     * @param threshold the maximum distance between records
+     * @param parallel if <tt>true</tt>, the join is performed in parallel; in
+     * that case, the sink is called concurrently from several threads, so it
+     * must be thread-safe
+     * @param sink the consumer of the pairs
+     * @return the number of emitted pairs
+     */
+    public long join(double threshold, boolean parallel, PairConsumer<T> sink){
+        if (threshold < 0.0 || Double.isNaN(threshold)) {
+            throw new InvalidParameterException("The threshold must be non-negative.");
+        }
+        return new SimilarityJoin<>(this).join(threshold, parallel, sink);
+    }
+
+    /**
+     * Similarity self-join: emits, for each record of this database, its k
+     * nearest records (the record itself excluded) in ascending order of
+     * distance. The record is given as the first element of its pairs. As in
+     * {@link #join(double, boolean, jmr.db.PairConsumer)}, records are
+     * blocked on the basis of a coarse descriptor (only with the default
+     * comparators) and pairs are not stored.
+     *
+     * The database should not be modified during the join.
+     *
+     * @param k the number of neighbours of each record
+     * @param parallel if <tt>true</tt>, the join is performed in parallel; in
+     * that case, the sink is called concurrently from several threads, so it
+     * must be thread-safe
+     * @param sink the consumer of the pairs
+     */
+    public void joinNearest(int k, boolean parallel, PairConsumer<T> sink){
+        if (k < 1) {
+            throw new InvalidParameterException("The number of neighbours must be positive.");
+        }
+        new SimilarityJoin<>(this).joinNearest(k, parallel, sink);
+    }
+
+    /**
+     * Read a serialized <code>ListDB</code> object from a file, written by
+     * this or by any previous version of the library.
      *
      * @param file the file with the serialized <code>ListDB</code> object
      * @return a new <code>ListDB</code> object with the records stored in the
@@ -375,9 +1805,32 @@ public class ListDB<T> implements Serializable{
         return database;
     }
     
+    /**
+     * Reads this database from the given stream. If the database was written
+     * before the records had ids, new ids are assigned in the database order.
+     * 
+     * @param in the stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (ids == null) {
+            // Written before the records had ids, or a view
+            ids = new long[Math.max(database.size(), 16)];
+            for (int i = 0; i < database.size(); i++) {
+                ids[i] = i;
+            }
+            nextId = database.size();
+            compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        }
+    }
+    
     /**
      * Save this <code>ListDB</code> object in a file by means a serialize 
-     * process.
+     * process. The deleted records not compacted yet are saved too (see
+     * {@link #compact(java.io.File)}).
      * 
      * @param file the file where this objetc will be serialized.
      * 
@@ -405,6 +1858,77 @@ public class ListDB<T> implements Serializable{
     }
     
     
+    /**
+     * Inner class implementing a lazy iterator over the records of this 
+     * database whose distance to a given query is less than or equal to a 
+     * given radius.
+     */
+    private class RangeIterator implements Iterator<ResultMetadata<Double,Record>> {
+        /**
+         * The query record.
+         */
+        private final Record queryRecord;
+        /**
+         * The maximum distance to the query.
+         */
+        private final double radius;
+        /**
+         * The pivot index used for discarding records (<tt>null</tt> if there
+         * is no pivot index).
+         */
+        private final PivotIndex<T> index;
+        /**
+         * Distances from the query to the pivots of the pivot index.
+         */
+        private final double pivotDistances[];
+        /**
+         * Position of the next record to be checked.
+         */
+        private int position = 0;
+        /**
+         * Next hit to be returned (<tt>null</tt> if not found yet).
+         */
+        private ResultMetadata<Double,Record> next = null;
+        
+        /**
+         * Constructs a new iterator.
+         * 
+         * @param queryRecord the query record
+         * @param radius the maximum distance to the query
+         */
+        RangeIterator(Record queryRecord, double radius) {
+            this.queryRecord = queryRecord;
+            this.radius = radius;
+            this.index = pivotIndex != null && pivotIndex.supports(queryRecord) ? pivotIndex : null;
+            this.pivotDistances = index != null ? index.pivotDistances(queryRecord) : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            double distance;
+            while (next == null && position < database.size()) {
+                if (!isDeleted(position) && (index == null || index.lowerBound(pivotDistances, position) <= radius)) {
+                    distance = queryRecord.distance(database.get(position), radius);
+                    if (distance <= radius) {
+                        next = new ResultMetadata<>(distance, database.get(position));
+                    }
+                }
+                position++;
+            }
+            return next != null;
+        }
+
+        @Override
+        public ResultMetadata<Double,Record> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ResultMetadata<Double,Record> output = next;
+            next = null;
+            return output;
+        }
+    }
+    
     /**
      * Inner class representing a single item (record) in the data base. In this
      * case, a record will correspond to the list of descriptors associated to
@@ -412,6 +1936,8 @@ public class ListDB<T> implements Serializable{
      *
      */
     public class Record extends DescriptorList<T> implements Comparable<Record>{
+        private static final long serialVersionUID = 6696743104810757382L;
+
         /**
          * Locator of the media associated to this record (null if not available).
          * 
@@ -438,16 +1964,49 @@ public class ListDB<T> implements Serializable{
          * @param media the source media of this record
          */
         public Record(T media) {
-            super(media);
-            this.initDescriptors(descriptorClasses);
-            //The source is un-referenced in order to free memory
-//            this.source = null;
-//            for (int i = 0; i < this.size(); i++) {
-//                try {
-//                    this.get(i).setSource(null);
-//                } catch (Exception ex) {
-//                }
-//            }            
+            this(ExtractionContext.of(media));
+        }
+        
+        /**
+         * Constructs a record associated to the media of the given extraction
+         * context, initializing its list of descriptors. By default, the 
+         * locator of the media is set to <tt>null</tt>.
+         *
+         * The descriptors are calculated as in {@link #Record(java.lang.Object)},
+         * but sharing the given context: the intermediate data needed by 
+         * several descriptors (decoded raster, color space conversions, etc.)
+         * is calculated only once per record. Descriptor classes providing a
+         * constructor with a single parameter of the context type will use it.
+         *
+         * @param context the extraction context of this record
+         */
+        public Record(ExtractionContext<T> context) {
+            this(context, null);
+        }
+        
+        /**
+         * Constructs a record associated to the media of the given extraction
+         * context, initializing its list of descriptors and the media locator. 
+         * 
+         * If the database has a descriptor cache (see 
+         * {@link ListDB#setDescriptorCache(jmr.db.DescriptorCache)}) and the
+         * media is a file path or a decoded image, the cached descriptors of
+         * its content are used. If the database does not keep the
+         * media sources (see {@link ListDB#setSourceDetached(boolean)}), the
+         * source of this record and of its descriptors is released once the
+         * descriptors have been calculated.
+         *
+         * @param context the extraction context of this record
+         * @param locator the media locator of this record.
+         */
+        public Record(ExtractionContext<T> context, URL locator) {
+            super(context.getMedia());
+            this.locator = locator;
+            this.initDescriptors(context, descriptorClasses);
+            // The source is un-referenced in order to free memory
+            if (sourceDetached) {
+                this.detachSource();
+            }
         }
 
         /**
@@ -465,8 +2024,7 @@ public class ListDB<T> implements Serializable{
          * @param locator the media locator of this record.
          */
         public Record(T media, URL locator) {
-            this(media);
-            this.locator = locator;
+            this(ExtractionContext.of(media), locator);
         }
     
         /**
@@ -521,19 +2079,64 @@ public class ListDB<T> implements Serializable{
             return locator;
         }
         
+        /**
+         * Returns the media source of this record. If the record does not keep
+         * its source in memory (see {@link ListDB#setSourceDetached(boolean)}
+         * and {@link ListDB#open(java.io.File)}), it is loaded from the 
+         * locator using the loader of the database (see 
+         * {@link ListDB#setSourceLoader(jmr.db.SourceLoader)}). The loaded
+         * media is not kept by this record, so each call loads it again.
+         *
+         * @return the media source of this record (<tt>null</tt> if it is not
+         * available and cannot be loaded)
+         * @throws IOException if an I/O error occurs while loading the media
+         */
+        public T loadSource() throws IOException {
+            T media = this.getSource();
+            SourceLoader<T> loader = sourceLoader;
+            if (media == null && locator != null && loader != null) {
+                media = loader.load(locator);
+            }
+            return media;
+        }
+        
         /**
          * Initializes the list of descriptors associated to this record.
          *
+         * @param context the extraction context shared by the descriptors
          * @param descriptorClasses the list of descriptor classes that will
          * determine the set of descriptor associated to this record. Each
          * descriptor class have to provide a constructor with a single
-         * parameter of the query type.
+         * parameter of the query type (or of the context type).
+         * 
+         * If the database has a descriptor cache, the cached descriptors of 
+         * the media content are added instead of calculating them, and the
+         * calculated ones are stored in the cache. The cached descriptors
+         * (which are read without source) are attached to the media of this 
+         * record, so they are handled as the calculated ones (in particular,
+         * their source is released only if the database does not keep the
+         * media sources).
          */
-        private void initDescriptors(Class... descriptorClasses) {
+        private void initDescriptors(ExtractionContext<T> context, Class... descriptorClasses) {
+            DescriptorCache cache = descriptorCache;
+            String contentHash = cache != null ? cache.contentHash(context.getMedia()) : null;
             MediaDescriptor<T> descriptor;
             for (Class c : descriptorClasses) {
-                descriptor = MediaDescriptorFactory.getInstance(c, this.source);
+                descriptor = contentHash != null ? cache.get(contentHash, c) : null;
+                if (descriptor != null) {
+                    descriptor.attachSource(context.getMedia());
+                    this.add(descriptor);
+                    continue;
+                }
+                descriptor = MediaDescriptorFactory.getInstance(c, context);
                 this.add(descriptor);
+                if (contentHash != null) {
+                    try {
+                        cache.put(contentHash, descriptor);
+                    } catch (IOException ex) {
+                        // The descriptor is not cached
+                    }
+                }
             }
         }
         
@@ -576,10 +2179,10 @@ public class ListDB<T> implements Serializable{
             //Double d1 = this.compare(orderReference);
             //Double d2 = o.compare(orderReference);
             
-            Double d1 = orderReference.compare(this);
-            Double d2 = orderReference.compare(o);
+            double d1 = orderReference.distance(this);
+            double d2 = orderReference.distance(o);
             
-            return d1.compareTo(d2);
+            return Double.compare(d1, d2);
         }
     } // end inner class
 }
@@ -0,0 +1,197 @@
+package jmr.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import jmr.descriptor.DescriptorList;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a shard stored in a {@link ListDB} of this process,
+ * optionally associated to a file.
+ *
+ * The queries can run concurrently among them, but not with the additions
+ * (a read-write lock protects the database).
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LocalShard<T> implements Shard<T> {
+
+    /**
+     * The database of this shard.
+     */
+    private final ListDB<T> database;
+    /**
+     * The file of this shard (<tt>null</tt> if it has not file).
+     */
+    private final File file;
+    /**
+     * Lock protecting the database.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs a shard stored in the given database, associated to the
+     * given file.
+     *
+     * @param database the database of this shard
+     * @param file the file of this shard (<tt>null</tt> if it has not file)
+     */
+    public LocalShard(ListDB<T> database, File file) {
+        this.database = database;
+        this.file = file;
+    }
+
+    /**
+     * Opens the shard stored in the given file.
+     *
+     * @param <T> the media type of the records
+     * @param file the file of the shard
+     * @return the shard stored in the file
+     * @throws IOException if an I/O error occurs while reading the file
+     * @throws ClassNotFoundException if some class of a serialized object
+     * cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> LocalShard<T> open(File file) throws IOException, ClassNotFoundException {
+        return new LocalShard<>((ListDB<T>) ListDB.open(file), file);
+    }
+
+    /**
+     * Returns the database of this shard.
+     *
+     * @return the database of this shard
+     */
+    public ListDB<T> getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the file of this shard.
+     *
+     * @return the file of this shard (<tt>null</tt> if it has not file)
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of records of this shard.
+     *
+     * @return the number of records of this shard
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return database.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a new record, calculated from the given media, to this shard.
+     *
+     * @param media media from which the new record is calculated
+     * @param locator the media locator of the new record
+     */
+    @Override
+    public void add(T media, URL locator) {
+        ListDB<T>.Record record = database.new Record(media, locator);
+        lock.writeLock().lock();
+        try {
+            database.add(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a new record with the given descriptors (calculated elsewhere)
+     * to this shard.
+     *
+     * @param descriptors the descriptors of the new record
+     * @param locator the media locator of the new record
+     */
+    void add(DescriptorList<T> descriptors, URL locator) {
+        ListDB<T>.Record record = database.new Record(descriptors, locator);
+        lock.writeLock().lock();
+        try {
+            database.add(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a query record with the given descriptors and comparator.
+     *
+     * @param descriptors the descriptors of the query
+     * @return the query record
+     */
+    ListDB<T>.Record record(DescriptorList<T> descriptors) {
+        ListDB<T>.Record record = database.new Record(descriptors);
+        record.setComparator(descriptors.getComparator());
+        return record;
+    }
+
+    /**
+     * Returns the nearest records of this shard to the given query, sorted on
+     * the basis of their distance to the query.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     */
+    @Override
+    public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) {
+        lock.readLock().lock();
+        try {
+            return database.queryMetadata(queryRecord, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves this shard in its file.
+     *
+     * @throws IOException if an I/O error occurs while writing the file
+     * @throws IllegalStateException if this shard has not file
+     */
+    @Override
+    public void save() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("The shard has not file.");
+        }
+        lock.readLock().lock();
+        try {
+            database.save(file);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes this shard (the database is kept in memory, and it is not saved).
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns a string representation of this shard.
+     *
+     * @return a string representation of this shard
+     */
+    @Override
+    public String toString() {
+        return "LocalShard: [file=" + file + ", records=" + size() + "]";
+    }
+}
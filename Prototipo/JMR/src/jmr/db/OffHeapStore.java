@@ -0,0 +1,420 @@
+package jmr.db;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.VectorDescriptor;
+
+/**
+ * Class representing a copy of a vector descriptor of the records of a
+ * {@link ListDB} (see {@link VectorDescriptor}) stored outside the Java heap,
+ * used for scanning the descriptor without visiting the record objects.
+ *
+ * The vectors are stored as floats in fixed-size slots of direct buffers
+ * (see {@link ByteBuffer#allocateDirect(int)}). The buffers are chunks of
+ * {@link #CHUNK_SLOTS} slots, so the store is not limited by the size of a
+ * single buffer and it grows by allocating new chunks (without copying the
+ * stored vectors). The slots of the removed records are reused.
+ *
+ * The descriptors keep their own data in the heap, so the rest of queries
+ * and the descriptor comparators are not affected by the store. The store
+ * is only used by the off-heap queries (see 
+ * {@link ListDB#queryOffHeap(jmr.db.ListDB.Record, int)}), whose scan reads
+ * no heap object but the slot of each record (an array of integers in the 
+ * database order) and allocates nothing per record.
+ *
+ * The nearest records queries are solved by scanning the buffers: the
+ * l1-norm between the query vector and each stored vector is calculated
+ * directly on the buffers (abandoning the calculation as soon as it exceeds
+ * the current k-th distance). This is the distance of the records only if
+ * they use the default comparator of the {@link DescriptorList} class (see
+ * {@link #supports(jmr.db.ListDB.Record)}) and have only the stored 
+ * descriptor; in that case, the distances are the descriptor distances up
+ * to the float rounding of the stored vectors (see {@link VectorDescriptor}).
+ *
+ * The store is built by means of the {@link ListDB#createOffHeapStore(int)}
+ * method, it is updated on each modification of the database and it is
+ * serialized together with it (the vectors are written in the database
+ * order, and new buffers are allocated when the database is loaded).
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class OffHeapStore<T> implements RecordIndex<T> {
+
+    private static final long serialVersionUID = 3459140553290764906L;
+
+    /**
+     * Number of slots of each buffer.
+     */
+    static public final int CHUNK_SLOTS = 1024;
+    /**
+     * Initial length of the arrays of slots.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Number of dimensions between two consecutive checks of the partial
+     * distance in the scan.
+     */
+    private static final int EARLY_ABANDON_STEP = 16;
+    /**
+     * Position of the vector descriptor in the records.
+     */
+    private final int component;
+    /**
+     * The dimension of the vectors (-1 until the first vector is stored).
+     */
+    private int dimension = -1;
+    /**
+     * The buffers with the vectors (each one with {@link #CHUNK_SLOTS} slots).
+     */
+    private transient ArrayList<FloatBuffer> chunks = new ArrayList<>();
+    /**
+     * The number of slots used so far (used or free).
+     */
+    private transient int allocated = 0;
+    /**
+     * The slot of each record (in the database order).
+     */
+    private transient int slots[] = new int[INITIAL_CAPACITY];
+    /**
+     * The number of stored records.
+     */
+    private transient int size = 0;
+    /**
+     * The free slots (the first <code>free</code> positions are used).
+     */
+    private transient int freeSlots[] = new int[16];
+    /**
+     * The number of free slots.
+     */
+    private transient int free = 0;
+
+    /**
+     * Constructs an off-heap store of the given vector descriptor of the
+     * records of the given database.
+     *
+     * @param database the database to be stored
+     * @param component the position of the vector descriptor in the records
+     */
+    OffHeapStore(ListDB<T> database, int component) {
+        this.component = component;
+        for (int i = 0; i < database.size(); i++) {
+            add(i, database.get(i));
+        }
+    }
+
+    /**
+     * Returns the position of the vector descriptor in the records.
+     *
+     * @return the position of the vector descriptor in the records
+     */
+    public int getComponent() {
+        return component;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap by this store.
+     *
+     * @return the size of the buffers, in bytes
+     */
+    public long getOffHeapBytes() {
+        return (long) chunks.size() * CHUNK_SLOTS * Math.max(dimension, 0) * Float.BYTES;
+    }
+
+    /**
+     * Checks if the given query can be solved by this store, that is, if the
+     * query record uses the default comparator of the {@link DescriptorList}
+     * class (the store only calculates the l1-norm between the vectors, so a
+     * custom comparator or fusion would be ignored).
+     *
+     * @param queryRecord the query record
+     * @return <tt>true</tt> if the query can be solved by this store
+     */
+    boolean supports(ListDB<T>.Record queryRecord) {
+        return queryRecord.getComparator() != null
+                && queryRecord.getComparator().getClass() == DescriptorList.DefaultComparator.class;
+    }
+
+    /**
+     * Returns the vector stored for the record at the given position.
+     *
+     * @param index the position of the record
+     * @return the stored vector
+     */
+    public double[] getVector(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return read(slots[index]);
+    }
+
+    /**
+     * Returns the vector stored in the given slot.
+     *
+     * @param slot the slot
+     * @return the stored vector
+     */
+    private double[] read(int slot) {
+        FloatBuffer chunk = chunks.get(slot / CHUNK_SLOTS);
+        double vector[] = new double[dimension];
+        for (int d = 0, base = (slot % CHUNK_SLOTS) * dimension; d < dimension; d++) {
+            vector[d] = chunk.get(base + d);
+        }
+        return vector;
+    }
+
+    /**
+     * Returns a collector with the nearest records to the given query on the
+     * basis of the l1-norm between the stored vectors.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @param deleted the positions of the deleted records, which are skipped
+     * (<tt>null</tt> if there is not)
+     * @return a collector with the positions and distances of the nearest
+     * records
+     * @throws InvalidParameterException if the query cannot be solved by
+     * this store (see {@link #supports(jmr.db.ListDB.Record)})
+     */
+    TopKCollector nearest(ListDB<T>.Record queryRecord, int k, BitSet deleted) {
+        if (!supports(queryRecord)) {
+            throw new InvalidParameterException("The off-heap store only supports the default record comparator.");
+        }
+        TopKCollector collector = new TopKCollector(Math.min(k, size), deleted);
+        if (size == 0) {
+            return collector;
+        }
+        double query[] = vector(queryRecord), bound, sum;
+        FloatBuffer data;
+        for (int i = 0; i < size; i++) {
+            if (collector.excludes(i)) {
+                continue;
+            }
+            bound = collector.bound();
+            sum = 0.0;
+            data = chunks.get(slots[i] / CHUNK_SLOTS);
+            int base = (slots[i] % CHUNK_SLOTS) * dimension, d = 0, end;
+            while (d < dimension) {
+                end = Math.min(d + EARLY_ABANDON_STEP, dimension);
+                for (; d < end; d++) {
+                    sum += Math.abs(query[d] - data.get(base + d));
+                }
+                if (sum > bound) {
+                    break;
+                }
+            }
+            collector.offer(sum, i);
+        }
+        return collector;
+    }
+
+    /**
+     * Returns the vector of the given record, checking its dimension.
+     *
+     * @param record the record
+     * @return the vector of the stored descriptor
+     * @throws InvalidParameterException if the vector does not have the
+     * dimension of the stored ones
+     */
+    private double[] vector(ListDB<T>.Record record) {
+        double vector[] = ((VectorDescriptor) record.get(component)).getVector();
+        if (dimension >= 0 && vector.length != dimension) {
+            throw new InvalidParameterException("The vector dimension must be " + dimension);
+        }
+        return vector;
+    }
+
+    /**
+     * Writes the given vector in the given slot.
+     *
+     * @param slot the slot
+     * @param vector the vector
+     */
+    private void write(int slot, double vector[]) {
+        FloatBuffer chunk = chunks.get(slot / CHUNK_SLOTS);
+        for (int d = 0, base = (slot % CHUNK_SLOTS) * dimension; d < dimension; d++) {
+            chunk.put(base + d, (float) vector[d]);
+        }
+    }
+
+    /**
+     * Returns a free slot, allocating a new buffer if there is not.
+     *
+     * @param dimension the dimension of the vectors (used for sizing the
+     * buffers the first time)
+     * @return the slot
+     * @throws InvalidParameterException if a buffer with the given dimension
+     * cannot be allocated
+     */
+    private int allocate(int dimension) {
+        if (free > 0) {
+            return freeSlots[--free];
+        }
+        if (chunks.isEmpty() && this.dimension < 0) {
+            if ((long) CHUNK_SLOTS * dimension * Float.BYTES > Integer.MAX_VALUE) {
+                throw new InvalidParameterException("The vector dimension cannot exceed " + Integer.MAX_VALUE / (CHUNK_SLOTS * Float.BYTES));
+            }
+            this.dimension = dimension;
+        }
+        if (allocated == chunks.size() * CHUNK_SLOTS) {
+            chunks.add(newBuffer());
+        }
+        return allocated++;
+    }
+
+    /**
+     * Allocates a new direct buffer with {@link #CHUNK_SLOTS} slots.
+     *
+     * @return the new buffer
+     */
+    private FloatBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(CHUNK_SLOTS * dimension * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Stores the vector of the new record in a new slot.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    @Override
+    public void add(int index, ListDB<T>.Record record) {
+        double vector[] = vector(record);
+        int slot = allocate(vector.length);
+        write(slot, vector);
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        System.arraycopy(slots, index, slots, index + 1, size - index);
+        slots[index] = slot;
+        size++;
+    }
+
+    /**
+     * Overwrites the slot of the replaced record with the new vector.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    @Override
+    public void set(int index, ListDB<T>.Record record) {
+        double vector[] = vector(record);
+        write(slots[index], vector);
+    }
+
+    /**
+     * Frees the slot of the removed record.
+     *
+     * @param index the position of the removed record
+     */
+    @Override
+    public void remove(int index) {
+        if (free == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, free * 2);
+        }
+        freeSlots[free++] = slots[index];
+        System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+        size--;
+    }
+
+    /**
+     * Frees the slots of the removed records and compacts the slots of the
+     * rest of records in a single pass.
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    @Override
+    public void compact(int map[]) {
+        int count = 0;
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] < 0) {
+                count++;
+            }
+        }
+        if (free + count > freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, free + count);
+        }
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] < 0) {
+                freeSlots[free++] = slots[i];
+            } else {
+                slots[map[i]] = slots[i];
+            }
+        }
+        size -= count;
+    }
+
+    /**
+     * Removes all the vectors of the store (the buffers are kept).
+     */
+    @Override
+    public void clear() {
+        size = allocated = free = 0;
+    }
+
+    /**
+     * Writes the vectors of this store (in the database order) in the given
+     * stream.
+     *
+     * @param out the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            FloatBuffer chunk = chunks.get(slots[i] / CHUNK_SLOTS);
+            for (int d = 0, base = (slots[i] % CHUNK_SLOTS) * dimension; d < dimension; d++) {
+                out.writeFloat(chunk.get(base + d));
+            }
+        }
+    }
+
+    /**
+     * Reads the vectors of this store from the given stream, allocating new
+     * buffers.
+     *
+     * @param in the stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        size = in.readInt();
+        slots = new int[Math.max(size, INITIAL_CAPACITY)];
+        freeSlots = new int[16];
+        free = 0;
+        chunks = new ArrayList<>();
+        allocated = 0;
+        double vector[] = new double[Math.max(dimension, 0)];
+        for (int i = 0; i < size; i++) {
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] = in.readFloat();
+            }
+            slots[i] = allocate(dimension);
+            write(slots[i], vector);
+        }
+    }
+
+    /**
+     * Returns a string representation of this store.
+     *
+     * @return a string representation of this store
+     */
+    @Override
+    public String toString() {
+        return "OffHeapStore: [component=" + component + ", dimension=" + dimension
+                + ", records=" + size + ", off-heap bytes=" + getOffHeapBytes() + "]";
+    }
+}
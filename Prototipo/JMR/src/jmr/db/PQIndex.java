@@ -0,0 +1,280 @@
+package jmr.db;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jmr.descriptor.VectorDescriptor;
+
+/**
+ * Class representing a compressed copy of the vector descriptors of the
+ * records of a {@link ListDB} (see {@link VectorDescriptor}), used for the
+ * approximate nearest records queries.
+ *
+ * Each vector descriptor is encoded by a {@link ProductQuantizer} (one per
+ * descriptor, trained from a sample of the database) into one byte per
+ * subspace, and the codes of all the records are stored in a single array of
+ * bytes, so the index takes a few dozens of bytes per record. A query is
+ * solved in two steps: first, the database is scanned on the codes, using the
+ * asymmetric distance of each vector descriptor (the distance tables are
+ * calculated once per query) fused by the default fusion (see
+ * {@link Fusion#DEFAULT}); then, the exact distances of the best candidates
+ * of the scan are calculated (re-ranking) by means of the record comparator,
+ * and the nearest ones are returned. The descriptors that are not vectors are
+ * not encoded (their distance is zero in the first step).
+ *
+ * The result is approximate: a near record can be missed if it is not among
+ * the re-ranked candidates. The recall increases with the number of subspaces
+ * and re-ranked candidates (see {@link ListDB#recallQuantized(java.util.List, int, int)}).
+ *
+ * The index is built by means of the {@link ListDB#createPQIndex(int, int)}
+ * method, it is updated on each modification of the database (the codebooks
+ * are not trained again) and it is serialized together with it.
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PQIndex<T> implements RecordIndex<T> {
+
+    private static final long serialVersionUID = -8919530172372570201L;
+
+    /**
+     * Number of iterations of the training of the codebooks.
+     */
+    private static final int TRAINING_ITERATIONS = 16;
+    /**
+     * Seed of the training of the codebooks.
+     */
+    private static final long SEED = 0x5DEECE66DL;
+    /**
+     * The indexed database.
+     */
+    private final ListDB<T> database;
+    /**
+     * The positions of the vector descriptors in the records.
+     */
+    private final int components[];
+    /**
+     * The quantizer of each vector descriptor.
+     */
+    private final ProductQuantizer quantizers[];
+    /**
+     * The position of the code of each vector descriptor in the record code.
+     */
+    private final int offsets[];
+    /**
+     * The length of the record codes (in bytes).
+     */
+    private final int codeLength;
+    /**
+     * The codes of the records, one after another (in the database order).
+     */
+    private byte codes[];
+    /**
+     * The number of encoded records.
+     */
+    private int size = 0;
+
+    /**
+     * Constructs a product-quantized index over the vector descriptors of the
+     * given database. The codebooks are trained from a sample of records
+     * spread over the database.
+     *
+     * @param database the database to be indexed
+     * @param components the positions of the vector descriptors
+     * @param numSubspaces the number of subspaces of each vector descriptor
+     * (the bytes of its code)
+     * @param sampleSize the number of records used for training the
+     * codebooks (it is limited by the database size)
+     */
+    PQIndex(ListDB<T> database, int components[], int numSubspaces, int sampleSize) {
+        if (database.isEmpty()) {
+            throw new InvalidParameterException("The codebooks cannot be trained from an empty database.");
+        }
+        this.database = database;
+        this.components = components.clone();
+        int n = database.size(), samples = Math.max(1, Math.min(sampleSize, n)), step = n / samples;
+        quantizers = new ProductQuantizer[components.length];
+        offsets = new int[components.length];
+        int length = 0;
+        for (int j = 0; j < components.length; j++) {
+            List<double[]> sample = new ArrayList<>(samples);
+            for (int i = 0; i < samples; i++) {
+                sample.add(vector(database.get(i * step), j));
+            }
+            quantizers[j] = new ProductQuantizer(sample, numSubspaces, ProductQuantizer.MAX_CENTROIDS, TRAINING_ITERATIONS, SEED);
+            offsets[j] = length;
+            length += quantizers[j].getCodeLength();
+        }
+        codeLength = length;
+        codes = new byte[n * codeLength];
+        for (int i = 0; i < n; i++) {
+            add(i, database.get(i));
+        }
+    }
+
+    /**
+     * Returns the positions of the vector descriptors encoded by this index.
+     *
+     * @return the positions of the vector descriptors
+     */
+    public int[] getComponents() {
+        return components.clone();
+    }
+
+    /**
+     * Returns the quantizer of the given vector descriptor.
+     *
+     * @param j the index of the vector descriptor (in the array returned by
+     * {@link #getComponents()})
+     * @return the quantizer of the vector descriptor
+     */
+    public ProductQuantizer getQuantizer(int j) {
+        return quantizers[j];
+    }
+
+    /**
+     * Returns the length of the code of each record, in bytes.
+     *
+     * @return the length of the code of each record
+     */
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    /**
+     * Returns a collector with the (approximate) nearest records to the given
+     * query: the nearest ones (by the exact record distance) among the
+     * records with the lowest approximate distance.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @param rerank the number of candidates whose exact distance is
+     * calculated (at least k are calculated)
+     * @return a collector with the positions and distances of the nearest
+     * records
+     */
+    TopKCollector nearest(ListDB<T>.Record queryRecord, int k, int rerank) {
+        double tables[][] = new double[components.length][];
+        for (int j = 0; j < components.length; j++) {
+            tables[j] = quantizers[j].table(vector(queryRecord, j));
+        }
+        TopKCollector approximate = database.collector(Math.max(k, rerank));
+        double distance, fused;
+        for (int i = 0, offset = 0; i < size; i++, offset += codeLength) {
+            // Square of the default fusion (the same order, without the root)
+            fused = 0.0;
+            for (int j = 0; j < components.length; j++) {
+                distance = quantizers[j].distance(tables[j], codes, offset + offsets[j]);
+                fused += distance * distance;
+            }
+            approximate.offer(fused, i);
+        }
+        int candidates[] = approximate.positions();
+        Arrays.sort(candidates); // Database order (memory locality)
+        TopKCollector collector = database.collector(k);
+        for (int i : candidates) {
+            collector.offer(queryRecord.distance(database.get(i), collector.bound()), i);
+        }
+        return collector;
+    }
+
+    /**
+     * Returns the vector of the given descriptor of the given record.
+     *
+     * @param record the record
+     * @param j the index of the vector descriptor
+     * @return the vector of the descriptor
+     */
+    private double[] vector(ListDB<T>.Record record, int j) {
+        return ((VectorDescriptor) record.get(components[j])).getVector();
+    }
+
+    /**
+     * Encodes the given record, storing its code at the given position.
+     *
+     * @param index the position of the record
+     * @param record the record
+     */
+    private void encode(int index, ListDB<T>.Record record) {
+        for (int j = 0; j < components.length; j++) {
+            quantizers[j].encode(vector(record, j), codes, index * codeLength + offsets[j]);
+        }
+    }
+
+    /**
+     * Inserts the code of the new record.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    @Override
+    public void add(int index, ListDB<T>.Record record) {
+        if ((size + 1) * codeLength > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(size + 1, size * 3 / 2) * codeLength);
+        }
+        System.arraycopy(codes, index * codeLength, codes, (index + 1) * codeLength, (size - index) * codeLength);
+        size++;
+        encode(index, record);
+    }
+
+    /**
+     * Replaces the code of the replaced record.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    @Override
+    public void set(int index, ListDB<T>.Record record) {
+        encode(index, record);
+    }
+
+    /**
+     * Removes the code of the removed record.
+     *
+     * @param index the position of the removed record
+     */
+    @Override
+    public void remove(int index) {
+        System.arraycopy(codes, (index + 1) * codeLength, codes, index * codeLength, (size - index - 1) * codeLength);
+        size--;
+    }
+
+    /**
+     * Removes the codes of the removed records and compacts the rest of codes
+     * in a single pass.
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    @Override
+    public void compact(int map[]) {
+        int count = 0;
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] >= 0) {
+                System.arraycopy(codes, i * codeLength, codes, map[i] * codeLength, codeLength);
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Removes all the codes of the index (the codebooks are kept).
+     */
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns a string representation of this index.
+     *
+     * @return a string representation of this index
+     */
+    @Override
+    public String toString() {
+        return "PQIndex: [components=" + Arrays.toString(components) + ", records=" + size
+                + ", bytes per record=" + codeLength + "]";
+    }
+}
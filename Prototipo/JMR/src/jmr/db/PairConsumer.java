@@ -0,0 +1,25 @@
+package jmr.db;
+
+/**
+ * Represents an operation that accepts a pair of records of a {@link ListDB}
+ * together with their distance. It is used as the sink of the similarity
+ * join operations (see
+ * {@link ListDB#join(double, boolean, jmr.db.PairConsumer)} and
+ * {@link ListDB#joinNearest(int, boolean, jmr.db.PairConsumer)}).
+ *
+ * @param <T> the media type of the database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+@FunctionalInterface
+public interface PairConsumer<T> {
+
+    /**
+     * Performs this operation on the given pair of records.
+     *
+     * @param first the first record of the pair
+     * @param second the second record of the pair
+     * @param distance the distance between the records
+     */
+    void accept(ListDB<T>.Record first, ListDB<T>.Record second, double distance);
+}
@@ -0,0 +1,365 @@
+package jmr.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jmr.descriptor.DescriptorList;
+
+/**
+ * Class representing a pivot-based index (LAESA) over the records of a
+ * {@link ListDB}.
+ *
+ * A set of pivot records is chosen from the database and the distances from
+ * each record to each pivot are precomputed in a table. At query time, only
+ * the distances from the query to the pivots are calculated; by the triangle
+ * inequality, the value
+ * <code>max<sub>p</sub>|d(q,p) - d(x,p)|</code> is a lower bound of the
+ * distance between the query <code>q</code> and a record <code>x</code>, so
+ * the records whose lower bound exceeds the current k-th nearest distance are
+ * discarded without calculating their distance. The records with the lowest
+ * bounds are visited first, so a tight k-th distance is available from the
+ * beginning of the search.
+ *
+ * This index works with any record structure (including several descriptors
+ * fused by the {@link jmr.descriptor.DescriptorList} comparator), but it
+ * requires the record distance to be a metric (in particular, symmetric and
+ * satisfying the triangle inequality). Under this condition, the results are
+ * the same that the ones obtained by a full scan of the database. Since this
+ * is only guaranteed for the default record comparator (see
+ * {@link #supports(jmr.db.ListDB.Record)}), the queries with other 
+ * comparators are not solved by this index.
+ *
+ * The index is built by means of the
+ * {@link ListDB#createPivotIndex(int)} method, it is updated on each
+ * modification of the database and it is serialized together with it.
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PivotIndex<T> implements RecordIndex<T> {
+
+    private static final long serialVersionUID = -4757473128414076700L;
+
+    /**
+     * Relative precision of the distances stored in the pivot table.
+     */
+    private static final double FLOAT_PRECISION = Math.ulp(1.0f);
+    /**
+     * The indexed database.
+     */
+    private final ListDB<T> database;
+    /**
+     * The pivot records.
+     */
+    private final ArrayList<ListDB<T>.Record> pivots;
+    /**
+     * Distances from each record (rows, in the database order) to each pivot
+     * (columns).
+     */
+    private final ArrayList<float[]> table;
+    /**
+     * Number of queries solved by this index (since it was loaded).
+     */
+    private transient long queries = 0;
+    /**
+     * Number of record distances calculated by this index (since it was
+     * loaded), without the query to pivot distances.
+     */
+    private transient long examined = 0;
+    /**
+     * Number of records discarded by their lower bound (since it was loaded).
+     */
+    private transient long pruned = 0;
+
+    /**
+     * Constructs a pivot index over the given database, choosing the pivots by
+     * means of a farthest-first traversal: each new pivot is the record
+     * farthest from the previous pivots. The pivot table is filled as the
+     * pivots are chosen.
+     *
+     * @param database the database to be indexed
+     * @param numPivots the number of pivots (it is limited by the database
+     * size)
+     */
+    PivotIndex(ListDB<T> database, int numPivots) {
+        this.database = database;
+        int n = database.size(), m = Math.max(0, Math.min(numPivots, n));
+        pivots = new ArrayList<>(m);
+        table = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            table.add(new float[m]);
+        }
+        double minDistance[] = new double[n], distance;
+        Arrays.fill(minDistance, Double.POSITIVE_INFINITY);
+        int next = 0;
+        for (int j = 0; j < m; j++) {
+            ListDB<T>.Record pivot = database.get(next);
+            pivots.add(pivot);
+            for (int i = 0; i < n; i++) {
+                distance = pivot.distance(database.get(i));
+                table.get(i)[j] = (float) distance;
+                minDistance[i] = Math.min(minDistance[i], distance);
+            }
+            for (int i = 0; i < n; i++) {
+                if (minDistance[i] > minDistance[next]) {
+                    next = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the pivot records of this index.
+     *
+     * @return an unmodifiable list with the pivot records
+     */
+    public List<ListDB<T>.Record> getPivots() {
+        return Collections.unmodifiableList(pivots);
+    }
+
+    /**
+     * Returns the number of pivots of this index.
+     *
+     * @return the number of pivots of this index
+     */
+    public int getPivotCount() {
+        return pivots.size();
+    }
+
+    /**
+     * Returns the number of queries solved by this index since it was created
+     * or loaded (or since the last call to {@link #resetStatistics()}).
+     *
+     * @return the number of queries solved by this index
+     */
+    public long getQueryCount() {
+        return queries;
+    }
+
+    /**
+     * Returns the rate of records discarded by their lower bound (i.e.,
+     * without calculating their distance to the query) in the queries solved
+     * by this index.
+     *
+     * @return the pruning rate, in [0,1]
+     */
+    public double getPruningRate() {
+        long total = examined + pruned;
+        return total > 0 ? (double) pruned / total : 0.0;
+    }
+
+    /**
+     * Returns the mean number of record distances calculated per query
+     * (including the distances to the pivots).
+     *
+     * @return the mean number of distances calculated per query
+     */
+    public double getDistancesPerQuery() {
+        return queries > 0 ? (double) (examined + queries * pivots.size()) / queries : 0.0;
+    }
+
+    /**
+     * Resets the query statistics of this index.
+     */
+    public void resetStatistics() {
+        queries = examined = pruned = 0;
+    }
+
+    /**
+     * Checks if the given query can be solved by this index, that is, if the
+     * query record uses the default comparator of the 
+     * {@link DescriptorList} class (a custom comparator or fusion may not 
+     * satisfy the triangle inequality, so the lower bounds would not be 
+     * valid).
+     *
+     * @param queryRecord the query record
+     * @return <tt>true</tt> if the query can be solved by this index
+     */
+    boolean supports(ListDB<T>.Record queryRecord) {
+        return queryRecord.getComparator() != null
+                && queryRecord.getComparator().getClass() == DescriptorList.DefaultComparator.class;
+    }
+
+    /**
+     * Collects the nearest records to the given query.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be collected
+     * @return a collector with the positions and distances of the nearest
+     * records, or <tt>null</tt> if the query cannot be solved by this index
+     * (see {@link #supports(jmr.db.ListDB.Record)})
+     */
+    TopKCollector nearest(ListDB<T>.Record queryRecord, int k) {
+        if (!supports(queryRecord)) {
+            return null;
+        }
+        int n = table.size();
+        TopKCollector collector = database.collector(k);
+        double lowerBounds[] = lowerBounds(queryRecord);
+        // The records with the lowest bounds are visited first in order to 
+        // get a tight k-th distance as soon as possible
+        TopKCollector seeds = database.collector(k);
+        for (int i = 0; i < n; i++) {
+            seeds.offer(lowerBounds[i], i);
+        }
+        int visited = 0;
+        for (int i : seeds.positions()) {
+            collector.offer(queryRecord.distance(database.get(i), collector.bound()), i);
+            lowerBounds[i] = Double.NaN; // Already visited
+            visited++;
+        }
+        // The remaining records are visited only if their lower bound does 
+        // not exceed the current k-th distance
+        for (int i = 0; i < n; i++) {
+            if (lowerBounds[i] <= collector.bound()) {
+                collector.offer(queryRecord.distance(database.get(i), collector.bound()), i);
+                visited++;
+            }
+        }
+        queries++;
+        examined += visited;
+        pruned += n - visited;
+        return collector;
+    }
+
+    /**
+     * Returns the lower bounds of the distances from the given query to each
+     * record of the database (in the database order).
+     *
+     * @param queryRecord the query record
+     * @return the lower bounds of the distances to the query
+     */
+    double[] lowerBounds(ListDB<T>.Record queryRecord) {
+        double queryDistances[] = pivotDistances(queryRecord);
+        double lowerBounds[] = new double[table.size()];
+        for (int i = 0; i < lowerBounds.length; i++) {
+            lowerBounds[i] = lowerBound(queryDistances, i);
+        }
+        return lowerBounds;
+    }
+
+    /**
+     * Returns the distances from the given query to each pivot.
+     *
+     * @param queryRecord the query record
+     * @return the distances from the query to the pivots
+     */
+    double[] pivotDistances(ListDB<T>.Record queryRecord) {
+        double queryDistances[] = new double[pivots.size()];
+        for (int j = 0; j < queryDistances.length; j++) {
+            queryDistances[j] = queryRecord.distance(pivots.get(j));
+        }
+        return queryDistances;
+    }
+
+    /**
+     * Returns the lower bound of the distance from a query to the record at
+     * the given position.
+     *
+     * @param queryDistances the distances from the query to the pivots (see
+     * {@link #pivotDistances(jmr.db.ListDB.Record)})
+     * @param index the position of the record
+     * @return the lower bound of the distance from the query to the record
+     */
+    double lowerBound(double[] queryDistances, int index) {
+        float row[] = table.get(index);
+        double bound = 0.0, diff;
+        for (int j = 0; j < queryDistances.length; j++) {
+            // The stored distance is rounded to float, so the difference
+            // is reduced by its precision in order to keep a lower bound
+            diff = Math.abs(queryDistances[j] - row[j]) - row[j] * FLOAT_PRECISION;
+            if (diff > bound) {
+                bound = diff;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Calculates the row of the pivot table associated to the given record.
+     *
+     * @param record the record
+     * @return the distances from the record to each pivot
+     */
+    private float[] row(ListDB<T>.Record record) {
+        float row[] = new float[pivots.size()];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = (float) pivots.get(j).distance(record);
+        }
+        return row;
+    }
+
+    /**
+     * Adds the row associated to the new record to the pivot table.
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    @Override
+    public void add(int index, ListDB<T>.Record record) {
+        table.add(index, row(record));
+    }
+
+    /**
+     * Updates the row associated to the replaced record in the pivot table.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    @Override
+    public void set(int index, ListDB<T>.Record record) {
+        table.set(index, row(record));
+    }
+
+    /**
+     * Removes the row associated to the removed record from the pivot table.
+     * Note that pivots are not required to be in the database, so removing a
+     * pivot record does not invalidate the index.
+     *
+     * @param index the position of the removed record
+     */
+    @Override
+    public void remove(int index) {
+        table.remove(index);
+    }
+
+    /**
+     * Removes the rows of the removed records in a single pass (the pivots
+     * are kept, even if they have been removed from the database).
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    @Override
+    public void compact(int map[]) {
+        int count = 0;
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] >= 0) {
+                table.set(count++, table.get(i));
+            }
+        }
+        table.subList(count, table.size()).clear();
+    }
+
+    /**
+     * Removes all the rows of the pivot table (pivots are kept).
+     */
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * Returns a string representation of this index, including its query
+     * statistics.
+     *
+     * @return a string representation of this index
+     */
+    @Override
+    public String toString() {
+        return "PivotIndex: [pivots=" + pivots.size() + ", records=" + table.size()
+                + ", queries=" + queries + ", pruning rate=" + getPruningRate()
+                + ", distances per query=" + getDistancesPerQuery() + "]";
+    }
+}
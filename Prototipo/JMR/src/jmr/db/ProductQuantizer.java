@@ -0,0 +1,305 @@
+package jmr.db;
+
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class representing a product quantizer (Jégou et al.) for the vectors of a
+ * {@link jmr.descriptor.VectorDescriptor}, used for compressing them into a
+ * few bytes.
+ *
+ * The vector space is split into several subspaces (consecutive ranges of
+ * dimensions), and each subspace is quantized by its own codebook of up to
+ * 256 centroids, so a vector is encoded by one byte per subspace: the index
+ * of the nearest centroid (in l1-norm) of each subvector. The codebooks are
+ * trained from a sample of vectors by means of the k-medians algorithm (the
+ * centroid minimizing the l1-norm of a cluster is its component-wise median).
+ *
+ * The distance between a query vector and an encoded vector is approximated
+ * by the asymmetric distance: the query is not encoded, and the distance is
+ * the sum, for each subspace, of the l1-norm between the query subvector and
+ * the centroid of the code. The distances from the query subvectors to every
+ * centroid are calculated once per query in a table (see
+ * {@link #table(double[])}), so the distance to each encoded vector is
+ * calculated by adding one value of the table per subspace.
+ *
+ * Quantizers are immutable once trained.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class ProductQuantizer implements Serializable {
+
+    private static final long serialVersionUID = 3457119728251474734L;
+
+    /**
+     * Maximum number of centroids of each codebook (the codes are bytes).
+     */
+    static public final int MAX_CENTROIDS = 256;
+    /**
+     * The dimension of the vectors.
+     */
+    private final int dimension;
+    /**
+     * The first dimension of each subspace (and the dimension of the vectors
+     * at the end).
+     */
+    private final int bounds[];
+    /**
+     * The number of centroids of each codebook.
+     */
+    private final int numCentroids;
+    /**
+     * The centroids of each subspace, one after another.
+     */
+    private final double centroids[][];
+
+    /**
+     * Trains a product quantizer from the given sample of vectors.
+     *
+     * @param sample the sample of vectors (with the same dimension)
+     * @param numSubspaces the number of subspaces (the length of the codes)
+     * @param numCentroids the number of centroids of each codebook (at most
+     * {@link #MAX_CENTROIDS}; it is limited by the sample size)
+     * @param iterations the number of iterations of the k-medians algorithm
+     * @param seed the seed of the random choice of the initial centroids
+     */
+    public ProductQuantizer(List<double[]> sample, int numSubspaces, int numCentroids, int iterations, long seed) {
+        if (sample.isEmpty()) {
+            throw new InvalidParameterException("The sample is empty.");
+        }
+        dimension = sample.get(0).length;
+        for (double vector[] : sample) {
+            if (vector.length != dimension) {
+                throw new InvalidParameterException("The vector dimension must be " + dimension);
+            }
+        }
+        if (numSubspaces < 1 || numSubspaces > dimension) {
+            throw new InvalidParameterException("The number of subspaces must be in [1," + dimension + "]");
+        }
+        if (numCentroids < 1 || numCentroids > MAX_CENTROIDS) {
+            throw new InvalidParameterException("The number of centroids must be in [1," + MAX_CENTROIDS + "]");
+        }
+        this.numCentroids = Math.min(numCentroids, sample.size());
+        bounds = new int[numSubspaces + 1];
+        for (int s = 0; s <= numSubspaces; s++) {
+            bounds[s] = s * dimension / numSubspaces;
+        }
+        centroids = new double[numSubspaces][];
+        Random random = new Random(seed);
+        for (int s = 0; s < numSubspaces; s++) {
+            centroids[s] = train(sample, s, iterations, random);
+        }
+    }
+
+    /**
+     * Trains the codebook of the given subspace by means of the k-medians
+     * algorithm, starting from randomly chosen sample subvectors.
+     *
+     * @param sample the sample of vectors
+     * @param s the subspace
+     * @param iterations the number of iterations
+     * @param random the random generator
+     * @return the centroids of the subspace, one after another
+     */
+    private double[] train(List<double[]> sample, int s, int iterations, Random random) {
+        int n = sample.size(), from = bounds[s], length = bounds[s + 1] - from;
+        double codebook[] = new double[numCentroids * length];
+        // Initial centroids: different sample vectors (partial shuffle)
+        int order[] = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int c = 0; c < numCentroids; c++) {
+            int j = c + random.nextInt(n - c), swap = order[c];
+            order[c] = order[j];
+            order[j] = swap;
+            System.arraycopy(sample.get(order[c]), from, codebook, c * length, length);
+        }
+        int assignment[] = new int[n], counts[] = new int[numCentroids];
+        double values[] = new double[n];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            boolean changed = iteration == 0;
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                int nearest = nearest(codebook, length, sample.get(i), from);
+                changed |= nearest != assignment[i];
+                assignment[i] = nearest;
+                counts[nearest]++;
+            }
+            if (!changed) {
+                break;
+            }
+            // Each centroid is moved to the component-wise median of its
+            // cluster (empty clusters keep their centroid)
+            int clusters[][] = new int[numCentroids][], filled[] = new int[numCentroids];
+            for (int c = 0; c < numCentroids; c++) {
+                clusters[c] = new int[counts[c]];
+            }
+            for (int i = 0; i < n; i++) {
+                clusters[assignment[i]][filled[assignment[i]]++] = i;
+            }
+            for (int c = 0; c < numCentroids; c++) {
+                if (counts[c] == 0) {
+                    continue;
+                }
+                for (int d = 0; d < length; d++) {
+                    for (int m = 0; m < counts[c]; m++) {
+                        values[m] = sample.get(clusters[c][m])[from + d];
+                    }
+                    Arrays.sort(values, 0, counts[c]);
+                    codebook[c * length + d] = values[counts[c] / 2];
+                }
+            }
+        }
+        return codebook;
+    }
+
+    /**
+     * Returns the nearest centroid (in l1-norm) to the given subvector.
+     *
+     * @param codebook the centroids of the subspace
+     * @param length the dimension of the subspace
+     * @param vector the vector
+     * @param from the first dimension of the subvector
+     * @return the index of the nearest centroid
+     */
+    private int nearest(double codebook[], int length, double vector[], int from) {
+        int output = 0;
+        double best = Double.POSITIVE_INFINITY, distance;
+        for (int c = 0, p = 0; c < numCentroids; c++) {
+            distance = 0.0;
+            for (int d = 0; d < length; d++, p++) {
+                distance += Math.abs(vector[from + d] - codebook[p]);
+            }
+            if (distance < best) {
+                best = distance;
+                output = c;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the dimension of the vectors of this quantizer.
+     *
+     * @return the dimension of the vectors
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns the number of subspaces of this quantizer (the number of bytes
+     * of the codes).
+     *
+     * @return the number of subspaces
+     */
+    public int getCodeLength() {
+        return centroids.length;
+    }
+
+    /**
+     * Returns the number of centroids of each codebook.
+     *
+     * @return the number of centroids
+     */
+    public int getCentroidCount() {
+        return numCentroids;
+    }
+
+    /**
+     * Encodes the given vector, storing its code at the given offset of the
+     * given array.
+     *
+     * @param vector the vector
+     * @param codes the array where the code is stored
+     * @param offset the position of the code in the array
+     * @throws InvalidParameterException if the vector does not have the
+     * dimension of the quantizer
+     */
+    public void encode(double vector[], byte codes[], int offset) {
+        if (vector.length != dimension) {
+            throw new InvalidParameterException("The vector dimension must be " + dimension);
+        }
+        for (int s = 0; s < centroids.length; s++) {
+            codes[offset + s] = (byte) nearest(centroids[s], bounds[s + 1] - bounds[s], vector, bounds[s]);
+        }
+    }
+
+    /**
+     * Returns the vector represented by the given code (the concatenation of
+     * the centroids of the code).
+     *
+     * @param codes the array where the code is stored
+     * @param offset the position of the code in the array
+     * @return the decoded vector
+     */
+    public double[] decode(byte codes[], int offset) {
+        double vector[] = new double[dimension];
+        for (int s = 0; s < centroids.length; s++) {
+            int length = bounds[s + 1] - bounds[s];
+            System.arraycopy(centroids[s], (codes[offset + s] & 0xFF) * length, vector, bounds[s], length);
+        }
+        return vector;
+    }
+
+    /**
+     * Returns the table of distances from the given query vector to the
+     * centroids: the l1-norm between the query subvector of each subspace
+     * and each centroid, stored at position
+     * <code>subspace * MAX_CENTROIDS + centroid</code>.
+     *
+     * @param query the query vector
+     * @return the table of distances
+     * @throws InvalidParameterException if the vector does not have the
+     * dimension of the quantizer
+     */
+    public double[] table(double query[]) {
+        if (query.length != dimension) {
+            throw new InvalidParameterException("The vector dimension must be " + dimension);
+        }
+        double table[] = new double[centroids.length * MAX_CENTROIDS], distance;
+        for (int s = 0; s < centroids.length; s++) {
+            int from = bounds[s], length = bounds[s + 1] - from;
+            for (int c = 0, p = 0; c < numCentroids; c++) {
+                distance = 0.0;
+                for (int d = 0; d < length; d++, p++) {
+                    distance += Math.abs(query[from + d] - centroids[s][p]);
+                }
+                table[s * MAX_CENTROIDS + c] = distance;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the asymmetric distance between a query and an encoded vector.
+     *
+     * @param table the table of distances of the query (see
+     * {@link #table(double[])})
+     * @param codes the array where the code is stored
+     * @param offset the position of the code in the array
+     * @return the approximate distance
+     */
+    public double distance(double table[], byte codes[], int offset) {
+        double distance = 0.0;
+        for (int s = 0, base = 0; s < centroids.length; s++, base += MAX_CENTROIDS) {
+            distance += table[base + (codes[offset + s] & 0xFF)];
+        }
+        return distance;
+    }
+
+    /**
+     * Returns a string representation of this quantizer.
+     *
+     * @return a string representation of this quantizer
+     */
+    @Override
+    public String toString() {
+        return "ProductQuantizer: [dimension=" + dimension + ", subspaces=" + centroids.length
+                + ", centroids=" + numCentroids + "]";
+    }
+}
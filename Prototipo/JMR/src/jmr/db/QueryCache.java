@@ -0,0 +1,482 @@
+package jmr.db;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.MediaDescriptorAdapter;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a cache of the results of the nearest records queries of
+ * a database, so a query repeated while the database does not change is
+ * answered without scanning the database.
+ *
+ * The results are stored by the fingerprint of the query: a SHA-256 hash of
+ * the query parameters (type of query, number of records, fusion) and of the
+ * content of the query record (the class, comparator and data of each
+ * descriptor; the data is written by the codec of the descriptor class if
+ * any, see {@link DescriptorCodecs}, or serialized otherwise). Therefore, two
+ * query records calculated from the same media share the same results, even
+ * if they are different objects. The queries whose record cannot be
+ * fingerprinted (for example, with a comparator capturing a non serializable
+ * object) are not cached.
+ *
+ * The cache is bounded by an (estimated) size in bytes, and the least
+ * recently used results are evicted first. The results are valid while the
+ * version of the database does not change (see {@link ListDB#getVersion()}):
+ * once it is modified, all the stored results are discarded.
+ *
+ * This class is thread-safe (the queries not found in the cache are executed
+ * without locking the cache), provided that the database is not modified
+ * while it is queried.
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class QueryCache<T> {
+
+    /**
+     * Default maximum size of the cache in bytes.
+     */
+    static public final long DEFAULT_MAX_SIZE = 16L << 20;
+    /**
+     * Estimated size in bytes of an entry without its results (fingerprint,
+     * map node and result list).
+     */
+    static final int ENTRY_SIZE = 160;
+    /**
+     * Estimated size in bytes of each result of an entry (the result metadata
+     * and its boxed distance; the records belong to the database).
+     */
+    static final int RESULT_SIZE = 48;
+    /**
+     * Type of query {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int)}.
+     */
+    private static final int QUERY_NEAREST = 1;
+    /**
+     * Type of query
+     * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int, jmr.db.Fusion)}.
+     */
+    private static final int QUERY_FUSION = 2;
+    /**
+     * The cached database.
+     */
+    private final ListDB<T> database;
+    /**
+     * Maximum size of the cache in bytes.
+     */
+    private final long maxSize;
+    /**
+     * The stored results by fingerprint, in access order.
+     */
+    private final LinkedHashMap<Fingerprint, List<ResultMetadata<Double, ListDB<T>.Record>>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Current size of the cache in bytes.
+     */
+    private long size = 0;
+    /**
+     * Version of the database of the stored results.
+     */
+    private long version;
+    /**
+     * Number of queries answered from the cache.
+     */
+    private long hitCount = 0;
+    /**
+     * Number of queries executed on the database.
+     */
+    private long missCount = 0;
+    /**
+     * Number of results evicted because of the size limit.
+     */
+    private long evictionCount = 0;
+    /**
+     * Number of results discarded because of the database modifications.
+     */
+    private long invalidationCount = 0;
+
+    /**
+     * Constructs a cache of the given database, with the default maximum size.
+     *
+     * @param database the cached database
+     */
+    public QueryCache(ListDB<T> database) {
+        this(database, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a cache of the given database.
+     *
+     * @param database the cached database
+     * @param maxSize the maximum size of the cache in bytes
+     * @throws InvalidParameterException if the size is not positive
+     */
+    public QueryCache(ListDB<T> database, long maxSize) {
+        if (maxSize <= 0) {
+            throw new InvalidParameterException("The maximum size must be positive.");
+        }
+        this.database = database;
+        this.maxSize = maxSize;
+        this.version = database.getVersion();
+    }
+
+    /**
+     * Returns the cached database.
+     *
+     * @return the cached database
+     */
+    public ListDB<T> getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query (see
+     * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int)}). The returned
+     * list is a copy of the stored one, but the result items are shared.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) {
+        Fingerprint fingerprint = fingerprint(queryRecord, QUERY_NEAREST, k, null);
+        List<ResultMetadata<Double, ListDB<T>.Record>> output = lookup(fingerprint);
+        if (output == null) {
+            long queryVersion = database.getVersion();
+            output = database.queryMetadata(queryRecord, k);
+            store(fingerprint, queryVersion, output);
+        }
+        return new ArrayList<>(output);
+    }
+
+    /**
+     * Returns the nearest records to the given query, calculated by means of
+     * the given fusion of the descriptor distances (see
+     * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int, jmr.db.Fusion)}).
+     * The returned list is a copy of the stored one, but the result items are
+     * shared.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @param fusion the fusion of the descriptor distances
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k, Fusion fusion) {
+        Fingerprint fingerprint = fingerprint(queryRecord, QUERY_FUSION, k, fusion);
+        List<ResultMetadata<Double, ListDB<T>.Record>> output = lookup(fingerprint);
+        if (output == null) {
+            long queryVersion = database.getVersion();
+            output = database.queryMetadata(queryRecord, k, fusion);
+            store(fingerprint, queryVersion, output);
+        }
+        return new ArrayList<>(output);
+    }
+
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query (see
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int)}).
+     *
+     * @param queryRecord the query record
+     * @param size the size of the output subset
+     * @return the nearest records sorted by distance
+     */
+    public List<ListDB<T>.Record> query(ListDB<T>.Record queryRecord, int size) {
+        List<ListDB<T>.Record> output = new ArrayList<>(size);
+        for (ResultMetadata<Double, ListDB<T>.Record> r : queryMetadata(queryRecord, size)) {
+            output.add(r.getMetadata());
+        }
+        return output;
+    }
+
+    /**
+     * Returns the nearest records to the given query media, sorted on the
+     * basis of their distance to the query (see
+     * {@link #queryMetadata(jmr.db.ListDB.Record, int)}). The descriptors of
+     * the media are calculated in order to obtain the fingerprint of the
+     * query.
+     *
+     * @param queryMedia the query media
+     * @param size the size of the output subset
+     * @return the nearest records sorted by distance
+     */
+    public List<ListDB<T>.Record> query(T queryMedia, int size) {
+        return query(database.new Record(queryMedia), size);
+    }
+
+    /**
+     * Returns the stored results with the given fingerprint, discarding all
+     * the results if the database has been modified.
+     *
+     * @param fingerprint the fingerprint of the query (<tt>null</tt> if it
+     * cannot be cached)
+     * @return the stored results, or <tt>null</tt> if they are not stored
+     */
+    private synchronized List<ResultMetadata<Double, ListDB<T>.Record>> lookup(Fingerprint fingerprint) {
+        if (database.getVersion() != version) {
+            invalidationCount += entries.size();
+            entries.clear();
+            size = 0;
+            version = database.getVersion();
+        }
+        List<ResultMetadata<Double, ListDB<T>.Record>> output = fingerprint != null ? entries.get(fingerprint) : null;
+        if (output != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return output;
+    }
+
+    /**
+     * Stores the results of a query executed on the given version of the
+     * database, evicting the least recently used results if needed. The
+     * results are not stored if the database has been modified since then, or
+     * if they do not fit in the cache.
+     *
+     * @param fingerprint the fingerprint of the query (<tt>null</tt> if it
+     * cannot be cached)
+     * @param queryVersion the version of the database queried
+     * @param results the results of the query
+     */
+    private synchronized void store(Fingerprint fingerprint, long queryVersion, List<ResultMetadata<Double, ListDB<T>.Record>> results) {
+        long entrySize = sizeOf(results);
+        if (fingerprint == null || queryVersion != version || database.getVersion() != version || entrySize > maxSize) {
+            return;
+        }
+        List<ResultMetadata<Double, ListDB<T>.Record>> previous = entries.put(fingerprint, results);
+        if (previous != null) {
+            size -= sizeOf(previous);
+        }
+        size += entrySize;
+        Iterator<Map.Entry<Fingerprint, List<ResultMetadata<Double, ListDB<T>.Record>>>> iterator = entries.entrySet().iterator();
+        while (size > maxSize) {
+            size -= sizeOf(iterator.next().getValue());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Returns the estimated size in bytes of an entry with the given results.
+     *
+     * @param results the results
+     * @return the size of the entry in bytes
+     */
+    private static long sizeOf(List<?> results) {
+        return ENTRY_SIZE + (long) RESULT_SIZE * results.size();
+    }
+
+    /**
+     * Discards all the stored results (the statistics are kept).
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of stored results.
+     *
+     * @return the number of entries of the cache
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of the stored results in bytes.
+     *
+     * @return the size of the cache in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum size of the cache in bytes.
+     *
+     * @return the maximum size of the cache in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of queries executed on the database (including the
+     * ones that cannot be cached).
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the fraction of queries answered from the cache.
+     *
+     * @return the hit ratio, in [0,1] (0 if there has been no query)
+     */
+    public synchronized double getHitRatio() {
+        long total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : 0.0;
+    }
+
+    /**
+     * Returns the number of results evicted because of the size limit.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of results discarded because of the modifications of
+     * the database.
+     *
+     * @return the number of invalidations
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Returns the fingerprint of the given query.
+     *
+     * @param queryRecord the query record
+     * @param type the type of query
+     * @param k the number of nearest records
+     * @param fusion the fusion of the descriptor distances (<tt>null</tt> if
+     * the record comparator is used)
+     * @return the fingerprint of the query, or <tt>null</tt> if the query
+     * record cannot be fingerprinted
+     * @throws InvalidParameterException if the query record does not share
+     * the database structure
+     */
+    private Fingerprint fingerprint(ListDB<T>.Record queryRecord, int type, int k, Fusion fusion) {
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest))) {
+            out.writeInt(type);
+            out.writeInt(k);
+            if (fusion != null) {
+                out.writeInt(fusion.getType());
+                for (int i = 0; i < queryRecord.size(); i++) {
+                    out.writeDouble(fusion.getWeight(i));
+                }
+            }
+            write(queryRecord, out);
+            out.flush();
+        } catch (IOException ex) {
+            return null; // Not serializable content
+        }
+        return new Fingerprint(digest.digest());
+    }
+
+    /**
+     * Writes the content of the given list of descriptors: its comparator and,
+     * for each descriptor, its class, comparator and data.
+     *
+     * @param descriptors the list of descriptors
+     * @param out the output
+     * @throws IOException if some descriptor or comparator cannot be written
+     */
+    private static void write(DescriptorList<?> descriptors, ObjectOutputStream out) throws IOException {
+        out.writeObject(descriptors.getComparator());
+        out.writeInt(descriptors.size());
+        for (int i = 0; i < descriptors.size(); i++) {
+            MediaDescriptor<?> descriptor = descriptors.get(i);
+            out.writeUTF(descriptor.getClass().getName());
+            if (descriptor instanceof DescriptorList) {
+                write((DescriptorList<?>) descriptor, out);
+            } else if (DescriptorCodecs.get(descriptor.getClass()) != null) {
+                if (descriptor instanceof MediaDescriptorAdapter) {
+                    // The codecs do not write the comparator
+                    out.writeObject(((MediaDescriptorAdapter<?>) descriptor).getComparator());
+                }
+                DescriptorCodecs.write(descriptor, out);
+            } else {
+                out.writeObject(descriptor);
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of this cache.
+     *
+     * @return a string representation of this cache
+     */
+    @Override
+    public synchronized String toString() {
+        return "QueryCache: [entries=" + entries.size() + ", size=" + size + "/" + maxSize
+                + " bytes, hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + ", invalidations=" + invalidationCount + "]";
+    }
+
+    /**
+     * Class representing the fingerprint of a query (a hash of its content).
+     */
+    private static class Fingerprint {
+
+        /**
+         * The hash of the query.
+         */
+        private final byte hash[];
+
+        /**
+         * Constructs a fingerprint with the given hash.
+         *
+         * @param hash the hash of the query
+         */
+        Fingerprint(byte hash[]) {
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fingerprint && Arrays.equals(hash, ((Fingerprint) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            // The hash is uniformly distributed
+            return (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package jmr.db;
+
+import java.io.Serializable;
+
+/**
+ * Abstract representation of an index over the records of a {@link ListDB}.
+ *
+ * The indexes registered in a database are notified about each modification
+ * of the database (with the same semantic than the corresponding
+ * {@link java.util.List} operation), so they are kept up to date
+ * incrementally. Indexes are serialized together with their database.
+ *
+ * @param <T> the media type of the indexed database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+interface RecordIndex<T> extends Serializable {
+
+    /**
+     * Notifies that the given record has been inserted at the specified
+     * position of the database (shifting any subsequent record to the right).
+     *
+     * @param index the position of the new record
+     * @param record the new record
+     */
+    void add(int index, ListDB<T>.Record record);
+
+    /**
+     * Notifies that the record at the specified position of the database has
+     * been replaced with the given one.
+     *
+     * @param index the position of the replaced record
+     * @param record the new record
+     */
+    void set(int index, ListDB<T>.Record record);
+
+    /**
+     * Notifies that the record at the specified position of the database has
+     * been removed (shifting any subsequent record to the left).
+     *
+     * @param index the position of the removed record
+     */
+    void remove(int index);
+
+    /**
+     * Notifies that all the records of the database have been removed.
+     */
+    void clear();
+
+    /**
+     * Notifies that the database has been compacted: the records mapped to
+     * -1 by the given array have been removed, and the rest of records have
+     * been moved to the given positions (in the same order).
+     *
+     * By default, the removed records are notified one by one (from the
+     * last one); indexes whose removal shifts their data should override
+     * this method with a single pass.
+     *
+     * @param map the new position of each record (-1 if removed)
+     */
+    default void compact(int map[]) {
+        for (int i = map.length - 1; i >= 0; i--) {
+            if (map[i] < 0) {
+                remove(i);
+            }
+        }
+    }
+}
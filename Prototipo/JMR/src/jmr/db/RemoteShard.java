@@ -0,0 +1,203 @@
+package jmr.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jmr.descriptor.DescriptorList;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a shard served by a {@link ShardServer} (usually, in
+ * another process), accessed by means of a socket.
+ *
+ * The descriptors of the new records are calculated in this process (the
+ * media is not sent), and the records returned by the queries are built in
+ * this process from their descriptors and locator: they belong to an empty
+ * local database with the descriptor classes of the shard, so they have not
+ * media source.
+ *
+ * The requests are sent one at a time through the same connection (the
+ * methods are synchronized).
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class RemoteShard<T> implements Shard<T> {
+
+    /**
+     * The connection to the server.
+     */
+    private final Socket socket;
+    /**
+     * The output of the connection.
+     */
+    private final ObjectOutputStream out;
+    /**
+     * The input of the connection.
+     */
+    private final ObjectInputStream in;
+    /**
+     * The descriptor classes of the shard.
+     */
+    private final Class<?> descriptorClasses[];
+    /**
+     * Empty database with the descriptor classes of the shard, used for
+     * calculating the descriptors of the new records and building the
+     * returned ones.
+     */
+    private final ListDB<T> proxy;
+
+    /**
+     * Constructs a shard connected to the server listening on the given host
+     * and port.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @throws IOException if the connection cannot be established
+     */
+    public RemoteShard(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ShardObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            descriptorClasses = (Class<?>[]) in.readObject();
+            proxy = new ListDB<>(descriptorClasses);
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            socket.close();
+            throw ex instanceof IOException ? (IOException) ex : new IOException(ex);
+        }
+    }
+
+    /**
+     * Returns the descriptor classes of the shard.
+     *
+     * @return the descriptor classes of the shard
+     */
+    public List<Class<?>> getDescriptorClasses() {
+        return Arrays.asList(descriptorClasses);
+    }
+
+    /**
+     * Returns the number of records of this shard.
+     *
+     * @return the number of records of this shard
+     * @throws IOException if the shard cannot be reached
+     */
+    @Override
+    public synchronized int size() throws IOException {
+        out.writeInt(ShardServer.SIZE);
+        send();
+        return in.readInt();
+    }
+
+    /**
+     * Appends a new record, calculated from the given media, to this shard.
+     * The descriptors are calculated in this process.
+     *
+     * @param media media from which the new record is calculated
+     * @param locator the media locator of the new record
+     * @throws IOException if the shard cannot be reached
+     */
+    @Override
+    public void add(T media, URL locator) throws IOException {
+        ListDB<T>.Record record = proxy.new Record(media);
+        synchronized (this) {
+            out.writeInt(ShardServer.ADD);
+            out.writeObject(locator);
+            ShardServer.writeDescriptors(out, record);
+            send();
+        }
+    }
+
+    /**
+     * Returns the nearest records of this shard to the given query, sorted on
+     * the basis of their distance to the query. The query is sent as its list
+     * of descriptors and comparator.
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     * @throws IOException if the shard cannot be reached
+     */
+    @Override
+    public synchronized List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) throws IOException {
+        out.writeInt(ShardServer.QUERY);
+        out.writeInt(k);
+        ShardServer.writeDescriptors(out, queryRecord);
+        send();
+        int size = in.readInt();
+        List<ResultMetadata<Double, ListDB<T>.Record>> output = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                double distance = in.readDouble();
+                URL locator = (URL) in.readObject();
+                DescriptorList<T> descriptors = ShardServer.readDescriptors(in);
+                ListDB<T>.Record record = proxy.new Record(descriptors, locator);
+                record.setComparator(descriptors.getComparator());
+                output.add(new ResultMetadata<>(distance, record));
+            }
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+        return output;
+    }
+
+    /**
+     * Saves this shard in its file (in the server).
+     *
+     * @throws IOException if the shard cannot be reached or written
+     */
+    @Override
+    public synchronized void save() throws IOException {
+        out.writeInt(ShardServer.SAVE);
+        send();
+    }
+
+    /**
+     * Sends the current request and reads the status of the response.
+     *
+     * @throws IOException if an I/O error occurs or the request failed in
+     * the server
+     */
+    private void send() throws IOException {
+        out.reset(); // Written objects are not referenced by the stream
+        out.flush();
+        if (!in.readBoolean()) {
+            try {
+                throw new IOException("Shard server error: " + in.readObject());
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection to the server.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Returns a string representation of this shard.
+     *
+     * @return a string representation of this shard
+     */
+    @Override
+    public String toString() {
+        return "RemoteShard: [address=" + socket.getRemoteSocketAddress() + "]";
+    }
+}
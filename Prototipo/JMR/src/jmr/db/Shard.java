@@ -0,0 +1,60 @@
+package jmr.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import jmr.result.ResultMetadata;
+
+/**
+ * Abstract representation of a shard of a {@link ShardedDB}: a part of the
+ * records of the sharded database, stored in its own {@link ListDB} (in the
+ * same process, see {@link LocalShard}, or in another one, see
+ * {@link RemoteShard}).
+ *
+ * All the shards of a sharded database share the same descriptor classes.
+ * The shards must be safe for concurrent queries, since the sharded database
+ * queries all of them at the same time.
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public interface Shard<T> extends Closeable {
+
+    /**
+     * Returns the number of records of this shard.
+     *
+     * @return the number of records of this shard
+     * @throws IOException if the shard cannot be reached
+     */
+    public int size() throws IOException;
+
+    /**
+     * Appends a new record, calculated from the given media, to this shard.
+     *
+     * @param media media from which the new record is calculated
+     * @param locator the media locator of the new record
+     * @throws IOException if the shard cannot be reached
+     */
+    public void add(T media, URL locator) throws IOException;
+
+    /**
+     * Returns the nearest records of this shard to the given query, sorted on
+     * the basis of their distance to the query (see
+     * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int)}).
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     * @throws IOException if the shard cannot be reached
+     */
+    public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) throws IOException;
+
+    /**
+     * Saves this shard in its file.
+     *
+     * @throws IOException if the shard cannot be reached or written
+     */
+    public void save() throws IOException;
+}
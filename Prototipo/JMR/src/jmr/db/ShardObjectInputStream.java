@@ -0,0 +1,120 @@
+package jmr.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.MediaDescriptor;
+
+/**
+ * Object input stream used by the shard servers and clients (see
+ * {@link ShardServer} and {@link RemoteShard}), which only deserializes the
+ * classes that may appear in the messages of the shard protocol: the
+ * descriptors and comparators of the library, the media locators, and a few
+ * value classes used by the descriptors. Any other class is rejected before
+ * being loaded, so the deserialization of a message cannot instantiate
+ * arbitrary serializable classes of the class path.
+ *
+ * The serialized lambda expressions are not allowed either, since their
+ * deserialization invokes a method of the class that captured them: the
+ * comparators sent to a remote shard must be instances of named classes
+ * (such as the default comparators of the descriptors), not lambda 
+ * expressions.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+class ShardObjectInputStream extends ObjectInputStream {
+
+    /**
+     * Prefix of the names of the classes of the library.
+     */
+    private static final String PACKAGE_PREFIX = "jmr.";
+    /**
+     * Classes of the platform allowed in the messages.
+     */
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Class",
+            "java.lang.Double", "java.lang.Enum", "java.lang.Float", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Number", "java.lang.Short", "java.lang.String",
+            "java.net.URL", "java.util.ArrayList", "java.awt.Color"));
+
+    /**
+     * Constructs an object input stream that reads from the given stream.
+     *
+     * @param in the input stream to read from
+     * @throws IOException if an I/O error occurs while reading the stream
+     * header
+     */
+    ShardObjectInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    /**
+     * Loads the class of the given description if it is allowed in the
+     * messages.
+     *
+     * @param desc the description of the class
+     * @return the class
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidClassException if the class is not allowed
+     * @throws ClassNotFoundException if the class cannot be found
+     */
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (!isAllowed(desc.getName())) {
+            throw new InvalidClassException(desc.getName(), "Class not allowed in the shard messages");
+        }
+        return super.resolveClass(desc);
+    }
+
+    /**
+     * Rejects the proxy classes, which are not used in the messages.
+     *
+     * @param interfaces the interfaces of the proxy class
+     * @return never returns
+     * @throws InvalidClassException always
+     */
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+        throw new InvalidClassException(Arrays.toString(interfaces), "Proxy classes not allowed in the shard messages");
+    }
+
+    /**
+     * Checks if the class with the given name is allowed in the messages:
+     * the allowed classes of the platform, the descriptor and comparator
+     * classes of the library, and the arrays of them or of primitive types.
+     *
+     * @param name the class name (as given by {@link Class#getName()})
+     * @return <tt>true</tt> if the class is allowed
+     */
+    private static boolean isAllowed(String name) {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions > 0) {
+            if (name.charAt(dimensions) != 'L') {
+                return name.length() == dimensions + 1; // Array of a primitive type
+            }
+            name = name.substring(dimensions + 1, name.length() - 1);
+        }
+        if (ALLOWED_CLASSES.contains(name)) {
+            return true;
+        }
+        if (!name.startsWith(PACKAGE_PREFIX)) {
+            return false;
+        }
+        try {
+            // Loaded without initialization, so nothing is executed before the check
+            Class<?> c = Class.forName(name, false, ShardObjectInputStream.class.getClassLoader());
+            return MediaDescriptor.class.isAssignableFrom(c) || Comparator.class.isAssignableFrom(c);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+}
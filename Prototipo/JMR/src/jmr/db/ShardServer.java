@@ -0,0 +1,350 @@
+package jmr.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.MediaDescriptor;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a server giving access to a {@link LocalShard} by means
+ * of sockets, used by the {@link RemoteShard} clients.
+ *
+ * Each connection is served by its own thread, so the queries of different
+ * clients run concurrently. The messages are written by means of object
+ * streams: when a connection is accepted, the server writes the descriptor
+ * classes of the shard; then, each request is a command code followed by its
+ * parameters, and each response is a status (<tt>true</tt> if the request
+ * succeeded, or <tt>false</tt> followed by the error message) followed by
+ * the result. The records are sent as their locator and their list of
+ * descriptors (the media is not sent; see
+ * {@link #writeDescriptors(java.io.ObjectOutputStream, jmr.descriptor.DescriptorList)}).
+ *
+ * The requests are deserialized without authentication, so the server must
+ * only be reachable from trusted clients: by default, it is bound to the
+ * loopback address. In any case, only the classes of the protocol (the
+ * descriptors, the comparators and the locators) are deserialized (see
+ * {@link ShardObjectInputStream}).
+ *
+ * The errors of the connections (for example, a request with a class not
+ * allowed) close the connection and are logged by the logger of this class,
+ * with the level <code>WARNING</code>.
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ShardServer<T> implements Closeable {
+
+    /**
+     * Logger of the errors of the connections.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ShardServer.class.getName());
+
+    /**
+     * Command for the number of records of the shard.
+     */
+    static final int SIZE = 1;
+    /**
+     * Command for appending a record to the shard.
+     */
+    static final int ADD = 2;
+    /**
+     * Command for a nearest records query.
+     */
+    static final int QUERY = 3;
+    /**
+     * Command for saving the shard in its file.
+     */
+    static final int SAVE = 4;
+    /**
+     * The served shard.
+     */
+    private final LocalShard<T> shard;
+    /**
+     * The server socket.
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * Thread accepting the connections.
+     */
+    private final Thread acceptor;
+    /**
+     * The open connections.
+     */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a server of the given shard listening on the given port of
+     * the loopback address, and starts accepting connections.
+     *
+     * @param shard the served shard
+     * @param port the port (0 for any free port, see {@link #getPort()})
+     * @throws IOException if the socket cannot be opened
+     */
+    public ShardServer(LocalShard<T> shard, int port) throws IOException {
+        this(shard, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Constructs a server of the given shard listening on the given address
+     * and port, and starts accepting connections.
+     *
+     * @param shard the served shard
+     * @param address the local address the server is bound to
+     * @param port the port (0 for any free port, see {@link #getPort()})
+     * @throws IOException if the socket cannot be opened
+     */
+    public ShardServer(LocalShard<T> shard, InetAddress address, int port) throws IOException {
+        this.shard = shard;
+        serverSocket = new ServerSocket(port, 50, address);
+        acceptor = new Thread(this::accept, "ShardServer-" + getPort());
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port this server is listening on.
+     *
+     * @return the port of this server
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the shard served by this server.
+     *
+     * @return the served shard
+     */
+    public LocalShard<T> getShard() {
+        return shard;
+    }
+
+    /**
+     * Accepts connections until the server is closed, serving each one in a
+     * new thread.
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "ShardServer-" + getPort() + "-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (SocketException ex) {
+                // The server has been closed
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Connection not accepted by the shard server on port " + getPort(), ex);
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of the given connection until it is closed.
+     *
+     * @param socket the connection
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeObject(shard.getDatabase().getDescriptorClasses().toArray(new Class<?>[0]));
+            out.flush();
+            ObjectInputStream in = new ShardObjectInputStream(new BufferedInputStream(s.getInputStream()));
+            while (true) {
+                int command;
+                try {
+                    command = in.readInt();
+                } catch (EOFException ex) {
+                    return; // The client has closed the connection
+                }
+                try {
+                    respond(command, in, out);
+                } catch (RuntimeException ex) {
+                    out.writeBoolean(false);
+                    out.writeObject(ex.toString());
+                }
+                out.reset(); // Written objects are not referenced by the stream
+                out.flush();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            if (!serverSocket.isClosed()) {
+                LOGGER.log(Level.WARNING, "Connection from " + socket.getRemoteSocketAddress() + " closed by the shard server on port " + getPort(), ex);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the parameters of the given command, executes it and writes the
+     * response.
+     *
+     * @param command the command
+     * @param in the input of the connection
+     * @param out the output of the connection
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if some class of a serialized object
+     * cannot be found
+     */
+    private void respond(int command, ObjectInputStream in, ObjectOutputStream out) throws IOException, ClassNotFoundException {
+        switch (command) {
+            case SIZE:
+                int size = shard.size();
+                out.writeBoolean(true);
+                out.writeInt(size);
+                break;
+            case ADD:
+                URL locator = (URL) in.readObject();
+                DescriptorList<T> descriptors = readDescriptors(in);
+                shard.add(descriptors, locator);
+                out.writeBoolean(true);
+                break;
+            case QUERY:
+                int k = in.readInt();
+                ListDB<T>.Record queryRecord = shard.record(readDescriptors(in));
+                List<ResultMetadata<Double, ListDB<T>.Record>> result = shard.queryMetadata(queryRecord, k);
+                out.writeBoolean(true);
+                out.writeInt(result.size());
+                for (ResultMetadata<Double, ListDB<T>.Record> r : result) {
+                    out.writeDouble(r.getResult());
+                    out.writeObject(r.getMetadata().getLocator());
+                    writeDescriptors(out, r.getMetadata());
+                }
+                break;
+            case SAVE:
+                shard.save();
+                out.writeBoolean(true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Writes the descriptors and the comparator of the given list. Only the
+     * descriptors are written (not the list), so they can be read into a new
+     * list without media source (see
+     * {@link #readDescriptors(java.io.ObjectInputStream)}).
+     *
+     * @param out the output
+     * @param descriptors the list of descriptors
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeDescriptors(ObjectOutputStream out, DescriptorList<?> descriptors) throws IOException {
+        out.writeInt(descriptors.size());
+        for (int i = 0; i < descriptors.size(); i++) {
+            out.writeObject(descriptors.get(i));
+        }
+        out.writeObject(descriptors.getComparator());
+    }
+
+    /**
+     * Reads a list of descriptors written by
+     * {@link #writeDescriptors(java.io.ObjectOutputStream, jmr.descriptor.DescriptorList)}.
+     *
+     * @param <T> the media type of the descriptors
+     * @param in the input
+     * @return a new list (without media source) with the read descriptors
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if some class of a serialized object
+     * cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DescriptorList<T> readDescriptors(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        DescriptorList<T> descriptors = new DescriptorList<>(null);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            descriptors.add((MediaDescriptor<T>) in.readObject());
+        }
+        descriptors.setComparator((Comparator) in.readObject());
+        return descriptors;
+    }
+
+    /**
+     * Closes this server: no more connections are accepted, and the open ones
+     * are closed (the threads waiting for a request finish, and the requests
+     * being served fail when writing their response).
+     *
+     * @throws IOException if an I/O error occurs while closing the sockets
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        try {
+            acceptor.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = null;
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+        connections.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns the number of open connections of this server.
+     *
+     * @return the number of open connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Starts a shard server in this process. The arguments are the port, the
+     * file of the shard and, if the file does not exist, the descriptor
+     * classes of the new (empty) shard. Once the server is listening, the
+     * line <code>READY &lt;port&gt;</code> is printed in the standard output.
+     *
+     * @param args the port, the file and the descriptor classes
+     * @throws Exception if the shard cannot be opened or served
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ShardServer <port> <file> [descriptor classes]");
+            System.exit(1);
+        }
+        File file = new File(args[1]);
+        LocalShard<Object> shard;
+        if (file.exists()) {
+            shard = LocalShard.open(file);
+        } else {
+            Class<?> descriptorClasses[] = new Class<?>[args.length - 2];
+            for (int i = 0; i < descriptorClasses.length; i++) {
+                descriptorClasses[i] = Class.forName(args[i + 2]);
+            }
+            shard = new LocalShard<>(new ListDB<>(descriptorClasses), file);
+        }
+        ShardServer<Object> server = new ShardServer<>(shard, Integer.parseInt(args[0]));
+        System.out.println("READY " + server.getPort());
+        System.out.flush();
+        server.acceptor.join();
+    }
+}
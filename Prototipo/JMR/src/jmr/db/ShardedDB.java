@@ -0,0 +1,290 @@
+package jmr.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import jmr.result.ResultMetadata;
+
+/**
+ * Class representing a database partitioned into several shards (see
+ * {@link Shard}), each one storing its own part of the records in its own
+ * {@link ListDB} (and file), so the database is not limited by the memory of a
+ * single process, and each shard can be rebuilt independently.
+ *
+ * Each record is stored in the shard given by the hash of its locator (see
+ * {@link #shardOf(java.net.URL)}), so the locator is mandatory. The query
+ * methods are modeled on the ones of {@link ListDB} (only the queries by
+ * record or media, with or without distances, are available): each query is
+ * executed on all the shards in parallel (scatter), and the nearest records
+ * of each shard are merged into the global nearest ones (gather). Since each
+ * shard returns its own k nearest records, the result has the same distances
+ * as the one of a single database with all the records, but the records at
+ * the same distance are sorted by shard (and by position in the shard)
+ * instead of by insertion order, so the records at the k-th distance may
+ * differ.
+ *
+ * The I/O errors of the shards are thrown as {@link UncheckedIOException}.
+ *
+ * @param <T> the media type of the records
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ShardedDB<T> implements Closeable {
+
+    /**
+     * The shards of this database.
+     */
+    private final List<Shard<T>> shards;
+    /**
+     * Empty database with the descriptor classes of the shards, used for
+     * calculating the query records.
+     */
+    private final ListDB<T> prototype;
+    /**
+     * Executor of the per-shard tasks.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a sharded database with the given shards, all of them with
+     * the given descriptor classes.
+     *
+     * @param shards the shards of this database
+     * @param descriptorClasses the descriptor classes of the shards
+     */
+    public ShardedDB(List<? extends Shard<T>> shards, Class<?>... descriptorClasses) {
+        if (shards.isEmpty()) {
+            throw new InvalidParameterException("A sharded database needs at least one shard.");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.prototype = new ListDB<>(descriptorClasses);
+        this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "ShardedDB");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the number of shards of this database.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the shard at the given position.
+     *
+     * @param index the position of the shard
+     * @return the shard at the given position
+     */
+    public Shard<T> getShard(int index) {
+        return shards.get(index);
+    }
+
+    /**
+     * Returns the position of the shard where the record with the given
+     * locator is stored.
+     *
+     * @param locator the media locator of the record
+     * @return the position of its shard
+     * @throws InvalidParameterException if the locator is <tt>null</tt>
+     */
+    public int shardOf(URL locator) {
+        if (locator == null) {
+            throw new InvalidParameterException("The records of a sharded database need a locator.");
+        }
+        // The hash of the string (not of the URL, which resolves the host)
+        return Math.floorMod(locator.toString().hashCode(), shards.size());
+    }
+
+    /**
+     * Appends a new record, calculated from the given media, to the shard of
+     * the given locator.
+     *
+     * @param media media from which the new record is calculated
+     * @param locator the media locator of the new record
+     * @return <tt>true</tt> (as specified by
+     * {@link java.util.Collection#add(java.lang.Object) })
+     * @throws InvalidParameterException if the locator is <tt>null</tt>
+     */
+    public boolean add(T media, URL locator) {
+        try {
+            shards.get(shardOf(locator)).add(media, locator);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of records of this database (the sum of the sizes of
+     * the shards).
+     *
+     * @return the number of records of this database
+     */
+    public int size() {
+        int size = 0;
+        for (int s : scatter(Shard::size)) {
+            size += s;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query (see
+     * {@link ListDB#queryMetadata(jmr.db.ListDB.Record, int)}).
+     *
+     * @param queryRecord the query record
+     * @param k the number of nearest records to be returned
+     * @return a list of ordered metadata
+     */
+    public List<ResultMetadata<Double, ListDB<T>.Record>> queryMetadata(ListDB<T>.Record queryRecord, int k) {
+        if (!queryRecord.isCompatible()) {
+            throw new InvalidParameterException("The query record does not share the data base structure.");
+        }
+        List<ResultMetadata<Double, ListDB<T>.Record>> output = new ArrayList<>();
+        for (List<ResultMetadata<Double, ListDB<T>.Record>> partial : scatter(shard -> shard.queryMetadata(queryRecord, k))) {
+            output.addAll(partial);
+        }
+        // Stable sort: ties are kept in the order of the shards
+        Collections.sort(output, (a, b) -> Double.compare(a.getResult(), b.getResult()));
+        return new ArrayList<>(output.subList(0, Math.min(k, output.size())));
+    }
+
+    /**
+     * Returns the nearest records to the given query, sorted on the basis of
+     * their distance to the query (see
+     * {@link ListDB#query(jmr.db.ListDB.Record, int)}).
+     *
+     * @param queryRecord the query record
+     * @param size the size of the output subset
+     * @return the nearest records sorted by distance
+     */
+    public List<ListDB<T>.Record> query(ListDB<T>.Record queryRecord, int size) {
+        List<ListDB<T>.Record> output = new ArrayList<>();
+        for (ResultMetadata<Double, ListDB<T>.Record> r : queryMetadata(queryRecord, size)) {
+            output.add(r.getMetadata());
+        }
+        return output;
+    }
+
+    /**
+     * Returns the nearest records to the given query media, sorted on the
+     * basis of their distance to the query (see
+     * {@link ListDB#query(java.lang.Object, int)}).
+     *
+     * @param queryMedia the query media
+     * @param size the size of the output subset
+     * @return the nearest records sorted by distance
+     */
+    public List<ListDB<T>.Record> query(T queryMedia, int size) {
+        return query(prototype.new Record(queryMedia), size);
+    }
+
+    /**
+     * Saves all the shards in their files.
+     */
+    public void save() {
+        scatter(shard -> {
+            shard.save();
+            return null;
+        });
+    }
+
+    /**
+     * Closes all the shards and the executor of this database.
+     *
+     * @throws IOException if an I/O error occurs while closing a shard
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        IOException exception = null;
+        for (Shard<T> shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException ex) {
+                exception = ex;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Executes the given task on all the shards in parallel, returning the
+     * result of each shard (in the order of the shards).
+     *
+     * @param <R> the type of the results
+     * @param task the task
+     * @return the result of each shard
+     * @throws UncheckedIOException if the task throws an I/O error
+     */
+    private <R> List<R> scatter(ShardTask<T, R> task) {
+        List<Future<R>> futures = new ArrayList<>(shards.size());
+        for (Shard<T> shard : shards) {
+            futures.add(executor.submit(() -> task.apply(shard)));
+        }
+        List<R> output = new ArrayList<>(shards.size());
+        try {
+            for (Future<R> future : futures) {
+                output.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return output;
+    }
+
+    /**
+     * Functional interface for a task executed on a shard.
+     *
+     * @param <T> the media type of the records
+     * @param <R> the type of the result
+     */
+    @FunctionalInterface
+    private interface ShardTask<T, R> {
+
+        /**
+         * Executes this task on the given shard.
+         *
+         * @param shard the shard
+         * @return the result of the task
+         * @throws IOException if the shard cannot be reached
+         */
+        R apply(Shard<T> shard) throws IOException;
+    }
+
+    /**
+     * Returns a string representation of this database.
+     *
+     * @return a string representation of this database
+     */
+    @Override
+    public String toString() {
+        return "ShardedDB: " + shards;
+    }
+}
@@ -0,0 +1,459 @@
+package jmr.db;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+
+/**
+ * Class implementing the similarity join operations of a {@link ListDB}: the
+ * threshold join (all the pairs of records within a given distance) and the
+ * k-nearest neighbours join (the k nearest records of each record).
+ *
+ * In order to avoid the comparison of all the pairs, records are blocked in
+ * a grid on the basis of one of their descriptors (the blocking component): a
+ * {@link SingleColorDescriptor} (using its RGB components) or, if not
+ * available, a {@link MPEG7ScalableColor} (using its first Haar
+ * coefficients). The record distance (the Euclidean fusion of the descriptor
+ * distances, see {@link jmr.descriptor.DescriptorList}) is greater than or
+ * equal to the distance of any component, which in turn is greater than or
+ * equal to the difference of any grid coordinate; so, two records whose
+ * cells are apart more than the distance of interest can be skipped without
+ * calculating their distance, and the results are the same that the ones
+ * obtained comparing all the pairs. This is only guaranteed for the default
+ * comparators (the one of {@link jmr.descriptor.DescriptorList} for the
+ * records and, for a <code>SingleColorDescriptor</code> component, the
+ * Euclidean one of its class), so, if any record uses another comparator, or
+ * if the records have no blocking component, all the pairs are compared.
+ *
+ * @param <T> the media type of the database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class SimilarityJoin<T> {
+
+    /**
+     * Number of grid dimensions.
+     */
+    private static final int DIMENSIONS = 3;
+    /**
+     * Maximum absolute value of a cell coordinate (coordinates are clamped to
+     * this value, so they can be packed in a long key).
+     */
+    private static final int MAX_COORDINATE = (1 << 20) - 1;
+    /**
+     * Minimum side of the grid cells.
+     */
+    private static final double MIN_SIDE = 1.0;
+    /**
+     * Number of records sampled for choosing the side of the grid cells in
+     * the k-nearest neighbours join.
+     */
+    private static final int SIDE_SAMPLES = 32;
+    /**
+     * Number of records processed together in the k-nearest neighbours join.
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * The database.
+     */
+    private final ListDB<T> database;
+    /**
+     * Position of the blocking component in the records (-1 if there is no
+     * blocking component).
+     */
+    private final int component;
+
+    /**
+     * Constructs a new join over the given database.
+     *
+     * @param database the database
+     */
+    SimilarityJoin(ListDB<T> database) {
+        this.database = database;
+        this.component = blockingComponent();
+    }
+
+    /**
+     * Emits all the pairs of records of the database whose distance is less
+     * than or equal to the given threshold. Each pair is emitted once, with
+     * the record of lowest position first.
+     *
+     * @param threshold the maximum distance between records
+     * @param parallel if <tt>true</tt>, the grid cells are processed in
+     * parallel (so the sink is called from several threads)
+     * @param sink the consumer of the pairs
+     * @return the number of emitted pairs
+     */
+    long join(double threshold, boolean parallel, PairConsumer<T> sink) {
+        double side = Math.max(threshold, MIN_SIDE);
+        HashMap<Long, Cell> grid = grid(side);
+        ArrayList<Cell> cells = new ArrayList<>(grid.values());
+        IntStream stream = IntStream.range(0, cells.size());
+        if (parallel) {
+            stream = stream.parallel();
+        }
+        return stream.mapToLong(c -> join(cells.get(c), grid, threshold, sink)).sum();
+    }
+
+    /**
+     * Emits the pairs within the given threshold formed by a record of the
+     * given cell and a record of the same cell or of a neighbour one (only
+     * the neighbours with higher key, so each pair of cells is processed
+     * once).
+     *
+     * @param cell the cell
+     * @param grid the grid of cells
+     * @param threshold the maximum distance between records
+     * @param sink the consumer of the pairs
+     * @return the number of emitted pairs
+     */
+    private long join(Cell cell, HashMap<Long, Cell> grid, double threshold, PairConsumer<T> sink) {
+        long count = 0;
+        int offset[] = new int[DIMENSIONS];
+        for (int neighbour = 0; neighbour < 27; neighbour++) {
+            offset[0] = neighbour % 3 - 1;
+            offset[1] = (neighbour / 3) % 3 - 1;
+            offset[2] = neighbour / 9 - 1;
+            Cell other = grid.get(key(cell.coordinates, offset));
+            if (other == null || other.key < cell.key) {
+                continue;
+            }
+            for (int a = 0; a < cell.size; a++) {
+                int i = cell.positions[a];
+                for (int b = (other == cell ? a + 1 : 0); b < other.size; b++) {
+                    int j = other.positions[b];
+                    double distance = database.get(i).distance(database.get(j), threshold);
+                    if (distance <= threshold) {
+                        if (i < j) {
+                            sink.accept(database.get(i), database.get(j), distance);
+                        } else {
+                            sink.accept(database.get(j), database.get(i), distance);
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Emits, for each record of the database, its k nearest records (the
+     * record itself excluded), in ascending order of distance. Each record is
+     * the first element of its pairs.
+     *
+     * The records are processed in chunks of {@link #CHUNK_SIZE} queries; for
+     * each chunk, the database is traversed in blocks of
+     * {@link ListDB#BATCH_BLOCK_SIZE} records, and each block is scored
+     * against all the queries of the chunk. A record is skipped if the
+     * distance between its grid cell and the one of the query is greater
+     * than or equal to the current k-th nearest distance of the query. Only
+     * the collectors of the chunks in process are kept in memory.
+     *
+     * @param k the number of neighbours of each record
+     * @param parallel if <tt>true</tt>, the chunks are processed in parallel
+     * (so the sink is called from several threads)
+     * @param sink the consumer of the pairs
+     */
+    void joinNearest(int k, boolean parallel, PairConsumer<T> sink) {
+        int n = database.size();
+        double side = nearestSide(k);
+        int coordinates[][] = new int[n][];
+        for (int i = 0; i < n; i++) {
+            coordinates[i] = coordinates(database.get(i), side);
+        }
+        IntStream stream = IntStream.range(0, (n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        if (parallel) {
+            stream = stream.parallel();
+        }
+        stream.forEach(chunk -> {
+            int from = chunk * CHUNK_SIZE, to = Math.min(n, from + CHUNK_SIZE);
+            TopKCollector nearest[] = nearest(k, from, to, coordinates, side);
+            for (int i = from; i < to; i++) {
+                int positions[] = nearest[i - from].positions();
+                double distances[] = nearest[i - from].distances();
+                for (int j = 0; j < positions.length; j++) {
+                    sink.accept(database.get(i), database.get(positions[j]), distances[j]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns, for each record in the given range of positions, a collector
+     * with its k nearest records (the record itself excluded).
+     *
+     * @param k the number of neighbours
+     * @param from the first position of the range (inclusive)
+     * @param to the last position of the range (exclusive)
+     * @param coordinates the cell coordinates of each record
+     * @param side the side of the cells
+     * @return the collectors of the records of the range (in the same order)
+     */
+    private TopKCollector[] nearest(int k, int from, int to, int coordinates[][], double side) {
+        int n = database.size();
+        TopKCollector nearest[] = new TopKCollector[to - from];
+        for (int q = 0; q < nearest.length; q++) {
+            nearest[q] = database.collector(Math.min(k, n - 1));
+        }
+        TopKCollector collector;
+        for (int block = 0; block < n; block += ListDB.BATCH_BLOCK_SIZE) {
+            int end = Math.min(block + ListDB.BATCH_BLOCK_SIZE, n);
+            for (int i = from; i < to; i++) {
+                if (database.isDeleted(i)) {
+                    continue; // No pairs for the deleted records
+                }
+                collector = nearest[i - from];
+                ListDB<T>.Record record = database.get(i);
+                for (int j = block; j < end; j++) {
+                    // The records of the ring r are farther than (r-1)*side
+                    if (j != i && (ring(coordinates[i], coordinates[j]) - 1) * side < collector.bound()) {
+                        collector.offer(record.distance(database.get(j), collector.bound()), j);
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the ring of the given cell around the other one (i.e., their
+     * Chebyshev distance).
+     *
+     * @param center the coordinates of the center cell
+     * @param cell the coordinates of the cell
+     * @return the ring of the cell
+     */
+    private static int ring(int center[], int cell[]) {
+        int ring = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            ring = Math.max(ring, Math.abs(cell[d] - center[d]));
+        }
+        return ring;
+    }
+
+    /**
+     * Returns the side of the grid cells for the k-nearest neighbours join:
+     * the median k-th nearest distance of a sample of records, so most of the
+     * records more than one cell apart from a query can be skipped.
+     *
+     * @param k the number of neighbours
+     * @return the side of the grid cells
+     */
+    private double nearestSide(int k) {
+        int n = database.size();
+        if (component < 0 || n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int numSamples = Math.min(SIDE_SAMPLES, n);
+        double sample[] = new double[numSamples];
+        for (int s = 0; s < numSamples; s++) {
+            int i = (int) ((long) s * n / numSamples);
+            ListDB<T>.Record record = database.get(i);
+            TopKCollector nearest = database.collector(Math.min(k, n - 1));
+            for (int j = 0; j < n; j++) {
+                if (j != i) {
+                    nearest.offer(record.distance(database.get(j), nearest.bound()), j);
+                }
+            }
+            sample[s] = nearest.bound();
+        }
+        Arrays.sort(sample);
+        return Math.max(sample[numSamples / 2], MIN_SIDE);
+    }
+
+    /**
+     * Returns the position of the blocking component in the records of the
+     * database: the first {@link SingleColorDescriptor} (if all the records
+     * use its default comparator) or, if not available, the first 
+     * {@link MPEG7ScalableColor}. If any record does not use the default
+     * {@link DescriptorList} comparator, the grid distances are not lower 
+     * bounds of the record distances, so there is no blocking component.
+     *
+     * @return the position of the blocking component, -1 if there is not
+     */
+    private int blockingComponent() {
+        if (database.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < database.size(); i++) {
+            ListDB<T>.Record r = database.get(i);
+            if (r.getComparator() == null 
+                    || r.getComparator().getClass() != DescriptorList.DefaultComparator.class) {
+                return -1;
+            }
+        }
+        ListDB<T>.Record record = database.get(0);
+        for (int c = 0; c < record.size(); c++) {
+            if (record.get(c) instanceof SingleColorDescriptor && hasDefaultComparators(c)) {
+                return c;
+            }
+        }
+        for (int c = 0; c < record.size(); c++) {
+            if (record.get(c) instanceof MPEG7ScalableColor) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the {@link SingleColorDescriptor} at the given position uses
+     * the default (Euclidean) comparator in all the records of the database.
+     *
+     * @param component the position of the descriptor
+     * @return <tt>true</tt> if all the records use the default comparator
+     */
+    private boolean hasDefaultComparators(int component) {
+        for (int i = 0; i < database.size(); i++) {
+            Object comparator = ((SingleColorDescriptor) database.get(i).get(component)).getComparator();
+            if (comparator == null || comparator.getClass() != SingleColorDescriptor.DefaultComparator.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the grid values of the given record, given by its blocking
+     * component (all zero if there is no blocking component).
+     *
+     * @param record the record
+     * @param value the array where the values are stored
+     */
+    private void values(ListDB<T>.Record record, double value[]) {
+        Arrays.fill(value, 0.0);
+        if (component < 0) {
+            return;
+        }
+        MediaDescriptor<?> descriptor = record.get(component);
+        if (descriptor instanceof SingleColorDescriptor) {
+            Color color = ((SingleColorDescriptor) descriptor).getColor();
+            value[0] = color.getRed();
+            value[1] = color.getGreen();
+            value[2] = color.getBlue();
+        } else {
+            MPEG7ScalableColor scalable = (MPEG7ScalableColor) descriptor;
+            for (int d = 0; d < Math.min(DIMENSIONS, scalable.getNumberOfCoefficients()); d++) {
+                value[d] = scalable.getCoefficient(d);
+            }
+        }
+    }
+
+    /**
+     * Returns the cell coordinates of the given record.
+     *
+     * @param record the record
+     * @param side the side of the cells
+     * @return the cell coordinates
+     */
+    private int[] coordinates(ListDB<T>.Record record, double side) {
+        double value[] = new double[DIMENSIONS];
+        int coordinates[] = new int[DIMENSIONS];
+        values(record, value);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double c = Math.floor(value[d] / side);
+            coordinates[d] = (int) Math.max(-MAX_COORDINATE, Math.min(MAX_COORDINATE, Double.isNaN(c) ? 0 : c));
+        }
+        return coordinates;
+    }
+
+    /**
+     * Builds the grid of cells of the database records.
+     *
+     * @param side the side of the cells
+     * @return the grid, indexed by cell key
+     */
+    private HashMap<Long, Cell> grid(double side) {
+        HashMap<Long, Cell> grid = new HashMap<>();
+        int none[] = new int[DIMENSIONS];
+        for (int i = 0; i < database.size(); i++) {
+            if (database.isDeleted(i)) {
+                continue;
+            }
+            int coordinates[] = coordinates(database.get(i), side);
+            long key = key(coordinates, none);
+            Cell cell = grid.get(key);
+            if (cell == null) {
+                cell = new Cell(key, coordinates);
+                grid.put(key, cell);
+            }
+            cell.add(i);
+        }
+        return grid;
+    }
+
+    /**
+     * Returns the key of the cell at the given coordinates plus the given
+     * offset.
+     *
+     * @param coordinates the cell coordinates
+     * @param offset the offset
+     * @return the cell key, or -1 if the resulting coordinates are out of
+     * range (no cell can be there)
+     */
+    private static long key(int coordinates[], int offset[]) {
+        long key = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            int c = coordinates[d] + offset[d];
+            if (c < -MAX_COORDINATE || c > MAX_COORDINATE) {
+                return -1;
+            }
+            key = (key << 21) | (c + MAX_COORDINATE);
+        }
+        return key;
+    }
+
+    /**
+     * Inner class representing a grid cell: a set of record positions.
+     */
+    private static class Cell {
+
+        /**
+         * The cell key.
+         */
+        final long key;
+        /**
+         * The cell coordinates.
+         */
+        final int coordinates[];
+        /**
+         * The positions of the records in this cell.
+         */
+        int positions[] = new int[4];
+        /**
+         * The number of records in this cell.
+         */
+        int size = 0;
+
+        /**
+         * Constructs an empty cell.
+         *
+         * @param key the cell key
+         * @param coordinates the cell coordinates
+         */
+        Cell(long key, int coordinates[]) {
+            this.key = key;
+            this.coordinates = coordinates;
+        }
+
+        /**
+         * Adds a record position to this cell.
+         *
+         * @param position the record position
+         */
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package jmr.db;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Represents an operation that loads a media from its locator. It is used for
+ * reloading on demand the source of the records that do not keep it in memory
+ * (see {@link ListDB#setSourceDetached(boolean)} and
+ * {@link ListDB.Record#loadSource()}). For example, for a database of images,
+ * <code>javax.imageio.ImageIO::read</code> can be used as loader.
+ *
+ * @param <T> the media type of the database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+@FunctionalInterface
+public interface SourceLoader<T> {
+
+    /**
+     * Loads the media located at the given locator.
+     *
+     * @param locator the media locator
+     * @return the media (<tt>null</tt> if it cannot be decoded)
+     * @throws IOException if an I/O error occurs while reading the media
+     */
+    T load(URL locator) throws IOException;
+}
@@ -0,0 +1,215 @@
+package jmr.db;
+
+import java.util.BitSet;
+import jmr.descriptor.MediaDescriptor;
+
+/**
+ * Class implementing the threshold algorithm (Fagin et al.) for the top-k
+ * queries of a {@link ListDB} whose records have several descriptors.
+ *
+ * The distance between records is given by a {@link Fusion} of the
+ * descriptor distances (the default record distance if it is the default
+ * fusion).
+ *
+ * Some of the descriptors (the sorted components) are accessed in ascending
+ * order of distance to the query: the distances of the sorted components are
+ * calculated for all the records, and each one is consumed as a stream of
+ * records sorted by distance (the records are sorted lazily, so only the
+ * consumed part of the stream is sorted). The streams are consumed in turn,
+ * and the rest of descriptors of each new record are compared by random
+ * access (with the distance of the current k-th nearest record as upper
+ * bound). The next distance of each stream is a lower bound of the distance
+ * of the records not returned yet, so their fusion (with zero distance for
+ * the rest of descriptors) is a lower bound of the distance of any record not
+ * visited yet; the query stops as soon as this bound is greater than the
+ * distance of the current k-th nearest record. Since the fusions are monotone,
+ * the results are the same that the ones obtained by a full scan.
+ *
+ * Sorted components should be cheap descriptors (for example,
+ * <code>SingleColorDescriptor</code>), so most of the expensive ones are not
+ * compared.
+ *
+ * @param <T> the media type of the database
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class ThresholdQuery<T> {
+
+    /**
+     * The database.
+     */
+    private final ListDB<T> database;
+    /**
+     * The query record.
+     */
+    private final ListDB<T>.Record query;
+    /**
+     * The fusion of the descriptor distances.
+     */
+    private final Fusion fusion;
+
+    /**
+     * Constructs a new threshold query.
+     *
+     * @param database the database
+     * @param query the query record
+     * @param fusion the fusion of the descriptor distances
+     */
+    ThresholdQuery(ListDB<T> database, ListDB<T>.Record query, Fusion fusion) {
+        this.database = database;
+        this.query = query;
+        this.fusion = fusion;
+    }
+
+    /**
+     * Returns a collector with the k nearest records to the query.
+     *
+     * @param k the number of nearest records to be collected
+     * @param sortedComponents the positions of the descriptors accessed in
+     * ascending order of distance
+     * @return a collector with the positions and distances of the nearest
+     * records
+     */
+    TopKCollector nearest(int k, int sortedComponents[]) {
+        int n = database.size();
+        TopKCollector collector = database.collector(k);
+        SortedScan streams[] = new SortedScan[sortedComponents.length];
+        boolean known[] = new boolean[query.size()];
+        for (int s = 0; s < streams.length; s++) {
+            streams[s] = new SortedScan(database, query, sortedComponents[s]);
+            known[sortedComponents[s]] = true;
+        }
+        BitSet seen = new BitSet(n);
+        double frontier[] = new double[query.size()], distances[] = new double[query.size()];
+        int position, visited = 0;
+        while (visited < n) {
+            // Every record is in every stream, so no stream is exhausted while
+            // there are records not visited yet
+            for (int s = 0; s < streams.length && visited < n; s++) {
+                position = streams[s].next();
+                if (!seen.get(position)) {
+                    seen.set(position);
+                    visited++;
+                    for (SortedScan stream : streams) {
+                        distances[stream.component] = stream.distances[position];
+                    }
+                    collector.offer(fusion.distance(query, database.get(position), known, distances, collector.bound()), position);
+                }
+                frontier[streams[s].component] = streams[s].frontier();
+            }
+            if (fusion.fuse(frontier) > collector.bound()) {
+                break;
+            }
+        }
+        return collector;
+    }
+
+    /**
+     * Inner class representing a sorted scan of a descriptor: the distances
+     * from the query descriptor to the descriptor of every record are
+     * calculated, and the records are returned in ascending order of distance
+     * (ties are resolved by position) by means of a binary heap.
+     */
+    private static class SortedScan {
+
+        /**
+         * The position of the descriptor in the records.
+         */
+        final int component;
+        /**
+         * The distance of each record (in the database order).
+         */
+        final double distances[];
+        /**
+         * Binary heap with the positions of the records not returned yet.
+         */
+        private final int heap[];
+        /**
+         * The number of records in the heap.
+         */
+        private int size;
+
+        /**
+         * Constructs a new sorted scan of the given descriptor.
+         *
+         * @param database the database
+         * @param query the query record
+         * @param component the position of the descriptor in the records
+         */
+        SortedScan(ListDB<?> database, ListDB<?>.Record query, int component) {
+            this.component = component;
+            MediaDescriptor<?> descriptor = query.get(component);
+            size = database.size();
+            distances = new double[size];
+            heap = new int[size];
+            for (int i = 0; i < size; i++) {
+                distances[i] = descriptor.distance(database.get(i).get(component));
+                heap[i] = i;
+            }
+            for (int i = (size >> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        /**
+         * Returns the position of the next record of this stream.
+         *
+         * @return the position of the next record, -1 if the stream is
+         * exhausted
+         */
+        int next() {
+            if (size == 0) {
+                return -1;
+            }
+            int output = heap[0];
+            heap[0] = heap[--size];
+            siftDown(0);
+            return output;
+        }
+
+        /**
+         * Returns the distance of the next record of this stream, a lower
+         * bound of the distance of the records not returned yet.
+         *
+         * @return the distance of the next record,
+         * <code>Double.POSITIVE_INFINITY</code> if the stream is exhausted
+         */
+        double frontier() {
+            return size > 0 ? distances[heap[0]] : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Moves down the item at the given index of the heap until the heap
+         * order is restored.
+         *
+         * @param i the index of the item
+         */
+        private void siftDown(int i) {
+            int item = heap[i], child;
+            while ((child = (i << 1) + 1) < size) {
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], item)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = item;
+        }
+
+        /**
+         * Checks if the first record precedes the second one (in ascending
+         * order of distance, and position in case of tie).
+         *
+         * @param p1 the position of the first record
+         * @param p2 the position of the second record
+         * @return <tt>true</tt> if the first record precedes the second one
+         */
+        private boolean less(int p1, int p2) {
+            int cmp = Double.compare(distances[p1], distances[p2]);
+            return cmp < 0 || (cmp == 0 && p1 < p2);
+        }
+    }
+}
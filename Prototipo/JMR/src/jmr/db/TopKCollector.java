@@ -0,0 +1,211 @@
+package jmr.db;
+
+import java.util.BitSet;
+
+/**
+ * Bounded collector of the k nearest items of a search, given by their
+ * (primitive) distances and their positions in the database.
+ *
+ * The collector is implemented as a binary heap whose root is the worst item
+ * collected so far, so its distance (see {@link #bound()}) can be used as
+ * upper bound for early-abandoning the distance calculation of the next
+ * candidates. Ties are resolved in favour of the lowest position, so the
+ * output is the same that the one obtained by (stable) sorting all the
+ * distances and keeping the first k items.
+ *
+ * A collector can exclude some positions (for example, the deleted records of
+ * the database): they are rejected whatever their distance.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class TopKCollector {
+
+    /**
+     * Distances of the collected items (heap order).
+     */
+    private final double[] distances;
+    /**
+     * Positions of the collected items (heap order).
+     */
+    private final int[] positions;
+    /**
+     * Number of collected items.
+     */
+    private int size;
+    /**
+     * Positions rejected by this collector (<tt>null</tt> if none).
+     */
+    private final BitSet excluded;
+
+    /**
+     * Constructs an empty collector.
+     *
+     * @param k the maximum number of items to be collected
+     */
+    TopKCollector(int k) {
+        this(k, null);
+    }
+
+    /**
+     * Constructs an empty collector which rejects the given positions.
+     *
+     * @param k the maximum number of items to be collected
+     * @param excluded the positions to be rejected (<tt>null</tt> if none)
+     */
+    TopKCollector(int k, BitSet excluded) {
+        k = Math.max(k, 0);
+        distances = new double[k];
+        positions = new int[k];
+        size = 0;
+        this.excluded = excluded;
+    }
+
+    /**
+     * Checks if the given position is rejected by this collector, so its
+     * distance does not need to be calculated.
+     *
+     * @param position the position
+     * @return <tt>true</tt> if the position is excluded
+     */
+    boolean excludes(int position) {
+        return excluded != null && excluded.get(position);
+    }
+
+    /**
+     * Returns the number of collected items.
+     *
+     * @return the number of collected items
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the current upper bound of the distances of interest: the
+     * distance of the worst collected item if the collector is full,
+     * <code>Double.POSITIVE_INFINITY</code> in other case. A candidate will
+     * be accepted only if its distance is less than this bound (or equal, if
+     * the collector is not full).
+     *
+     * @return the current upper bound of the distances of interest
+     */
+    double bound() {
+        if (distances.length == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return size < distances.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Offers a new candidate to this collector.
+     *
+     * @param distance the distance of the candidate
+     * @param position the position of the candidate
+     * @return <tt>true</tt> if the candidate has been collected (it is not
+     * if its position is excluded)
+     */
+    boolean offer(double distance, int position) {
+        if (excludes(position)) {
+            return false;
+        }
+        if (size < distances.length) {
+            // Sift up
+            int i = size++, parent;
+            while (i > 0) {
+                parent = (i - 1) >> 1;
+                if (!worse(distance, position, distances[parent], positions[parent])) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                positions[i] = positions[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            positions[i] = position;
+            return true;
+        }
+        if (size == 0 || !worse(distances[0], positions[0], distance, position)) {
+            return false;
+        }
+        // Replace the root and sift down
+        int i = 0, child;
+        while ((child = (i << 1) + 1) < size) {
+            if (child + 1 < size && worse(distances[child + 1], positions[child + 1], distances[child], positions[child])) {
+                child++;
+            }
+            if (!worse(distances[child], positions[child], distance, position)) {
+                break;
+            }
+            distances[i] = distances[child];
+            positions[i] = positions[child];
+            i = child;
+        }
+        distances[i] = distance;
+        positions[i] = position;
+        return true;
+    }
+
+    /**
+     * Merges the items of the given collector into this one.
+     *
+     * @param collector the collector to be merged
+     */
+    void merge(TopKCollector collector) {
+        for (int i = 0; i < collector.size; i++) {
+            offer(collector.distances[i], collector.positions[i]);
+        }
+    }
+
+    /**
+     * Returns the positions of the collected items sorted by distance.
+     *
+     * @return the positions of the collected items sorted by distance
+     */
+    int[] positions() {
+        int[] order = order();
+        int[] output = new int[size];
+        for (int i = 0; i < size; i++) {
+            output[i] = positions[order[i]];
+        }
+        return output;
+    }
+
+    /**
+     * Returns the distances of the collected items sorted in ascending order.
+     *
+     * @return the distances of the collected items sorted in ascending order
+     */
+    double[] distances() {
+        int[] order = order();
+        double[] output = new double[size];
+        for (int i = 0; i < size; i++) {
+            output[i] = distances[order[i]];
+        }
+        return output;
+    }
+
+    /**
+     * Returns the heap indices of the collected items sorted by distance (and
+     * position, in case of ties).
+     *
+     * @return the heap indices of the collected items sorted by distance
+     */
+    private int[] order() {
+        return DistanceOrder.sort(distances, positions, size);
+    }
+
+    /**
+     * Checks if the first item is worse than the second one, i.e., if its
+     * distance is greater or, in case of tie, if its position is greater.
+     *
+     * @param d1 the distance of the first item
+     * @param p1 the position of the first item
+     * @param d2 the distance of the second item
+     * @param p2 the position of the second item
+     * @return <tt>true</tt> if the first item is worse than the second one
+     */
+    private static boolean worse(double d1, int p1, double d2, int p2) {
+        int cmp = Double.compare(d1, d2);
+        return cmp > 0 || (cmp == 0 && p1 > p2);
+    }
+}
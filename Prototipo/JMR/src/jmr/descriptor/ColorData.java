@@ -101,6 +101,21 @@ public class ColorData implements MediaDescriptor {
     return ( compare((ColorData) mediaDescriptor) );
   }
 
+  /** Returns the distance between this ColorData obtect and the ColorData 
+   * given by parameter as a primitive value.
+   * <p> This method is valid only for Colodata media descriptors
+   * @param mediaDescriptor MediaDescriptor object to be compared
+   * @see #compare(ColorData color)
+   * @return The distance between descriptors
+   */
+  @Override
+  public double distance(MediaDescriptor mediaDescriptor) {
+    if (! (mediaDescriptor instanceof ColorData)) {
+      throw new InvalidParameterException("Only ColorData descriptors can be compared.");
+    }
+    return ( distance(((ColorData) mediaDescriptor).colorData, this.colorData, true) );
+  }
+
     
 
     @Override
@@ -2,7 +2,9 @@
 package jmr.descriptor;
 
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import java.util.function.BiFunction;
+import jmr.result.JMRResult;
 
 /**
  * Represents a function that compares two descriptors (the arguments) and 
@@ -24,4 +26,66 @@ public interface Comparator<T extends MediaDescriptor, R> extends java.util.func
      */
     @Override
     R apply(T t, T u);
+    
+    /**
+     * Applies this comparator to the given arguments, returning the result as
+     * a primitive double value.
+     * 
+     * The default implementation calls the <code>apply</code> method and 
+     * converts its result into a double value (see 
+     * {@link #toDouble(java.lang.Object)}). Comparators returning a distance 
+     * should override this method with a primitive implementation (and
+     * implement <code>apply</code> by boxing its output), so no object is 
+     * allocated per comparison.
+     *
+     * @param t the first function argument
+     * @param u the second function argument
+     * @return the function result as a double value
+     * @throws InvalidParameterException if the function result is not 
+     * interpretable as a double value.
+     */
+    default double distance(T t, T u) {
+        return toDouble(apply(t, u));
+    }
+    
+    /**
+     * Applies this comparator to the given arguments, abandoning the 
+     * calculation as soon as it is known that the result exceeds the given
+     * bound (see {@link MediaDescriptor#distance(jmr.descriptor.MediaDescriptor, double) }).
+     * 
+     * The default implementation calculates the full distance.
+     *
+     * @param t the first function argument
+     * @param u the second function argument
+     * @param bound the upper bound of the results of interest
+     * @return the function result if it is not greater than the bound, a 
+     * value greater than the bound in other case.
+     */
+    default double distance(T t, T u, double bound) {
+        return distance(t, u);
+    }
+    
+    /**
+     * Converts the given comparison result into a double value. Only 
+     * {@link Number} and {@link JMRResult} objects are interpretable as
+     * double values.
+     * 
+     * @param result the comparison result
+     * @return the double value of the result
+     * @throws InvalidParameterException if the result is not interpretable as 
+     * a double value (including the <code>null</code> result of non
+     * comparable descriptors).
+     */
+    static double toDouble(Object result) {
+        if (result instanceof Number) {
+            return ((Number) result).doubleValue();
+        }
+        if (result instanceof JMRResult) {
+            return ((JMRResult) result).toDouble();
+        }
+        if (result == null) {
+            throw new InvalidParameterException("The descriptors are not comparables.");
+        }
+        throw new InvalidParameterException("The comparision result is not interpetrable as a double value.");
+    }
 }
@@ -0,0 +1,51 @@
+package jmr.descriptor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Abstract representation of a binary codec for a descriptor class: the
+ * compact representation of the data of a descriptor used when it is
+ * serialized (see {@link DescriptorCodecs}).
+ *
+ * As in the {@link java.io.Externalizable} interface, the codec writes the
+ * data of an existing descriptor and reads it into an existing descriptor
+ * (usually, the one being deserialized). Each codec has a version, written
+ * before the data, so the format can evolve: a codec must be able to read the
+ * data written by any previous version.
+ *
+ * @param <D> the descriptor class
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public interface DescriptorCodec<D> {
+
+    /**
+     * Returns the current version of this codec (a positive value), the one
+     * used for writing.
+     *
+     * @return the version of this codec
+     */
+    public int getVersion();
+
+    /**
+     * Writes the data of the given descriptor.
+     *
+     * @param descriptor the descriptor
+     * @param out the output
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(D descriptor, DataOutput out) throws IOException;
+
+    /**
+     * Reads the data of a descriptor, written by the given version of this
+     * codec, into the given descriptor.
+     *
+     * @param descriptor the descriptor to be filled
+     * @param in the input
+     * @param version the version of the codec that wrote the data
+     * @throws IOException if an I/O error occurs or the data are not valid
+     */
+    public void read(D descriptor, DataInput in, int version) throws IOException;
+}
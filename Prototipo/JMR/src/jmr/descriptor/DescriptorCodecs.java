@@ -0,0 +1,340 @@
+package jmr.descriptor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the binary codecs of the descriptor classes (see
+ * {@link DescriptorCodec}), and tools for writing compact data (variable
+ * length integers and bit-packed values).
+ *
+ * A descriptor class supporting a codec registers it (usually, in a static
+ * initializer) and delegates its serialization to this class:
+ * <pre>
+ * private void writeObject(ObjectOutputStream out) throws IOException {
+ *     out.defaultWriteObject();
+ *     DescriptorCodecs.write(this, out);
+ * }
+ *
+ * private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+ *     ObjectInputStream.GetField fields = in.readFields();
+ *     if (DescriptorCodecs.isLegacy(fields)) {
+ *         // Reads the fields written before the codec
+ *     } else {
+ *         DescriptorCodecs.read(this, in);
+ *     }
+ * }
+ * </pre>
+ * The version of the codec is written before the data, so the data written
+ * by previous versions can be read. The data written before the class 
+ * supported a codec (the {@link #LEGACY_VERSION}) are the fields serialized
+ * by default, which are still available in the stream (see
+ * {@link #isLegacy(java.io.ObjectInputStream.GetField)}).
+ *
+ * This class is thread-safe.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class DescriptorCodecs {
+
+    /**
+     * Version of the data written before the descriptor class supported a
+     * codec, i.e., the fields serialized by default.
+     */
+    static public final int LEGACY_VERSION = 0;
+    /**
+     * Codec of each descriptor class.
+     */
+    private static final ConcurrentHashMap<Class<?>, DescriptorCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private DescriptorCodecs() {
+    }
+
+    /**
+     * Registers the codec of the given descriptor class, replacing the
+     * previous one (if any).
+     *
+     * @param <D> the descriptor class
+     * @param descriptorClass the descriptor class
+     * @param codec the codec
+     */
+    public static <D> void register(Class<D> descriptorClass, DescriptorCodec<? super D> codec) {
+        codecs.put(descriptorClass, codec);
+    }
+
+    /**
+     * Returns the codec of the given descriptor class.
+     *
+     * @param descriptorClass the descriptor class
+     * @return the codec of the class (<tt>null</tt> if not registered)
+     */
+    public static DescriptorCodec<?> get(Class<?> descriptorClass) {
+        return codecs.get(descriptorClass);
+    }
+
+    /**
+     * Writes the version of the codec of the given descriptor and the data of
+     * the descriptor.
+     *
+     * @param <D> the descriptor class
+     * @param descriptor the descriptor
+     * @param out the output
+     * @throws IOException if an I/O error occurs
+     * @throws NotSerializableException if there is no codec for the class of
+     * the descriptor
+     */
+    public static <D> void write(D descriptor, DataOutput out) throws IOException {
+        DescriptorCodec<D> codec = codec(descriptor);
+        writeVarInt(out, codec.getVersion());
+        codec.write(descriptor, out);
+    }
+
+    /**
+     * Reads the version of the codec and the data of a descriptor into the
+     * given descriptor.
+     *
+     * @param <D> the descriptor class
+     * @param descriptor the descriptor to be filled
+     * @param in the input
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidObjectException if the version is not supported by the
+     * codec
+     * @throws NotSerializableException if there is no codec for the class of
+     * the descriptor
+     */
+    public static <D> void read(D descriptor, DataInput in) throws IOException {
+        DescriptorCodec<D> codec = codec(descriptor);
+        int version = readVarInt(in);
+        if (version < 1 || version > codec.getVersion()) {
+            throw new InvalidObjectException("Unsupported " + descriptor.getClass().getSimpleName()
+                    + " codec version: " + version);
+        }
+        codec.read(descriptor, in, version);
+    }
+
+    /**
+     * Checks if the given fields of a descriptor being deserialized were
+     * written before its class supported a codec (see 
+     * {@link #LEGACY_VERSION}). In that case, the data of the descriptor are
+     * the given fields instead of the codec data; otherwise, no field is
+     * serialized (the classes supporting a codec declare no serializable 
+     * field).
+     *
+     * @param fields the fields read from the stream
+     * @return <tt>true</tt> if the fields were written by the legacy format
+     */
+    public static boolean isLegacy(ObjectInputStream.GetField fields) {
+        return fields.getObjectStreamClass().getFields().length > 0;
+    }
+
+    /**
+     * Returns the codec of the class of the given descriptor.
+     *
+     * @param <D> the descriptor class
+     * @param descriptor the descriptor
+     * @return the codec of the class of the descriptor
+     * @throws NotSerializableException if there is no codec for the class
+     */
+    @SuppressWarnings("unchecked")
+    private static <D> DescriptorCodec<D> codec(D descriptor) throws NotSerializableException {
+        DescriptorCodec<D> codec = (DescriptorCodec<D>) codecs.get(descriptor.getClass());
+        if (codec == null) {
+            throw new NotSerializableException("No codec registered for " + descriptor.getClass().getName());
+        }
+        return codec;
+    }
+
+    /**
+     * Writes a non-negative integer as a variable length integer (7 bits per
+     * byte, with the highest bit set in all the bytes but the last one).
+     *
+     * @param out the output
+     * @param value the value (non-negative)
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a variable length integer (see
+     * {@link #writeVarInt(java.io.DataOutput, int)}).
+     *
+     * @param in the input
+     * @return the value
+     * @throws IOException if an I/O error occurs or the value is malformed
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0, b;
+        for (int shift = 0; shift < 32; shift += 7) {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed variable length integer.");
+    }
+
+    /**
+     * Writes an integer as a variable length integer, mapping the small
+     * negative values to small positive ones (zigzag encoding).
+     *
+     * @param out the output
+     * @param value the value
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a signed variable length integer (see
+     * {@link #writeSignedVarInt(java.io.DataOutput, int)}).
+     *
+     * @param in the input
+     * @return the value
+     * @throws IOException if an I/O error occurs or the value is malformed
+     */
+    public static int readSignedVarInt(DataInput in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Checks if the given value can be represented by the given number of
+     * bits in two's complement.
+     *
+     * @param value the value
+     * @param bits the number of bits (in [1,32])
+     * @return <tt>true</tt> if the value fits in the number of bits
+     */
+    public static boolean fits(int value, int bits) {
+        return bits >= 32 || (value >= -(1 << (bits - 1)) && value < (1 << (bits - 1)));
+    }
+
+    /**
+     * Inner class for writing values with a given number of bits, packed in
+     * bytes (the first value in the highest bits).
+     */
+    public static final class BitWriter {
+
+        /**
+         * The output.
+         */
+        private final DataOutput out;
+        /**
+         * The bits not written yet (in the lowest positions).
+         */
+        private long buffer = 0;
+        /**
+         * The number of bits not written yet.
+         */
+        private int count = 0;
+
+        /**
+         * Constructs a new bit writer.
+         *
+         * @param out the output
+         */
+        public BitWriter(DataOutput out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes the lowest bits of the given value.
+         *
+         * @param value the value
+         * @param bits the number of bits (in [1,32])
+         * @throws IOException if an I/O error occurs
+         */
+        public void write(int value, int bits) throws IOException {
+            buffer = (buffer << bits) | (value & (0xFFFFFFFFL >>> (32 - bits)));
+            count += bits;
+            while (count >= 8) {
+                count -= 8;
+                out.writeByte((int) (buffer >>> count));
+            }
+        }
+
+        /**
+         * Writes the pending bits, padding the last byte with zeros.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        public void flush() throws IOException {
+            if (count > 0) {
+                out.writeByte((int) (buffer << (8 - count)));
+                count = 0;
+            }
+            buffer = 0;
+        }
+    }
+
+    /**
+     * Inner class for reading values written by a {@link BitWriter}.
+     */
+    public static final class BitReader {
+
+        /**
+         * The input.
+         */
+        private final DataInput in;
+        /**
+         * The bits read and not consumed yet (in the lowest positions).
+         */
+        private long buffer = 0;
+        /**
+         * The number of bits read and not consumed yet.
+         */
+        private int count = 0;
+
+        /**
+         * Constructs a new bit reader.
+         *
+         * @param in the input
+         */
+        public BitReader(DataInput in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads an unsigned value of the given number of bits.
+         *
+         * @param bits the number of bits (in [1,32])
+         * @return the value
+         * @throws IOException if an I/O error occurs
+         */
+        public int read(int bits) throws IOException {
+            while (count < bits) {
+                buffer = (buffer << 8) | in.readUnsignedByte();
+                count += 8;
+            }
+            count -= bits;
+            return (int) ((buffer >>> count) & (0xFFFFFFFFL >>> (32 - bits)));
+        }
+
+        /**
+         * Reads a signed (two's complement) value of the given number of bits.
+         *
+         * @param bits the number of bits (in [1,32])
+         * @return the value
+         * @throws IOException if an I/O error occurs
+         */
+        public int readSigned(int bits) throws IOException {
+            return (read(bits) << (32 - bits)) >> (32 - bits);
+        }
+    }
+}
@@ -15,6 +15,8 @@ import java.util.ArrayList;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class DescriptorList<T> extends MediaDescriptorAdapter<T> implements Serializable{
+    private static final long serialVersionUID = 9122995998255529480L;
+
     /**
      * List of descriptors
      */
@@ -40,6 +42,32 @@ public class DescriptorList<T> extends MediaDescriptorAdapter<T> implements Seri
         descriptors = new ArrayList<>();
     }
     
+    /**
+     * Releases the references of this list, and of all its descriptors, to
+     * the media source.
+     */
+    @Override
+    public void detachSource() {
+        super.detachSource();
+        for (MediaDescriptor<T> descriptor : descriptors) {
+            descriptor.detachSource();
+        }
+    }
+    
+    /**
+     * Sets the media source of this list, and of all its descriptors, without
+     * updating them (the media must be the one they were calculated from).
+     * 
+     * @param media the media source the descriptors were calculated from
+     */
+    @Override
+    public void attachSource(T media) {
+        super.attachSource(media);
+        for (MediaDescriptor<T> descriptor : descriptors) {
+            descriptor.attachSource(media);
+        }
+    }
+    
     /**
      * Appends the specified descriptor to the end of this list.
      *
@@ -165,7 +193,9 @@ public class DescriptorList<T> extends MediaDescriptorAdapter<T> implements Seri
      * the list must be comparables (at a given position) with a double value 
      * as result.
      */
-    static class DefaultComparator implements Comparator<DescriptorList, Double> {
+    static public class DefaultComparator implements Comparator<DescriptorList, Double> {
+        private static final long serialVersionUID = -4541566497641245955L;
+
         @Override
         /**
          * Calculates the difference between list descriptors by means a
@@ -181,16 +211,36 @@ public class DescriptorList<T> extends MediaDescriptorAdapter<T> implements Seri
          * comparables with a double value as result.
          */
         public Double apply(DescriptorList t, DescriptorList u) {
+            return distance(t, u);
+        }
+        
+        /**
+         * Calculates the difference between list descriptors by means a
+         * Euclidean distance, using the primitive distance of the descriptors
+         * at each position (so no result is boxed).
+         *
+         * @param t the first descriptor list.
+         * @param u the second descriptor list.
+         * @return the difference between descriptors.
+         * @throws InvalidParameterException if the descriptor lists have 
+         * different size, or if the descriptors at a given position are not 
+         * comparables with a double value as result.
+         */
+        @Override
+        public double distance(DescriptorList t, DescriptorList u) {
             if(t.size() != u.size()){
                 throw new InvalidParameterException("The descriptor lists must have the same size.");
             }
-            Double item_distance, sum = 0.0;
+            double item_distance, sum = 0.0;
+            MediaDescriptor<?> m1, m2;
             for(int i=0; i<t.size(); i++){
                 try{
-                    item_distance = (Double)t.get(i).compare(u.get(i));
+                    m1 = t.get(i);
+                    m2 = u.get(i);
+                    item_distance = m1.distance(m2);
                     sum += item_distance*item_distance;
                 }
-                catch(ClassCastException e){
+                catch(InvalidParameterException e){
                     throw new InvalidParameterException("The comparision between descriptors at position '"+i+"' is not interpetrable as a double value.");
                 }
                 catch(Exception e){
@@ -198,7 +248,59 @@ public class DescriptorList<T> extends MediaDescriptorAdapter<T> implements Seri
                 }                
             }
             return Math.sqrt(sum);
-        }    
+        }
+        
+        /**
+         * Calculates the Euclidean distance between list descriptors, 
+         * abandoning the calculation as soon as the partial distance exceeds
+         * the given bound. Each descriptor distance is calculated with the 
+         * bound left by the previous ones, so the descriptors can abandon their
+         * calculation too.
+         *
+         * @param t the first descriptor list.
+         * @param u the second descriptor list.
+         * @param bound the upper bound of the distances of interest
+         * @return the difference between descriptors if it is not greater 
+         * than the bound, a partial distance greater than the bound in other
+         * case.
+         * @throws InvalidParameterException if the descriptor lists have 
+         * different size, or if the descriptors at a given position are not 
+         * comparables with a double value as result.
+         */
+        @Override
+        public double distance(DescriptorList t, DescriptorList u, double bound) {
+            if(t.size() != u.size()){
+                throw new InvalidParameterException("The descriptor lists must have the same size.");
+            }
+            double item_distance, item_bound, partial, sum = 0.0, bound2 = bound*bound;
+            MediaDescriptor<?> m1, m2;
+            for(int i=0; i<t.size(); i++){
+                try{
+                    m1 = t.get(i);
+                    m2 = u.get(i);
+                    item_bound = Math.sqrt(bound2-sum);
+                    item_distance = m1.distance(m2, item_bound);
+                    partial = sum + item_distance*item_distance;
+                    if(partial > bound2 && Math.sqrt(partial) > bound){
+                        return Math.sqrt(partial);
+                    }
+                    if(item_distance > item_bound){
+                        // Rounding limit case: the item distance could be 
+                        // partial, so it is calculated again
+                        item_distance = m1.distance(m2);
+                        partial = sum + item_distance*item_distance;
+                    }
+                    sum = partial;
+                }
+                catch(InvalidParameterException e){
+                    throw new InvalidParameterException("The comparision between descriptors at position '"+i+"' is not interpetrable as a double value.");
+                }
+                catch(Exception e){
+                    throw new InvalidParameterException("The descriptors at position '"+i+"' are not comparables.");
+                }                
+            }
+            return Math.sqrt(sum);
+        }
     }
     
 }
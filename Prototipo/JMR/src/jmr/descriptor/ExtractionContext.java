@@ -0,0 +1,107 @@
+package jmr.descriptor;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * Class representing the context of a feature extraction process, that is, 
+ * a media together with the intermediate data calculated from it.
+ * 
+ * When several descriptors are calculated from the same media (for example,
+ * the descriptors of a database record), many of them need the same 
+ * intermediate data (a decoded raster, a color space conversion, etc.). This 
+ * class memoizes that data, so it is calculated only once and shared by all 
+ * the descriptors built from this context. 
+ * 
+ * The data is stored by key: the first time a given key is requested, the 
+ * associated producer is used to calculate the data; next requests return the
+ * stored object. This class is not thread-safe: a context is intended to be
+ * used during the construction of a set of descriptors and then discarded.
+ * 
+ * @param <T> the type of media associated to this context
+ * 
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ExtractionContext<T> {
+    /**
+     * The media associated to this context.
+     */
+    private final T media;
+    /**
+     * Intermediate data calculated from the media.
+     */
+    private final HashMap<Object, Object> data = new HashMap<>();
+
+    /**
+     * Constructs a new context associated to the given media.
+     * 
+     * @param media the media associated to this context.
+     */
+    public ExtractionContext(T media) {
+        this.media = media;
+    }
+    
+    /**
+     * Returns a new context associated to the given media. If the media is an
+     * image, an {@link ImageExtractionContext} is returned.
+     * 
+     * @param <T> the type of the media
+     * @param media the media associated to the new context
+     * @return a new context associated to the given media
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ExtractionContext<T> of(T media) {
+        if (media instanceof BufferedImage) {
+            return (ExtractionContext<T>) new ImageExtractionContext((BufferedImage) media);
+        }
+        return new ExtractionContext<>(media);
+    }
+
+    /**
+     * Returns the media associated to this context.
+     * 
+     * @return the media associated to this context.
+     */
+    public T getMedia() {
+        return media;
+    }
+
+    /**
+     * Returns the data associated to the given key. If it has not been 
+     * calculated yet, it is calculated by applying the given producer to the 
+     * media of this context, and stored for next requests.
+     * 
+     * @param <V> the type of the data
+     * @param key the key of the data
+     * @param producer the function used to calculate the data from the media
+     * @return the data associated to the given key
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(Object key, Function<? super T, V> producer) {
+        Object value = data.get(key);
+        if (value == null) {
+            value = producer.apply(media);
+            data.put(key, value);
+        }
+        return (V) value;
+    }
+    
+    /**
+     * Returns <tt>true</tt> if the data associated to the given key has been
+     * already calculated.
+     * 
+     * @param key the key of the data
+     * @return <tt>true</tt> if the data is available in this context.
+     */
+    public boolean contains(Object key) {
+        return data.containsKey(key);
+    }
+    
+    /**
+     * Removes all the intermediate data of this context.
+     */
+    public void clear() {
+        data.clear();
+    }
+}
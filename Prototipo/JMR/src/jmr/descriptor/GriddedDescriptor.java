@@ -17,6 +17,8 @@ import jmr.grid.SquareGrid;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class GriddedDescriptor<T> extends MediaDescriptorAdapter<T> implements Serializable{    
+    private static final long serialVersionUID = 3131620883374253047L;
+
     /**
      * Grid associated to this descriptor
      */
@@ -152,6 +154,21 @@ public class GriddedDescriptor<T> extends MediaDescriptorAdapter<T> implements S
         this.setTilesDescriptors(tileDescriptorClass);
     }
     
+    /**
+     * Releases the references of this descriptor to its media source, that is,
+     * the source, the grid (whose tiles are taken from the source) and the 
+     * sources of the tile descriptors. After that, the grid of this 
+     * descriptor is <tt>null</tt>.
+     */
+    @Override
+    public void detachSource() {
+        super.detachSource();
+        this.grid = null;
+        for (MediaDescriptor<T> descriptor : descriptors) {
+            descriptor.detachSource();
+        }
+    }
+    
     /**
      * Returns the tile descriptor class.
      * 
@@ -190,7 +207,8 @@ public class GriddedDescriptor<T> extends MediaDescriptorAdapter<T> implements S
      * @return the number of tiles in this grid descriptor
      */
     public int getNumTiles(){
-        return grid.getNumTiles();
+        // There is a descriptor for each tile (the grid may be detached)
+        return descriptors.size();
     }
     
     /**
@@ -260,21 +278,63 @@ public class GriddedDescriptor<T> extends MediaDescriptorAdapter<T> implements S
      * Functional (inner) class implementing a comparator between list descriptors
      */
     static class DefaultComparator implements Comparator<GriddedDescriptor, Double> {
+        private static final long serialVersionUID = -5190459147255163364L;
+
         @Override
         public Double apply(GriddedDescriptor t, GriddedDescriptor u) {
+            return distance(t, u);
+        }
+        
+        @Override
+        public double distance(GriddedDescriptor t, GriddedDescriptor u) {
             if(t.descriptors.size() != u.descriptors.size()){
                 throw new InvalidParameterException("The descriptor lists must have the same size.");
             }
-            Double item_distance, sum = 0.0;
-            MediaDescriptor m1, m2;
+            double item_distance, sum = 0.0;
+            MediaDescriptor<?> m1, m2;
             for(int i=0; i<t.descriptors.size(); i++){
                 try{
                     m1 = (MediaDescriptor)t.descriptors.get(i);
                     m2 = (MediaDescriptor)u.descriptors.get(i);
-                    item_distance = (Double)m1.compare(m2);
+                    item_distance = m1.distance(m2);
                     sum += item_distance*item_distance;
                 }
-                catch(ClassCastException e){
+                catch(InvalidParameterException e){
+                    throw new InvalidParameterException("The comparision between descriptors is not interpetrable as a double value.");
+                }
+                catch(Exception e){
+                    throw new InvalidParameterException("The descriptors are not comparables.");
+                }                
+            }
+            return Math.sqrt(sum);
+        }
+        
+        @Override
+        public double distance(GriddedDescriptor t, GriddedDescriptor u, double bound) {
+            if(t.descriptors.size() != u.descriptors.size()){
+                throw new InvalidParameterException("The descriptor lists must have the same size.");
+            }
+            double item_distance, item_bound, partial, sum = 0.0, bound2 = bound*bound;
+            MediaDescriptor<?> m1, m2;
+            for(int i=0; i<t.descriptors.size(); i++){
+                try{
+                    m1 = (MediaDescriptor)t.descriptors.get(i);
+                    m2 = (MediaDescriptor)u.descriptors.get(i);
+                    item_bound = Math.sqrt(bound2-sum);
+                    item_distance = m1.distance(m2, item_bound);
+                    partial = sum + item_distance*item_distance;
+                    if(partial > bound2 && Math.sqrt(partial) > bound){
+                        return Math.sqrt(partial);
+                    }
+                    if(item_distance > item_bound){
+                        // Rounding limit case: the item distance could be 
+                        // partial, so it is calculated again
+                        item_distance = m1.distance(m2);
+                        partial = sum + item_distance*item_distance;
+                    }
+                    sum = partial;
+                }
+                catch(InvalidParameterException e){
                     throw new InvalidParameterException("The comparision between descriptors is not interpetrable as a double value.");
                 }
                 catch(Exception e){
@@ -282,7 +342,7 @@ public class GriddedDescriptor<T> extends MediaDescriptorAdapter<T> implements S
                 }                
             }
             return Math.sqrt(sum);
-        }    
+        }
     }
     
 }
@@ -0,0 +1,135 @@
+package jmr.descriptor;
+
+import java.awt.image.BufferedImage;
+import jmr.colorspace.ColorConvertTools;
+import jmr.colorspace.ColorSpaceJMR;
+import jmr.media.JMRExtendedBufferedImage;
+
+/**
+ * Extraction context for images. 
+ * 
+ * In addition to the generic memoization provided by 
+ * {@link ExtractionContext}, this class provides the intermediate data 
+ * commonly used by image descriptors: the decoded RGB raster, the image 
+ * converted to a given color space and the luminance. Each of them is
+ * calculated only once per context.
+ * 
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ImageExtractionContext extends ExtractionContext<BufferedImage> {
+    /**
+     * Key for the decoded RGB raster.
+     */
+    private static final String KEY_RGB = "rgb";
+    /**
+     * Key for the luminance.
+     */
+    private static final String KEY_LUMINANCE = "luminance";
+    /**
+     * Key prefix for the color space conversions.
+     */
+    private static final String KEY_COLOR_SPACE = "colorspace.";
+
+    /**
+     * Constructs a new context associated to the given image.
+     * 
+     * @param image the image associated to this context.
+     */
+    public ImageExtractionContext(BufferedImage image) {
+        super(image);
+    }
+
+    /**
+     * Returns the width of the image associated to this context.
+     * 
+     * @return the width of the image.
+     */
+    public int getWidth() {
+        return getMedia().getWidth();
+    }
+
+    /**
+     * Returns the height of the image associated to this context.
+     * 
+     * @return the height of the image.
+     */
+    public int getHeight() {
+        return getMedia().getHeight();
+    }
+
+    /**
+     * Returns the image of this context as a {@link JMRExtendedBufferedImage}. 
+     * The image is wrapped (not copied) only once.
+     * 
+     * @return the image of this context as a JMR image.
+     */
+    public JMRExtendedBufferedImage getImage() {
+        return get(JMRExtendedBufferedImage.class, (image) -> 
+                image instanceof JMRExtendedBufferedImage ? 
+                (JMRExtendedBufferedImage) image : new JMRExtendedBufferedImage(image));
+    }
+
+    /**
+     * Returns the image of this context in the given color space, with the 
+     * image type used for that color space (see {@link #getImageType(int)}).
+     * The color conversion is done only once for each color space.
+     * 
+     * @param colorSpaceType the color space type (see {@link ColorSpaceJMR}).
+     * @return the image in the given color space.
+     */
+    public JMRExtendedBufferedImage getImage(int colorSpaceType) {
+        return get(KEY_COLOR_SPACE + colorSpaceType, (image) -> {
+            JMRExtendedBufferedImage JMRimage = getImage();
+            if (JMRimage.getColorModel().getColorSpace().getType() == colorSpaceType
+                    && JMRimage.getType() == getImageType(colorSpaceType)) {
+                return JMRimage;
+            }
+            return ColorConvertTools.colorConvertOp(JMRimage, ColorSpaceJMR.getInstance(colorSpaceType));
+        });
+    }
+
+    /**
+     * Returns the decoded RGB raster of the image, that is, the pixels of the 
+     * image in the default RGB color model (TYPE_INT_ARGB), packed by rows.
+     * 
+     * @return the RGB raster of the image
+     */
+    public int[] getRGB() {
+        return get(KEY_RGB, (image) -> 
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()));
+    }
+
+    /**
+     * Returns the luminance of the image (in [0,255]), packed by rows. It is
+     * calculated from the RGB raster as Y = 0.299R + 0.587G + 0.114B.
+     * 
+     * @return the luminance of the image
+     */
+    public float[] getLuminance() {
+        return get(KEY_LUMINANCE, (image) -> {
+            int[] rgb = getRGB();
+            float[] luminance = new float[rgb.length];
+            for (int i = 0; i < rgb.length; i++) {
+                luminance[i] = 0.299f * ((rgb[i] >> 16) & 0xFF)
+                        + 0.587f * ((rgb[i] >> 8) & 0xFF)
+                        + 0.114f * (rgb[i] & 0xFF);
+            }
+            return luminance;
+        });
+    }
+
+    /**
+     * Returns the image type of the images in the given color space, as they
+     * are produced by {@link ColorConvertTools#colorConvertOp} (and expected
+     * by the descriptors): four float bands for the HMMD color space and three
+     * float bands for the rest.
+     * 
+     * @param colorSpaceType the color space type (see {@link ColorSpaceJMR}).
+     * @return the image type (see {@link JMRExtendedBufferedImage}).
+     */
+    static public int getImageType(int colorSpaceType) {
+        return colorSpaceType == ColorSpaceJMR.CS_HMMD ? 
+                JMRExtendedBufferedImage.TYPE_JMR_4F_INTERLEAVED : 
+                JMRExtendedBufferedImage.TYPE_JMR_3F_INTERLEAVED;
+    }
+}
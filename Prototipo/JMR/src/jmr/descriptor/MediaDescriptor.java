@@ -1,5 +1,7 @@
 package jmr.descriptor;
 
+import java.security.InvalidParameterException;
+
 /**
  * Abstract representation of a media descriptor.
  *
@@ -29,6 +31,28 @@ public interface MediaDescriptor<T> {
         init(media);
     }
     
+    /**
+     * Releases the references of this descriptor to its media source, so the
+     * media can be garbage collected while the descriptor is kept (for 
+     * example, in a database). After that, the descriptor can still be 
+     * compared, but its source is <tt>null</tt>. The default implementation
+     * does nothing (the descriptor has no source).
+     */
+    default public void detachSource() {
+    }
+    
+    /**
+     * Sets the media source of this descriptor without updating it, so the
+     * media must be the one this descriptor was calculated from (for example,
+     * for a descriptor read from a cache). It is the inverse of 
+     * {@link #detachSource()}. The default implementation does nothing (the
+     * descriptor has no source).
+     * 
+     * @param media the media source this descriptor was calculated from
+     */
+    default public void attachSource(T media) {
+    }
+    
     /**
      * Initialize this descriptor from the media given by parameter. 
      * 
@@ -47,4 +71,48 @@ public interface MediaDescriptor<T> {
      * @return the result of the descriptor comparision.
      */
     public <R> R compare(MediaDescriptor descriptor);    
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter as a primitive value. 
+     * 
+     * Contrary to {@link #compare(jmr.descriptor.MediaDescriptor)}, this method
+     * does not require to box the result, so it is the one to be used in the 
+     * search hot paths. The default implementation calls the 
+     * <code>compare</code> method and converts its result into a double value
+     * (see {@link Comparator#toDouble(java.lang.Object)}), so descriptors 
+     * should override it with a primitive implementation.
+     *
+     * @param descriptor descriptor to be compared.
+     * @return the distance between descriptors.
+     * @throws InvalidParameterException if the descriptors are not comparables
+     * or if the comparison result is not interpretable as a double value.
+     */
+    default public double distance(MediaDescriptor<?> descriptor) {
+        return Comparator.toDouble(compare(descriptor));
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter, abandoning the calculation as soon as it is known that the
+     * distance exceeds the given bound.
+     * 
+     * If the distance is less than or equal to the bound, the exact distance
+     * is returned; in other case, any value greater than the bound and not
+     * greater than the distance may be returned (for example, a partial sum).
+     * This allows top-k and range searches to discard most of the candidates
+     * without calculating their full distance, and composite descriptors to
+     * add up the partial distances of their items. The default implementation
+     * calculates the full distance.
+     *
+     * @param descriptor descriptor to be compared.
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a value greater than the bound in other case.
+     * @throws InvalidParameterException if the descriptors are not comparables
+     * or if the comparison result is not interpretable as a double value.
+     */
+    default public double distance(MediaDescriptor<?> descriptor, double bound) {
+        return distance(descriptor);
+    }
 }
@@ -57,6 +57,8 @@ import java.io.Serializable;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public abstract class MediaDescriptorAdapter<T> implements MediaDescriptor<T>, Serializable{
+    private static final long serialVersionUID = 7964618649777366454L;
+
     /**
      * The source media of this descriptor
      */
@@ -95,6 +97,15 @@ public abstract class MediaDescriptorAdapter<T> implements MediaDescriptor<T>, S
     final public void setComparator(Comparator comparator){
         this.comparator = comparator;
     }
+    
+    /**
+     * Returns the comparator of this descriptor.
+     * 
+     * @return the comparator of this descriptor
+     */
+    final public Comparator<?, ?> getComparator(){
+        return comparator;
+    }
         
     /**
      * Returns the media source associated to this descriptor
@@ -117,6 +128,26 @@ public abstract class MediaDescriptorAdapter<T> implements MediaDescriptor<T>, S
         this.source = media;
         this.init(media);
     }
+
+    /**
+     * Releases the reference of this descriptor to its media source (without
+     * updating the descriptor).
+     */
+    @Override
+    public void detachSource() {
+        this.source = null;
+    }
+
+    /**
+     * Sets the media source of this descriptor without updating it (the media
+     * must be the one this descriptor was calculated from).
+     * 
+     * @param media the media source this descriptor was calculated from
+     */
+    @Override
+    public void attachSource(T media) {
+        this.source = media;
+    }
     
     /**
      * Inherited method to be implemented in the subclass. Its goal is to
@@ -136,10 +167,50 @@ public abstract class MediaDescriptorAdapter<T> implements MediaDescriptor<T>, S
      * @return the result of the descriptor comparision.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <R> R compare(MediaDescriptor descriptor){
         if (comparator == null) {
             throw new NullPointerException("Comparator is null.");
         }
         return (R)comparator.apply(this, descriptor);
     }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter as a primitive value. It is calculated by means of the 
+     * {@link Comparator#distance(jmr.descriptor.MediaDescriptor, jmr.descriptor.MediaDescriptor) }
+     * method of the comparator associated to this descriptor.
+     *
+     * @param descriptor descriptor to be compared.
+     * @return the distance between descriptors.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public double distance(MediaDescriptor<?> descriptor){
+        if (comparator == null) {
+            throw new NullPointerException("Comparator is null.");
+        }
+        return comparator.distance(this, descriptor);
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter, abandoning the calculation as soon as it is known that the
+     * distance exceeds the given bound. It is calculated by means of the 
+     * {@link Comparator#distance(jmr.descriptor.MediaDescriptor, jmr.descriptor.MediaDescriptor, double) }
+     * method of the comparator associated to this descriptor.
+     *
+     * @param descriptor descriptor to be compared.
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a value greater than the bound in other case.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public double distance(MediaDescriptor<?> descriptor, double bound){
+        if (comparator == null) {
+            throw new NullPointerException("Comparator is null.");
+        }
+        return comparator.distance(this, descriptor, bound);
+    }
 }
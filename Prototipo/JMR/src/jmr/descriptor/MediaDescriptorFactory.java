@@ -1,43 +1,273 @@
 package jmr.descriptor;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * A factory class for generating instances of media descriptors.
- * 
+ *
+ * The factory works as a registry of descriptor constructors: for each pair
+ * (descriptor class, media class), a constructor function is resolved only
+ * once (the first time it is needed) and cached for next requests. By default,
+ * the constructor function is obtained from the public constructor of the
+ * descriptor class with a single parameter of the media type (or of one of
+ * its supertypes), and it is invoked by means of a {@link MethodHandle}, so
+ * no reflective lookup is done per descriptor. In addition, constructor
+ * functions (for example, lambda expressions) can be explicitly registered
+ * for a given pair by means of the
+ * {@link #register(java.lang.Class, java.lang.Class, java.util.function.Function) }
+ * method. As with the constructors, a function registered for a media class
+ * is also used for its subclasses and implementing classes.
+ *
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class MediaDescriptorFactory {
-    
-    
+
+    /**
+     * Constructor functions resolved so far, indexed by descriptor class and
+     * media (or context) class.
+     */
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Function<Object, ?>>> CONSTRUCTORS = new ConcurrentHashMap<>();
+    /**
+     * Registered constructor functions, indexed by descriptor class and media
+     * (or context) class.
+     */
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Function<Object, ?>>> REGISTERED = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor function used to mark the pairs without a suitable
+     * constructor.
+     */
+    private static final Function<Object, ?> NOT_FOUND = (media) -> null;
+
+
    /**
-    * Constructs a descriptor of a given class and initializes it on the basis 
+    * Constructs a descriptor of a given class and initializes it on the basis
     * of a given media.
-    * 
+    *
     * The descriptor class have to provide a constructor with a single parameter
-    * of the media type.
-    * 
+    * of the media type (or one of its supertypes), or a constructor function
+    * have to be registered for the pair (descriptor class, media class).
+    *
     * @param <D> the type of the output descriptor
     * @param <M> the type of the media
     * @param descriptorClass the class of the descriptor to be constructed.
     * @param media the media used to initialize the descriptor
     * @return a descriptor object
-    * @throws InvalidParameterException if the descriptor class have not provide 
-    * a constructor with a single parameter of the media type.
-    */
-   public static <D extends MediaDescriptor, M> D getInstance(Class<D> descriptorClass, M media){
-      D descriptor = null;
-      try{
-        Constructor constructor = descriptorClass.getConstructor(media.getClass());
-        descriptor = (D)constructor.newInstance(media);
-      } catch (Exception ex) {
+    * @throws InvalidParameterException if the descriptor class have not provide
+    * a constructor with a single parameter of the media type, or if the 
+    * descriptor cannot be constructed from the given media.
+    */
+   public static <D extends MediaDescriptor<?>, M> D getInstance(Class<D> descriptorClass, M media){
+      if (media == null) {
+          throw new InvalidParameterException("A non null media must be provided for building a "+descriptorClass.getSimpleName()+" descriptor.");
+      }
+      Function<Object, ?> constructor = getConstructor(descriptorClass, media.getClass());
+      if (constructor == NOT_FOUND) {
           String mediaClassName = media.getClass().getSimpleName();
           String descriptorClassName = descriptorClass.getSimpleName();
           throw new InvalidParameterException("A constructor with a single parameter of type "+mediaClassName+" must be provided for the class "+descriptorClassName+".");
       }
-      return descriptor;
+      return descriptorClass.cast(construct(constructor, descriptorClass, media));
   }
-    
-    
+
+   /**
+    * Constructs a descriptor of a given class and initializes it on the basis
+    * of a given extraction context.
+    *
+    * If the descriptor class provides a constructor with a single parameter
+    * of the context type (or a constructor function has been registered for
+    * the context type), it is used (so the descriptor can share the
+    * intermediate data stored in the context); in other case, the descriptor
+    * is built from the context media (see
+    * {@link #getInstance(java.lang.Class, java.lang.Object)}).
+    *
+    * @param <D> the type of the output descriptor
+    * @param <M> the type of the media
+    * @param descriptorClass the class of the descriptor to be constructed.
+    * @param context the extraction context used to initialize the descriptor
+    * @return a descriptor object
+    * @throws InvalidParameterException if the descriptor class have not provide
+    * a constructor with a single parameter of the context or the media type, 
+    * or if the descriptor cannot be constructed from the given context.
+    */
+   public static <D extends MediaDescriptor<?>, M> D getInstance(Class<D> descriptorClass, ExtractionContext<M> context){
+      Function<Object, ?> constructor = getConstructor(descriptorClass, context.getClass());
+      if (constructor == NOT_FOUND) {
+          return getInstance(descriptorClass, context.getMedia());
+      }
+      return descriptorClass.cast(construct(constructor, descriptorClass, context));
+  }
+
+   /**
+    * Constructs a descriptor by means of the given constructor function. As
+    * with the reflective construction, the exceptions thrown while 
+    * constructing the descriptor are wrapped into an 
+    * {@link InvalidParameterException}.
+    *
+    * @param constructor the constructor function
+    * @param descriptorClass the class of the descriptor to be constructed
+    * @param media the media (or context) used to initialize the descriptor
+    * @return a descriptor object
+    * @throws InvalidParameterException if the descriptor cannot be 
+    * constructed
+    */
+   private static Object construct(Function<Object, ?> constructor, Class<?> descriptorClass, Object media) {
+       try {
+           return constructor.apply(media);
+       } catch (InvalidParameterException ex) {
+           throw ex;
+       } catch (RuntimeException ex) {
+           throw cannotConstruct(descriptorClass, ex);
+       }
+   }
+
+   /**
+    * Returns the exception thrown when a descriptor cannot be constructed.
+    *
+    * @param descriptorClass the class of the descriptor
+    * @param cause the cause of the failure
+    * @return the exception to be thrown
+    */
+   private static InvalidParameterException cannotConstruct(Class<?> descriptorClass, Throwable cause) {
+       InvalidParameterException ipe = new InvalidParameterException("The descriptor " + descriptorClass.getSimpleName() + " cannot be constructed.");
+       ipe.initCause(cause);
+       return ipe;
+   }
+
+   /**
+    * Registers a constructor function for the given pair (descriptor class,
+    * media class). It will be used instead of the descriptor class
+    * constructors when a descriptor of that class is built from a media of
+    * that class or of a subtype (or from an extraction context, if the media
+    * class is a context class). A previous constructor for the same pair is
+    * replaced.
+    *
+    * @param <D> the type of the descriptor
+    * @param <M> the type of the media
+    * @param descriptorClass the descriptor class
+    * @param mediaClass the media class
+    * @param constructor the constructor function (for example, a lambda
+    * expression or a constructor reference)
+    */
+   public static <D extends MediaDescriptor<?>, M> void register(Class<D> descriptorClass, Class<M> mediaClass, Function<? super M, ? extends D> constructor) {
+       if (constructor == null) {
+           throw new InvalidParameterException("The constructor function cannot be null.");
+       }
+       REGISTERED.computeIfAbsent(descriptorClass, (c) -> new ConcurrentHashMap<>()).put(mediaClass, (media) -> constructor.apply(mediaClass.cast(media)));
+       // The cached resolutions of the subtypes may change
+       CONSTRUCTORS.remove(descriptorClass);
+   }
+
+   /**
+    * Removes all the cached and registered constructors of the given
+    * descriptor class.
+    *
+    * @param descriptorClass the descriptor class
+    */
+   public static <D extends MediaDescriptor<?>> void unregister(Class<D> descriptorClass) {
+       REGISTERED.remove(descriptorClass);
+       CONSTRUCTORS.remove(descriptorClass);
+   }
+
+   /**
+    * Returns the constructor function for the given pair (descriptor class,
+    * media class), resolving and caching it if it is not available yet.
+    *
+    * @param descriptorClass the descriptor class
+    * @param mediaClass the media class
+    * @return the constructor function, {@link #NOT_FOUND} if no suitable
+    * constructor exists
+    */
+   private static Function<Object, ?> getConstructor(Class<?> descriptorClass, Class<?> mediaClass) {
+       ConcurrentHashMap<Class<?>, Function<Object, ?>> constructors = CONSTRUCTORS.get(descriptorClass);
+       if (constructors == null) {
+           constructors = CONSTRUCTORS.computeIfAbsent(descriptorClass, (c) -> new ConcurrentHashMap<>());
+       }
+       Function<Object, ?> constructor = constructors.get(mediaClass);
+       if (constructor == null) {
+           constructor = constructors.computeIfAbsent(mediaClass, (m) -> resolve(descriptorClass, m,
+                   ExtractionContext.class.isAssignableFrom(m) ? ExtractionContext.class : Object.class));
+       }
+       return constructor;
+   }
+
+   /**
+    * Resolves the constructor function for the given pair (descriptor class,
+    * media class). The registered constructor functions and the public 
+    * constructors of the descriptor class with a single parameter are 
+    * searched for the media class, its superclasses and its interfaces (in
+    * this order, the registered function first for each type), as long as 
+    * they are subtypes of the given bound (so, for example, a context is
+    * never passed to a constructor expecting a generic media).
+    *
+    * @param descriptorClass the descriptor class
+    * @param mediaClass the media class
+    * @param bound the upper bound of the parameter types to be searched for
+    * @return the constructor function, {@link #NOT_FOUND} if no suitable
+    * constructor exists
+    */
+   private static Function<Object, ?> resolve(Class<?> descriptorClass, Class<?> mediaClass, Class<?> bound) {
+       ConcurrentHashMap<Class<?>, Function<Object, ?>> registered = REGISTERED.get(descriptorClass);
+       Deque<Class<?>> pending = new ArrayDeque<>();
+       Set<Class<?>> visited = new HashSet<>();
+       pending.add(mediaClass);
+       while (!pending.isEmpty()) {
+           Class<?> c = pending.poll();
+           if (!bound.isAssignableFrom(c) || !visited.add(c)) {
+               continue;
+           }
+           Function<Object, ?> constructor = registered != null ? registered.get(c) : null;
+           if (constructor != null) {
+               return constructor;
+           }
+           try {
+               return toFunction(descriptorClass.getConstructor(c));
+           } catch (NoSuchMethodException ex) {
+               // Try with the supertypes
+           } catch (IllegalAccessException ex) {
+               return NOT_FOUND;
+           }
+           if (c.getSuperclass() != null) {
+               pending.add(c.getSuperclass());
+           }
+           for (Class<?> i : c.getInterfaces()) {
+               pending.add(i);
+           }
+       }
+       return NOT_FOUND;
+   }
+
+   /**
+    * Converts the given constructor into a constructor function based on a
+    * {@link MethodHandle}.
+    *
+    * @param constructor the constructor
+    * @return the constructor function
+    * @throws IllegalAccessException if the constructor is not accessible
+    */
+   private static Function<Object, ?> toFunction(Constructor<?> constructor) throws IllegalAccessException {
+       MethodHandle handle = MethodHandles.publicLookup().unreflectConstructor(constructor)
+               .asType(MethodType.methodType(Object.class, Object.class));
+       Class<?> descriptorClass = constructor.getDeclaringClass();
+       return (media) -> {
+           try {
+               return handle.invokeExact(media);
+           } catch (RuntimeException | Error ex) {
+               // The runtime exceptions are wrapped by construct()
+               throw ex;
+           } catch (Throwable ex) {
+               throw cannotConstruct(descriptorClass, ex);
+           }
+       };
+   }
 }
@@ -0,0 +1,32 @@
+package jmr.descriptor;
+
+/**
+ * Abstract representation of a descriptor that can be seen as a vector of
+ * real values whose l1-norm is the distance between descriptors. That is,
+ * given two comparable descriptors <code>d1</code> and <code>d2</code>
+ * (with vectors of the same dimension), the value
+ * <code>sum(|d1.getVector()[i] - d2.getVector()[i]|)</code> is equal (up to
+ * rounding) to <code>d1.distance(d2)</code>.
+ *
+ * This representation is used by the vector-based indexes (for example,
+ * {@link jmr.db.LSHIndex}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public interface VectorDescriptor {
+
+    /**
+     * Returns the dimension of the vector associated to this descriptor.
+     *
+     * @return the dimension of the vector
+     */
+    public int getDimension();
+
+    /**
+     * Returns the vector associated to this descriptor (a new array, so it
+     * can be modified by the caller).
+     *
+     * @return the vector associated to this descriptor
+     */
+    public double[] getVector();
+}
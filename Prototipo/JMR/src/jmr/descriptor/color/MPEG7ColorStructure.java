@@ -1,13 +1,26 @@
 package jmr.descriptor.color;
 
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import java.util.Arrays;
 import jmr.colorspace.ColorConvertTools;
 import jmr.media.JMRExtendedBufferedImage;
 import jmr.colorspace.ColorSpaceJMR;
+import jmr.descriptor.DescriptorCodec;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.ImageExtractionContext;
 import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.VectorDescriptor;
+import jmr.region.Region;
 
 /**
  * Color Structure Descriptor from MPEG7 standard.
@@ -42,7 +55,29 @@ import jmr.descriptor.MediaDescriptor;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  *
  */
-public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Serializable {
+public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, VectorDescriptor, Serializable {
+    /**
+     * Version of the serialized form of this class, the one computed for the
+     * fields written before the codec (the format of the data is given by
+     * the version of its codec, see {@link Codec}).
+     */
+    private static final long serialVersionUID = 8544248003785612122L;
+    /**
+     * Version of the extraction algorithm of this descriptor, which must be
+     * incremented when the calculated data change (it is used, for example,
+     * by {@link jmr.db.DescriptorCache} to discard the stored descriptors).
+     */
+    static public final int EXTRACTOR_VERSION = 1;
+    /**
+     * No field is serialized by default: the data of the descriptor are 
+     * written by its codec.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {};
+    
+    static {
+        DescriptorCodecs.register(MPEG7ColorStructure.class, new Codec());
+    }
+    
     /**
      * The source media of this descriptor
      */
@@ -59,6 +94,11 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
      * Histogram representing this descriptor
      */
     protected int[] histo = null;
+    /**
+     * Number of bins between two consecutive checks of the partial distance
+     * in the early-abandoning comparison.
+     */
+    private static final int EARLY_ABANDON_STEP = 16;
     /**
      * Index for the 'hue' component in the HMMD color space
      */
@@ -117,6 +157,57 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         this(image, DEFAULT_NUM_LEVELS);
     }
 
+    /**
+     * Constructs a new color structure descriptor and initializes it from the
+     * image of the given extraction context. The HMMD conversion and the 
+     * quantized HMMD image are taken from (and, if needed, stored in) the 
+     * context, so they are shared with the rest of descriptors built from the
+     * same context.
+     *
+     * @param context the extraction context
+     * @param qLevels the number of levels associated to this descriptor
+     */
+    public MPEG7ColorStructure(ImageExtractionContext context, int qLevels) {
+        this.source = context.getMedia();
+        this.init(context, qLevels);
+    }
+    
+    /**
+     * Constructs a new color structure descriptor and initializes it from the
+     * image of the given extraction context. The number of levels are set to
+     * the default value {@link #DEFAULT_NUM_LEVELS}
+     *
+     * @param context the extraction context
+     */
+    public MPEG7ColorStructure(ImageExtractionContext context) {
+        this(context, DEFAULT_NUM_LEVELS);
+    }
+    
+    /**
+     * Constructs a new color structure descriptor and initializes it from the
+     * pixels inside the region given by parameter. The pixels are read 
+     * directly from the source image of the region (it is not cropped nor
+     * copied). The source of this descriptor is the source image of the region.
+     *
+     * @param region the source region
+     * @param qLevels the number of levels associated to this descriptor
+     */
+    public MPEG7ColorStructure(Region region, int qLevels) {
+        this.source = region.getSource();
+        this.init(region, qLevels);
+    }
+    
+    /**
+     * Constructs a new color structure descriptor and initializes it from the
+     * pixels inside the region given by parameter. The number of levels are 
+     * set to the default value {@link #DEFAULT_NUM_LEVELS}
+     *
+     * @param region the source region
+     */
+    public MPEG7ColorStructure(Region region) {
+        this(region, DEFAULT_NUM_LEVELS);
+    }
+
     /**
      * Initializes the quantization level taking into account that the valid
      * values are 32, 64, 128 or 256.
@@ -158,6 +249,85 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         this.histo = reQuantization(histo);
     }
     
+    /**
+     * Initialize the descriptor from the image of the given extraction 
+     * context. The quantized HMMD image is memoized in the context (one for
+     * each number of levels).
+     *
+     * @param context the extraction context
+     * @param qLevels the quantization levels (32, 64, 128 or 256)
+     */
+    public void init(ImageExtractionContext context, int qLevels) {
+        this.setLevels(qLevels);
+        byte[][] imQ = context.get("MPEG7ColorStructure.quantHMMD." + this.qLevels,
+                (image) -> quantHMMDImage(context.getImage(COLOR_SPACE)));
+        float[] histo = structuredHisto(imQ, context.getWidth(), context.getHeight());
+        this.histo = reQuantization(histo);
+    }
+    
+    /**
+     * Initialize the descriptor using only the pixels inside the given region.
+     * 
+     * The quantized HMMD values are calculated only for the region bounds; the
+     * structuring element slides over those bounds, taking into account only 
+     * the pixels inside the region (a window without region pixels is not
+     * considered).
+     *
+     * @param region the source region
+     * @param qLevels the quantization levels (32, 64, 128 or 256)
+     */
+    public void init(Region region, int qLevels) {
+        this.setLevels(qLevels);
+        int[] spans = region.getSpans();
+        if (spans.length == 0) {
+            this.histo = new int[this.qLevels];
+            return;
+        }
+        int xMin = Integer.MAX_VALUE, xMax = Integer.MIN_VALUE;
+        int yMin = spans[0], yMax = spans[spans.length - 3];
+        for (int s = 0; s < spans.length; s += 3) {
+            xMin = Math.min(xMin, spans[s + 1]);
+            xMax = Math.max(xMax, spans[s + 2]);
+        }
+        int wRegion = xMax - xMin, hRegion = yMax - yMin + 1;
+        byte[][] imQ = new byte[hRegion][wRegion];
+        boolean[][] mask = new boolean[hRegion][wRegion];
+        
+        BufferedImage image = region.getSource();
+        int[] startSubSpacePos = getStartSubspacePos();
+        int y, x0, length;
+        if (image instanceof JMRExtendedBufferedImage && checkImage((JMRExtendedBufferedImage) image)) {
+            Raster imRst = image.getRaster();
+            float[] row = new float[4 * wRegion], pix = new float[4];
+            for (int s = 0; s < spans.length; s += 3) {
+                y = spans[s]; x0 = spans[s + 1]; length = spans[s + 2] - x0;
+                imRst.getPixels(x0, y, length, 1, row);
+                for (int p = 0; p < length; p++) {
+                    System.arraycopy(row, 4 * p, pix, 0, 4);
+                    imQ[y - yMin][x0 - xMin + p] = (byte) quantHMMDPixel(pix, startSubSpacePos);
+                    mask[y - yMin][x0 - xMin + p] = true;
+                }
+            }
+        } else {
+            ColorSpace hmmd = ColorSpaceJMR.getInstance(COLOR_SPACE);
+            int[] row = new int[wRegion];
+            float[] p_in = new float[3];
+            for (int s = 0; s < spans.length; s += 3) {
+                y = spans[s]; x0 = spans[s + 1]; length = spans[s + 2] - x0;
+                image.getRGB(x0, y, length, 1, row, 0, length);
+                for (int p = 0; p < length; p++) {
+                    p_in[0] = (float) ((row[p] >> 16) & 0xFF) / 255.0f;
+                    p_in[1] = (float) ((row[p] >> 8) & 0xFF) / 255.0f;
+                    p_in[2] = (float) (row[p] & 0xFF) / 255.0f;
+                    imQ[y - yMin][x0 - xMin + p] = (byte) quantHMMDPixel(hmmd.fromRGB(p_in), startSubSpacePos);
+                    mask[y - yMin][x0 - xMin + p] = true;
+                }
+            }
+        }
+        float[] histo = structuredHisto(imQ, mask, wRegion, hRegion);
+        this.histo = reQuantization(histo);
+    }
+    
      /**
      * Initialize the descriptor.
      *
@@ -200,10 +370,83 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
      * @return the distance between descriptors
      */
     public Double compare(MPEG7ColorStructure desc) {
-        int[] f1, f2;
         if (desc.histo == null || this.histo == null) {
             return (null);
         }
+        return distance(desc);
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter as a primitive value.
+     *
+     * This method is valid only for <code>MPEG7ColorStructure</code> image
+     * descriptors
+     *
+     * @param mediaDescriptor descriptor to be compared.
+     * @return the distance between descriptors.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    @Override
+    public double distance(MediaDescriptor<?> mediaDescriptor) {
+        if (!(mediaDescriptor instanceof MPEG7ColorStructure)) {
+            throw new InvalidParameterException("Only MPEG7ColorStructure descriptors can be compared.");
+        }
+        return distance((MPEG7ColorStructure) mediaDescriptor);
+    }
+    
+    /**
+     * Returns the normalized l1-norm between the bins of this CSD and the ones
+     * of the CSD given by parameter as a primitive value (see 
+     * {@link #compare(jmr.descriptor.color.MPEG7ColorStructure)}).
+     *
+     * @param desc <code>MPEG7ColorStructure</code> object to be compared
+     * @return the distance between descriptors
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    public double distance(MPEG7ColorStructure desc) {
+        return distance(desc, Double.POSITIVE_INFINITY);
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter, abandoning the calculation as soon as the partial distance
+     * exceeds the given bound.
+     *
+     * This method is valid only for <code>MPEG7ColorStructure</code> image
+     * descriptors
+     *
+     * @param mediaDescriptor descriptor to be compared.
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a partial distance greater than the bound in other case.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    @Override
+    public double distance(MediaDescriptor<?> mediaDescriptor, double bound) {
+        if (!(mediaDescriptor instanceof MPEG7ColorStructure)) {
+            throw new InvalidParameterException("Only MPEG7ColorStructure descriptors can be compared.");
+        }
+        return distance((MPEG7ColorStructure) mediaDescriptor, bound);
+    }
+    
+    /**
+     * Returns the normalized l1-norm between the bins of this CSD and the ones
+     * of the CSD given by parameter, abandoning the calculation as soon as the
+     * partial distance exceeds the given bound. The partial distance is 
+     * checked every {@link #EARLY_ABANDON_STEP} bins.
+     *
+     * @param desc <code>MPEG7ColorStructure</code> object to be compared
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a partial distance greater than the bound in other case.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    public double distance(MPEG7ColorStructure desc, double bound) {
+        int[] f1, f2;
+        if (desc.histo == null || this.histo == null) {
+            throw new InvalidParameterException("The descriptors are not comparables.");
+        }
         if (this.qLevels == desc.qLevels) {
             f1 = this.histo;
             f2 = desc.histo;
@@ -214,13 +457,23 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
             f1 = resizeCSD(this, desc.qLevels);
             f2 = desc.histo;
         }
-        Double distance = 0.0;
-        for (int i = 0; i < f1.length; i++) {
-            distance += Math.abs(f1[i] - f2[i]);
+        int norm = 256 * f1.length; //Normalization
+        double limit = bound * norm, partial;
+        long sum = 0;
+        int i = 0, end;
+        while (i < f1.length) {
+            end = Math.min(i + EARLY_ABANDON_STEP, f1.length);
+            for (; i < end; i++) {
+                sum += Math.abs(f1[i] - f2[i]);
+            }
+            if (sum > limit) {
+                partial = (double) sum / norm;
+                if (partial > bound) {
+                    return partial;
+                }
+            }
         }
-        distance /= (256 * f1.length); //Normalization
-
-        return distance;
+        return (double) sum / norm;
     }
     
     /**
@@ -244,6 +497,26 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         this.source = image;
         init(image);
     }
+
+    /**
+     * Releases the reference of this descriptor to its source image (without
+     * updating the descriptor).
+     */
+    @Override
+    public void detachSource() {
+        this.source = null;
+    }
+
+    /**
+     * Sets the source image of this descriptor without updating it (the image
+     * must be the one this descriptor was calculated from).
+     * 
+     * @param image the source image this descriptor was calculated from
+     */
+    @Override
+    public void attachSource(BufferedImage image) {
+        this.source = image;
+    }
     
     // <editor-fold defaultstate="collapsed" desc="Private methods for calculating the descriptor">  
 
@@ -269,34 +542,42 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         float[] pix = new float[4];
         //Destination image array
         byte[][] imDst = new byte[hImg][wImg];
-        int subspace, hue_bin, sum_bin, v;
         int[] startSubSpacePos = getStartSubspacePos();
         for (int y = 0; y < hImg; y++) {
             for (int x = 0; x < wImg; x++) {
                 imRst.getPixel(x, y, pix);
-                //Define the subspace along the Diff axis
-                subspace = getSubspace(pix[DIFF]);
-                //Obtain the value of the hue in this quantization space
-                hue_bin = (int) ((pix[HUE] / 361.0f) * QUANTIZATION_TABLE[offset][subspace][0]);
-                //Obtain the value of the sum and multiply it by the hue value
-                float tmp = ((pix[MIN] + pix[MAX]) / 2 - 1 / 255);
-                sum_bin = (int) (tmp * QUANTIZATION_TABLE[offset][subspace][1]);
-                if (sum_bin != 0) {
-                    tmp = 0;
-                    //Shift until the start position for this subspace in the histogram
-                }
-                v = startSubSpacePos[subspace] + sum_bin * QUANTIZATION_TABLE[offset][subspace][0] + hue_bin;
-                //Check if value is not bigger than qLevels
-                if (v >= qLevels) {
-                    // Value computed is bigger than qLevels.
-                    throw new RuntimeException("Error in  HMMD color space conversion");
-                }
                 //Set the value of the float
-                imDst[y][x] = (byte) (v);
+                imDst[y][x] = (byte) quantHMMDPixel(pix, startSubSpacePos);
             }
         }
         return imDst;
     }
+    
+    /**
+     * Quantize a single HMMD value into the {@link #qLevels} bins.
+     * 
+     * @param pix the HMMD value
+     * @param startSubSpacePos the subspace start positions
+     * @return the quantized value in [0,qLevels)
+     */
+    private int quantHMMDPixel(float[] pix, int[] startSubSpacePos) {
+        int subspace, hue_bin, sum_bin, v;
+        //Define the subspace along the Diff axis
+        subspace = getSubspace(pix[DIFF]);
+        //Obtain the value of the hue in this quantization space
+        hue_bin = (int) ((pix[HUE] / 361.0f) * QUANTIZATION_TABLE[offset][subspace][0]);
+        //Obtain the value of the sum and multiply it by the hue value
+        float tmp = ((pix[MIN] + pix[MAX]) / 2 - 1 / 255);
+        sum_bin = (int) (tmp * QUANTIZATION_TABLE[offset][subspace][1]);
+        //Shift until the start position for this subspace in the histogram
+        v = startSubSpacePos[subspace] + sum_bin * QUANTIZATION_TABLE[offset][subspace][0] + hue_bin;
+        //Check if value is not bigger than qLevels
+        if (v >= qLevels) {
+            // Value computed is bigger than qLevels.
+            throw new RuntimeException("Error in  HMMD color space conversion");
+        }
+        return v;
+    }
 
     /**
      * Returns the CSD histograms with value between 0 and 1.
@@ -360,6 +641,67 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         return histo;
     }
 
+    /**
+     * Returns the CSD histograms with value between 0 and 1 taking into
+     * account only the pixels inside a mask (used for region-based 
+     * descriptors).
+     * 
+     * It works as {@link #structuredHisto(byte[][], int, int)}, but only the
+     * pixels inside the mask are added to the local histogram of each window,
+     * and the windows without pixels inside the mask are not considered in
+     * the normalization.
+     *
+     * @param imQ a byte matrix representing the quantifized values between
+     * [0,qLevels] (heigh x width)
+     * @param mask a boolean matrix (heigh x width) with the pixels to be 
+     * considered
+     * @param wImg width of the image
+     * @param hImg height of the image
+     * @return	a {@link #qLevels} histograms
+     */
+    protected float[] structuredHisto(byte[][] imQ, boolean[][] mask, int wImg, int hImg) {
+        int m;
+        double hw = Math.sqrt(hImg * wImg);
+        double p = Math.floor(Math.log(hw) / Math.log(2) - 7.5); //Formula by Manjunath2002
+        if (p < 0) {
+            p = 0; //Minimum size of the division factor to have K=1
+        }
+        int K = (int) Math.pow(2, p); //Determine the space between each structuring element
+        int E = 8 * K; //Determine the size of the moving windows
+        float histo[] = new float[qLevels]; // CSD histograms
+        int winHisto[] = new int[qLevels]; // local histo for a specific windows
+        int windows = 0;
+        boolean empty;
+        for (int y = 0; y == 0 || y < hImg - E; y += K) {
+            for (int x = 0; x == 0 || x < wImg - E; x += K) {
+                Arrays.fill(winHisto, 0);
+                empty = true;
+                for (int yy = y; yy < Math.min(y + E, hImg); yy += K) {
+                    for (int xx = x; xx < Math.min(x + E, wImg); xx += K) {
+                        if (mask[yy][xx]) {
+                            winHisto[imQ[yy][xx] & 0x000000FF]++; //WARNING imQ is signed byte
+                            empty = false;
+                        }
+                    }
+                }
+                if (!empty) {
+                    windows++;
+                    for (m = 0; m < qLevels; m++) {
+                        if (winHisto[m] > 0) {
+                            histo[m]++;
+                        }
+                    }
+                }
+            }
+        }
+        if (windows > 0) {
+            for (m = 0; m < qLevels; m++) {
+                histo[m] = histo[m] / windows;
+            }
+        }
+        return histo;
+    }
+
     /**
      * Calculates the subspace start positions (depending on the qLevels)
      * 
@@ -441,7 +783,7 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         int[] dstHisto = new int[qSizeDst];
         int[] srcHisto = c.histo;
         if (qSizeSrc > qSizeDst) {
-            int offsetSrc = (int) log2(qSizeSrc);
+            int offsetSrc = (int) log2(qSizeSrc) - 5;
             int offsetDst = (int) log2(qSizeDst) - 5;
             int[] subStartPosSrc = getStartSubspacePos(offsetSrc);
             int[] subStartPosDst = getStartSubspacePos(offsetDst);
@@ -503,6 +845,34 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         return qLevels;
     }
 
+    /**
+     * Returns the number of bins of this descriptor (the dimension of its
+     * vector).
+     * 
+     * @return the number of bins
+     */
+    @Override
+    public int getDimension() {
+        return histo != null ? histo.length : 0;
+    }
+
+    /**
+     * Returns the bins of this descriptor as a vector, normalized as in 
+     * {@link #distance(jmr.descriptor.color.MPEG7ColorStructure)}, so the 
+     * l1-norm between vectors is the distance between descriptors with the
+     * same number of levels.
+     * 
+     * @return the vector of normalized bins
+     */
+    @Override
+    public double[] getVector() {
+        double vector[] = new double[getDimension()], norm = 256.0 * vector.length;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = histo[i] / norm;
+        }
+        return vector;
+    }
+
     /**
      * Returns the type of subspace used in this descriptor.
      * 
@@ -551,6 +921,117 @@ public class MPEG7ColorStructure implements MediaDescriptor<BufferedImage>, Seri
         }
     }
 
+    /**
+     * Writes this descriptor by means of its codec.
+     * 
+     * @param out the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        DescriptorCodecs.write(this, out);
+    }
+    
+    /**
+     * Reads this descriptor by means of its codec, or from the fields written
+     * before the codec (see {@link DescriptorCodecs#LEGACY_VERSION}).
+     * 
+     * @param in the stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (DescriptorCodecs.isLegacy(fields)) {
+            qLevels = fields.get("qLevels", 256);
+            offset = fields.get("offset", 0);
+            histo = (int[]) fields.get("histo", null);
+        } else {
+            DescriptorCodecs.read(this, in);
+        }
+    }
+    
+    /**
+     * Binary codec of the color structure descriptor. The bins are written
+     * with the 8 bits of their MPEG-7 representation (see 
+     * {@link #quantFunc(double)}), so 256 bins take 256 bytes. If some bin
+     * does not fit in 8 bits, the bins are written as variable length 
+     * integers.
+     */
+    static class Codec implements DescriptorCodec<MPEG7ColorStructure> {
+        
+        /**
+         * Current version of the codec.
+         */
+        static final int VERSION = 1;
+        
+        /**
+         * Returns the current version of this codec.
+         * 
+         * @return the version of this codec
+         */
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+        
+        /**
+         * Writes the data of the given descriptor.
+         * 
+         * @param descriptor the descriptor
+         * @param out the output
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(MPEG7ColorStructure descriptor, DataOutput out) throws IOException {
+            int histogram[] = descriptor.histo;
+            DescriptorCodecs.writeVarInt(out, descriptor.qLevels);
+            DescriptorCodecs.writeVarInt(out, descriptor.offset);
+            DescriptorCodecs.writeVarInt(out, histogram != null ? histogram.length + 1 : 0);
+            if (histogram == null) {
+                return;
+            }
+            boolean packed = true;
+            for (int i = 0; i < histogram.length && packed; i++) {
+                packed = histogram[i] >= 0 && histogram[i] <= 255;
+            }
+            out.writeBoolean(packed);
+            for (int value : histogram) {
+                if (packed) {
+                    out.writeByte(value);
+                } else {
+                    DescriptorCodecs.writeSignedVarInt(out, value);
+                }
+            }
+        }
+        
+        /**
+         * Reads the data of a descriptor into the given descriptor.
+         * 
+         * @param descriptor the descriptor to be filled
+         * @param in the input
+         * @param version the version of the codec that wrote the data
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void read(MPEG7ColorStructure descriptor, DataInput in, int version) throws IOException {
+            descriptor.qLevels = DescriptorCodecs.readVarInt(in);
+            descriptor.offset = DescriptorCodecs.readVarInt(in);
+            int length = DescriptorCodecs.readVarInt(in) - 1;
+            if (length < 0) {
+                descriptor.histo = null;
+                return;
+            }
+            int histogram[] = new int[length];
+            boolean packed = in.readBoolean();
+            for (int i = 0; i < length; i++) {
+                histogram[i] = packed ? in.readUnsignedByte() : DescriptorCodecs.readSignedVarInt(in);
+            }
+            descriptor.histo = histogram;
+        }
+    }
+
     /**
      * Returns a string representation of this descriptor .
      *
@@ -1,13 +1,26 @@
 package jmr.descriptor.color;
 
 import java.awt.image.BufferedImage;
+import java.awt.color.ColorSpace;
 import java.awt.image.Raster;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import java.util.Arrays;
 import jmr.colorspace.ColorConvertTools;
 import jmr.media.JMRExtendedBufferedImage;
 import jmr.colorspace.ColorSpaceJMR;
+import jmr.descriptor.DescriptorCodec;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.ImageExtractionContext;
 import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.VectorDescriptor;
+import jmr.region.Region;
 
 /**
  * Scalable Color Descriptor from MPEG7 standard.
@@ -27,7 +40,29 @@ import jmr.descriptor.MediaDescriptor;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  *
  */
-public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Serializable{
+public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, VectorDescriptor, Serializable{
+    /**
+     * Version of the serialized form of this class, the one computed for the
+     * fields written before the codec (the format of the data is given by
+     * the version of its codec, see {@link Codec}).
+     */
+    private static final long serialVersionUID = -8833585478597826208L;
+    /**
+     * Version of the extraction algorithm of this descriptor, which must be
+     * incremented when the calculated data change (it is used, for example,
+     * by {@link jmr.db.DescriptorCache} to discard the stored descriptors).
+     */
+    static public final int EXTRACTOR_VERSION = 1;
+    /**
+     * No field is serialized by default: the data of the descriptor are 
+     * written by its codec.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {};
+    
+    static {
+        DescriptorCodecs.register(MPEG7ScalableColor.class, new Codec());
+    }
+    
     /**
      * The source image of this descriptor
      */
@@ -63,6 +98,11 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
      * Histogram representing this descriptor
      */
     protected int[] histoHaar = null;
+    /**
+     * Number of coefficients between two consecutive checks of the partial
+     * distance in the early-abandoning comparison.
+     */
+    private static final int EARLY_ABANDON_STEP = 16;
     /**
      * Number of bins on the hue component
      */
@@ -122,6 +162,65 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
         this(image, DEFAULT_NUM_BINS, DEFAULT_NUM_BITPLANES_DISCARDED);
     }
 
+    /**
+     * Constructs a new scalable color descriptor and initializes it from the 
+     * image of the given extraction context. The HSV conversion of the image
+     * is taken from (and, if needed, stored in) the context, so it is shared 
+     * with the rest of descriptors built from the same context.
+     *
+     * @param context the extraction context
+     * @param numCoeffients the number of histogram bins (32,64,128 or 256)
+     * @param numBitplanes the number of bitplanes discarded in the histogram 
+     */
+    public MPEG7ScalableColor(ImageExtractionContext context, int numCoeffients, int numBitplanes) {
+        this.nofBitPlanesDiscarded = numBitplanes;
+        this.nofCoefficients = numCoeffients;
+        this.source = context.getMedia();
+        this.initHistogram(context.getImage(COLOR_SPACE));
+    }
+    
+    /**
+     * Constructs a new scalable color descriptor and initializes it from the 
+     * image of the given extraction context. The number of bins and the number
+     * of bitplanes discarded are set using the default values 
+     * {@link #DEFAULT_NUM_BINS} and {@link #DEFAULT_NUM_BITPLANES_DISCARDED}
+     *
+     * @param context the extraction context
+     */
+    public MPEG7ScalableColor(ImageExtractionContext context) {
+        this(context, DEFAULT_NUM_BINS, DEFAULT_NUM_BITPLANES_DISCARDED);
+    }
+    
+    /**
+     * Constructs a new scalable color descriptor and initializes it from the
+     * pixels inside the region given by parameter. The pixels are read 
+     * directly from the source image of the region (it is not cropped nor
+     * copied), so many regions of the same image can be described cheaply.
+     * The source of this descriptor is the source image of the region.
+     *
+     * @param region the source region
+     * @param numCoeffients the number of histogram bins (32,64,128 or 256)
+     * @param numBitplanes the number of bitplanes discarded in the histogram 
+     */
+    public MPEG7ScalableColor(Region region, int numCoeffients, int numBitplanes) {
+        this.nofBitPlanesDiscarded = numBitplanes;
+        this.nofCoefficients = numCoeffients;
+        this.source = region.getSource();
+        this.initHistogram(region);
+    }
+    
+    /**
+     * Constructs a new scalable color descriptor and initializes it from the
+     * pixels inside the region given by parameter. The number of bins and the
+     * number of bitplanes discarded are set using the default values 
+     * {@link #DEFAULT_NUM_BINS} and {@link #DEFAULT_NUM_BITPLANES_DISCARDED}
+     *
+     * @param region the source region
+     */
+    public MPEG7ScalableColor(Region region) {
+        this(region, DEFAULT_NUM_BINS, DEFAULT_NUM_BITPLANES_DISCARDED);
+    }
+
       /**
      * Returns the image source associated to this descriptor
      *
@@ -144,6 +243,26 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
         init(image);
     }
 
+    /**
+     * Releases the reference of this descriptor to its source image (without
+     * updating the descriptor).
+     */
+    @Override
+    public void detachSource() {
+        this.source = null;
+    }
+
+    /**
+     * Sets the source image of this descriptor without updating it (the image
+     * must be the one this descriptor was calculated from).
+     * 
+     * @param image the source image this descriptor was calculated from
+     */
+    @Override
+    public void attachSource(BufferedImage image) {
+        this.source = image;
+    }
+
     /**
      * Initialize the descriptor.
      *
@@ -193,19 +312,117 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
      * descriptors are not comparable)
      */
     public Double compare(MPEG7ScalableColor descriptor) {
-        if (descriptor.nofBitPlanesDiscarded != this.nofBitPlanesDiscarded || 
-            descriptor.nofCoefficients != this.nofCoefficients) {
-            return null;
-        }        
-        if (descriptor.histoHaar == null || this.histoHaar == null) {
+        if (!isComparable(descriptor)) {
             return null;
         }
+        return distance(descriptor);
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter as a primitive value.
+     *
+     * This method is valid only for <code>MPEG7ScalableColor</code> image
+     * descriptors
+     *
+     * @param mediaDescriptor descriptor to be compared.
+     * @return the distance between descriptors.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    @Override
+    public double distance(MediaDescriptor<?> mediaDescriptor) {
+        if (!(mediaDescriptor instanceof MPEG7ScalableColor)) {
+            throw new InvalidParameterException("Only MPEG7ScalableColor descriptors can be compared.");
+        }
+        return distance((MPEG7ScalableColor) mediaDescriptor);
+    }
+    
+    /**
+     * Returns the l1-norm between the coefficients of this descriptor and the
+     * ones of the descriptor given by parameter as a primitive value.
+     *
+     * @param descriptor descriptor to be compared.
+     * @return the distance between descriptors.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    public double distance(MPEG7ScalableColor descriptor) {
+        if (!isComparable(descriptor)) {
+            throw new InvalidParameterException("The descriptors are not comparables.");
+        }
+        int[] h1 = this.histoHaar, h2 = descriptor.histoHaar;
         double diffsum = 0;
         for (int i = 0; i < nofCoefficients; i++) {
-            diffsum += Math.abs(this.histoHaar[i] - descriptor.histoHaar[i]);
+            diffsum += Math.abs(h1[i] - h2[i]);
+        }
+        return diffsum;
+    }
+    
+    /**
+     * Returns the distance between this descriptor and the one given by 
+     * parameter, abandoning the calculation as soon as the partial distance
+     * exceeds the given bound.
+     *
+     * This method is valid only for <code>MPEG7ScalableColor</code> image
+     * descriptors
+     *
+     * @param mediaDescriptor descriptor to be compared.
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a partial distance greater than the bound in other case.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    @Override
+    public double distance(MediaDescriptor<?> mediaDescriptor, double bound) {
+        if (!(mediaDescriptor instanceof MPEG7ScalableColor)) {
+            throw new InvalidParameterException("Only MPEG7ScalableColor descriptors can be compared.");
+        }
+        return distance((MPEG7ScalableColor) mediaDescriptor, bound);
+    }
+    
+    /**
+     * Returns the l1-norm between the coefficients of this descriptor and the
+     * ones of the descriptor given by parameter, abandoning the calculation as
+     * soon as the partial sum exceeds the given bound. The partial sum is 
+     * checked every {@link #EARLY_ABANDON_STEP} coefficients.
+     *
+     * @param descriptor descriptor to be compared.
+     * @param bound the upper bound of the distances of interest
+     * @return the distance between descriptors if it is not greater than the
+     * bound, a partial distance greater than the bound in other case.
+     * @throws InvalidParameterException if the descriptors are not comparable.
+     */
+    public double distance(MPEG7ScalableColor descriptor, double bound) {
+        if (!isComparable(descriptor)) {
+            throw new InvalidParameterException("The descriptors are not comparables.");
+        }
+        int[] h1 = this.histoHaar, h2 = descriptor.histoHaar;
+        double diffsum = 0;
+        int i = 0, end;
+        while (i < nofCoefficients) {
+            end = Math.min(i + EARLY_ABANDON_STEP, nofCoefficients);
+            for (; i < end; i++) {
+                diffsum += Math.abs(h1[i] - h2[i]);
+            }
+            if (diffsum > bound) {
+                return diffsum;
+            }
         }
         return diffsum;
     }
+    
+    /**
+     * Checks if this descriptor can be compared with the one given by 
+     * parameter (i.e., if both have been calculated with the same number of
+     * coefficients and bitplanes).
+     * 
+     * @param descriptor descriptor to be compared.
+     * @return <tt>true</tt> if the descriptors are comparable.
+     */
+    private boolean isComparable(MPEG7ScalableColor descriptor) {
+        return descriptor.nofBitPlanesDiscarded == this.nofBitPlanesDiscarded
+                && descriptor.nofCoefficients == this.nofCoefficients
+                && descriptor.histoHaar != null && this.histoHaar != null;
+    }
 
     // <editor-fold defaultstate="collapsed" desc="Private methods for calculating the descriptor"> 
   
@@ -214,7 +431,7 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
      * 
      * From <a href="www.semanticmetadata.net">Caliph and Emir project</a>
      */
-    final private int[][] scalableColorQuantValues
+    final private static int[][] scalableColorQuantValues
             = {
                 {217, 9, 255}, {-71, 9, 255}, {-27, 8, 127}, {-54, 9, 255}, {-8, 7, 63}, {-14, 7, 63}, {-22, 7, 63}, {-29, 8, 127},
                 {-6, 6, 31}, {-13, 7, 63}, {-11, 6, 31}, {-22, 7, 63}, {-9, 7, 63}, {-14, 7, 63}, {-19, 7, 63}, {-22, 7, 63},
@@ -272,6 +489,66 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
                 histoMx[i][j][k]++;                                
             }
         }
+        this.initHistogram(histoMx);
+    }
+    
+    /**
+     * Initialize the histogram associated to this descriptor using only the 
+     * pixels inside the given region. 
+     * 
+     * The region spans are read directly from the source raster. If the source
+     * image is already in the color space of this descriptor (and with the 
+     * suitable model), the HSV values are taken from the raster; in other 
+     * case, each pixel is converted on the fly (only the pixels inside the 
+     * region are converted).
+     * 
+     * @param region the source region
+     */
+    protected void initHistogram(Region region){
+        BufferedImage image = region.getSource();
+        int[] spans = region.getSpans();
+        int maxLength = 0;
+        for (int s = 0; s < spans.length; s += 3) {
+            maxLength = Math.max(maxLength, spans[s + 2] - spans[s + 1]);
+        }
+        int[][][]histoMx = new int[H_BINS][S_BINS][V_BINS]; // By default, filled with 0
+        int y, x0, length;
+        if (image instanceof JMRExtendedBufferedImage && checkImage((JMRExtendedBufferedImage)image)) {
+            Raster imRst = image.getRaster();
+            float[] row = new float[3 * maxLength];
+            for (int s = 0; s < spans.length; s += 3) {
+                y = spans[s]; x0 = spans[s + 1]; length = spans[s + 2] - x0;
+                imRst.getPixels(x0, y, length, 1, row);
+                for (int p = 0; p < 3 * length; p += 3) {
+                    histoMx[(int) (row[p] / H_SCALE)][(int) (row[p + 1] / S_SCALE)][(int) (row[p + 2] / V_SCALE)]++;
+                }
+            }
+        } else {
+            ColorSpace hsv = ColorSpaceJMR.getInstance(COLOR_SPACE);
+            int[] row = new int[maxLength];
+            float[] p_in = new float[3], pixel;
+            for (int s = 0; s < spans.length; s += 3) {
+                y = spans[s]; x0 = spans[s + 1]; length = spans[s + 2] - x0;
+                image.getRGB(x0, y, length, 1, row, 0, length);
+                for (int p = 0; p < length; p++) {
+                    p_in[0] = (float) ((row[p] >> 16) & 0xFF) / 255.0f;
+                    p_in[1] = (float) ((row[p] >> 8) & 0xFF) / 255.0f;
+                    p_in[2] = (float) (row[p] & 0xFF) / 255.0f;
+                    pixel = hsv.fromRGB(p_in);
+                    histoMx[(int) (pixel[0] / H_SCALE)][(int) (pixel[1] / S_SCALE)][(int) (pixel[2] / V_SCALE)]++;
+                }
+            }
+        }
+        this.initHistogram(histoMx);
+    }
+    
+    /**
+     * Initialize the histogram associated to this descriptor from the HSV 
+     * histogram (quantization and Haar transform).
+     * 
+     * @param histoMx the HSV histogram in matrix form
+     */
+    private void initHistogram(int[][][] histoMx){
         int[] histoVec = histoMx2histoVec(histoMx);
         QuantizeHistogram(histoVec);
         this.histoHaar = HaarTransform(histoVec);
@@ -620,6 +897,51 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
         return bitPlane;
     }
     
+    /**
+     * Returns the number of Haar coefficients of this descriptor.
+     * 
+     * @return the number of coefficients
+     */
+    public int getNumberOfCoefficients() {
+        return nofCoefficients;
+    }
+    
+    /**
+     * Returns the Haar coefficient at the given position.
+     * 
+     * @param index the position of the coefficient
+     * @return the coefficient value
+     */
+    public int getCoefficient(int index) {
+        return histoHaar[index];
+    }
+    
+    /**
+     * Returns the number of Haar coefficients of this descriptor (the 
+     * dimension of its vector).
+     * 
+     * @return the number of coefficients
+     */
+    @Override
+    public int getDimension() {
+        return nofCoefficients;
+    }
+    
+    /**
+     * Returns the Haar coefficients of this descriptor as a vector, so the 
+     * l1-norm between vectors is the distance between descriptors.
+     * 
+     * @return the vector of coefficients
+     */
+    @Override
+    public double[] getVector() {
+        double vector[] = new double[nofCoefficients];
+        for (int i = 0; i < nofCoefficients; i++) {
+            vector[i] = histoHaar[i];
+        }
+        return vector;
+    }
+    
     /**
      * Set the histogram values from a given vector of values.
      * 
@@ -645,6 +967,129 @@ public class MPEG7ScalableColor implements MediaDescriptor<BufferedImage>, Seria
         }
     }
     
+    /**
+     * Writes this descriptor by means of its codec.
+     * 
+     * @param out the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        DescriptorCodecs.write(this, out);
+    }
+    
+    /**
+     * Reads this descriptor by means of its codec, or from the fields written
+     * before the codec (see {@link DescriptorCodecs#LEGACY_VERSION}).
+     * 
+     * @param in the stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (DescriptorCodecs.isLegacy(fields)) {
+            nofCoefficients = fields.get("nofCoefficients", DEFAULT_NUM_BINS);
+            nofBitPlanesDiscarded = fields.get("nofBitPlanesDiscarded", DEFAULT_NUM_BITPLANES_DISCARDED);
+            histoHaar = (int[]) fields.get("histoHaar", null);
+        } else {
+            DescriptorCodecs.read(this, in);
+        }
+    }
+    
+    /**
+     * Binary codec of the scalable color descriptor. The Haar coefficients 
+     * are bit-packed with the MPEG-7 bit budget of each coefficient (the 
+     * second column of {@link #scalableColorQuantValues}, from 2 to 9 bits),
+     * so the 256 coefficients take 128 bytes. If some coefficient does not fit
+     * in its budget (for example, if it has been set by means of 
+     * {@link #setHistoHaar(byte[], byte[])}), the coefficients are written as
+     * variable length integers.
+     */
+    static class Codec implements DescriptorCodec<MPEG7ScalableColor> {
+        
+        /**
+         * Current version of the codec.
+         */
+        static final int VERSION = 1;
+        
+        /**
+         * Returns the current version of this codec.
+         * 
+         * @return the version of this codec
+         */
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+        
+        /**
+         * Writes the data of the given descriptor.
+         * 
+         * @param descriptor the descriptor
+         * @param out the output
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(MPEG7ScalableColor descriptor, DataOutput out) throws IOException {
+            int histogram[] = descriptor.histoHaar;
+            DescriptorCodecs.writeVarInt(out, descriptor.nofCoefficients);
+            DescriptorCodecs.writeVarInt(out, descriptor.nofBitPlanesDiscarded);
+            DescriptorCodecs.writeVarInt(out, histogram != null ? histogram.length + 1 : 0);
+            if (histogram == null) {
+                return;
+            }
+            boolean packed = histogram.length == scalableColorQuantValues.length;
+            for (int i = 0; i < histogram.length && packed; i++) {
+                packed = DescriptorCodecs.fits(histogram[i], scalableColorQuantValues[i][1]);
+            }
+            out.writeBoolean(packed);
+            if (packed) {
+                DescriptorCodecs.BitWriter writer = new DescriptorCodecs.BitWriter(out);
+                for (int i = 0; i < histogram.length; i++) {
+                    writer.write(histogram[i], scalableColorQuantValues[i][1]);
+                }
+                writer.flush();
+            } else {
+                for (int value : histogram) {
+                    DescriptorCodecs.writeSignedVarInt(out, value);
+                }
+            }
+        }
+        
+        /**
+         * Reads the data of a descriptor into the given descriptor.
+         * 
+         * @param descriptor the descriptor to be filled
+         * @param in the input
+         * @param version the version of the codec that wrote the data
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void read(MPEG7ScalableColor descriptor, DataInput in, int version) throws IOException {
+            descriptor.nofCoefficients = DescriptorCodecs.readVarInt(in);
+            descriptor.nofBitPlanesDiscarded = DescriptorCodecs.readVarInt(in);
+            int length = DescriptorCodecs.readVarInt(in) - 1;
+            if (length < 0) {
+                descriptor.histoHaar = null;
+                return;
+            }
+            int histogram[] = new int[length];
+            if (in.readBoolean()) {
+                DescriptorCodecs.BitReader reader = new DescriptorCodecs.BitReader(in);
+                for (int i = 0; i < length; i++) {
+                    histogram[i] = reader.readSigned(scalableColorQuantValues[i][1]);
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    histogram[i] = DescriptorCodecs.readSignedVarInt(in);
+                }
+            }
+            descriptor.histoHaar = histogram;
+        }
+    }
+    
     /**
      * Returns a string representation of this descriptor .
      *
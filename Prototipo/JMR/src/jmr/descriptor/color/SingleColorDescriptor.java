@@ -2,9 +2,20 @@ package jmr.descriptor.color;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import jmr.descriptor.Comparator;
+import jmr.descriptor.DescriptorCodec;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.ImageExtractionContext;
 import jmr.descriptor.MediaDescriptorAdapter;
+import jmr.region.Region;
 
 /**
  * A descriptor representing a single color associated to a visual media.
@@ -13,6 +24,27 @@ import jmr.descriptor.MediaDescriptorAdapter;
  */
 public class SingleColorDescriptor extends MediaDescriptorAdapter<BufferedImage> implements Serializable {
     
+    /**
+     * Version of the serialized form of this class, the one computed for the
+     * fields written before the codec (the format of the data is given by
+     * the version of its codec, see {@link Codec}).
+     */
+    private static final long serialVersionUID = -8945885882072410183L;
+    /**
+     * Version of the extraction algorithm of this descriptor, which must be
+     * incremented when the calculated data change (it is used, for example,
+     * by {@link jmr.db.DescriptorCache} to discard the stored descriptors).
+     */
+    static public final int EXTRACTOR_VERSION = 1;
+    /**
+     * No field is serialized by default: the color is written by the codec.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {};
+    
+    static {
+        DescriptorCodecs.register(SingleColorDescriptor.class, new Codec());
+    }
+    
     /**
      * Main color associated to this descriptor 
      */
@@ -39,6 +71,37 @@ public class SingleColorDescriptor extends MediaDescriptorAdapter<BufferedImage>
         this.color = color;
     }
         
+    /**
+     * Constructs a single color descriptor, initializes it as the mean color
+     * of the image of the given extraction context and set as comparator the
+     * default one. The decoded RGB raster is taken from (and, if needed, 
+     * stored in) the context.
+     * 
+     * @param context the extraction context
+     */
+    public SingleColorDescriptor(ImageExtractionContext context) {
+        super(null, new DefaultComparator()); //Implicit call to init
+        this.source = context.getMedia();
+        this.color = mean(context.getRGB());
+    }
+    
+    /**
+     * Constructs a single color descriptor, initializes it as the mean color
+     * of the pixels inside the given region and set as comparator the default
+     * one. The pixels are read directly from the source image of the region
+     * (it is not cropped nor copied). The source of this descriptor is the 
+     * source image of the region.
+     * 
+     * @param region the source region
+     * @throws InvalidParameterException if the region is empty or it is 
+     * outside its source image (so there are no pixels to average)
+     */
+    public SingleColorDescriptor(Region region) {
+        super(null, new DefaultComparator()); //Implicit call to init
+        this.source = region.getSource();
+        this.color = mean(region);
+    }
+        
     /**
      * Initialize the descriptor as the mean color of the given image.
      *
@@ -58,30 +121,81 @@ public class SingleColorDescriptor extends MediaDescriptorAdapter<BufferedImage>
     } 
 
     /**
-     * Calculates the mean color of the given image.
+     * Calculates the mean color of the given image. The image is read row by
+     * row, so the whole RGB raster is not decoded at once.
      *
      * @param media the image. It must be not null and not empty
      * @return the mean color
      */
     private Color mean(BufferedImage image) {
-        Color pixelColor;
-        float mean[] = {0.0f, 0.0f, 0.0f}; //RGB
-        double imageSize = image.getWidth() * image.getHeight();
-
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                // Color conversion takes place in getRGB method, if necessary
-                pixelColor = new Color(image.getRGB(x, y));
-                mean[0] += pixelColor.getRed();
-                mean[1] += pixelColor.getGreen();
-                mean[2] += pixelColor.getBlue();
-            }
+        int width = image.getWidth(), height = image.getHeight();
+        long mean[] = {0, 0, 0}; //RGB
+        int row[] = new int[width];
+        for (int y = 0; y < height; y++) {
+            // Color conversion takes place in getRGB method, if necessary
+            image.getRGB(0, y, width, 1, row, 0, width);
+            accumulate(row, width, mean);
         }
-        mean[0] /= imageSize;
-        mean[1] /= imageSize;
-        mean[2] /= imageSize;
-        
-        return new Color((int) mean[0], (int) mean[1], (int) mean[2]);
+        long size = (long) width * height;
+        return new Color((int) (mean[0] / size), (int) (mean[1] / size), (int) (mean[2] / size));
+    }
+    
+    /**
+     * Calculates the mean color of the given RGB raster.
+     *
+     * @param rgb the pixels in the default RGB color model. It must be not 
+     * empty
+     * @return the mean color
+     */
+    private Color mean(int[] rgb) {
+        long mean[] = {0, 0, 0}; //RGB
+        accumulate(rgb, rgb.length, mean);
+        return new Color((int) (mean[0] / rgb.length), (int) (mean[1] / rgb.length), (int) (mean[2] / rgb.length));
+    }
+    
+    /**
+     * Adds the RGB components of the first pixels of the given array to the
+     * given sums.
+     *
+     * @param rgb the pixels in the default RGB color model
+     * @param length the number of pixels to be added
+     * @param sum the sums of the red, green and blue components
+     */
+    private static void accumulate(int[] rgb, int length, long[] sum) {
+        for (int i = 0; i < length; i++) {
+            sum[0] += (rgb[i] >> 16) & 0xFF;
+            sum[1] += (rgb[i] >> 8) & 0xFF;
+            sum[2] += rgb[i] & 0xFF;
+        }
+    }
+    
+    /**
+     * Calculates the mean color of the pixels inside the given region. The
+     * region spans are read directly from the source image.
+     *
+     * @param region the region. 
+     * @return the mean color
+     * @throws InvalidParameterException if the region has no pixels inside 
+     * its source image
+     */
+    private Color mean(Region region) {
+        BufferedImage image = region.getSource();
+        int[] spans = region.getSpans();
+        long mean[] = {0, 0, 0}; //RGB
+        long regionSize = 0;
+        int row[] = new int[image != null ? image.getWidth() : 0];
+        int y, x0, length;
+        for (int s = 0; s < spans.length; s += 3) {
+            y = spans[s]; x0 = spans[s + 1]; length = spans[s + 2] - x0;
+            // Color conversion takes place in getRGB method, if necessary
+            image.getRGB(x0, y, length, 1, row, 0, length);
+            accumulate(row, length, mean);
+            regionSize += length;
+        }
+        if (regionSize == 0) {
+            throw new InvalidParameterException("The region has no pixels inside its source image.");
+        }
+        return new Color((int) (mean[0] / regionSize), (int) (mean[1] / regionSize), (int) (mean[2] / regionSize));
     }
     
     /**
@@ -94,17 +208,103 @@ public class SingleColorDescriptor extends MediaDescriptorAdapter<BufferedImage>
         return "SingleColorDescriptor: [" + color.getRed() + "," + color.getGreen() + "," + color.getBlue()+"]";
     }
     
+    /**
+     * Writes this descriptor by means of its codec.
+     * 
+     * @param out the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        DescriptorCodecs.write(this, out);
+    }
+    
+    /**
+     * Reads this descriptor by means of its codec, or from the fields written
+     * before the codec (see {@link DescriptorCodecs#LEGACY_VERSION}).
+     * 
+     * @param in the stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (DescriptorCodecs.isLegacy(fields)) {
+            color = (Color) fields.get("color", null);
+        } else {
+            DescriptorCodecs.read(this, in);
+        }
+    }
+    
+    /**
+     * Binary codec of the single color descriptor. The color is written as 
+     * its 32-bit ARGB value (the one used by the comparator).
+     */
+    static class Codec implements DescriptorCodec<SingleColorDescriptor> {
+        
+        /**
+         * Current version of the codec.
+         */
+        static final int VERSION = 1;
+        
+        /**
+         * Returns the current version of this codec.
+         * 
+         * @return the version of this codec
+         */
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+        
+        /**
+         * Writes the data of the given descriptor.
+         * 
+         * @param descriptor the descriptor
+         * @param out the output
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(SingleColorDescriptor descriptor, DataOutput out) throws IOException {
+            out.writeBoolean(descriptor.color != null);
+            if (descriptor.color != null) {
+                out.writeInt(descriptor.color.getRGB());
+            }
+        }
+        
+        /**
+         * Reads the data of a descriptor into the given descriptor.
+         * 
+         * @param descriptor the descriptor to be filled
+         * @param in the input
+         * @param version the version of the codec that wrote the data
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void read(SingleColorDescriptor descriptor, DataInput in, int version) throws IOException {
+            descriptor.color = in.readBoolean() ? new Color(in.readInt(), true) : null;
+        }
+    }
+    
     /**
      * Functional (inner) class implementing a comparator between single color descriptors
      */
-    static class DefaultComparator implements Comparator<SingleColorDescriptor, Double> {
+    static public class DefaultComparator implements Comparator<SingleColorDescriptor, Double> {
+        private static final long serialVersionUID = 8033983777781939621L;
+
         @Override
         public Double apply(SingleColorDescriptor t, SingleColorDescriptor u) {
-            Color c1 = t.color, c2 = u.color;
-            double rDif = Math.pow(c1.getRed()-c2.getRed(),2);
-            double gDif = Math.pow(c1.getGreen()-c2.getGreen(),2);
-            double bDif = Math.pow(c1.getBlue()-c2.getBlue(),2);
-            return Math.sqrt(rDif+gDif+bDif);
+            return distance(t, u);
+        }
+        
+        @Override
+        public double distance(SingleColorDescriptor t, SingleColorDescriptor u) {
+            int c1 = t.color.getRGB(), c2 = u.color.getRGB();
+            int rDif = ((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF);
+            int gDif = ((c1 >> 8) & 0xFF) - ((c2 >> 8) & 0xFF);
+            int bDif = (c1 & 0xFF) - (c2 & 0xFF);
+            return Math.sqrt(rDif*rDif + gDif*gDif + bDif*bDif);
         }    
     }
     
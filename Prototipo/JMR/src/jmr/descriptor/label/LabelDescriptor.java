@@ -1,33 +1,61 @@
 package jmr.descriptor.label;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.BinaryOperator;
-import java.util.function.UnaryOperator;
 import jmr.descriptor.Comparator;
 import jmr.descriptor.MediaDescriptorAdapter;
 
 /**
  * A descriptor representing a list of labels associated to a visual media.
+ * 
+ * Labels are stored as integer ids of the global {@link LabelDictionary}, 
+ * together with the set of different labels (ignoring case) in ascending 
+ * order of key, so the inclusion and equality tests are performed by merging
+ * sorted integer arrays instead of comparing strings.
  *
  * @param <T> the type of media described by this descriptor.
  *
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Serializable {
+    private static final long serialVersionUID = -1497170537769449662L;
 
     /**
-     * List of labels associated to this descriptor.
+     * Ids (see {@link LabelDictionary}) of the labels associated to this
+     * descriptor.
      */
-    private List<String> labels;
+    private transient int labels[];
     /**
-     * List of weights associated to this descriptor.
+     * Weights associated to the labels of this descriptor.
      */
-    private List<Double> weights;
+    private transient double weights[];
+    /**
+     * Keys (see {@link LabelDictionary#getKey(int)}) of the different labels
+     * of this descriptor, in ascending order.
+     */
+    private transient int keys[];
+    /**
+     * Weight of the first occurrence of each key (<tt>null</tt> if this
+     * descriptor is not weighted).
+     */
+    private transient double keyWeights[];
+    /**
+     * Serialized fields: the labels and weights are serialized as lists (so
+     * dictionary ids, which are only valid in the current execution, are not
+     * serialized).
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("labels", List.class),
+        new ObjectStreamField("weights", List.class)
+    };
     /**
      * A classifier used for labeling a given media. It uses a standard
      * functional interface, allowing lambda expressions.
@@ -63,9 +91,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
         /*if (media != null && media.getClass() == String.class) {
             setSource(null); // Source and labels are set to null, but not the 
             // comparator and classifier 
-            this.labels = new ArrayList();
-            this.labels.add((String) media);
-            this.weights = null;
+            setLabels(Arrays.asList((String) media), null);
         }*/
     }
 
@@ -97,9 +123,9 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      */
     public LabelDescriptor(String label, String... labels) {
         this((T) null); //Default comparator and classifier; null source
-        this.labels = new ArrayList(Arrays.asList(labels));
-        this.labels.add(0, label);
-        this.weights = null;
+        List<String> list = new ArrayList(Arrays.asList(labels));
+        list.add(0, label);
+        setLabels(list, null);
     }
 
     /**
@@ -111,14 +137,12 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
     public void init(T media) {
         if (media != null && classifier != null) {
             LabeledClassification classification = classifier.apply(media);
-            labels = classification.getLabels();
-            weights = classification.getWeights();
+            setLabels(classification.getLabels(), classification.getWeights());
             if (weights != null) {
                 this.setComparator(DEFAULT_WEIGHTED_COMPARATOR);
             }
         } else {
-            labels = null;
-            weights = null;
+            setLabels(null, null);
         }
         // When this method is called from the superclass constructor, the local
         // member data, and particularly the classifier, are not initialized 
@@ -134,13 +158,72 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
         // and, consequently, it changes the label using the current classidier
     }
 
+    /**
+     * Set the labels and weights of this descriptor, interning the labels in
+     * the label dictionary.
+     *
+     * @param labels the labels (it may be <tt>null</tt>)
+     * @param weights the weights (it may be <tt>null</tt>)
+     */
+    private void setLabels(List<String> labels, List<Double> weights) {
+        if (labels != null) {
+            this.labels = new int[labels.size()];
+            for (int i = 0; i < this.labels.length; i++) {
+                this.labels[i] = LabelDictionary.getId(labels.get(i));
+            }
+        } else {
+            this.labels = null;
+        }
+        if (weights != null) {
+            this.weights = new double[weights.size()];
+            for (int i = 0; i < this.weights.length; i++) {
+                this.weights[i] = weights.get(i);
+            }
+        } else {
+            this.weights = null;
+        }
+        updateKeys();
+    }
+
+    /**
+     * Updates the keys of this descriptor (and their weights) from its labels
+     * and weights.
+     */
+    private void updateKeys() {
+        int n = size(), sorted[] = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = LabelDictionary.getKey(labels[i]);
+        }
+        Arrays.sort(sorted);
+        int numKeys = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[numKeys++] = sorted[i];
+            }
+        }
+        keys = Arrays.copyOf(sorted, numKeys);
+        if (weights != null) {
+            keyWeights = new double[numKeys];
+            boolean assigned[] = new boolean[numKeys];
+            for (int i = 0; i < n; i++) {
+                int k = Arrays.binarySearch(keys, LabelDictionary.getKey(labels[i]));
+                if (!assigned[k]) {
+                    keyWeights[k] = weights[i];
+                    assigned[k] = true;
+                }
+            }
+        } else {
+            keyWeights = null;
+        }
+    }
+
     /**
      * Returns the number of labels in this descriptor.
      *
      * @return the number of labels in this descriptor.
      */
     public int size() {
-        return labels != null ? labels.size() : 0;
+        return labels != null ? labels.length : 0;
     }
 
     /**
@@ -149,7 +232,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * @return <tt>true</tt> if this descriptor contains no labels.
      */
     public boolean isEmpty() {
-        return labels != null ? labels.isEmpty() : true;
+        return size() == 0;
     }
 
     /**
@@ -170,7 +253,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * @throws IndexOutOfBoundsException {@inheritDoc}
      */
     public String getLabel(int index) {
-        return labels.get(index);
+        return LabelDictionary.getLabel(labels[index]);
     }
 
     /**
@@ -181,7 +264,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * @throws IndexOutOfBoundsException {@inheritDoc}
      */
     public Double getWeight(int index) {
-        return weights != null ? this.weights.get(index) : null;
+        return weights != null ? this.weights[index] : null;
     }
 
     /**
@@ -192,8 +275,13 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * this descriptor or if there are not weigts associated to this descriptor.
      */
     public Double getWeight(String label) {
-        int index = labels.indexOf(label);
-        return index != -1 && weights != null ? weights.get(index) : null;
+        int id = label != null ? LabelDictionary.findId(label) : -1;
+        for (int i = 0; id != -1 && i < labels.length; i++) {
+            if (labels[i] == id) {
+                return weights != null ? weights[i] : null;
+            }
+        }
+        return null;
     }
 
     /**
@@ -202,10 +290,14 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * @param weights the weights associated to this descriptor.
      */
     public void setWeights(Double... weights) {
-        if (weights.length != this.labels.size()) {
-            throw new InvalidParameterException("The number of weight must be " + this.labels.size());
+        if (weights.length != this.labels.length) {
+            throw new InvalidParameterException("The number of weight must be " + this.labels.length);
+        }
+        this.weights = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            this.weights[i] = weights[i];
         }
-        this.weights = new ArrayList(Arrays.asList(weights));
+        updateKeys();
     }
 
     /**
@@ -275,7 +367,24 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      */
     @Override
     public String toString() {
-        return weights == null ? labels.toString() : toStringWeighted();
+        return weights == null ? getLabels().toString() : toStringWeighted();
+    }
+
+    /**
+     * Returns the labels of this descriptor.
+     *
+     * @return a new list with the labels of this descriptor (<tt>null</tt>
+     * if the labels are not set).
+     */
+    public List<String> getLabels() {
+        if (labels == null) {
+            return null;
+        }
+        List<String> output = new ArrayList<>(labels.length);
+        for (int id : labels) {
+            output.add(LabelDictionary.getLabel(id));
+        }
+        return output;
     }
 
     /**
@@ -287,7 +396,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
     private String toStringWeighted() {
         String output = "[";
         for (int i = 0; i < size(); i++) {
-            output += "(" + labels.get(i) + "," + weights.get(i) + ")";
+            output += "(" + getLabel(i) + "," + weights[i] + ")";
         }
 
         return output + "]";
@@ -302,16 +411,13 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * descriptor <tt>u</tt>, <tt>false</tt> in other case.
      */
     public boolean isIncluded(LabelDescriptor u) {
-        int equal;
-        String label_i;
-        for (int i = 0; i < this.size(); i++) {
-            label_i = this.getLabel(i);
-            equal = 1;
-            // We search the nearest one
-            for (int j = 0; j < u.size() && equal != 0; j++) {
-                equal = label_i.compareToIgnoreCase(u.getLabel(j)); // 0 if equals
+        // Sorted merge of the keys: every key of t must be found in u
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < u.keys.length && u.keys[j] < keys[i]) {
+                j++;
             }
-            if (equal != 0) {
+            if (j == u.keys.length || u.keys[j] != keys[i]) {
                 return false; //Same label not found
             }
         }
@@ -327,18 +433,18 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * included in the descriptor <tt>u</tt>, <tt>false</tt> in other case.
      */
     public boolean isSoftIncluded(LabelDescriptor u) {
-        int equal;
-        String label_i;
         if (this.size() == 0) {
             return true; //If this descriptor has not labels, it is included in u
         }
-        for (int i = 0; i < this.size(); i++) {
-            label_i = this.getLabel(i);
-            for (int j = 0; j < u.size(); j++) {
-                equal = label_i.compareToIgnoreCase(u.getLabel(j)); // 0 if equals
-                if (equal == 0) {
-                    return true;
-                }
+        // Sorted merge of the keys: some key of t must be found in u
+        int i = 0, j = 0;
+        while (i < keys.length && j < u.keys.length) {
+            if (keys[i] == u.keys[j]) {
+                return true;
+            } else if (keys[i] < u.keys[j]) {
+                i++;
+            } else {
+                j++;
             }
         }
         return false;
@@ -348,39 +454,79 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * Returns a value related to the distance in which this descriptor is
      * included in the one given by parameter. This method is used in comparator
      * inner classes.
+     * 
+     * The distance between two labels is given by the difference of their
+     * weights, and these label distances are aggregated according to the
+     * given type (see {@link WeightBasedComparator}). In the case of the 
+     * Euclidean type, the sum of the squared distances is returned (without
+     * the square root).
      *
      * @param u the second label descriptor.
-     * @param op_init the unary operator used to initialize the distance
-     * accumulator (as a function of the fisrt distance).
-     * @param op_aggregation the binary operator used to aggregate a new
-     * distance to the previous ones.
+     * @param type the type of distance aggregation.
      * @return a value related to the degree in which the first descriptor is
      * included in the second one (Double.POSITIVE_INFINITY if some label is not
      * included)
      */
-    private Double inclusionDistance(LabelDescriptor u,
-            UnaryOperator<Double> op_init, BinaryOperator<Double> op_aggregation) {
-        int equal;
-        String label_i;
-        Double dist = null, dist_ij = null;
+    private double inclusionDistance(LabelDescriptor u, int type) {
+        int k;
+        double dist = 0.0, dist_ij;
         for (int i = 0; i < this.size(); i++) {
-            label_i = this.getLabel(i);
-            equal = 1;
             // We search the same label
-            for (int j = 0; j < u.size() && equal != 0; j++) {
-                equal = label_i.compareToIgnoreCase(u.getLabel(j)); // 0 if equals                  
-                if (equal == 0) {
-                    //We assume that the distance is given by the first coincidence
-                    dist_ij = Math.abs(this.getWeight(i) - u.getWeight(j));
-                }
-            }
-            if (equal != 0) {
+            k = Arrays.binarySearch(u.keys, LabelDictionary.getKey(labels[i]));
+            if (k < 0) {
                 return Double.POSITIVE_INFINITY; //Same label not found
+            }
+            //We assume that the distance is given by the first coincidence
+            dist_ij = Math.abs(this.weights[i] - u.keyWeights[k]);
+            if (type == WeightBasedComparator.TYPE_EUCLIDEAN) {
+                dist_ij *= dist_ij;
+            }
+            if (i == 0) {
+                dist = dist_ij;
+            } else if (type == WeightBasedComparator.TYPE_MAX) {
+                dist = Math.max(dist, dist_ij);
+            } else if (type == WeightBasedComparator.TYPE_MIN) {
+                dist = Math.min(dist, dist_ij);
             } else {
-                dist = dist == null ? op_init.apply(dist_ij) : op_aggregation.apply(dist, dist_ij);
+                dist += dist_ij;
+            }
+        }
+        return dist;  //If this descriptor has not labels, it is included in u 
+    }
+
+    /**
+     * Writes this descriptor to the given stream, with the labels and weights
+     * as lists.
+     *
+     * @param out the output stream
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("labels", getLabels());
+        List<Double> list = null;
+        if (weights != null) {
+            list = new ArrayList<>(weights.length);
+            for (double weight : weights) {
+                list.add(weight);
             }
         }
-        return dist != null ? dist : op_init.apply(0.0);  //If this descriptor has not labels, it is included in u 
+        fields.put("weights", list);
+        out.writeFields();
+    }
+
+    /**
+     * Reads this descriptor from the given stream, interning its labels in
+     * the label dictionary.
+     *
+     * @param in the input stream
+     * @throws IOException if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized object
+     * cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        setLabels((List<String>) fields.get("labels", null), (List<Double>) fields.get("weights", null));
     }
 
     /**
@@ -388,10 +534,15 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * label descriptors.
      */
     static public class InclusionComparator implements Comparator<LabelDescriptor, Double> {
+        private static final long serialVersionUID = -8101575592804436440L;
 
         @Override
         public Double apply(LabelDescriptor t, LabelDescriptor u) {
+            return distance(t, u);
+        }
 
+        @Override
+        public double distance(LabelDescriptor t, LabelDescriptor u) {
             return t.isIncluded(u) ? 0.0 : Double.POSITIVE_INFINITY;
         }
     }
@@ -403,11 +554,15 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * {@link java.lang.Double.POSITIVE_INFINITY} in other case.
      */
     static public class EqualComparator implements Comparator<LabelDescriptor, Double> {
+        private static final long serialVersionUID = 3262088945185950996L;
 
         @Override
         public Double apply(LabelDescriptor t, LabelDescriptor u) {
-            System.out.println(t);
-            System.out.println(u);
+            return distance(t, u);
+        }
+
+        @Override
+        public double distance(LabelDescriptor t, LabelDescriptor u) {
             // If the number of labels is not the same, the descriptors are 
             // assumed to be different
             if (t.size() != u.size()) {
@@ -424,9 +579,15 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * {@link java.lang.Double.POSITIVE_INFINITY} in other case.
      */
     static public class SoftEqualComparator implements Comparator<LabelDescriptor, Double> {
+        private static final long serialVersionUID = 5094487415615408638L;
 
         @Override
         public Double apply(LabelDescriptor t, LabelDescriptor u) {
+            return distance(t, u);
+        }
+
+        @Override
+        public double distance(LabelDescriptor t, LabelDescriptor u) {
             return (t.isIncluded(u) || u.isIncluded(t)) ? 0.0 : Double.POSITIVE_INFINITY;
         }
     }
@@ -442,6 +603,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * (in the test based on inclusion).
      */
     static public class WeightBasedComparator implements Comparator<LabelDescriptor, Double> {
+        private static final long serialVersionUID = 4069471968631788978L;
 
         /**
          * Type of distance aggregation based on the maximum.
@@ -467,16 +629,6 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
          * If true, only inclusion is tested (not equality)
          */
         boolean only_inclusion;
-        /**
-         * The unary operator used to initialize the distance accumulator (as a
-         * function of the fisrt distance).
-         */
-        private transient UnaryOperator<Double> op_init;  // Class non serializable 
-        /**
-         * The binary operator used to aggregate a new distance to the previous
-         * ones.
-         */
-        private transient BinaryOperator<Double> op_aggregation; // Class non serializable
 
         /**
          * Constructs a new comparator based on the given type of distance
@@ -489,20 +641,9 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
         public WeightBasedComparator(int type, boolean only_inclusion) {
             switch (type) {
                 case TYPE_MAX:
-                    op_init = (a) -> a;
-                    op_aggregation = (a, b) -> Math.max(a, b);
-                    break;
                 case TYPE_MIN:
-                    op_init = (a) -> a;
-                    op_aggregation = (a, b) -> Math.min(a, b);
-                    break;
                 case TYPE_MEAN:
-                    op_init = (a) -> a;
-                    op_aggregation = (a, b) -> (a + b);
-                    break;
                 case TYPE_EUCLIDEAN:
-                    op_init = (a) -> (a * a);
-                    op_aggregation = (a, b) -> (a + b * b);
                     break;
                 default:
                     throw new InvalidParameterException("Invalid distance aggregator type");
@@ -530,6 +671,25 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
             this(TYPE_EUCLIDEAN, false);
         }
 
+        /**
+         * Returns the type of distance aggregation of this comparator.
+         *
+         * @return the type of distance aggregation.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Returns <tt>true</tt> if this comparator only tests inclusion.
+         *
+         * @return <tt>true</tt> if only inclusion is tested, <tt>false</tt> if
+         * equality is tested.
+         */
+        public boolean isOnlyInclusion() {
+            return only_inclusion;
+        }
+
         /**
          * Applies this comparator to the given arguments.
          *
@@ -539,6 +699,19 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
          */
         @Override
         public Double apply(LabelDescriptor t, LabelDescriptor u) {
+            return distance(t, u);
+        }
+
+        /**
+         * Applies this comparator to the given arguments, returning the result
+         * as a primitive value.
+         *
+         * @param t the first function argument
+         * @param u the second function argument
+         * @return the function result
+         */
+        @Override
+        public double distance(LabelDescriptor t, LabelDescriptor u) {
             if (!only_inclusion && t.size() != u.size()) {
                 return Double.POSITIVE_INFINITY;
             }
@@ -546,7 +719,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
             // between t and u will be given by the inclusion of t in u (which 
             // will be the same that the inclusion of u in t). If the labels are
             // different, the inclusion will be Double.POSITIVE_INFINITY
-            Double output = t.inclusionDistance(u, op_init, op_aggregation);
+            double output = t.inclusionDistance(u, type);
             if (type == TYPE_MEAN) {
                 return output / t.size();
             }
@@ -563,6 +736,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * (simple) name of its class.
      */
     static private class DefaultClassifier<T> implements Classifier<T, LabeledClassification> {
+        private static final long serialVersionUID = -2174975853736835065L;
 
         @Override
         public LabeledClassification apply(T t) {
@@ -595,6 +769,7 @@ public class LabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Ser
      * objetcs -as in the {@link jmr.descriptor.GriddedDescriptor} descriptor-)
      */
     static public class ImageLabelDescriptor extends LabelDescriptor<BufferedImage> {
+        private static final long serialVersionUID = -3574076748135888101L;
 
         /**
          * Constructs a multiple label descriptor using the default classifier
@@ -0,0 +1,155 @@
+package jmr.descriptor.label;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary of labels, mapping each label to a dense integer
+ * identifier (id). It is used by the {@link LabelDescriptor} class in order
+ * to represent its labels as integers, so each different label is stored
+ * once and labels are compared as integers instead of strings.
+ *
+ * Each label has two ids: its own id (different for labels differing in
+ * case) and the id of its case-folded form, called key (the same for labels
+ * equal ignoring case, see {@link #fold(java.lang.String)}).
+ *
+ * Ids are assigned on demand and they are only valid in the current
+ * execution (they are not serialized; descriptors serialize the labels
+ * themselves). This class is thread-safe.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class LabelDictionary {
+
+    /**
+     * Id of each label.
+     */
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * Key id of each case-folded label.
+     */
+    private static final ConcurrentHashMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    /**
+     * Label of each id (the array is replaced when it grows, so it can be
+     * read without synchronization).
+     */
+    private static volatile String labels[] = new String[64];
+    /**
+     * Key of each id.
+     */
+    private static volatile int keys[] = new int[64];
+    /**
+     * Number of labels in the dictionary.
+     */
+    private static int size = 0;
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private LabelDictionary() {
+    }
+
+    /**
+     * Returns the id of the given label, adding it to the dictionary if it is
+     * not included yet.
+     *
+     * @param label the label
+     * @return the id of the label
+     */
+    public static int getId(String label) {
+        Integer id = ids.get(label);
+        return id != null ? id : add(label);
+    }
+
+    /**
+     * Returns the id of the given label, without adding it to the dictionary.
+     *
+     * @param label the label
+     * @return the id of the label, -1 if it is not included in the dictionary
+     */
+    public static int findId(String label) {
+        Integer id = ids.get(label);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the label associated to the given id.
+     *
+     * @param id the id of the label
+     * @return the label
+     */
+    public static String getLabel(int id) {
+        return labels[id];
+    }
+
+    /**
+     * Returns the key (the id of the case-folded form) of the label
+     * associated to the given id. Two labels are equal ignoring case if and
+     * only if they have the same key.
+     *
+     * @param id the id of the label
+     * @return the key of the label
+     */
+    public static int getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Returns the number of labels in the dictionary.
+     *
+     * @return the number of labels in the dictionary
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the case-folded form of the given label (each character is
+     * converted to upper case and then to lower case). Two labels are equal
+     * ignoring case (see
+     * {@link String#compareToIgnoreCase(java.lang.String)}) if and only if
+     * their folded forms are equal.
+     *
+     * @param label the label
+     * @return the case-folded label
+     */
+    public static String fold(String label) {
+        char folded[] = label.toCharArray();
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = Character.toLowerCase(Character.toUpperCase(folded[i]));
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Adds the given label to the dictionary (if it has not been added by
+     * other thread).
+     *
+     * @param label the label
+     * @return the id of the label
+     */
+    private static synchronized int add(String label) {
+        Integer id = ids.get(label);
+        if (id != null) {
+            return id;
+        }
+        if (size == labels.length) {
+            // The arrays are copied before being replaced
+            String newLabels[] = Arrays.copyOf(labels, size * 2);
+            int newKeys[] = Arrays.copyOf(keys, size * 2);
+            keys = newKeys;
+            labels = newLabels;
+        }
+        String folded = fold(label);
+        Integer key = keyIds.get(folded);
+        if (key == null) {
+            key = keyIds.size();
+            keyIds.put(folded, key);
+        }
+        labels[size] = label;
+        keys[size] = key;
+        // The label is published (in the map) once the arrays are filled
+        ids.put(label, size);
+        return size++;
+    }
+}
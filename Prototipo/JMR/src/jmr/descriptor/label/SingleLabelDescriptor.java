@@ -12,6 +12,8 @@ import jmr.descriptor.MediaDescriptorAdapter;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class SingleLabelDescriptor<T> extends MediaDescriptorAdapter<T> implements Serializable {   
+    private static final long serialVersionUID = 93008544746763188L;
+
     /**
      * Label associated to this descriptor.
      */
@@ -178,8 +180,15 @@ public class SingleLabelDescriptor<T> extends MediaDescriptorAdapter<T> implemen
      * are equals (ignoring upper cases).
      */
     static public class DefaultComparator implements Comparator<SingleLabelDescriptor, Double> {
+        private static final long serialVersionUID = -6095398517717640706L;
+
         @Override
         public Double apply(SingleLabelDescriptor t, SingleLabelDescriptor u) {
+            return distance(t, u);
+        }
+        
+        @Override
+        public double distance(SingleLabelDescriptor t, SingleLabelDescriptor u) {
             int equal = t.label.compareToIgnoreCase(u.label);
             return equal == 0 ? 0.0 : DEFAULT_MAX_DIFFERENCE;
         }
@@ -191,8 +200,15 @@ public class SingleLabelDescriptor<T> extends MediaDescriptorAdapter<T> implemen
      * (positive) difference if they are equals (ignoring upper cases).
      */
     static public class DefaultWeightedComparator implements Comparator<SingleLabelDescriptor, Double> {
+        private static final long serialVersionUID = -518926337161827005L;
+
         @Override
         public Double apply(SingleLabelDescriptor t, SingleLabelDescriptor u) {
+            return distance(t, u);
+        }
+        
+        @Override
+        public double distance(SingleLabelDescriptor t, SingleLabelDescriptor u) {
             int equal = t.label.compareToIgnoreCase(u.label);
             return equal == 0 ? Math.abs(t.weight-u.weight) : DEFAULT_MAX_DIFFERENCE;
         }
@@ -203,6 +219,8 @@ public class SingleLabelDescriptor<T> extends MediaDescriptorAdapter<T> implemen
      * implementation labels the media by the (simple) name of its class.
      */
     static private class DefaultClassifier<T> implements Classifier<T, String> {
+        private static final long serialVersionUID = 2561879900298416942L;
+
         @Override
         public String apply(T t) {
             return (t!=null) ? t.getClass().getSimpleName() : "";
@@ -12,6 +12,8 @@ import java.io.Serializable;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class SquareGrid<T extends BufferedImage> implements Grid<T>, Serializable{
+    private static final long serialVersionUID = 2996523412274281084L;
+
     /**
      * The source image associated to this grid.
      */
@@ -6,6 +6,7 @@ import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 /**
  * A class representing an image region.
@@ -21,6 +22,11 @@ import java.awt.image.BufferedImage;
      * The shape of the region
      */
     private Shape shape = null;
+    /**
+     * Horizontal spans covered by this region (lazily calculated). See
+     * {@link #getSpans()}.
+     */
+    private int[] spans = null;
     
     /**
      * Constructs a new region using by default a rectangular shape of size the 
@@ -136,6 +142,94 @@ import java.awt.image.BufferedImage;
         return shape.getBounds().getLocation();
     }
     
+    /**
+     * Returns the horizontal spans (runs of consecutive pixels in the same row)
+     * covered by this region, clipped to the source image bounds.
+     * 
+     * The spans are packed in a single array as consecutive triplets 
+     * <code>[y, xStart, xEnd]</code>, where <code>xEnd</code> is exclusive, 
+     * sorted by row. They allow to go over the region pixels directly on the 
+     * source raster (for example, by means of row reads) without cropping or 
+     * copying the image. The pixels are the same as the ones visited by 
+     * {@link RegionIterator.Pixel}.
+     * 
+     * The spans are calculated only once (the first time this method is 
+     * called), so the returned array should not be modified.
+     * 
+     * @return the horizontal spans of this region.
+     */
+    public int[] getSpans() {
+        if (spans == null) {
+            spans = calculateSpans();
+        }
+        return spans;
+    }
+    
+    /**
+     * Calculates the horizontal spans of this region. In the case of a 
+     * rectangular shape (the usual case for bounding boxes), the spans are
+     * obtained directly from the rectangle; in other case, the insideness of
+     * each pixel in the region bounds is tested.
+     * 
+     * @return the horizontal spans of this region.
+     */
+    private int[] calculateSpans() {
+        if (source == null || shape == null) {
+            return new int[0];
+        }
+        Rectangle bounds = shape.getBounds().intersection(
+                new Rectangle(source.getWidth(), source.getHeight()));
+        if (bounds.isEmpty()) {
+            return new int[0];
+        }
+        int output[];
+        if (shape instanceof Rectangle) {
+            output = new int[3 * bounds.height];
+            for (int i = 0, y = bounds.y; y < bounds.y + bounds.height; y++, i += 3) {
+                output[i] = y;
+                output[i + 1] = bounds.x;
+                output[i + 2] = bounds.x + bounds.width;
+            }
+        } else {
+            output = new int[3 * bounds.height];
+            int n = 0, xStart;
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                xStart = -1;
+                for (int x = bounds.x; x <= bounds.x + bounds.width; x++) {
+                    boolean inside = x < bounds.x + bounds.width && shape.contains(x, y);
+                    if (inside && xStart < 0) {
+                        xStart = x;
+                    } else if (!inside && xStart >= 0) {
+                        if (n + 3 > output.length) {
+                            output = Arrays.copyOf(output, 2 * output.length);
+                        }
+                        output[n++] = y;
+                        output[n++] = xStart;
+                        output[n++] = x;
+                        xStart = -1;
+                    }
+                }
+            }
+            output = Arrays.copyOf(output, n);
+        }
+        return output;
+    }
+    
+    /**
+     * Returns the number of pixels inside this region (clipped to the source
+     * image bounds).
+     * 
+     * @return the number of pixels inside this region.
+     */
+    public int getArea() {
+        int area = 0;
+        int[] s = getSpans();
+        for (int i = 0; i < s.length; i += 3) {
+            area += s[i + 2] - s[i + 1];
+        }
+        return area;
+    }
+    
     /**
      * Creates an image with the pixels inside this region.
      * 
@@ -17,6 +17,7 @@ import jmr.descriptor.color.MPEG7ScalableColor;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class KeyFrameDescriptor extends MediaDescriptorAdapter<Video> implements Serializable {
+    private static final long serialVersionUID = -4234071533130044983L;
 
     /**
      * List of keyframe descriptors
@@ -115,6 +116,18 @@ public class KeyFrameDescriptor extends MediaDescriptorAdapter<Video> implements
         return java.util.Collections.unmodifiableList(descriptors);
     }
     
+    /**
+     * Releases the references of this descriptor to the source video and of
+     * the key frame descriptors to the key frames.
+     */
+    @Override
+    public void detachSource() {
+        super.detachSource();
+        for (MediaDescriptor descriptor : descriptors) {
+            descriptor.detachSource();
+        }
+    }
+    
     /**
      * Returns a string representation of this descriptor
      * .
@@ -135,24 +148,30 @@ public class KeyFrameDescriptor extends MediaDescriptorAdapter<Video> implements
      * frames is used.
      */
     static public class DefaultComparator implements Comparator<KeyFrameDescriptor, Double> {
+        private static final long serialVersionUID = 2287158955426987622L;
 
         @Override
         public Double apply(KeyFrameDescriptor t, KeyFrameDescriptor u) {
-            Double min_distance = Double.MAX_VALUE;
+            return distance(t, u);
+        }
+
+        @Override
+        public double distance(KeyFrameDescriptor t, KeyFrameDescriptor u) {
+            double min_distance = Double.MAX_VALUE;
             try {
-                Double item_distance;
+                double item_distance;
                 MediaDescriptor m1, m2;
                 for (int i = 0; i < t.descriptors.size(); i++) {
                     m1 = t.descriptors.get(i);
                     for (int j = 0; j < u.descriptors.size(); j++) {
                         m2 = u.descriptors.get(j);
-                        item_distance = (Double) m1.compare(m2);
+                        item_distance = m1.distance(m2);
                         if (item_distance < min_distance) {
                             min_distance = item_distance;
                         }
                     }
                 }
-            } catch (ClassCastException e) {
+            } catch (InvalidParameterException e) {
                 throw new InvalidParameterException("The comparision between descriptors is not interpetrable as a double value.");
             } catch (Exception e) {
                 throw new InvalidParameterException("The descriptors are not comparables.");
@@ -17,23 +17,30 @@ import jmr.descriptor.MediaDescriptor;
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
 public class MinMinComparator implements Comparator<KeyFrameDescriptor, Double> {
+    private static final long serialVersionUID = -2767077468414209360L;
+
         @Override
         public Double apply(KeyFrameDescriptor t, KeyFrameDescriptor u) {
-            Double min_distance = Double.MAX_VALUE;
+            return distance(t, u);
+        }
+        
+        @Override
+        public double distance(KeyFrameDescriptor t, KeyFrameDescriptor u) {
+            double min_distance = Double.MAX_VALUE;
             try {
-                Double item_distance;
+                double item_distance;
                 MediaDescriptor m1, m2;
                 for (int i = 0; i < t.getDescriptors().size(); i++) {
                     m1 = (MediaDescriptor)t.getDescriptors().get(i);
                     for (int j = 0; j < u.getDescriptors().size(); j++) {
                         m2 = (MediaDescriptor)u.getDescriptors().get(j);
-                        item_distance = (Double) m1.compare(m2);
+                        item_distance = m1.distance(m2);
                         if (item_distance < min_distance) {
                             min_distance = item_distance;
                         }
                     }
                 }
-            } catch (ClassCastException e) {
+            } catch (InvalidParameterException e) {
                 throw new InvalidParameterException("The comparision between descriptors is not interpetrable as a double value.");
             } catch (Exception e) {
                 throw new InvalidParameterException("The descriptors are not comparables.");
@@ -0,0 +1,48 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the batch queries: the throughput of the single queries is
+ * compared with the one of the sequential and parallel batches, which share
+ * one scan of the database. Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class BatchQueryBenchmark {
+
+    public static void main(String[] args) {
+        int n = 10000, k = 10, numQueries = 500;
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2);
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            queries.add(db.new Record(queryDB.get(q).getSource()));
+        }
+        long t = System.nanoTime();
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> expected = new ArrayList<>();
+        for (ListDB<BufferedImage>.Record query : queries) {
+            expected.add(db.queryMetadata(query, k));
+        }
+        long tSingle = System.nanoTime() - t;
+        t = System.nanoTime();
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> batch = db.queryMetadata(queries, k);
+        long tBatch = System.nanoTime() - t;
+        t = System.nanoTime();
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> parallel = db.queryMetadata(queries, k, true);
+        long tParallel = System.nanoTime() - t;
+        int mismatches = 0;
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(batch.get(q), expected.get(q));
+            mismatches += countMismatches(parallel.get(q), expected.get(q));
+        }
+        System.out.println("Mismatches with the single queries: " + mismatches);
+        System.out.println("Single queries: " + (numQueries * 1e9 / tSingle) + " queries/s");
+        System.out.println("Batch: " + (numQueries * 1e9 / tBatch) + " queries/s");
+        System.out.println("Parallel batch: " + (numQueries * 1e9 / tParallel) + " queries/s");
+    }
+}
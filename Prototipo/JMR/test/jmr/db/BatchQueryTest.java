@@ -0,0 +1,69 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the batch queries
+ * ({@link ListDB#queryMetadata(java.util.List, int, boolean)}): each result
+ * must be the one of the single query.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class BatchQueryTest {
+
+    /**
+     * Returns query records of the given database built from new images.
+     */
+    private static List<ListDB<BufferedImage>.Record> createQueries(ListDB<BufferedImage> db, int numQueries) {
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2);
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            queries.add(db.new Record(queryDB.get(q).getSource()));
+        }
+        return queries;
+    }
+
+    @Test
+    public void testSameResultsThanSingleQueries() {
+        int k = 10;
+        ListDB<BufferedImage> db = createRandomDB(2000, 1);
+        List<ListDB<BufferedImage>.Record> queries = createQueries(db, 50);
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> batch = db.queryMetadata(queries, k);
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> parallel = db.queryMetadata(queries, k, true);
+        assertEquals(queries.size(), batch.size());
+        assertEquals(queries.size(), parallel.size());
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(queries.get(q), k);
+            assertSameResults(expected, batch.get(q));
+            assertSameResults(expected, parallel.get(q));
+        }
+    }
+
+    @Test
+    public void testSmallDatabase() {
+        ListDB<BufferedImage> db = createRandomDB(5, 1);
+        List<ListDB<BufferedImage>.Record> queries = createQueries(db, 3);
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> batch = db.queryMetadata(queries, 10, true);
+        for (int q = 0; q < queries.size(); q++) {
+            assertEquals(5, batch.get(q).size());
+            assertSameResults(db.queryMetadata(queries.get(q), 10), batch.get(q));
+        }
+        assertTrue(db.queryMetadata(Collections.<ListDB<BufferedImage>.Record>emptyList(), 10).isEmpty());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testIncompatibleQuery() {
+        ListDB<BufferedImage> db = createRandomDB(10, 1);
+        ListDB<BufferedImage> other = createRandomDB(1, 2, SingleColorDescriptor.class);
+        db.queryMetadata(Collections.singletonList(other.get(0)), 5);
+    }
+}
@@ -0,0 +1,46 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the cascade queries ({@link Cascade}): the time per query and
+ * the recall of several automatic cascades are compared with the exhaustive
+ * query. Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class CascadeBenchmark {
+
+    public static void main(String[] args) {
+        int n = 20000, k = 10, numQueries = 50;
+        ListDB<BufferedImage> db = createRandomDB(n, 1, MPEG7ColorStructure.class, MPEG7ScalableColor.class, SingleColorDescriptor.class);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2, MPEG7ColorStructure.class, MPEG7ScalableColor.class, SingleColorDescriptor.class);
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            queries.add(queryDB.get(q));
+        }
+        System.out.println("Costs (ns/comparison): " + Arrays.toString(Cascade.costs(db)));
+        Cascade cascades[] = {Cascade.automatic(db, 0.05), Cascade.automatic(db, 0.1, 0.2), Cascade.automatic(db, 0.2, 0.5)};
+        long t = System.nanoTime();
+        for (ListDB<BufferedImage>.Record query : queries) {
+            db.queryMetadata(query, k);
+        }
+        System.out.println("Exhaustive: " + ((System.nanoTime() - t) / numQueries / 1000) + " us/query");
+        for (Cascade cascade : cascades) {
+            t = System.nanoTime();
+            for (ListDB<BufferedImage>.Record query : queries) {
+                db.queryCascade(query, k, cascade, null);
+            }
+            long tCascade = System.nanoTime() - t;
+            System.out.println(cascade + ": " + (tCascade / numQueries / 1000) + " us/query, recall="
+                    + db.recallCascade(queries, k, cascade, null));
+        }
+    }
+}
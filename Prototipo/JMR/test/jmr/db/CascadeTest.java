@@ -0,0 +1,101 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the cascade queries
+ * ({@link ListDB#queryCascade(jmr.db.ListDB.Record, int, jmr.db.Cascade, jmr.db.Fusion)})
+ * and of the measurement of their recall.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class CascadeTest {
+
+    private static final int SIZE = 2000, K = 10;
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ColorStructure.class, MPEG7ScalableColor.class, SingleColorDescriptor.class};
+
+    /**
+     * Returns the records of the given database as a list of queries.
+     */
+    private static List<ListDB<BufferedImage>.Record> queries(ListDB<BufferedImage> queryDB) {
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < queryDB.size(); q++) {
+            queries.add(queryDB.get(q));
+        }
+        return queries;
+    }
+
+    @Test
+    public void testFullCascadeIsExact() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(10, 2, DESCRIPTOR_CLASSES));
+        Cascade cascade = new Cascade(new int[]{2, 1}, 1.0, 1.0);
+        for (ListDB<BufferedImage>.Record query : queries) {
+            assertSameResults(db.queryMetadata(query, K), db.queryCascade(query, K, cascade, null));
+        }
+        assertEquals(1.0, db.recallCascade(queries, K, cascade, null), 0.0);
+    }
+
+    @Test
+    public void testApproximateResults() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(10, 2, DESCRIPTOR_CLASSES));
+        Fusion fusion = new Fusion(Fusion.TYPE_L1, 1.0, 2.0, 0.5);
+        Cascade cascade = new Cascade(new int[]{2, 1}, 0.1, 0.2);
+        for (ListDB<BufferedImage>.Record query : queries) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryCascade(query, K, cascade, fusion);
+            assertEquals(K, result.size());
+            for (int i = 0; i < K; i++) {
+                // The distances of the returned records are the fused ones
+                assertEquals(fusion.distance(query, result.get(i).getMetadata()), result.get(i).getResult(), 0.0);
+                if (i > 0) {
+                    assertTrue(result.get(i - 1).getResult() <= result.get(i).getResult());
+                }
+            }
+        }
+        // The more candidates are kept, the higher the recall
+        double recall = 0.0;
+        for (double fraction : new double[]{0.01, 0.1, 0.5, 1.0}) {
+            double current = db.recallCascade(queries, K, new Cascade(new int[]{2}, fraction), fusion);
+            assertTrue(current >= recall);
+            recall = current;
+        }
+        assertEquals(1.0, recall, 0.0);
+    }
+
+    @Test
+    public void testAutomaticCascade() {
+        ListDB<BufferedImage> db = createRandomDB(300, 1, DESCRIPTOR_CLASSES);
+        double costs[] = Cascade.costs(db);
+        assertEquals(DESCRIPTOR_CLASSES.length, costs.length);
+        for (double cost : costs) {
+            assertTrue(cost > 0.0);
+        }
+        Cascade cascade = Cascade.automatic(db, 0.2, 0.5);
+        assertEquals(2, cascade.getStageCount());
+        assertTrue(cascade.getComponent(0) != cascade.getComponent(1));
+        assertEquals(0.2, cascade.getFraction(0), 0.0);
+        assertEquals(K, db.queryCascade(db.get(0), K, cascade, null).size());
+        assertSame(db.get(0), db.queryCascade(db.get(0), K, cascade, null).get(0).getMetadata());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testRepeatedStage() {
+        new Cascade(new int[]{1, 1}, 0.5, 0.5);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidFraction() {
+        new Cascade(new int[]{0}, 0.0);
+    }
+}
@@ -0,0 +1,44 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the descriptor codecs (see {@link jmr.descriptor.DescriptorCodecs}):
+ * it prints the file size, the save and load times of a database with the
+ * color descriptors, and the mismatches of the loaded descriptors. Run it by
+ * means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = 5000;
+        ListDB<BufferedImage> db = createRandomDB(n, 1, MPEG7ScalableColor.class, MPEG7ColorStructure.class, SingleColorDescriptor.class);
+        File file = File.createTempFile("codecs", ".db");
+        file.deleteOnExit();
+        long t = System.nanoTime();
+        db.save(file);
+        long tSave = System.nanoTime() - t;
+        t = System.nanoTime();
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        long tLoad = System.nanoTime() - t;
+        int mismatches = 0;
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < db.get(i).size(); c++) {
+                if (!db.get(i).get(c).toString().equals(loaded.get(i).get(c).toString())) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("File size: " + file.length() + " bytes (" + (file.length() / n) + " bytes/record)");
+        System.out.println("Save: " + (tSave / 1000000) + " ms, load: " + (tLoad / 1000000) + " ms");
+        System.out.println("Mismatches after loading: " + mismatches);
+        file.delete();
+    }
+}
@@ -0,0 +1,138 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the concurrent databases ({@link ConcurrentListDB}): a writer
+ * appends and replaces records while several readers query snapshots,
+ * printing the building time, the queries served and the violations of the
+ * snapshot isolation found by the readers. Run it by means of its
+ * <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ConcurrentListDBBenchmark {
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int n = 5000, k = 10, numReaders = 3;
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        ListDB<BufferedImage> replacements = createRandomDB(n, 2);
+        ListDB<BufferedImage> queryDB = createRandomDB(50, 3);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        AtomicInteger completed = new AtomicInteger(), violations = new AtomicInteger(), numQueries = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        // Writer: appends the records one by one (calculating their
+        // descriptors), and replaces some of the previous ones (by its
+        // replacement, or back by the appended one)
+        Thread writer = new Thread(() -> {
+            Random random = new Random(4);
+            ListDB<BufferedImage>.Record appended[] = new ListDB.Record[n];
+            for (int i = 0; i < n; i++) {
+                concurrent.add(db.get(i).getSource());
+                completed.incrementAndGet();
+                appended[i] = concurrent.get(i);
+                if (i % 10 == 0) {
+                    int j = random.nextInt(i + 1);
+                    concurrent.set(j, concurrent.get(j) == appended[j] ? replacements.get(j) : appended[j]);
+                }
+            }
+            done.set(true);
+        });
+        // Readers: query snapshots while the records are being appended
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < numReaders; r++) {
+            readers.add(new Thread(() -> {
+                long lastVersion = -1;
+                int lastSize = 0, q = 0;
+                while (!done.get()) {
+                    int before = completed.get();
+                    ConcurrentListDB<BufferedImage>.Snapshot snapshot = concurrent.snapshot();
+                    int after = completed.get(), size = snapshot.size();
+                    // Linearizability of the additions: the snapshot contains
+                    // the additions completed before it was taken, and at
+                    // most one more (the one in progress); the versions and
+                    // sizes seen by a reader never go back
+                    if (size < before || size > after + 1 || size < lastSize || snapshot.getVersion() < lastVersion) {
+                        violations.incrementAndGet();
+                    }
+                    lastSize = size;
+                    lastVersion = snapshot.getVersion();
+                    // The snapshot is a prefix of the appended records
+                    ListDB<BufferedImage>.Record records[] = new ListDB.Record[size];
+                    Set<ListDB<BufferedImage>.Record> members = Collections.newSetFromMap(new IdentityHashMap<>());
+                    for (int i = 0; i < size; i++) {
+                        records[i] = snapshot.get(i);
+                        members.add(records[i]);
+                        if (records[i].getSource() != db.get(i).getSource() && records[i] != replacements.get(i)) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                    if (size == 0) {
+                        continue;
+                    }
+                    // The result is the one of a full scan of the records read
+                    // from the snapshot
+                    ListDB<BufferedImage>.Record query = queryDB.get(q++ % queryDB.size());
+                    List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = snapshot.queryMetadata(query, k);
+                    double distances[] = new double[size];
+                    for (int i = 0; i < size; i++) {
+                        distances[i] = query.distance(records[i]);
+                    }
+                    Arrays.sort(distances);
+                    if (result.size() != Math.min(k, size)) {
+                        violations.incrementAndGet();
+                    }
+                    for (int i = 0; i < result.size(); i++) {
+                        if (result.get(i).getResult() != distances[i] || !members.contains(result.get(i).getMetadata())) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                    if (snapshot.queryRange(query, distances[result.size() - 1], false).count() < result.size()) {
+                        violations.incrementAndGet();
+                    }
+                    // Repeatable reads: the snapshot has not changed
+                    for (int i = 0; i < size; i++) {
+                        if (snapshot.get(i) != records[i]) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                    numQueries.incrementAndGet();
+                }
+            }));
+        }
+        long t = System.nanoTime();
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.out.println(concurrent + " built in " + ((System.nanoTime() - t) / 1000000) + " ms, while "
+                + numQueries.get() + " queries were served");
+        System.out.println("Violations: " + violations.get());
+        // The final version against a database with the same records
+        ListDB<BufferedImage> reference = new ListDB<>(MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        for (int i = 0; i < concurrent.size(); i++) {
+            reference.add(concurrent.get(i));
+        }
+        int mismatches = 0;
+        for (int q = 0; q < queryDB.size(); q++) {
+            mismatches += countMismatches(concurrent.snapshot().queryMetadata(queryDB.get(q), k), reference.queryMetadata(queryDB.get(q), k));
+        }
+        System.out.println("Mismatches of the final version: " + mismatches);
+    }
+}
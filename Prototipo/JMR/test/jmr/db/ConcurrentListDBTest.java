@@ -0,0 +1,233 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the concurrent databases ({@link ConcurrentListDB}): the
+ * snapshots must not change with the modifications of the database, and the
+ * queries on a snapshot must give the results of a database with its
+ * records, even while the database is being modified.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ConcurrentListDBTest {
+
+    private static final int K = 10;
+    /**
+     * More records than the size of a segment, so several segments are used.
+     */
+    private static final int SIZE = ConcurrentListDB.SEGMENT_SIZE * 2 + 100;
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+
+    @Test
+    public void testSnapshotIsolation() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> other = createRandomDB(10, 2);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(DESCRIPTOR_CLASSES);
+        for (int i = 0; i < SIZE / 2; i++) {
+            concurrent.add(db.get(i));
+        }
+        ConcurrentListDB<BufferedImage>.Snapshot snapshot = concurrent.snapshot();
+        assertEquals(SIZE / 2, snapshot.size());
+        // Modifications after the snapshot was taken
+        for (int i = SIZE / 2; i < SIZE; i++) {
+            concurrent.add(db.get(i));
+        }
+        assertSame(db.get(3), concurrent.set(3, other.get(0)));
+        concurrent.set(SIZE - 1, other.get(1));
+        assertEquals(SIZE, concurrent.size());
+        assertSame(other.get(0), concurrent.get(3));
+        assertTrue(concurrent.snapshot().getVersion() > snapshot.getVersion());
+        // Repeatable reads
+        assertEquals(SIZE / 2, snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertSame(db.get(i), snapshot.get(i));
+        }
+    }
+
+    @Test
+    public void testAddAll() {
+        ListDB<BufferedImage> db = createRandomDB(100, 1);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(DESCRIPTOR_CLASSES);
+        long version = concurrent.snapshot().getVersion();
+        List<ListDB<BufferedImage>.Record> records = new ArrayList<>();
+        for (int i = 0; i < db.size(); i++) {
+            records.add(db.get(i));
+        }
+        assertTrue(concurrent.addAll(records));
+        // A single version with all the records
+        assertEquals(version + 1, concurrent.snapshot().getVersion());
+        assertEquals(db.size(), concurrent.size());
+        // No record is appended if one of them does not share the structure
+        records.add(createRandomDB(1, 2, SingleColorDescriptor.class).get(0));
+        try {
+            concurrent.addAll(records);
+            fail("A record of other structure was appended");
+        } catch (InvalidParameterException ex) {
+            assertEquals(db.size(), concurrent.size());
+        }
+    }
+
+    @Test
+    public void testSnapshotQueries() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        db.delete(5);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(db);
+        ListDB<BufferedImage> reference = new ListDB<>(DESCRIPTOR_CLASSES);
+        for (int i = 0; i < db.size(); i++) {
+            if (!db.isDeleted(i)) {
+                reference.add(db.get(i));
+            }
+        }
+        assertEquals(reference.size(), concurrent.size());
+        ConcurrentListDB<BufferedImage>.Snapshot snapshot = concurrent.snapshot();
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            assertSameResults(reference.queryMetadata(query, K), snapshot.queryMetadata(query, K));
+            assertSameResults(reference.queryMetadata(query, K, Fusion.DEFAULT), snapshot.queryMetadata(query, K, Fusion.DEFAULT));
+            assertEquals(reference.queryRange(query, 50.0, false).count(), snapshot.queryRange(query, 50.0, false).count());
+        }
+        File file = File.createTempFile("snapshot", ".db");
+        file.deleteOnExit();
+        snapshot.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertEquals(snapshot.size(), loaded.size());
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameDistances(snapshot.queryMetadata(queries.get(q), K), loaded.queryMetadata(queries.get(q), K));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testSnapshotDatabase() {
+        ListDB<BufferedImage> db = createRandomDB(100, 1);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(db);
+        ListDB<BufferedImage> view = concurrent.snapshot().getDatabase();
+        assertEquals(db.size(), view.size());
+        // The id of each record is its position
+        for (int i = 0; i < view.size(); i++) {
+            assertEquals(i, view.getId(i));
+            assertEquals(i, view.indexOf(i));
+            assertSame(db.get(i), view.getById(i));
+        }
+        assertEquals(-1, view.indexOf(view.size()));
+        assertEquals(-1, view.indexOf(-1));
+        assertNull(view.getById(view.size()));
+        try {
+            view.delete(0);
+            fail("A record of a read-only view was deleted");
+        } catch (UnsupportedOperationException ex) {
+            assertFalse(view.isDeleted(0));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnlySnapshotDatabase() {
+        ListDB<BufferedImage> db = createRandomDB(10, 1);
+        new ConcurrentListDB<>(db).snapshot().getDatabase().add(db.get(0));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> replacements = createRandomDB(SIZE, 2);
+        ListDB<BufferedImage> queries = createRandomDB(10, 3);
+        ConcurrentListDB<BufferedImage> concurrent = new ConcurrentListDB<>(DESCRIPTOR_CLASSES);
+        AtomicInteger completed = new AtomicInteger(), violations = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        // Appends the records, and replaces some of the previous ones (by
+        // their replacement, or back by the appended one)
+        Thread writer = new Thread(() -> {
+            Random random = new Random(4);
+            for (int i = 0; i < SIZE; i++) {
+                concurrent.add(db.get(i));
+                completed.incrementAndGet();
+                if (i % 10 == 0) {
+                    int j = random.nextInt(i + 1);
+                    concurrent.set(j, concurrent.get(j) == db.get(j) ? replacements.get(j) : db.get(j));
+                }
+            }
+            done.set(true);
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                long lastVersion = -1;
+                int lastSize = 0, q = 0;
+                while (!done.get()) {
+                    int before = completed.get();
+                    ConcurrentListDB<BufferedImage>.Snapshot snapshot = concurrent.snapshot();
+                    int after = completed.get(), size = snapshot.size();
+                    // The snapshot contains the additions completed before
+                    // it was taken, and at most the one in progress; the
+                    // versions and sizes seen by a reader never go back
+                    if (size < before || size > after + 1 || size < lastSize || snapshot.getVersion() < lastVersion) {
+                        violations.incrementAndGet();
+                    }
+                    lastSize = size;
+                    lastVersion = snapshot.getVersion();
+                    ListDB<BufferedImage>.Record records[] = new ListDB.Record[size];
+                    Set<ListDB<BufferedImage>.Record> members = Collections.newSetFromMap(new IdentityHashMap<>());
+                    for (int i = 0; i < size; i++) {
+                        records[i] = snapshot.get(i);
+                        members.add(records[i]);
+                        if (records[i] != db.get(i) && records[i] != replacements.get(i)) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                    if (size == 0) {
+                        continue;
+                    }
+                    // The result is the one of a scan of the records read
+                    ListDB<BufferedImage>.Record query = queries.get(q++ % queries.size());
+                    List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = snapshot.queryMetadata(query, K);
+                    double distances[] = new double[size];
+                    for (int i = 0; i < size; i++) {
+                        distances[i] = query.distance(records[i]);
+                    }
+                    Arrays.sort(distances);
+                    if (result.size() != Math.min(K, size)) {
+                        violations.incrementAndGet();
+                    }
+                    for (int i = 0; i < result.size(); i++) {
+                        if (result.get(i).getResult() != distances[i] || !members.contains(result.get(i).getMetadata())) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                    for (int i = 0; i < size; i++) {
+                        if (snapshot.get(i) != records[i]) {
+                            violations.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, violations.get());
+        assertEquals(SIZE, concurrent.size());
+    }
+}
@@ -0,0 +1,156 @@
+package jmr.db;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import jmr.descriptor.label.Classifier;
+import jmr.descriptor.label.LabelDescriptor;
+import jmr.descriptor.label.LabeledClassification;
+import jmr.result.ResultMetadata;
+
+/**
+ * Benchmark of the descriptor cache ({@link DescriptorCache}): a corpus of
+ * image files (with some copies of the same content) is indexed twice with
+ * the cache and once without it, printing the times, the cache statistics
+ * and the mismatches of the cached descriptors. The labels are calculated
+ * from the image files, so the cached records do not need to decode them.
+ * Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DescriptorCacheBenchmark {
+
+    /**
+     * Returns a label for each coarse color covering at least 5% of the
+     * image of the given file, weighted by its fraction of the image.
+     */
+    private static LabeledClassification classifyColors(String path) {
+        BufferedImage img;
+        try {
+            img = ImageIO.read(new File(path));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        int counts[] = new int[8];
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int rgb = img.getRGB(x, y);
+                counts[(rgb >> 21 & 4) | (rgb >> 14 & 2) | (rgb >> 7 & 1)]++;
+            }
+        }
+        List<String> labels = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        double total = img.getWidth() * img.getHeight();
+        for (int c = 0; c < counts.length; c++) {
+            if (counts[c] >= 0.05 * total) {
+                labels.add("color" + c);
+                weights.add(counts[c] / total);
+            }
+        }
+        return new LabeledClassification() {
+            @Override
+            public List<String> getLabels() {
+                return labels;
+            }
+
+            @Override
+            public boolean isWeighted() {
+                return true;
+            }
+
+            @Override
+            public List<Double> getWeights() {
+                return weights;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = 200, numCopies = 20, k = 5;
+        Class descriptorClasses[] = {LabelDescriptor.class};
+        LabelDescriptor.setDefaultClassifier((Classifier<String, LabeledClassification>) path -> classifyColors(path));
+        try {
+            File directory = Files.createTempDirectory("corpus").toFile();
+            directory.deleteOnExit();
+            Random random = new Random(1);
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < n + numCopies; i++) {
+                File file = new File(directory, i + ".png");
+                file.deleteOnExit();
+                if (i < n) {
+                    BufferedImage img = new BufferedImage(512, 384, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D g = img.createGraphics();
+                    for (int r = 0; r < 8; r++) {
+                        g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                        g.fillRect(random.nextInt(512), random.nextInt(384), random.nextInt(256), random.nextInt(192));
+                    }
+                    g.dispose();
+                    ImageIO.write(img, "png", file);
+                } else {
+                    // The same content under another name
+                    Files.copy(new File(paths.get(i - n)).toPath(), file.toPath());
+                }
+                paths.add(file.getPath());
+            }
+            File cacheFile = File.createTempFile("descriptors", ".cache");
+            cacheFile.delete();
+            cacheFile.deleteOnExit();
+            // First indexing: the copies are found in the cache
+            List<ListDB<String>> databases = new ArrayList<>();
+            for (int run = 0; run < 2; run++) {
+                try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+                    ListDB<String> db = new ListDB<>(descriptorClasses);
+                    db.setDescriptorCache(cache);
+                    long t = System.nanoTime();
+                    for (String path : paths) {
+                        db.add(path);
+                    }
+                    System.out.println("Run " + run + ": " + ((System.nanoTime() - t) / 1000000) + " ms, " + cache);
+                    databases.add(db);
+                }
+            }
+            System.out.println("Cache file: " + cacheFile.length() + " bytes");
+            // The cached descriptors are the calculated ones
+            ListDB<String> reference = new ListDB<>(descriptorClasses);
+            long t = System.nanoTime();
+            for (String path : paths) {
+                reference.add(path);
+            }
+            System.out.println("Without cache: " + ((System.nanoTime() - t) / 1000000) + " ms");
+            int mismatches = 0;
+            for (ListDB<String> db : databases) {
+                for (int i = 0; i < paths.size(); i++) {
+                    if (!reference.get(i).get(0).toString().equals(db.get(i).get(0).toString())) {
+                        mismatches++;
+                    }
+                    List<ResultMetadata<Double, ListDB<String>.Record>> expected = reference.queryMetadata(reference.get(i), k);
+                    List<ResultMetadata<Double, ListDB<String>.Record>> result = db.queryMetadata(db.get(i), k);
+                    for (int j = 0; j < k; j++) {
+                        if (!expected.get(j).getResult().equals(result.get(j).getResult())) {
+                            mismatches++;
+                        }
+                    }
+                }
+            }
+            System.out.println("Mismatches: " + mismatches);
+            // An incomplete last entry is discarded
+            try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+                file.setLength(file.length() - 10);
+            }
+            try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+                System.out.println("Truncated: " + cache + ", " + cacheFile.length() + " bytes");
+            }
+        } finally {
+            LabelDescriptor.setDefaultClassifier(null);
+        }
+    }
+}
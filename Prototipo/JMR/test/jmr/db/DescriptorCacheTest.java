@@ -0,0 +1,322 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import jmr.descriptor.DescriptorCodecs;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.descriptor.label.Classifier;
+import jmr.descriptor.label.LabelDescriptor;
+import jmr.descriptor.label.LabeledClassification;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the persistent cache of descriptors ({@link DescriptorCache}): the
+ * descriptors of a media content already processed must be read from the
+ * cache, under any path and in any later run, and they must be the
+ * calculated ones.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DescriptorCacheTest {
+
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class, SingleColorDescriptor.class};
+    /**
+     * Number of images classified by {@link ColorClassifier}.
+     */
+    private static final AtomicInteger classified = new AtomicInteger();
+
+    private File cacheFile;
+
+    /**
+     * Classifier of image files, labeling each one by its most frequent
+     * coarse color.
+     */
+    private static class ColorClassifier implements Classifier<String, LabeledClassification> {
+
+        @Override
+        public LabeledClassification apply(String path) {
+            BufferedImage img;
+            try {
+                img = ImageIO.read(new File(path));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            classified.incrementAndGet();
+            int counts[] = new int[8], color = 0;
+            for (int y = 0; y < img.getHeight(); y++) {
+                for (int x = 0; x < img.getWidth(); x++) {
+                    int rgb = img.getRGB(x, y);
+                    counts[(rgb >> 21 & 4) | (rgb >> 14 & 2) | (rgb >> 7 & 1)]++;
+                }
+            }
+            for (int c = 1; c < counts.length; c++) {
+                if (counts[c] > counts[color]) {
+                    color = c;
+                }
+            }
+            List<String> labels = Collections.singletonList("color" + color);
+            return new LabeledClassification() {
+                @Override
+                public List<String> getLabels() {
+                    return labels;
+                }
+
+                @Override
+                public boolean isWeighted() {
+                    return false;
+                }
+
+                @Override
+                public List<Double> getWeights() {
+                    return null;
+                }
+            };
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cacheFile = File.createTempFile("descriptors", ".cache");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+        LabelDescriptor.setDefaultClassifier(null);
+    }
+
+    /**
+     * Returns a copy of the given image (another object with the same
+     * pixels).
+     */
+    private static BufferedImage copy(BufferedImage img) {
+        BufferedImage copy = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
+        copy.setData(img.getData());
+        return copy;
+    }
+
+    /**
+     * Checks that both databases have the same descriptors.
+     */
+    private static <T> void assertSameDescriptors(ListDB<T> expected, ListDB<T> db) {
+        assertEquals(expected.size(), db.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int c = 0; c < expected.get(i).size(); c++) {
+                assertEquals(expected.get(i).get(c).toString(), db.get(i).get(c).toString());
+                assertEquals(0.0, expected.get(i).get(c).distance(db.get(i).get(c)), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testImageMedia() throws IOException {
+        Random random = new Random(1);
+        List<BufferedImage> images = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            images.add(createRandomImage(random));
+        }
+        ListDB<BufferedImage> reference = new ListDB<>(DESCRIPTOR_CLASSES);
+        for (BufferedImage img : images) {
+            reference.add(img);
+        }
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            assertEquals(cache.contentHash(images.get(0)), cache.contentHash(copy(images.get(0))));
+            assertFalse(cache.contentHash(images.get(0)).equals(cache.contentHash(images.get(1))));
+            ListDB<BufferedImage> db = new ListDB<>(DESCRIPTOR_CLASSES);
+            db.setDescriptorCache(cache);
+            for (BufferedImage img : images) {
+                db.add(img);
+            }
+            assertEquals(0, cache.getHitCount());
+            assertEquals(images.size() * DESCRIPTOR_CLASSES.length, cache.size());
+            // Other objects with the same pixels are found in the cache
+            ListDB<BufferedImage> copies = new ListDB<>(DESCRIPTOR_CLASSES);
+            copies.setDescriptorCache(cache);
+            for (BufferedImage img : images) {
+                copies.add(copy(img));
+            }
+            assertEquals(images.size() * DESCRIPTOR_CLASSES.length, cache.getHitCount());
+            assertSameDescriptors(reference, db);
+            assertSameDescriptors(reference, copies);
+            // The cached descriptors are attached to the media of the record,
+            // as the calculated ones
+            for (int i = 0; i < copies.size(); i++) {
+                for (int c = 0; c < DESCRIPTOR_CLASSES.length; c++) {
+                    assertSame(copies.get(i).getSource(), copies.get(i).get(c).getSource());
+                }
+            }
+            // and released if the database does not keep the sources
+            ListDB<BufferedImage> detached = new ListDB<>(DESCRIPTOR_CLASSES);
+            detached.setSourceDetached(true);
+            detached.setDescriptorCache(cache);
+            detached.add(copy(images.get(0)));
+            assertNull(detached.get(0).getSource());
+            for (int c = 0; c < DESCRIPTOR_CLASSES.length; c++) {
+                assertNull(detached.get(0).get(c).getSource());
+                assertEquals(0.0, reference.get(0).get(c).distance(detached.get(0).get(c)), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testImageContentHash() throws IOException {
+        Random random = new Random(2);
+        int types[] = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_BINARY};
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            for (int type : types) {
+                BufferedImage img = new BufferedImage(24, 24, type);
+                img.getGraphics().drawImage(createRandomImage(random), 0, 0, null);
+                String hash = cache.contentHash(img);
+                assertEquals(64, hash.length());
+                assertEquals(hash, cache.contentHash(copy(img)));
+                // The same pixels stored in another type
+                BufferedImage rgb = new BufferedImage(24, 24, BufferedImage.TYPE_INT_ARGB);
+                rgb.getGraphics().drawImage(img, 0, 0, null);
+                assertFalse(hash.equals(cache.contentHash(rgb)));
+                // A single sample modified
+                BufferedImage modified = copy(img);
+                modified.getRaster().setSample(23, 23, 0, img.getRaster().getSample(23, 23, 0) ^ 1);
+                assertFalse(hash.equals(cache.contentHash(modified)));
+                // Only the pixels of a subimage are hashed
+                BufferedImage subimage = img.getSubimage(3, 5, 12, 10);
+                assertEquals(cache.contentHash(copy(subimage)), cache.contentHash(subimage));
+                assertFalse(hash.equals(cache.contentHash(subimage)));
+            }
+        }
+    }
+
+    @Test
+    public void testPathMedia() throws IOException {
+        LabelDescriptor.setDefaultClassifier(new ColorClassifier());
+        File directory = Files.createTempDirectory("corpus").toFile();
+        directory.deleteOnExit();
+        Random random = new Random(1);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            File file = new File(directory, i + ".png");
+            file.deleteOnExit();
+            if (i < 20) {
+                ImageIO.write(createRandomImage(random), "png", file);
+            } else {
+                // The same content under another name
+                Files.copy(new File(paths.get(i - 20)).toPath(), file.toPath());
+            }
+            paths.add(file.getPath());
+        }
+        ListDB<String> reference = new ListDB<>(LabelDescriptor.class);
+        for (String path : paths) {
+            reference.add(path);
+        }
+        classified.set(0);
+        List<ListDB<String>> databases = new ArrayList<>();
+        for (int run = 0; run < 2; run++) {
+            try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+                ListDB<String> db = new ListDB<>(LabelDescriptor.class);
+                db.setDescriptorCache(cache);
+                for (String path : paths) {
+                    db.add(path);
+                }
+                // The copies are found in the first run, and all the files
+                // in the second one
+                assertEquals(run == 0 ? 10 : 30, cache.getHitCount());
+                assertEquals(20, cache.size());
+                databases.add(db);
+            }
+        }
+        assertEquals(20, classified.get());
+        for (ListDB<String> db : databases) {
+            assertSameDescriptors(reference, db);
+        }
+        for (String path : paths) {
+            new File(path).delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testVersions() throws IOException {
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            assertEquals(MPEG7ScalableColor.EXTRACTOR_VERSION + ".c" + DescriptorCodecs.get(MPEG7ScalableColor.class).getVersion(),
+                    cache.getVersion(MPEG7ScalableColor.class));
+            // Without extractor version nor codec
+            assertEquals("0." + ObjectStreamClass.lookup(LabelDescriptor.class).getSerialVersionUID(),
+                    cache.getVersion(LabelDescriptor.class));
+            BufferedImage img = createRandomImage(new Random(1));
+            String hash = cache.contentHash(img);
+            cache.put(hash, new MPEG7ScalableColor(img));
+            assertNotNull(cache.get(hash, MPEG7ScalableColor.class));
+            assertNull(cache.get(hash, MPEG7ColorStructure.class));
+            // The parameters are part of the key
+            cache.setParameters(MPEG7ScalableColor.class, "bins=64");
+            assertNull(cache.get(hash, MPEG7ScalableColor.class));
+            cache.setParameters(MPEG7ScalableColor.class, null);
+            assertNotNull(cache.get(hash, MPEG7ScalableColor.class));
+            // The classes not cached
+            cache.setCached(MPEG7ScalableColor.class, false);
+            assertFalse(cache.isCached(MPEG7ScalableColor.class));
+            assertNull(cache.get(hash, MPEG7ScalableColor.class));
+        }
+    }
+
+    @Test
+    public void testTruncatedEntry() throws IOException {
+        BufferedImage img = createRandomImage(new Random(1));
+        String hashes[] = new String[3];
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = cache.contentHash(createRandomImage(new Random(i)));
+                cache.put(hashes[i], new MPEG7ScalableColor(img));
+            }
+        }
+        long length = cacheFile.length();
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.setLength(length - 10);
+        }
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            assertEquals(2, cache.size());
+            assertTrue(cacheFile.length() < length - 10);
+            assertNotNull(cache.get(hashes[1], MPEG7ScalableColor.class));
+            assertNull(cache.get(hashes[2], MPEG7ScalableColor.class));
+            // New entries are written after the last complete one
+            cache.put(hashes[2], new MPEG7ScalableColor(img));
+        }
+        try (DescriptorCache cache = new DescriptorCache(cacheFile)) {
+            assertEquals(3, cache.size());
+            assertEquals(new MPEG7ScalableColor(img).toString(), cache.get(hashes[2], MPEG7ScalableColor.class).toString());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testClosedCache() throws IOException {
+        DescriptorCache cache = new DescriptorCache(cacheFile);
+        cache.close();
+        BufferedImage img = createRandomImage(new Random(1));
+        cache.put(cache.contentHash(img), new MPEG7ScalableColor(img));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotCacheFile() throws IOException {
+        Files.write(cacheFile.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        new DescriptorCache(cacheFile).close();
+    }
+}
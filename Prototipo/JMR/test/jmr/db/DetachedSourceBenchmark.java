@@ -0,0 +1,118 @@
+package jmr.db;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import jmr.descriptor.GriddedDescriptor;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+
+/**
+ * Benchmark of the source-detached records: the same image files are added
+ * to a database that keeps the decoded images and to one that does not,
+ * printing the heap used by each one, the sources still pinned, and the
+ * mismatches of the reloaded sources and of the queries. Run it by means of
+ * its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DetachedSourceBenchmark {
+
+    /**
+     * Returns the heap used after running the garbage collector.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int n = 40, k = 5;
+        Class descriptorClasses[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class, GriddedDescriptor.class};
+        File directory = Files.createTempDirectory("photos").toFile();
+        directory.deleteOnExit();
+        Random random = new Random(1);
+        List<URL> locators = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            File file = new File(directory, i + ".png");
+            file.deleteOnExit();
+            BufferedImage img = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            for (int r = 0; r < 8; r++) {
+                g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                g.fillRect(random.nextInt(1024), random.nextInt(768), random.nextInt(512), random.nextInt(384));
+            }
+            g.dispose();
+            ImageIO.write(img, "png", file);
+            locators.add(file.toURI().toURL());
+        }
+        // The same records, keeping and not keeping the decoded images (the
+        // classes and static tables are loaded before measuring the heap)
+        new ListDB<BufferedImage>(descriptorClasses).add(ImageIO.read(locators.get(0)));
+        long heap[] = new long[2];
+        List<ListDB<BufferedImage>> databases = new ArrayList<>();
+        for (int mode = 0; mode < 2; mode++) {
+            long before = usedMemory();
+            ListDB<BufferedImage> db = new ListDB<>(descriptorClasses);
+            db.setSourceDetached(mode == 1);
+            db.setSourceLoader(ImageIO::read);
+            for (URL locator : locators) {
+                db.add(ImageIO.read(locator), locator);
+            }
+            heap[mode] = usedMemory() - before;
+            databases.add(db);
+            System.out.println((mode == 0 ? "Attached" : "Detached") + " sources: " + (heap[mode] >> 10) + " KB for " + n + " records");
+        }
+        ListDB<BufferedImage> attached = databases.get(0), detached = databases.get(1);
+        int mismatches = 0, pinned = 0, reloadErrors = 0;
+        for (int i = 0; i < n; i++) {
+            ListDB<BufferedImage>.Record record = detached.get(i);
+            for (int j = 0; j < record.size(); j++) {
+                if (record.get(j).getSource() != null) {
+                    pinned++;
+                }
+            }
+            if (record.getSource() != null) {
+                pinned++;
+            }
+            // Reloaded on demand, and the same record is calculated from it
+            BufferedImage source = record.loadSource();
+            if (source == null || record.getSource() != null) {
+                reloadErrors++;
+            } else if (record.distance(detached.new Record(source)) != 0.0) {
+                mismatches++;
+            }
+        }
+        for (int q = 0; q < 10; q++) {
+            BufferedImage query = ImageIO.read(locators.get(random.nextInt(n)));
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = attached.queryMetadata(attached.new Record(query), k);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = detached.queryMetadata(detached.new Record(query), k);
+            for (int i = 0; i < k; i++) {
+                if (!expected.get(i).getResult().equals(result.get(i).getResult())
+                        || !expected.get(i).getMetadata().getLocator().equals(result.get(i).getMetadata().getLocator())) {
+                    mismatches++;
+                }
+            }
+        }
+        // Detaching the records of an existing database
+        attached.setSourceDetached(true);
+        for (int i = 0; i < n; i++) {
+            if (attached.get(i).getSource() != null || ((GriddedDescriptor) attached.get(i).get(2)).getGrid() != null) {
+                pinned++;
+            }
+        }
+        System.out.println("Sources pinned: " + pinned + ", reload errors: " + reloadErrors + ", mismatches: " + mismatches);
+    }
+}
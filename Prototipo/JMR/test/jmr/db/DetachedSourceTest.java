@@ -0,0 +1,140 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import jmr.descriptor.GriddedDescriptor;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the databases whose records do not keep their media source
+ * ({@link ListDB#setSourceDetached(boolean)}): the records must not reference
+ * the media once their descriptors are calculated, the media must be loaded
+ * again from the locators, and the queries must give the results of the
+ * records keeping their source.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DetachedSourceTest {
+
+    private static final int SIZE = 30, K = 5;
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class, GriddedDescriptor.class};
+
+    private File directory;
+    private List<URL> locators;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("photos").toFile();
+        directory.deleteOnExit();
+        Random random = new Random(1);
+        locators = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            File file = new File(directory, i + ".png");
+            file.deleteOnExit();
+            ImageIO.write(createRandomImage(random), "png", file);
+            locators.add(file.toURI().toURL());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Returns a new database with the images of the locators.
+     */
+    private ListDB<BufferedImage> createDB(boolean sourceDetached) throws Exception {
+        ListDB<BufferedImage> db = new ListDB<>(DESCRIPTOR_CLASSES);
+        db.setSourceDetached(sourceDetached);
+        db.setSourceLoader(ImageIO::read);
+        for (URL locator : locators) {
+            db.add(ImageIO.read(locator), locator);
+        }
+        return db;
+    }
+
+    /**
+     * Checks that the records of the given database do not reference their
+     * media.
+     */
+    private static void assertDetached(ListDB<BufferedImage> db) {
+        for (int i = 0; i < db.size(); i++) {
+            ListDB<BufferedImage>.Record record = db.get(i);
+            assertNull(record.getSource());
+            for (int c = 0; c < record.size(); c++) {
+                assertNull(record.get(c).getSource());
+            }
+            assertNull(((GriddedDescriptor) record.get(2)).getGrid());
+        }
+    }
+
+    @Test
+    public void testDetachedSources() throws Exception {
+        ListDB<BufferedImage> attached = createDB(false), detached = createDB(true);
+        assertFalse(attached.isSourceDetached());
+        assertTrue(detached.isSourceDetached());
+        assertNotNull(attached.get(0).getSource());
+        assertDetached(detached);
+        for (int i = 0; i < SIZE; i++) {
+            ListDB<BufferedImage>.Record record = detached.get(i);
+            // Loaded on demand, and not kept by the record
+            BufferedImage source = record.loadSource();
+            assertNotNull(source);
+            assertNull(record.getSource());
+            assertEquals(0.0, record.distance(detached.new Record(source)), 0.0);
+        }
+        Random random = new Random(2);
+        for (int q = 0; q < 10; q++) {
+            BufferedImage query = ImageIO.read(locators.get(random.nextInt(SIZE)));
+            assertSameDistances(attached.queryMetadata(attached.new Record(query), K),
+                    detached.queryMetadata(detached.new Record(query), K));
+            for (int i = 0; i < K; i++) {
+                assertEquals(attached.queryMetadata(attached.new Record(query), K).get(i).getMetadata().getLocator(),
+                        detached.queryMetadata(detached.new Record(query), K).get(i).getMetadata().getLocator());
+            }
+        }
+    }
+
+    @Test
+    public void testDetachExistingRecords() throws Exception {
+        ListDB<BufferedImage> db = createDB(false);
+        ListDB<BufferedImage>.Record query = db.new Record(ImageIO.read(locators.get(3)));
+        List<Double> distances = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            distances.add(query.distance(db.get(i)));
+        }
+        db.setSourceDetached(true);
+        assertDetached(db);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(distances.get(i), query.distance(db.get(i)), 0.0);
+        }
+    }
+
+    @Test
+    public void testWithoutLoader() throws Exception {
+        ListDB<BufferedImage> db = createDB(true);
+        db.setSourceLoader(null);
+        assertNull(db.get(0).loadSource());
+        // Without locator, there is nothing to load
+        db.setSourceLoader(ImageIO::read);
+        db.add(ImageIO.read(locators.get(0)));
+        assertNull(db.get(SIZE).getLocator());
+        assertNull(db.get(SIZE).loadSource());
+    }
+}
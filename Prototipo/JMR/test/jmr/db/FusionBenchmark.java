@@ -0,0 +1,71 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the per-query fusions ({@link Fusion}): the time of the
+ * default fusion is compared with the one of the record comparator, and the
+ * distances of each fusion type are checked against the brute force. Run it
+ * by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FusionBenchmark {
+
+    public static void main(String[] args) {
+        int n = 20000, k = 10, numQueries = 50;
+        ListDB<BufferedImage> db = createRandomDB(n, 1, SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2, SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        Map<ListDB<BufferedImage>.Record, Integer> position = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            position.put(db.get(i), i);
+        }
+        double weights[] = {2.0, 0.5, 1.0};
+        int types[] = {Fusion.TYPE_L1, Fusion.TYPE_L2, Fusion.TYPE_MAX, Fusion.TYPE_WEIGHTED_SUM};
+        int mismatches = 0;
+        long tDefault = 0, tFusion = 0, t;
+        for (int q = 0; q < numQueries; q++) {
+            ListDB<BufferedImage>.Record query = queryDB.get(q);
+            t = System.nanoTime();
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(query, k);
+            tDefault += System.nanoTime() - t;
+            t = System.nanoTime();
+            mismatches += countMismatches(db.queryMetadata(query, k, Fusion.DEFAULT), expected);
+            tFusion += System.nanoTime() - t;
+
+            for (int type : types) {
+                Fusion fusion = new Fusion(type, weights);
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> all = db.queryMetadata(query, fusion);
+                double distances[] = new double[n];
+                for (int i = 0; i < n; i++) {
+                    double sum = 0.0, total = 0.0, d;
+                    for (int c = 0; c < weights.length; c++) {
+                        d = query.get(c).distance(db.get(i).get(c));
+                        sum = type == Fusion.TYPE_L2 ? sum + weights[c] * (d * d)
+                                : type == Fusion.TYPE_MAX ? Math.max(sum, weights[c] * d) : sum + weights[c] * d;
+                        total += weights[c];
+                    }
+                    distances[i] = type == Fusion.TYPE_L2 ? Math.sqrt(sum) : type == Fusion.TYPE_WEIGHTED_SUM ? sum / total : sum;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (all.get(i).getResult() != distances[position.get(all.get(i).getMetadata())]) {
+                        mismatches++;
+                    }
+                }
+                mismatches += countMismatches(db.queryMetadata(query, k, fusion), all.subList(0, k));
+                mismatches += countMismatches(db.queryThreshold(query, k, fusion, 0), all.subList(0, k));
+            }
+        }
+        System.out.println("Mismatches: " + mismatches);
+        System.out.println("Record comparator: " + (tDefault / numQueries / 1000) + " us/query");
+        System.out.println("Default fusion: " + (tFusion / numQueries / 1000) + " us/query");
+    }
+}
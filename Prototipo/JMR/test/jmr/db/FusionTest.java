@@ -0,0 +1,95 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the per-query fusion of the descriptor distances ({@link Fusion}):
+ * the distances must be the weighted aggregations of the descriptor
+ * distances, and the queries must give the same results with and without
+ * early abandoning.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FusionTest {
+
+    private static final int SIZE = 2000, K = 10;
+    private static final Class DESCRIPTOR_CLASSES[] = {SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+
+    @Test
+    public void testDefaultFusion() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2, DESCRIPTOR_CLASSES);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(db.queryMetadata(queries.get(q), K), db.queryMetadata(queries.get(q), K, Fusion.DEFAULT));
+        }
+    }
+
+    @Test
+    public void testWeightedFusions() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(5, 2, DESCRIPTOR_CLASSES);
+        Map<ListDB<BufferedImage>.Record, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < db.size(); i++) {
+            positions.put(db.get(i), i);
+        }
+        double weights[] = {2.0, 0.5, 1.0};
+        int types[] = {Fusion.TYPE_L1, Fusion.TYPE_L2, Fusion.TYPE_MAX, Fusion.TYPE_WEIGHTED_SUM};
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            for (int type : types) {
+                Fusion fusion = new Fusion(type, weights);
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> all = db.queryMetadata(query, fusion);
+                assertEquals(db.size(), all.size());
+                for (ResultMetadata<Double, ListDB<BufferedImage>.Record> item : all) {
+                    ListDB<BufferedImage>.Record record = db.get(positions.get(item.getMetadata()));
+                    double sum = 0.0, total = 0.0, d;
+                    for (int c = 0; c < weights.length; c++) {
+                        d = query.get(c).distance(record.get(c));
+                        sum = type == Fusion.TYPE_L2 ? sum + weights[c] * (d * d)
+                                : type == Fusion.TYPE_MAX ? Math.max(sum, weights[c] * d) : sum + weights[c] * d;
+                        total += weights[c];
+                    }
+                    double expected = type == Fusion.TYPE_L2 ? Math.sqrt(sum) : type == Fusion.TYPE_WEIGHTED_SUM ? sum / total : sum;
+                    assertEquals(expected, item.getResult(), 0.0);
+                }
+                assertSameResults(all.subList(0, K), db.queryMetadata(query, K, fusion));
+                assertSameResults(all.subList(0, K), db.queryThreshold(query, K, fusion, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testZeroWeight() {
+        ListDB<BufferedImage> db = createRandomDB(500, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(5, 2, DESCRIPTOR_CLASSES);
+        Fusion fusion = new Fusion(Fusion.TYPE_L1, 0.0, 1.0, 0.0);
+        assertEquals(0.0, fusion.getWeight(0), 0.0);
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryMetadata(queries.get(q), K, fusion);
+            for (ResultMetadata<Double, ListDB<BufferedImage>.Record> item : result) {
+                assertEquals(queries.get(q).get(1).distance(item.getMetadata().get(1)), item.getResult(), 0.0);
+            }
+        }
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidType() {
+        new Fusion(0);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testNegativeWeight() {
+        new Fusion(Fusion.TYPE_L2, 1.0, -1.0);
+    }
+}
@@ -0,0 +1,90 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the LSH index ({@link LSHIndex}): for each vector descriptor,
+ * it prints a tuning report with the recall, the candidates examined and the
+ * time per query of several configurations, and checks that the index built
+ * incrementally and the loaded one give the results of a new index. Run it
+ * by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LSHIndexBenchmark {
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int n = 20000, k = 10, numQueries = 50;
+        int configurations[][] = {{4, 2}, {8, 2}, {8, 4}, {16, 4}}; // {tables, projections}
+        double widthFactors[] = {1, 2, 4};
+        Class columns[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+        for (Class column : columns) {
+            ListDB<BufferedImage> db = createRandomDB(n, 1, column);
+            ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2, column);
+            List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+            double meanDistance = 0.0;
+            long t = System.nanoTime();
+            for (int q = 0; q < numQueries; q++) {
+                queries.add(queryDB.get(q));
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> nearest = db.queryMetadata(queryDB.get(q), k);
+                meanDistance += nearest.get(k - 1).getResult() / numQueries;
+            }
+            System.out.println(column.getSimpleName() + ": exact scan " + ((System.nanoTime() - t) / numQueries / 1000)
+                    + " us/query, mean " + k + "-th distance=" + meanDistance);
+            // Tuning report: recall@k versus candidates examined
+            for (int configuration[] : configurations) {
+                for (double factor : widthFactors) {
+                    db.createLSHIndex(0, configuration[0], configuration[1], factor * meanDistance);
+                    t = System.nanoTime();
+                    for (ListDB<BufferedImage>.Record query : queries) {
+                        db.queryApproximate(query, k);
+                    }
+                    long tIndex = System.nanoTime() - t;
+                    double candidates = db.getLSHIndex().getCandidatesPerQuery();
+                    System.out.println("  tables=" + configuration[0] + " projections=" + configuration[1]
+                            + " width=" + factor + "x: recall@" + k + "=" + db.recallApproximate(queries, k)
+                            + ", candidates=" + (int) candidates + " (" + (100 * candidates / n) + "%), "
+                            + (tIndex / numQueries / 1000) + " us/query");
+                }
+            }
+            // Incremental insertion and persistence give the same index
+            ListDB<BufferedImage> incremental = new ListDB<>(column);
+            incremental.createLSHIndex(0, 8, 4, 2 * meanDistance);
+            for (int i = 0; i < 2000; i++) {
+                incremental.add(db.get(i));
+            }
+            incremental.remove(10);
+            incremental.add(5, db.get(10));
+            ListDB<BufferedImage> built = new ListDB<>(column);
+            for (int i = 0; i < 2000; i++) {
+                built.add(incremental.get(i));
+            }
+            built.createLSHIndex(0, 8, 4, 2 * meanDistance);
+            int mismatches = 0;
+            File file = File.createTempFile("lsh", ".db");
+            file.deleteOnExit();
+            incremental.save(file);
+            ListDB<BufferedImage> loaded = ListDB.open(file);
+            file.delete();
+            for (ListDB<BufferedImage>.Record query : queries) {
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = built.queryApproximate(query, k);
+                mismatches += countMismatches(incremental.queryApproximate(query, k), expected);
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = loaded.queryApproximate(query, k);
+                for (int i = 0; i < expected.size(); i++) {
+                    if (!result.get(i).getResult().equals(expected.get(i).getResult())) {
+                        mismatches++;
+                    }
+                }
+            }
+            System.out.println("  Incremental/loaded mismatches: " + mismatches);
+        }
+    }
+}
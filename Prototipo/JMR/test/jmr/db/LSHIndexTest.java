@@ -0,0 +1,121 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the locality-sensitive hashing index ({@link LSHIndex}) and of the
+ * approximate queries solved with it.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LSHIndexTest {
+
+    private static final int SIZE = 2000, K = 10;
+
+    /**
+     * Returns the records of the given database as a list of queries.
+     */
+    private static List<ListDB<BufferedImage>.Record> queries(ListDB<BufferedImage> queryDB) {
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < queryDB.size(); q++) {
+            queries.add(queryDB.get(q));
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the mean distance of the k-th nearest record to the given
+     * queries.
+     */
+    private static double meanDistance(ListDB<BufferedImage> db, List<ListDB<BufferedImage>.Record> queries) {
+        double mean = 0.0;
+        for (ListDB<BufferedImage>.Record query : queries) {
+            mean += db.queryMetadata(query, K).get(K - 1).getResult() / queries.size();
+        }
+        return mean;
+    }
+
+    @Test
+    public void testApproximateResults() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, MPEG7ScalableColor.class);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(20, 2, MPEG7ScalableColor.class));
+        // Without index, the queries are exact
+        assertEquals(1.0, db.recallApproximate(queries, K), 0.0);
+        double width = meanDistance(db, queries);
+        LSHIndex<BufferedImage> index = db.createLSHIndex(0, 8, 4, 2 * width);
+        assertEquals(8, index.getTableCount());
+        assertEquals(4, index.getProjectionCount());
+        for (ListDB<BufferedImage>.Record query : queries) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryApproximate(query, K);
+            assertTrue(result.size() <= K);
+            for (int i = 0; i < result.size(); i++) {
+                assertEquals(query.distance(result.get(i).getMetadata()), result.get(i).getResult(), 0.0);
+                if (i > 0) {
+                    assertTrue(result.get(i - 1).getResult() <= result.get(i).getResult());
+                }
+            }
+        }
+        assertTrue(index.getCandidateRate() < 1.0);
+        double recall = db.recallApproximate(queries, K);
+        assertTrue(recall > 0.0 && recall <= 1.0);
+        // A record of the database always shares its buckets
+        assertSame(db.get(5), db.queryApproximate(db.get(5), 1).get(0).getMetadata());
+    }
+
+    @Test
+    public void testWideBuckets() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, MPEG7ScalableColor.class);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(20, 2, MPEG7ScalableColor.class));
+        double width = meanDistance(db, queries);
+        db.createLSHIndex(0, 4, 2, width);
+        double narrow = db.recallApproximate(queries, K);
+        db.createLSHIndex(0, 16, 2, 8 * width);
+        assertTrue(db.recallApproximate(queries, K) >= narrow);
+    }
+
+    @Test
+    public void testUpdatedAndSavedIndex() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, MPEG7ScalableColor.class);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(20, 2, MPEG7ScalableColor.class));
+        double width = 2 * meanDistance(db, queries);
+        ListDB<BufferedImage> incremental = new ListDB<>(MPEG7ScalableColor.class);
+        incremental.createLSHIndex(0, 8, 4, width);
+        for (int i = 0; i < 500; i++) {
+            incremental.add(db.get(i));
+        }
+        incremental.remove(10);
+        incremental.add(5, db.get(10));
+        incremental.set(20, db.get(600));
+        ListDB<BufferedImage> built = new ListDB<>(MPEG7ScalableColor.class);
+        for (int i = 0; i < incremental.size(); i++) {
+            built.add(incremental.get(i));
+        }
+        built.createLSHIndex(0, 8, 4, width);
+        File file = File.createTempFile("lsh", ".db");
+        file.deleteOnExit();
+        incremental.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertNotNull(loaded.getLSHIndex());
+        for (ListDB<BufferedImage>.Record query : queries) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = built.queryApproximate(query, K);
+            assertSameResults(expected, incremental.queryApproximate(query, K));
+            assertSameDistances(expected, loaded.queryApproximate(query, K));
+        }
+        file.delete();
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testNonVectorDescriptor() {
+        createRandomDB(10, 1, SingleColorDescriptor.class).createLSHIndex(0, 4, 2, 1.0);
+    }
+}
@@ -0,0 +1,156 @@
+package jmr.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.label.LabelDescriptor;
+import jmr.descriptor.label.LabelDescriptor.WeightBasedComparator;
+import jmr.result.ResultMetadata;
+import static jmr.db.LabelIndexTest.createLabelRecord;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the label index ({@link LabelIndex}): the label queries are
+ * solved by the full scan and by the index, for all the label comparators
+ * and for the weighted top-k queries (solved by the threshold algorithm on
+ * the posting lists sorted by weight). Run it by means of its
+ * <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LabelIndexBenchmark {
+
+    private static final String VOCABULARY[] = {"person", "bicycle", "car", "motorcycle", "airplane", "bus",
+        "train", "truck", "boat", "bird", "cat", "dog", "horse", "sheep", "cow", "elephant", "bear", "zebra",
+        "giraffe", "umbrella", "chair", "couch", "bed", "table", "laptop", "book", "clock", "vase", "scissors", "kite"};
+
+    /**
+     * Returns a label descriptor with random labels (some of them in upper
+     * case) and weights.
+     */
+    private static LabelDescriptor<String> createRandomLabels(Random random) {
+        String labels[] = new String[1 + random.nextInt(4)];
+        Double weights[] = new Double[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = VOCABULARY[random.nextInt(VOCABULARY.length)];
+            if (random.nextBoolean()) {
+                labels[i] = labels[i].toUpperCase();
+            }
+            weights[i] = random.nextInt(100) / 100.0;
+        }
+        LabelDescriptor<String> descriptor = new LabelDescriptor<>(labels[0], Arrays.copyOfRange(labels, 1, labels.length));
+        descriptor.setWeights(weights);
+        return descriptor;
+    }
+
+    /**
+     * Returns a database with the given number of random label records.
+     */
+    @SuppressWarnings("unchecked")
+    private static ListDB<String> createLabelDB(int size, Random random) {
+        ListDB<String> db = new ListDB<>(LabelDescriptor.class);
+        for (int i = 0; i < size; i++) {
+            db.add(createLabelRecord(db, createRandomLabels(random)));
+        }
+        return db;
+    }
+
+    private static void benchmarkLabelIndex() {
+        int n = 20000, k = 10, numQueries = 500;
+        Random random = new Random(1);
+        ListDB<String> db = createLabelDB(n, random);
+        Comparator comparators[] = {new LabelDescriptor.InclusionComparator(), new LabelDescriptor.EqualComparator(),
+            new LabelDescriptor.SoftEqualComparator(), new WeightBasedComparator(WeightBasedComparator.TYPE_MIN, true),
+            new WeightBasedComparator(WeightBasedComparator.TYPE_EUCLIDEAN, false)};
+        List<ListDB<String>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            LabelDescriptor<String> labels = createRandomLabels(random);
+            labels.setComparator(comparators[q % comparators.length]);
+            queries.add(createLabelRecord(db, labels));
+        }
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> expected = new ArrayList<>();
+        long t = System.nanoTime();
+        for (ListDB<String>.Record query : queries) {
+            expected.add(db.queryMetadata(query));
+        }
+        long tScan = System.nanoTime() - t;
+
+        db.createLabelIndex();
+        int mismatches = 0;
+        t = System.nanoTime();
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(db.queryMetadata(queries.get(q)), expected.get(q));
+        }
+        long tIndex = System.nanoTime() - t;
+        t = System.nanoTime();
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(db.queryMetadata(queries.get(q), k), expected.get(q).subList(0, k));
+        }
+        long tIndexK = System.nanoTime() - t;
+        System.out.println("Mismatches with the full scan: " + mismatches);
+        System.out.println("Scan: " + (tScan / 1e6 / numQueries) + " ms/query");
+        System.out.println("Label index: " + (tIndex / 1e6 / numQueries) + " ms/query");
+        System.out.println("Label index (top-" + k + "): " + (tIndexK / 1e6 / numQueries) + " ms/query");
+        System.out.println(db.getLabelIndex());
+
+        // The incrementally updated index must give the same results than a
+        // new one
+        db.remove(0);
+        db.add(100, createLabelRecord(db, createRandomLabels(random)));
+        db.set(200, createLabelRecord(db, createRandomLabels(random)));
+        db.add(createLabelRecord(db, createRandomLabels(random)));
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> incremental = new ArrayList<>();
+        for (ListDB<String>.Record query : queries) {
+            incremental.add(db.queryMetadata(query));
+        }
+        db.removeLabelIndex();
+        mismatches = 0;
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(incremental.get(q), db.queryMetadata(queries.get(q)));
+        }
+        System.out.println("Mismatches after updating the database: " + mismatches);
+    }
+
+    private static void benchmarkWeightedLabelIndex() {
+        int n = 200000, k = 10, numQueries = 400;
+        Random random = new Random(1);
+        ListDB<String> db = createLabelDB(n, random);
+        int types[] = {WeightBasedComparator.TYPE_MAX, WeightBasedComparator.TYPE_MIN,
+            WeightBasedComparator.TYPE_MEAN, WeightBasedComparator.TYPE_EUCLIDEAN};
+        List<ListDB<String>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            LabelDescriptor<String> labels = createRandomLabels(random);
+            labels.setComparator(new WeightBasedComparator(types[q % types.length], q % 8 < 4));
+            queries.add(createLabelRecord(db, labels));
+        }
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> expected = new ArrayList<>();
+        long t = System.nanoTime();
+        for (ListDB<String>.Record query : queries) {
+            expected.add(db.queryMetadata(query, k));
+        }
+        long tScan = System.nanoTime() - t;
+
+        db.createLabelIndex();
+        for (ListDB<String>.Record query : queries) {
+            db.queryMetadata(query, k); // Posting lists sorted by weight
+        }
+        db.getLabelIndex().resetStatistics();
+        int mismatches = 0;
+        t = System.nanoTime();
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(db.queryMetadata(queries.get(q), k), expected.get(q));
+        }
+        long tIndex = System.nanoTime() - t;
+        System.out.println("Mismatches with the full scan: " + mismatches);
+        System.out.println("Scan (top-" + k + "): " + (tScan / 1e6 / numQueries) + " ms/query");
+        System.out.println("Label index (top-" + k + "): " + (tIndex / 1e6 / numQueries) + " ms/query");
+        System.out.println(db.getLabelIndex());
+    }
+
+    public static void main(String[] args) {
+        benchmarkLabelIndex();
+        benchmarkWeightedLabelIndex();
+    }
+}
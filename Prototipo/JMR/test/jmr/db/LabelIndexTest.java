@@ -0,0 +1,172 @@
+package jmr.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.label.LabelDescriptor;
+import jmr.descriptor.label.LabelDescriptor.WeightBasedComparator;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the inverted label index ({@link LabelIndex}): the queries solved
+ * with the index (including the weighted top-k queries, solved by means of
+ * the threshold algorithm) must give the same results than a full scan.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LabelIndexTest {
+
+    private static final String VOCABULARY[] = {"person", "bicycle", "car", "motorcycle", "airplane", "bus",
+        "train", "truck", "boat", "bird", "cat", "dog", "horse", "sheep", "cow", "elephant", "bear", "zebra"};
+
+    /**
+     * Returns a label descriptor with random labels (some of them in upper
+     * case) and weights.
+     */
+    static LabelDescriptor<String> createRandomLabels(Random random) {
+        String labels[] = new String[1 + random.nextInt(4)];
+        Double weights[] = new Double[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = VOCABULARY[random.nextInt(VOCABULARY.length)];
+            if (random.nextBoolean()) {
+                labels[i] = labels[i].toUpperCase();
+            }
+            weights[i] = random.nextInt(100) / 100.0;
+        }
+        LabelDescriptor<String> descriptor = new LabelDescriptor(labels[0], Arrays.copyOfRange(labels, 1, labels.length));
+        descriptor.setWeights(weights);
+        return descriptor;
+    }
+
+    /**
+     * Returns a record of the given database with the given labels.
+     */
+    static ListDB<String>.Record createLabelRecord(ListDB<String> db, LabelDescriptor<String> labels) {
+        DescriptorList<String> descriptors = new DescriptorList(null);
+        descriptors.add(labels);
+        return db.new Record(descriptors);
+    }
+
+    /**
+     * Returns a database with the given number of random label records.
+     */
+    static ListDB<String> createLabelDB(int size, Random random) {
+        ListDB<String> db = new ListDB(LabelDescriptor.class);
+        for (int i = 0; i < size; i++) {
+            db.add(createLabelRecord(db, createRandomLabels(random)));
+        }
+        return db;
+    }
+
+    /**
+     * Returns query records with random labels, using the given comparators
+     * in turn.
+     */
+    static List<ListDB<String>.Record> createQueries(ListDB<String> db, int numQueries, Random random, Comparator... comparators) {
+        List<ListDB<String>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            LabelDescriptor<String> labels = createRandomLabels(random);
+            labels.setComparator(comparators[q % comparators.length]);
+            queries.add(createLabelRecord(db, labels));
+        }
+        return queries;
+    }
+
+    @Test
+    public void testSameResultsThanScan() {
+        int k = 10;
+        Random random = new Random(1);
+        ListDB<String> db = createLabelDB(3000, random);
+        List<ListDB<String>.Record> queries = createQueries(db, 100, random, new LabelDescriptor.InclusionComparator(),
+                new LabelDescriptor.EqualComparator(), new LabelDescriptor.SoftEqualComparator(),
+                new WeightBasedComparator(WeightBasedComparator.TYPE_MIN, true),
+                new WeightBasedComparator(WeightBasedComparator.TYPE_EUCLIDEAN, false));
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> expected = new ArrayList<>();
+        for (ListDB<String>.Record query : queries) {
+            expected.add(db.queryMetadata(query));
+        }
+        LabelIndex<String> index = db.createLabelIndex();
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(expected.get(q), db.queryMetadata(queries.get(q)));
+            assertSameResults(expected.get(q).subList(0, k), db.queryMetadata(queries.get(q), k));
+        }
+        assertTrue("The index must discard some records", index.getCandidateRate() < 1.0);
+    }
+
+    @Test
+    public void testWeightedTopK() {
+        int k = 10;
+        Random random = new Random(3);
+        ListDB<String> db = createLabelDB(5000, random);
+        List<ListDB<String>.Record> queries = new ArrayList<>();
+        int types[] = {WeightBasedComparator.TYPE_MAX, WeightBasedComparator.TYPE_MIN,
+            WeightBasedComparator.TYPE_MEAN, WeightBasedComparator.TYPE_EUCLIDEAN};
+        for (int type : types) {
+            queries.addAll(createQueries(db, 10, random, new WeightBasedComparator(type, true)));
+            queries.addAll(createQueries(db, 10, random, new WeightBasedComparator(type, false)));
+        }
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> expected = new ArrayList<>();
+        for (ListDB<String>.Record query : queries) {
+            expected.add(db.queryMetadata(query, k));
+        }
+        db.createLabelIndex();
+        // The second time, the posting lists are already sorted by weight
+        for (int run = 0; run < 2; run++) {
+            for (int q = 0; q < queries.size(); q++) {
+                assertSameResults(expected.get(q), db.queryMetadata(queries.get(q), k));
+            }
+        }
+        // After an update of the database
+        db.set(0, createLabelRecord(db, createRandomLabels(random)));
+        db.add(createLabelRecord(db, createRandomLabels(random)));
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<String>.Record>> result = db.queryMetadata(queries.get(q), k);
+            assertSameResults(db.queryMetadata(queries.get(q)).subList(0, k), result);
+        }
+    }
+
+    @Test
+    public void testFrequencyIgnoresCase() {
+        ListDB<String> db = new ListDB(LabelDescriptor.class);
+        db.add(createLabelRecord(db, new LabelDescriptor("cat", new String[]{"dog"})));
+        db.add(createLabelRecord(db, new LabelDescriptor("CAT", new String[0])));
+        db.add(createLabelRecord(db, new LabelDescriptor("bird", new String[]{"Cat"})));
+        LabelIndex<String> index = db.createLabelIndex();
+        assertEquals(3, index.getFrequency("cat"));
+        assertEquals(3, index.getFrequency("Cat"));
+        assertEquals(1, index.getFrequency("dog"));
+        assertEquals(0, index.getFrequency("cow"));
+        assertEquals(3, index.getLabelCount());
+        db.remove(0);
+        assertEquals(2, index.getFrequency("cat"));
+        assertEquals(0, index.getFrequency("dog"));
+    }
+
+    @Test
+    public void testUpdatedIndex() {
+        Random random = new Random(2);
+        ListDB<String> db = createLabelDB(2000, random);
+        List<ListDB<String>.Record> queries = createQueries(db, 50, random, new LabelDescriptor.InclusionComparator(),
+                new LabelDescriptor.SoftEqualComparator(), new WeightBasedComparator(WeightBasedComparator.TYPE_MAX, true));
+        db.createLabelIndex();
+        db.remove(0);
+        db.add(100, createLabelRecord(db, createRandomLabels(random)));
+        db.set(200, createLabelRecord(db, createRandomLabels(random)));
+        db.add(createLabelRecord(db, createRandomLabels(random)));
+        List<List<ResultMetadata<Double, ListDB<String>.Record>>> results = new ArrayList<>();
+        for (ListDB<String>.Record query : queries) {
+            results.add(db.queryMetadata(query));
+        }
+        db.removeLabelIndex();
+        assertNull(db.getLabelIndex());
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(db.queryMetadata(queries.get(q)), results.get(q));
+        }
+    }
+}
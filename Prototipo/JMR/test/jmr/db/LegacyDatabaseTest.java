@@ -0,0 +1,102 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import jmr.descriptor.MediaDescriptor;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the databases saved with the descriptor codecs and of the
+ * databases written by previous versions of the library. The file
+ * <tt>legacy.db</tt> was saved by the first version, before the codecs and the
+ * record ids, and it must be read by {@link ListDB#open(java.io.File)}; it holds
+ * three records with the MPEG7 scalable color, the MPEG7 color structure and
+ * the single color descriptors of the first images of
+ * {@link TestDatabases#createRandomImage(java.util.Random)} with seed 3.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LegacyDatabaseTest {
+
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class, SingleColorDescriptor.class};
+
+    private File legacy;
+
+    @Before
+    public void setUp() throws Exception {
+        legacy = File.createTempFile("legacy", ".db");
+        legacy.deleteOnExit();
+        try (InputStream in = getClass().getResourceAsStream("legacy.db")) {
+            Files.copy(in, legacy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        legacy.delete();
+    }
+
+    /**
+     * Checks that both records have the same descriptors.
+     */
+    private static void assertSameDescriptors(ListDB<BufferedImage>.Record expected, ListDB<BufferedImage>.Record record) {
+        assertEquals(expected.size(), record.size());
+        for (int c = 0; c < expected.size(); c++) {
+            MediaDescriptor descriptor = record.get(c);
+            assertEquals(expected.get(c).getClass(), descriptor.getClass());
+            assertEquals(expected.get(c).toString(), descriptor.toString());
+            assertEquals(0.0, expected.get(c).distance(descriptor), 0.0);
+        }
+    }
+
+    @Test
+    public void testSavedDatabase() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(500, 1, DESCRIPTOR_CLASSES);
+        File file = File.createTempFile("codecs", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertEquals(db.size(), loaded.size());
+        for (int i = 0; i < db.size(); i++) {
+            assertSameDescriptors(db.get(i), loaded.get(i));
+            assertEquals(db.getId(i), loaded.getId(i));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testOpenLegacy() throws Exception {
+        ListDB<BufferedImage> loaded = ListDB.open(legacy);
+        Random random = new Random(3);
+        ListDB<BufferedImage> expected = new ListDB<>(DESCRIPTOR_CLASSES);
+        for (int i = 0; i < 3; i++) {
+            expected.add(createRandomImage(random));
+        }
+        assertEquals(expected.size(), loaded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameDescriptors(expected.get(i), loaded.get(i));
+            // The ids are assigned in the database order
+            assertEquals(i, loaded.getId(i));
+        }
+        // Saved again in the current format
+        File file = File.createTempFile("converted", ".db");
+        file.deleteOnExit();
+        loaded.save(file);
+        ListDB<BufferedImage> converted = ListDB.open(file);
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameDescriptors(expected.get(i), converted.get(i));
+        }
+        file.delete();
+    }
+}
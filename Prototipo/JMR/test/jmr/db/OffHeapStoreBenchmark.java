@@ -0,0 +1,110 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Function;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the off-heap store ({@link OffHeapStore}): the record scan and
+ * the off-heap scan are run on the same database, printing the time, the
+ * heap allocated and the garbage collections per query (the allocation is
+ * measured by the HotSpot thread bean, if available). The record scan is
+ * also run before the store is created, so the effect of the store on the
+ * rest of queries is shown. Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class OffHeapStoreBenchmark {
+
+    private static final int SIZE = 20000;
+    private static final int K = 10;
+    private static final int QUERIES = 50;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Returns the number of collections and the collection time (in ms) of
+     * all the garbage collectors so far.
+     */
+    private static long[] gcCounters() {
+        long counters[] = {0, 0};
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            counters[0] += Math.max(gc.getCollectionCount(), 0);
+            counters[1] += Math.max(gc.getCollectionTime(), 0);
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread (-1 if not
+     * supported).
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Runs the given query for all the query records (after a warm-up round)
+     * and prints the measures per query.
+     */
+    private static void measure(String name, ListDB<BufferedImage> queries,
+            Function<ListDB<BufferedImage>.Record, List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> query) {
+        for (int q = 0; q < queries.size(); q++) {
+            query.apply(queries.get(q));
+        }
+        long gc[] = gcCounters(), bytes = allocatedBytes(), t = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int q = 0; q < queries.size(); q++) {
+                query.apply(queries.get(q));
+            }
+        }
+        long n = (long) ROUNDS * queries.size();
+        long time = System.nanoTime() - t, allocated = allocatedBytes() - bytes, gcAfter[] = gcCounters();
+        System.out.println(name + ": " + (time / n / 1000) + " us/query, "
+                + (bytes < 0 ? "?" : String.valueOf(allocated / n)) + " bytes/query, "
+                + (gcAfter[0] - gc[0]) + " collections (" + (gcAfter[1] - gc[1]) + " ms)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, MPEG7ScalableColor.class);
+        ListDB<BufferedImage> queries = createRandomDB(QUERIES, 2, MPEG7ScalableColor.class);
+        measure("Record scan without store", queries, q -> db.queryMetadata(q, K));
+        db.createOffHeapStore(0);
+        // Modifications after the creation of the store
+        for (int i = 0; i < 100; i++) {
+            db.add(i * 7, db.remove(SIZE - 1 - i * 3));
+            db.set(i * 11, db.get(i * 13));
+        }
+        System.out.println(db.getOffHeapStore());
+        File file = File.createTempFile("offheap", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        file.delete();
+        int mismatches = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(queries.get(q), K);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryOffHeap(queries.get(q), K);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> reloaded = loaded.queryOffHeap(queries.get(q), K);
+            for (int i = 0; i < K; i++) {
+                if (result.get(i).getMetadata() != expected.get(i).getMetadata()
+                        || Math.abs(result.get(i).getResult() - expected.get(i).getResult()) > 1e-9
+                        || !reloaded.get(i).getResult().equals(result.get(i).getResult())) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("Mismatches with the record scan: " + mismatches);
+        measure("Record scan with store", queries, q -> db.queryMetadata(q, K));
+        measure("Off-heap scan", queries, q -> db.queryOffHeap(q, K));
+    }
+}
@@ -0,0 +1,138 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.descriptor.DescriptorList;
+import jmr.descriptor.VectorDescriptor;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the off-heap store of vector descriptors ({@link OffHeapStore}):
+ * the queries solved with the store must give the results of the record
+ * scan, and the store must not change the descriptors kept in the heap.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class OffHeapStoreTest {
+
+    private static final int K = 10;
+    /**
+     * More records than the slots of a chunk, so several chunks are used.
+     */
+    private static final int SIZE = OffHeapStore.CHUNK_SLOTS * 2 + 100;
+
+    /**
+     * Returns the vectors of the first descriptor of the records.
+     */
+    private static List<double[]> vectors(ListDB<BufferedImage> db) {
+        List<double[]> vectors = new ArrayList<>();
+        for (int i = 0; i < db.size(); i++) {
+            vectors.add(((VectorDescriptor) db.get(i).get(0)).getVector());
+        }
+        return vectors;
+    }
+
+    /**
+     * Checks that the off-heap queries give the same records than the record
+     * scan, with the same distances up to the float rounding.
+     */
+    private static void assertSameResultsThanScan(ListDB<BufferedImage> db, ListDB<BufferedImage> queries) {
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(queries.get(q), K);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryOffHeap(queries.get(q), K);
+            assertEquals(expected.size(), result.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSame(expected.get(i).getMetadata(), result.get(i).getMetadata());
+                assertEquals(expected.get(i).getResult(), result.get(i).getResult(), 1e-9);
+            }
+        }
+    }
+
+    private void testStore(Class descriptorClass) throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, descriptorClass);
+        ListDB<BufferedImage> other = createRandomDB(200, 3, descriptorClass);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2, descriptorClass);
+        List<double[]> before = vectors(db);
+        OffHeapStore<BufferedImage> store = db.createOffHeapStore(0);
+        assertTrue(store.getOffHeapBytes() > 0);
+        for (int i = 0; i < db.size(); i++) {
+            // The descriptors keep their vectors
+            assertArrayEquals(before.get(i), ((VectorDescriptor) db.get(i).get(0)).getVector(), 0.0);
+            assertArrayEquals(before.get(i), store.getVector(i), 1e-6);
+        }
+        assertSameResultsThanScan(db, queries);
+        // Modifications after the creation of the store
+        for (int i = 0; i < 50; i++) {
+            db.add(i * 7, db.remove(db.size() - 1 - i * 3));
+            db.set(i * 11, other.get(i));
+            db.add(other.get(100 + i));
+        }
+        assertSameResultsThanScan(db, queries);
+        // The removed records keep their vectors
+        double removedVector[] = store.getVector(5);
+        ListDB<BufferedImage>.Record removed = db.remove(5);
+        assertArrayEquals(removedVector, ((VectorDescriptor) removed.get(0)).getVector(), 1e-6);
+        // The store is saved with the database
+        File file = File.createTempFile("offheap", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertNotNull(loaded.getOffHeapStore());
+        assertSameResultsThanScan(loaded, queries);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameDistances(db.queryOffHeap(queries.get(q), K), loaded.queryOffHeap(queries.get(q), K));
+        }
+        file.delete();
+        // Removing the store, the vectors are kept by the descriptors
+        List<double[]> stored = vectors(db);
+        db.removeOffHeapStore();
+        assertNull(db.getOffHeapStore());
+        for (int i = 0; i < db.size(); i++) {
+            assertArrayEquals(stored.get(i), ((VectorDescriptor) db.get(i).get(0)).getVector(), 0.0);
+        }
+    }
+
+    @Test
+    public void testScalableColorStore() throws Exception {
+        testStore(MPEG7ScalableColor.class);
+    }
+
+    @Test
+    public void testColorStructureStore() throws Exception {
+        testStore(MPEG7ColorStructure.class);
+    }
+
+    @Test
+    public void testHeapQueries() {
+        ListDB<BufferedImage> db = createRandomDB(300, 1);
+        ListDB<BufferedImage> queries = createRandomDB(5, 2);
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> expected = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            expected.add(db.queryMetadata(queries.get(q), K));
+        }
+        // The rest of queries still use the descriptors, which keep their data
+        db.createOffHeapStore(0);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(expected.get(q), db.queryMetadata(queries.get(q), K));
+            assertSameDistances(expected.get(q), db.queryMetadata(queries.get(q), K));
+        }
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testOtherComparator() {
+        ListDB<BufferedImage> db = createRandomDB(10, 1, MPEG7ScalableColor.class);
+        db.createOffHeapStore(0);
+        ListDB<BufferedImage>.Record query = createRandomDB(1, 2, MPEG7ScalableColor.class).get(0);
+        query.setComparator(new DescriptorList.DefaultComparator() {
+        });
+        db.queryOffHeap(query, K);
+    }
+}
@@ -0,0 +1,47 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the product-quantized index ({@link PQIndex}): for several
+ * numbers of subspaces, it prints the training time and the recall and time
+ * per query of several numbers of re-ranked candidates. Run it by means of
+ * its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PQIndexBenchmark {
+
+    public static void main(String[] args) {
+        int n = 20000, k = 10, numQueries = 50;
+        int subspaces[] = {8, 16, 32}, reranks[] = {10, 50, 200};
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2);
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+            queries.add(queryDB.get(q));
+        }
+        long t = System.nanoTime();
+        for (ListDB<BufferedImage>.Record query : queries) {
+            db.queryMetadata(query, k);
+        }
+        System.out.println("Exact scan: " + ((System.nanoTime() - t) / numQueries / 1000) + " us/query");
+        for (int numSubspaces : subspaces) {
+            t = System.nanoTime();
+            db.createPQIndex(numSubspaces, 5000);
+            System.out.println(db.getPQIndex() + ", training " + ((System.nanoTime() - t) / 1000000) + " ms");
+            for (int rerank : reranks) {
+                t = System.nanoTime();
+                for (ListDB<BufferedImage>.Record query : queries) {
+                    db.queryQuantized(query, k, rerank);
+                }
+                long tIndex = System.nanoTime() - t;
+                System.out.println("  rerank=" + rerank + ": recall@" + k + "=" + db.recallQuantized(queries, k, rerank)
+                        + ", " + (tIndex / numQueries / 1000) + " us/query");
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the product-quantized index ({@link PQIndex}) and of the quantized
+ * queries solved with it.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PQIndexTest {
+
+    private static final int SIZE = 2000, K = 10;
+
+    /**
+     * Returns the records of the given database as a list of queries.
+     */
+    private static List<ListDB<BufferedImage>.Record> queries(ListDB<BufferedImage> queryDB) {
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q = 0; q < queryDB.size(); q++) {
+            queries.add(queryDB.get(q));
+        }
+        return queries;
+    }
+
+    @Test
+    public void testQuantizedResults() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(20, 2));
+        PQIndex<BufferedImage> index = db.createPQIndex(8, 1000);
+        assertEquals(2, index.getComponents().length);
+        assertEquals(16, index.getCodeLength());
+        for (ListDB<BufferedImage>.Record query : queries) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryQuantized(query, K, 50);
+            assertEquals(K, result.size());
+            for (int i = 0; i < K; i++) {
+                // The candidates are reranked by their exact distance
+                assertEquals(query.distance(result.get(i).getMetadata()), result.get(i).getResult(), 0.0);
+                if (i > 0) {
+                    assertTrue(result.get(i - 1).getResult() <= result.get(i).getResult());
+                }
+            }
+            // Reranking all the records, the query is exact
+            assertSameResults(db.queryMetadata(query, K), db.queryQuantized(query, K, SIZE));
+        }
+        // The more candidates are reranked, the higher the recall
+        double recall = 0.0;
+        for (int rerank : new int[]{K, 50, 200, SIZE}) {
+            double current = db.recallQuantized(queries, K, rerank);
+            assertTrue(current >= recall);
+            recall = current;
+        }
+        assertEquals(1.0, recall, 0.0);
+    }
+
+    @Test
+    public void testUpdatedAndSavedIndex() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(500, 1);
+        ListDB<BufferedImage> other = createRandomDB(10, 3);
+        List<ListDB<BufferedImage>.Record> queries = queries(createRandomDB(10, 2));
+        db.createPQIndex(8, 500);
+        db.remove(0);
+        db.add(3, other.get(0));
+        db.set(7, other.get(1));
+        db.add(other.get(2).getSource());
+        File file = File.createTempFile("quantized", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertNotNull(loaded.getPQIndex());
+        for (ListDB<BufferedImage>.Record query : queries) {
+            assertSameResults(db.queryMetadata(query, K), db.queryQuantized(query, K, db.size()));
+            assertSameDistances(db.queryQuantized(query, K, 30), loaded.queryQuantized(query, K, 30));
+        }
+        // The new records are encoded as well
+        assertSame(other.get(1), db.queryQuantized(other.get(1), 1, 20).get(0).getMetadata());
+        file.delete();
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testWithoutIndex() {
+        ListDB<BufferedImage> db = createRandomDB(10, 1);
+        db.queryQuantized(db.get(0), K, 5);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testNonVectorDescriptors() {
+        createRandomDB(10, 1, SingleColorDescriptor.class).createPQIndex(4, 10);
+    }
+}
@@ -0,0 +1,41 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the pivot index ({@link PivotIndex}): the queries of the
+ * records of a database are solved by the full scan and by the index,
+ * printing the time per query and the mismatches between both. Run it by
+ * means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PivotIndexBenchmark {
+
+    public static void main(String[] args) {
+        int n = 3000, k = 10, numQueries = 50;
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        @SuppressWarnings("unchecked")
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected[] = new List[numQueries];
+        long t = System.nanoTime();
+        for (int q = 0; q < numQueries; q++) {
+            expected[q] = db.queryMetadata(db.get(q * (n / numQueries)), k);
+        }
+        long tScan = System.nanoTime() - t;
+
+        db.createPivotIndex(16);
+        t = System.nanoTime();
+        int mismatches = 0;
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(db.queryMetadata(db.get(q * (n / numQueries)), k), expected[q]);
+        }
+        long tIndex = System.nanoTime() - t;
+        System.out.println(db.getPivotIndex());
+        System.out.println("Mismatches with the full scan: " + mismatches);
+        System.out.println("Scan: " + (tScan / numQueries / 1000) + " us/query");
+        System.out.println("Index: " + (tIndex / numQueries / 1000) + " us/query");
+    }
+}
@@ -0,0 +1,87 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the pivot-based index ({@link PivotIndex}): the queries solved
+ * with the index must give the same results than a full scan.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PivotIndexTest {
+
+    private static final int SIZE = 1000, K = 10;
+
+    /**
+     * Returns the results of the given queries.
+     */
+    private static List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> query(ListDB<BufferedImage> db, ListDB<BufferedImage> queries) {
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> results = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            results.add(db.queryMetadata(queries.get(q), K));
+        }
+        return results;
+    }
+
+    @Test
+    public void testSameResultsThanScan() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2);
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> expected = query(db, queries);
+        PivotIndex<BufferedImage> index = db.createPivotIndex(16);
+        assertEquals(16, index.getPivotCount());
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> results = query(db, queries);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(expected.get(q), results.get(q));
+        }
+        assertEquals(queries.size(), index.getQueryCount());
+        assertTrue("The index must prune some records", index.getPruningRate() > 0.0);
+        // The records of the database are also found
+        assertSame(db.get(7), db.queryMetadata(db.get(7), 1).get(0).getMetadata());
+    }
+
+    @Test
+    public void testUpdatedIndex() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> other = createRandomDB(10, 3);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2);
+        db.createPivotIndex(8);
+        db.remove(0);
+        db.add(5, other.get(0));
+        db.set(10, other.get(1));
+        db.add(other.get(2).getSource());
+        db.remove(db.indexOf(db.getId(20)));
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> results = query(db, queries);
+        db.removePivotIndex();
+        assertNull(db.getPivotIndex());
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> expected = query(db, queries);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(expected.get(q), results.get(q));
+        }
+    }
+
+    @Test
+    public void testSavedIndex() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(300, 1);
+        db.createPivotIndex(8);
+        File file = File.createTempFile("pivots", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertNotNull(loaded.getPivotIndex());
+        assertEquals(8, loaded.getPivotIndex().getPivotCount());
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameDistances(db.queryMetadata(queries.get(q), K), loaded.queryMetadata(queries.get(q), K));
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,76 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the query cache ({@link QueryCache}): a skewed workload of
+ * repeated queries is solved directly and through the cache, printing the
+ * hit ratio and the time per query, and the results after modifying the
+ * database and with a bounded cache. Run it by means of its
+ * <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class QueryCacheBenchmark {
+
+    public static void main(String[] args) {
+        int n = 20000, k = 10, numDistinct = 100, numQueries = 2000;
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        ListDB<BufferedImage> queryDB = createRandomDB(numDistinct, 2);
+        QueryCache<BufferedImage> cache = new QueryCache<>(db);
+        // Skewed workload: the first queries are repeated more often
+        Random random = new Random(3);
+        int workload[] = new int[numQueries];
+        for (int q = 0; q < numQueries; q++) {
+            workload[q] = (int) (numDistinct * Math.pow(random.nextDouble(), 3));
+        }
+        long t = System.nanoTime();
+        for (int q : workload) {
+            db.queryMetadata(queryDB.get(q), k);
+        }
+        long tDirect = System.nanoTime() - t;
+        // New records with the same content have the same fingerprint
+        List<ListDB<BufferedImage>.Record> queries = new ArrayList<>();
+        for (int q : workload) {
+            queries.add(db.new Record(queryDB.get(q).getSource()));
+        }
+        t = System.nanoTime();
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> results = new ArrayList<>();
+        for (ListDB<BufferedImage>.Record query : queries) {
+            results.add(cache.queryMetadata(query, k));
+        }
+        long tCached = System.nanoTime() - t;
+        int mismatches = 0;
+        for (int q = 0; q < numQueries; q++) {
+            mismatches += countMismatches(results.get(q), db.queryMetadata(queries.get(q), k));
+        }
+        System.out.println(cache);
+        System.out.println("Hit ratio: " + cache.getHitRatio() + ", mismatches: " + mismatches);
+        System.out.println("Direct queries: " + (tDirect / numQueries / 1000) + " us/query, cached queries: "
+                + (tCached / numQueries / 1000) + " us/query");
+        // Other parameters are other queries
+        ListDB<BufferedImage>.Record query = queryDB.get(0);
+        mismatches = countMismatches(cache.queryMetadata(query, 2 * k), db.queryMetadata(query, 2 * k));
+        mismatches += countMismatches(cache.queryMetadata(query, k, new Fusion(Fusion.TYPE_L1)), db.queryMetadata(query, k, new Fusion(Fusion.TYPE_L1)));
+        // The modifications of the database invalidate the results
+        db.add(queryDB.get(0).getSource());
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = cache.queryMetadata(query, k);
+        if (result.get(0).getMetadata() != db.get(n) || result.get(0).getResult() != 0.0) {
+            mismatches++;
+        }
+        db.delete(db.getId(n));
+        mismatches += countMismatches(cache.queryMetadata(query, k), db.queryMetadata(query, k));
+        System.out.println("After modifications: " + cache + ", mismatches: " + mismatches);
+        // Size limit
+        QueryCache<BufferedImage> small = new QueryCache<>(db, 16 << 10);
+        for (int q : workload) {
+            small.queryMetadata(queryDB.get(q), k);
+        }
+        System.out.println("Bounded: " + small + ", hit ratio: " + small.getHitRatio());
+    }
+}
@@ -0,0 +1,139 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.List;
+import jmr.descriptor.DescriptorList;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the cache of query results ({@link QueryCache}): the cached
+ * results must be the ones of the database, and they must be discarded once
+ * the database is modified.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class QueryCacheTest {
+
+    private static final int SIZE = 2000, K = 10;
+
+    @Test
+    public void testHits() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        QueryCache<BufferedImage> cache = new QueryCache<>(db);
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(db.queryMetadata(queries.get(q), K), cache.queryMetadata(queries.get(q), K));
+        }
+        assertEquals(queries.size(), cache.getMissCount());
+        assertEquals(queries.size(), cache.getEntryCount());
+        // New records with the same content share the results
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = db.new Record(queries.get(q).getSource());
+            assertSameResults(db.queryMetadata(query, K), cache.queryMetadata(query, K));
+        }
+        assertEquals(queries.size(), cache.getHitCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0);
+        // The returned lists are copies
+        cache.queryMetadata(queries.get(0), K).clear();
+        assertEquals(K, cache.queryMetadata(queries.get(0), K).size());
+        assertEquals(cache.query(queries.get(0), K), db.query(queries.get(0), K));
+    }
+
+    @Test
+    public void testParameters() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage>.Record query = createRandomDB(1, 2).get(0);
+        QueryCache<BufferedImage> cache = new QueryCache<>(db);
+        cache.queryMetadata(query, K);
+        // Other parameters are other queries
+        assertSameResults(db.queryMetadata(query, 2 * K), cache.queryMetadata(query, 2 * K));
+        Fusion l1 = new Fusion(Fusion.TYPE_L1), max = new Fusion(Fusion.TYPE_MAX);
+        assertSameResults(db.queryMetadata(query, K, l1), cache.queryMetadata(query, K, l1));
+        assertSameResults(db.queryMetadata(query, K, max), cache.queryMetadata(query, K, max));
+        assertSameResults(db.queryMetadata(query, K, new Fusion(Fusion.TYPE_L1, 1.0, 2.0)), 
+                cache.queryMetadata(query, K, new Fusion(Fusion.TYPE_L1, 1.0, 2.0)));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(5, cache.getEntryCount());
+        cache.queryMetadata(query, K, new Fusion(Fusion.TYPE_L1, 1.0, 2.0));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidation() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        QueryCache<BufferedImage> cache = new QueryCache<>(db);
+        for (int q = 0; q < queries.size(); q++) {
+            cache.queryMetadata(queries.get(q), K);
+        }
+        ListDB<BufferedImage>.Record query = queries.get(0);
+        // The modifications of the database invalidate the results
+        db.add(query.getSource());
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = cache.queryMetadata(query, K);
+        assertSame(db.get(SIZE), result.get(0).getMetadata());
+        assertEquals(0.0, result.get(0).getResult(), 0.0);
+        assertEquals(queries.size(), cache.getInvalidationCount());
+        assertEquals(1, cache.getEntryCount());
+        db.delete(db.getId(SIZE));
+        assertSameResults(db.queryMetadata(query, K), cache.queryMetadata(query, K));
+        db.set(5, queries.get(1));
+        assertSameResults(db.queryMetadata(query, K), cache.queryMetadata(query, K));
+        assertEquals(0, cache.getHitCount());
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        ListDB<BufferedImage> db = createRandomDB(500, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        long entrySize = QueryCache.ENTRY_SIZE + QueryCache.RESULT_SIZE * K;
+        QueryCache<BufferedImage> cache = new QueryCache<>(db, 3 * entrySize);
+        for (int q = 0; q < 3; q++) {
+            cache.queryMetadata(queries.get(q), K);
+        }
+        assertEquals(3 * entrySize, cache.getSize());
+        // The least recently used results are evicted first
+        cache.queryMetadata(queries.get(0), K);
+        cache.queryMetadata(queries.get(3), K);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getEntryCount());
+        long hits = cache.getHitCount();
+        cache.queryMetadata(queries.get(0), K);
+        assertEquals(hits + 1, cache.getHitCount());
+        cache.queryMetadata(queries.get(1), K);
+        assertEquals(hits + 1, cache.getHitCount());
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(db.queryMetadata(queries.get(q), K), cache.queryMetadata(queries.get(q), K));
+            assertTrue(cache.getSize() <= cache.getMaxSize());
+        }
+        // The results larger than the cache are not stored
+        cache.queryMetadata(queries.get(0), 100);
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    @Test
+    public void testNotSerializableComparator() {
+        ListDB<BufferedImage> db = createRandomDB(100, 1);
+        ListDB<BufferedImage>.Record query = createRandomDB(1, 2).get(0);
+        // The anonymous class captures this test, which is not serializable
+        query.setComparator(new DescriptorList.DefaultComparator() {
+            private final Object owner = QueryCacheTest.this;
+        });
+        QueryCache<BufferedImage> cache = new QueryCache<>(db);
+        assertSameResults(db.queryMetadata(query, K), cache.queryMetadata(query, K));
+        assertSameResults(db.queryMetadata(query, K), cache.queryMetadata(query, K));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidSize() {
+        new QueryCache<>(createRandomDB(1, 1), 0);
+    }
+}
@@ -0,0 +1,237 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.DescriptorList;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the range queries of the databases
+ * ({@link ListDB#queryRange(jmr.db.ListDB.Record, double, boolean)}): the
+ * records given must be the ones of a full scan within the radius, with
+ * their exact distances, with or without pivot index and deleted records.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class RangeQueryTest {
+
+    private static final int SIZE = 1000;
+
+    /**
+     * Comparator of records by the sum of the distances of their descriptors,
+     * not supported by the pivot index.
+     */
+    static class SumComparator implements Comparator<DescriptorList, Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Double apply(DescriptorList t, DescriptorList u) {
+            double sum = 0.0;
+            for (int i = 0; i < t.size(); i++) {
+                sum += t.get(i).distance(u.get(i));
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Returns the position of the given record in the database.
+     */
+    private static int positionOf(ListDB<BufferedImage> db, ListDB<BufferedImage>.Record record) {
+        for (int i = 0; i < db.size(); i++) {
+            if (db.get(i) == record) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the live records of the database whose distance to the query
+     * is less than or equal to the radius, in the database order, with
+     * their distances calculated without bound.
+     */
+    private static List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> scan(ListDB<BufferedImage> db, ListDB<BufferedImage>.Record query, double radius) {
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> output = new ArrayList<>();
+        for (int i = 0; i < db.size(); i++) {
+            double distance = query.distance(db.get(i));
+            if (!db.isDeleted(i) && distance <= radius) {
+                output.add(new ResultMetadata<>(distance, db.get(i)));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the result of the given range query as a list.
+     */
+    private static List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> queryRange(ListDB<BufferedImage> db, ListDB<BufferedImage>.Record query, double radius, boolean sorted) {
+        return db.queryRange(query, radius, sorted).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns some radii for the given query: the distances of its 1st, 10th
+     * and 100th nearest records.
+     */
+    private static double[] radii(ListDB<BufferedImage> db, ListDB<BufferedImage>.Record query) {
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> nearest = db.queryMetadata(query, 100);
+        return new double[]{nearest.get(0).getResult(), nearest.get(9).getResult(), nearest.get(99).getResult()};
+    }
+
+    @Test
+    public void testSameResultsThanScan() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        for (int q = 0; q < queries.size(); q++) {
+            for (double radius : radii(db, queries.get(q))) {
+                assertSameResults(scan(db, queries.get(q), radius), queryRange(db, queries.get(q), radius, false));
+            }
+        }
+        // A radius covering all the records, and a negative one
+        assertEquals(SIZE, db.queryRange(queries.get(0), Double.MAX_VALUE, false).count());
+        assertEquals(0, db.queryRange(queries.get(0), -1.0, false).count());
+    }
+
+    @Test
+    public void testSorted() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        // Some copies, so there are ties
+        for (int i = 0; i < 20; i++) {
+            db.add(db.get(i).getSource());
+        }
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> all = db.queryMetadata(queries.get(q));
+            for (double radius : radii(db, queries.get(q))) {
+                // The prefix of the full query within the radius, with the
+                // ties in the same order
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = new ArrayList<>();
+                for (int i = 0; i < all.size() && all.get(i).getResult() <= radius; i++) {
+                    expected.add(all.get(i));
+                }
+                assertSameResults(expected, queryRange(db, queries.get(q), radius, true));
+            }
+        }
+        // The ties of a record with its copy
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = queryRange(db, db.get(3), 0.0, true);
+        assertEquals(2, result.size());
+        assertSame(db.get(3), result.get(0).getMetadata());
+        assertSame(db.get(SIZE + 3), result.get(1).getMetadata());
+    }
+
+    @Test
+    public void testRadiusBoundary() {
+        // The records at the radius are included, and the distances given
+        // are the exact ones (not the partial ones of the early abandon)
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            double kth = db.queryMetadata(query, 10).get(9).getResult();
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = queryRange(db, query, kth, false);
+            assertTrue(result.size() >= 10);
+            boolean atRadius = false;
+            for (ResultMetadata<Double, ListDB<BufferedImage>.Record> hit : result) {
+                assertTrue(hit.getResult() <= kth);
+                assertEquals(query.distance(hit.getMetadata()), hit.getResult(), 0.0);
+                atRadius |= hit.getResult() == kth;
+            }
+            assertTrue(atRadius);
+            // Just below the radius, the records at the radius are excluded
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> below = queryRange(db, query, Math.nextDown(kth), false);
+            assertSameResults(scan(db, query, Math.nextDown(kth)), below);
+            for (ResultMetadata<Double, ListDB<BufferedImage>.Record> hit : below) {
+                assertTrue(hit.getResult() < kth);
+            }
+        }
+    }
+
+    @Test
+    public void testPivotIndex() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        PivotIndex<BufferedImage> index = db.createPivotIndex(16);
+        int pruned = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            double pivotDistances[] = index.pivotDistances(query);
+            for (double radius : radii(db, query)) {
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = scan(db, query, radius);
+                assertSameResults(expected, queryRange(db, query, radius, false));
+                // The lower bounds of the hits are within the radius, and the
+                // records whose lower bound exceeds it are not checked
+                for (ResultMetadata<Double, ListDB<BufferedImage>.Record> hit : expected) {
+                    assertTrue(index.lowerBound(pivotDistances, positionOf(db, hit.getMetadata())) <= radius);
+                }
+                for (int i = 0; i < db.size(); i++) {
+                    if (index.lowerBound(pivotDistances, i) > radius) {
+                        pruned++;
+                    }
+                }
+            }
+        }
+        assertTrue("The index must prune some records", pruned > 0);
+        // A query the index does not support is solved by the scan
+        ListDB<BufferedImage>.Record query = db.new Record(queries.get(0).getSource());
+        query.setComparator(new SumComparator());
+        double radius = db.queryMetadata(query, 10).get(9).getResult();
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = new ArrayList<>();
+        for (int i = 0; i < db.size(); i++) {
+            double distance = query.distance(db.get(i));
+            if (distance <= radius) {
+                expected.add(new ResultMetadata<>(distance, db.get(i)));
+            }
+        }
+        assertSameResults(expected, queryRange(db, query, radius, false));
+    }
+
+    @Test
+    public void testDeletedRecords() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        db.createPivotIndex(8);
+        for (int i = 0; i < SIZE; i += 3) {
+            assertTrue(db.delete(db.getId(i)));
+        }
+        for (int q = 0; q < queries.size(); q++) {
+            for (double radius : radii(db, queries.get(q))) {
+                List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = queryRange(db, queries.get(q), radius, q % 2 == 0);
+                for (ResultMetadata<Double, ListDB<BufferedImage>.Record> hit : result) {
+                    assertFalse(db.isDeleted(positionOf(db, hit.getMetadata())));
+                }
+                if (q % 2 == 1) {
+                    assertSameResults(scan(db, queries.get(q), radius), result);
+                } else {
+                    assertEquals(scan(db, queries.get(q), radius).size(), result.size());
+                }
+            }
+        }
+        // A deleted record is not found, not even by itself
+        ListDB<BufferedImage>.Record deleted = db.get(3);
+        assertTrue(queryRange(db, deleted, 0.0, false).isEmpty());
+        // Once compacted, the same records are found
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> before = queryRange(db, queries.get(0), Double.MAX_VALUE, false);
+        db.compact();
+        assertSameResults(before, queryRange(db, queries.get(0), Double.MAX_VALUE, false));
+    }
+
+    @Test
+    public void testLazyStream() {
+        // The stream is consumed on demand: the first hits are given without
+        // traversing the rest of the database
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage>.Record query = db.get(0);
+        Iterator<ResultMetadata<Double, ListDB<BufferedImage>.Record>> iterator = db.queryRange(query, Double.MAX_VALUE, false).iterator();
+        assertSame(db.get(0), iterator.next().getMetadata());
+        assertSame(db.get(1), iterator.next().getMetadata());
+        assertEquals(2, db.queryRange(query, Double.MAX_VALUE, false).limit(2).count());
+    }
+}
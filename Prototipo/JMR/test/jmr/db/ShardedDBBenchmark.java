@@ -0,0 +1,110 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the sharded databases ({@link ShardedDB}): a database with a
+ * local shard and two remote shards (each one served by a new process
+ * through the loopback interface) is compared with a single database with
+ * the same records. Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ShardedDBBenchmark {
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int n = 6000, k = 10, numQueries = 100, numRemoteShards = 2;
+        Class descriptorClasses[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+        ListDB<BufferedImage> db = createRandomDB(n, 1, descriptorClasses);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2, descriptorClasses);
+        List<Process> processes = new ArrayList<>();
+        List<Shard<BufferedImage>> shards = new ArrayList<>();
+        try {
+            // One shard in this process and the others in new processes,
+            // connected through the loopback interface
+            File localFile = File.createTempFile("shard", ".db");
+            localFile.deleteOnExit();
+            shards.add(new LocalShard<>(new ListDB<>(descriptorClasses), localFile));
+            for (int s = 0; s < numRemoteShards; s++) {
+                File file = File.createTempFile("shard", ".db");
+                file.delete();
+                file.deleteOnExit();
+                List<String> command = new ArrayList<>(Arrays.asList(
+                        new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"),
+                        ShardServer.class.getName(), "0", file.getPath()));
+                for (Class c : descriptorClasses) {
+                    command.add(c.getName());
+                }
+                Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+                String ready = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine();
+                shards.add(new RemoteShard<>("localhost", Integer.parseInt(ready.split(" ")[1])));
+            }
+            ListDB<BufferedImage> single = new ListDB<>(descriptorClasses);
+            try (ShardedDB<BufferedImage> sharded = new ShardedDB<>(shards, descriptorClasses)) {
+                long t = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    URL locator = new URL("file:/images/" + i + ".png");
+                    single.add(db.get(i).getSource(), locator);
+                    sharded.add(db.get(i).getSource(), locator);
+                }
+                System.out.println(sharded + " (" + sharded.size() + " records, "
+                        + ((System.nanoTime() - t) / 1000000) + " ms for building both databases)");
+                for (int s = 0; s < sharded.getShardCount(); s++) {
+                    System.out.println("Shard " + s + ": " + sharded.getShard(s).size() + " records");
+                }
+                int mismatches = 0;
+                long tSingle = 0, tSharded = 0;
+                for (int q = 0; q < numQueries; q++) {
+                    t = System.nanoTime();
+                    List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = single.queryMetadata(queryDB.get(q), k);
+                    tSingle += System.nanoTime() - t;
+                    t = System.nanoTime();
+                    List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = sharded.queryMetadata(queryDB.get(q), k);
+                    tSharded += System.nanoTime() - t;
+                    mismatches += Math.abs(result.size() - expected.size());
+                    // The ties are ordered by shard, so the locators are
+                    // compared only below the k-th distance
+                    double kth = expected.get(expected.size() - 1).getResult();
+                    Set<String> expectedLocators = new HashSet<>(), resultLocators = new HashSet<>();
+                    for (int i = 0; i < Math.min(result.size(), expected.size()); i++) {
+                        if (!result.get(i).getResult().equals(expected.get(i).getResult())) {
+                            mismatches++;
+                        } else if (expected.get(i).getResult() < kth) {
+                            expectedLocators.add(expected.get(i).getMetadata().getLocator().toString());
+                            resultLocators.add(result.get(i).getMetadata().getLocator().toString());
+                        }
+                    }
+                    if (!expectedLocators.equals(resultLocators)) {
+                        mismatches++;
+                    }
+                }
+                System.out.println("Mismatches with the single database: " + mismatches);
+                System.out.println("Single database: " + (tSingle / numQueries / 1000) + " us/query");
+                System.out.println("Sharded database: " + (tSharded / numQueries / 1000) + " us/query");
+                sharded.save();
+                ListDB<BufferedImage> reopened = ListDB.open(localFile);
+                System.out.println("Local shard saved and reopened: " + reopened.size() + " records");
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package jmr.db;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import jmr.descriptor.Comparator;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the sharded databases ({@link ShardedDB}) with local shards and
+ * with remote shards served in this process ({@link ShardServer}): the
+ * queries must give the results of a single database with all the records.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ShardedDBTest {
+
+    private static final int SIZE = 1000, K = 10;
+    private static final Class DESCRIPTOR_CLASSES[] = {MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+
+    /**
+     * Comparator of single color descriptors by the L1 distance of their RGB
+     * components, a named class (so it can be sent to the shards).
+     */
+    static class ColorL1Comparator implements Comparator<SingleColorDescriptor, Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Double apply(SingleColorDescriptor t, SingleColorDescriptor u) {
+            Color c1 = t.getColor(), c2 = u.getColor();
+            return (double) (Math.abs(c1.getRed() - c2.getRed()) + Math.abs(c1.getGreen() - c2.getGreen())
+                    + Math.abs(c1.getBlue() - c2.getBlue()));
+        }
+    }
+
+    /**
+     * Returns a new local shard with an empty database, saved in a temporary
+     * file.
+     */
+    private static LocalShard<BufferedImage> createLocalShard() throws IOException {
+        File file = File.createTempFile("shard", ".db");
+        file.deleteOnExit();
+        return new LocalShard<>(new ListDB<>(DESCRIPTOR_CLASSES), file);
+    }
+
+    /**
+     * Checks that the sharded queries give the distances of the single
+     * database and, since the ties are ordered by shard, the same records
+     * below the k-th distance.
+     */
+    private static void assertSameResultsThanSingle(ListDB<BufferedImage> single, ShardedDB<BufferedImage> sharded, ListDB<BufferedImage> queries) {
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = single.queryMetadata(queries.get(q), K);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = sharded.queryMetadata(queries.get(q), K);
+            assertSameDistances(expected, result);
+            double kth = expected.get(K - 1).getResult();
+            Set<URL> expectedLocators = new HashSet<>(), resultLocators = new HashSet<>();
+            for (int i = 0; i < K; i++) {
+                if (expected.get(i).getResult() < kth) {
+                    expectedLocators.add(expected.get(i).getMetadata().getLocator());
+                    resultLocators.add(result.get(i).getMetadata().getLocator());
+                }
+            }
+            assertEquals(expectedLocators, resultLocators);
+        }
+    }
+
+    /**
+     * Adds the records of the given database to both the single and the
+     * sharded databases, with the same locators.
+     */
+    private static void addRecords(ListDB<BufferedImage> db, ListDB<BufferedImage> single, ShardedDB<BufferedImage> sharded) throws IOException {
+        for (int i = 0; i < db.size(); i++) {
+            URL locator = new URL("file:/images/" + i + ".png");
+            single.add(db.get(i).getSource(), locator);
+            sharded.add(db.get(i).getSource(), locator);
+        }
+    }
+
+    @Test
+    public void testLocalShards() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2, DESCRIPTOR_CLASSES);
+        List<LocalShard<BufferedImage>> shards = Arrays.asList(createLocalShard(), createLocalShard(), createLocalShard());
+        ListDB<BufferedImage> single = new ListDB<>(DESCRIPTOR_CLASSES);
+        try (ShardedDB<BufferedImage> sharded = new ShardedDB<>(shards, DESCRIPTOR_CLASSES)) {
+            addRecords(db, single, sharded);
+            assertEquals(SIZE, sharded.size());
+            for (int s = 0; s < sharded.getShardCount(); s++) {
+                assertTrue(sharded.getShard(s).size() > 0);
+            }
+            assertEquals(sharded.shardOf(new URL("file:/images/5.png")), sharded.shardOf(new URL("file:/images/5.png")));
+            assertSameResultsThanSingle(single, sharded, queries);
+            sharded.save();
+        }
+        int size = 0;
+        for (LocalShard<BufferedImage> shard : shards) {
+            ListDB<BufferedImage> reopened = ListDB.open(shard.getFile());
+            assertEquals(shard.size(), reopened.size());
+            size += reopened.size();
+            shard.getFile().delete();
+        }
+        assertEquals(SIZE, size);
+    }
+
+    @Test
+    public void testRemoteShards() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2, DESCRIPTOR_CLASSES);
+        List<ShardServer<BufferedImage>> servers = new ArrayList<>();
+        try {
+            List<Shard<BufferedImage>> shards = new ArrayList<>();
+            shards.add(createLocalShard());
+            for (int s = 0; s < 2; s++) {
+                ShardServer<BufferedImage> server = new ShardServer<>(createLocalShard(), 0);
+                servers.add(server);
+                RemoteShard<BufferedImage> remote = new RemoteShard<>("localhost", server.getPort());
+                assertEquals(Arrays.asList(DESCRIPTOR_CLASSES), remote.getDescriptorClasses());
+                shards.add(remote);
+            }
+            ListDB<BufferedImage> single = new ListDB<>(DESCRIPTOR_CLASSES);
+            try (ShardedDB<BufferedImage> sharded = new ShardedDB<>(shards, DESCRIPTOR_CLASSES)) {
+                addRecords(db, single, sharded);
+                assertEquals(SIZE, sharded.size());
+                for (int s = 1; s < shards.size(); s++) {
+                    assertEquals(servers.get(s - 1).getShard().size(), shards.get(s).size());
+                }
+                assertSameResultsThanSingle(single, sharded, queries);
+                sharded.save();
+                for (ShardServer<BufferedImage> server : servers) {
+                    LocalShard<BufferedImage> shard = server.getShard();
+                    assertEquals(shard.size(), ListDB.open(shard.getFile()).size());
+                    assertEquals(1, server.getConnectionCount());
+                }
+            }
+            // Closing the sharded database closes the connections
+            for (ShardServer<BufferedImage> server : servers) {
+                for (int i = 0; i < 100 && server.getConnectionCount() > 0; i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals(0, server.getConnectionCount());
+            }
+        } finally {
+            for (ShardServer<BufferedImage> server : servers) {
+                server.close();
+                server.getShard().getFile().delete();
+            }
+        }
+    }
+
+    @Test
+    public void testClosedServer() throws Exception {
+        ShardServer<BufferedImage> server = new ShardServer<>(createLocalShard(), 0);
+        try {
+            RemoteShard<BufferedImage> remote = new RemoteShard<>("localhost", server.getPort());
+            assertEquals(0, remote.size());
+            assertEquals(1, server.getConnectionCount());
+        } finally {
+            server.close();
+        }
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    public void testAllowedClasses() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(1, 1, DESCRIPTOR_CLASSES);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new URL("file:/images/0.png"));
+            out.writeObject(db.get(0).get(0));
+            out.writeObject(db.get(0).get(1));
+            out.writeObject(new int[]{1, 2});
+            SingleColorDescriptor descriptor = new SingleColorDescriptor(Color.RED);
+            descriptor.setComparator(new ColorL1Comparator());
+            out.writeObject(descriptor);
+        }
+        try (ObjectInputStream in = new ShardObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(new URL("file:/images/0.png"), in.readObject());
+            assertEquals(db.get(0).get(0).toString(), in.readObject().toString());
+            assertEquals(db.get(0).get(1).toString(), in.readObject().toString());
+            assertArrayEquals(new int[]{1, 2}, (int[]) in.readObject());
+            SingleColorDescriptor descriptor = (SingleColorDescriptor) in.readObject();
+            assertTrue(descriptor.getComparator() instanceof ColorL1Comparator);
+            assertEquals(255.0 + 255.0, descriptor.distance(new SingleColorDescriptor(Color.BLUE)), 0.0);
+        }
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testRejectedLambda() throws Exception {
+        // The comparators are serializable, but the lambda expressions are
+        // not allowed in the messages
+        SingleColorDescriptor descriptor = new SingleColorDescriptor(Color.RED);
+        descriptor.setComparator((Comparator<SingleColorDescriptor, Double>) (t, u) -> 0.0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(descriptor);
+        }
+        try (ObjectInputStream in = new ShardObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            in.readObject();
+        }
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testRejectedClass() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new HashMap<String, String>());
+        }
+        try (ObjectInputStream in = new ShardObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            in.readObject();
+        }
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testMissingLocator() throws Exception {
+        try (ShardedDB<BufferedImage> sharded = new ShardedDB<>(Arrays.asList(createLocalShard()), DESCRIPTOR_CLASSES)) {
+            sharded.add(createRandomImage(new Random(1)), null);
+        }
+    }
+}
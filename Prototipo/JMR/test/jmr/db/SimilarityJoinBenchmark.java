@@ -0,0 +1,72 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the similarity self-joins: the threshold join is compared
+ * with the brute force one, and the k-nearest neighbors join with the single
+ * queries of all the records. Run it by means of its <code>main</code>
+ * method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class SimilarityJoinBenchmark {
+
+    public static void main(String[] args) {
+        int n = 4000, k = 5;
+        double threshold = 0.3;
+        ListDB<BufferedImage> db = createRandomDB(n, 1);
+        Map<ListDB<BufferedImage>.Record, Integer> position = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            position.put(db.get(i), i);
+        }
+        long t = System.nanoTime();
+        long expected = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (db.get(i).distance(db.get(j)) <= threshold) {
+                    expected++;
+                }
+            }
+        }
+        long tBrute = System.nanoTime() - t;
+        List<String> pairs = Collections.synchronizedList(new ArrayList<>());
+        t = System.nanoTime();
+        long count = db.join(threshold, true, (a, b, d) -> pairs.add(position.get(a) + "-" + position.get(b)));
+        long tJoin = System.nanoTime() - t;
+        System.out.println("Pairs: " + count + " (brute force: " + expected + ", distinct: " + new HashSet<>(pairs).size() + ")");
+        System.out.println("Brute force: " + tBrute / 1e6 + " ms, join: " + tJoin / 1e6 + " ms");
+
+        double nearest[][] = new double[n][k];
+        int counts[] = new int[n];
+        t = System.nanoTime();
+        db.joinNearest(k, false, (a, b, d) -> {
+            int i = position.get(a);
+            nearest[i][counts[i]++] = d;
+        });
+        long tNearest = System.nanoTime() - t;
+        int mismatches = 0;
+        t = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryMetadata(db.get(i), k + 1);
+            ListDB<BufferedImage>.Record record = db.get(i);
+            result.removeIf(r -> r.getMetadata() == record);
+            for (int j = 0; j < k; j++) {
+                if (result.get(j).getResult() != nearest[i][j]) {
+                    mismatches++;
+                }
+            }
+        }
+        long tQueries = System.nanoTime() - t;
+        System.out.println("kNN join mismatches: " + mismatches);
+        System.out.println("Single queries: " + tQueries / 1e6 + " ms, kNN join: " + tNearest / 1e6 + " ms");
+    }
+}
@@ -0,0 +1,90 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the similarity self-joins
+ * ({@link ListDB#join(double, boolean, jmr.db.PairConsumer)} and
+ * {@link ListDB#joinNearest(int, boolean, jmr.db.PairConsumer)}): the pairs
+ * must be the ones obtained comparing all the records.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class SimilarityJoinTest {
+
+    private static final int SIZE = 800;
+
+    /**
+     * Returns the positions of the records of the given database.
+     */
+    private static Map<ListDB<BufferedImage>.Record, Integer> positions(ListDB<BufferedImage> db) {
+        Map<ListDB<BufferedImage>.Record, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < db.size(); i++) {
+            positions.put(db.get(i), i);
+        }
+        return positions;
+    }
+
+    @Test
+    public void testThresholdJoin() {
+        double threshold = 0.3;
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        // Some near-duplicates
+        for (int i = 0; i < 20; i++) {
+            db.add(db.get(i * 3).getSource());
+        }
+        Map<ListDB<BufferedImage>.Record, Integer> positions = positions(db);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < db.size(); i++) {
+            for (int j = i + 1; j < db.size(); j++) {
+                if (db.get(i).distance(db.get(j)) <= threshold) {
+                    expected.add(i + "-" + j);
+                }
+            }
+        }
+        assertTrue(expected.size() >= 20);
+        for (boolean parallel : new boolean[]{false, true}) {
+            Set<String> pairs = Collections.synchronizedSet(new HashSet<>());
+            long count = db.join(threshold, parallel, (a, b, d) -> {
+                assertTrue(d <= threshold);
+                assertEquals(a.distance(b), d, 0.0);
+                pairs.add(positions.get(a) + "-" + positions.get(b));
+            });
+            assertEquals(expected.size(), count);
+            assertEquals(expected, pairs);
+        }
+    }
+
+    @Test
+    public void testNearestJoin() {
+        int k = 5;
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        Map<ListDB<BufferedImage>.Record, Integer> positions = positions(db);
+        double nearest[][] = new double[db.size()][k];
+        int counts[] = new int[db.size()];
+        db.joinNearest(k, false, (a, b, d) -> {
+            assertNotSame(a, b);
+            int i = positions.get(a);
+            nearest[i][counts[i]++] = d;
+        });
+        for (int i = 0; i < db.size(); i++) {
+            assertEquals(k, counts[i]);
+            ListDB<BufferedImage>.Record record = db.get(i);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(record, k + 1);
+            expected.removeIf(r -> r.getMetadata() == record);
+            for (int j = 0; j < k; j++) {
+                assertEquals(expected.get(j).getResult(), nearest[i][j], 0.0);
+            }
+        }
+    }
+}
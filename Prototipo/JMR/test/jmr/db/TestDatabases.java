@@ -0,0 +1,124 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static org.junit.Assert.*;
+
+/**
+ * Databases and assertions shared by the tests of the databases.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class TestDatabases {
+
+    /**
+     * Don't let anyone instantiate this class.
+     */
+    private TestDatabases() {
+    }
+
+    /**
+     * Returns a random image of two colors.
+     *
+     * @param random the random generator
+     * @return a new image
+     */
+    static BufferedImage createRandomImage(Random random) {
+        BufferedImage img = new BufferedImage(24, 24, BufferedImage.TYPE_INT_RGB);
+        int c1 = random.nextInt(0xFFFFFF), c2 = random.nextInt(0xFFFFFF);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, random.nextInt(3) == 0 ? c2 : c1);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Returns a database of random images with the MPEG7 scalable color and
+     * color structure descriptors.
+     *
+     * @param size the number of records
+     * @param seed the seed of the random images
+     * @return a new database
+     */
+    static ListDB<BufferedImage> createRandomDB(int size, long seed) {
+        return createRandomDB(size, seed, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+    }
+
+    /**
+     * Returns a database of random images with the given descriptors.
+     *
+     * @param size the number of records
+     * @param seed the seed of the random images
+     * @param descriptorClasses the descriptor classes of the database
+     * @return a new database
+     */
+    static ListDB<BufferedImage> createRandomDB(int size, long seed, Class... descriptorClasses) {
+        Random random = new Random(seed);
+        ListDB<BufferedImage> db = new ListDB<>(descriptorClasses);
+        for (int i = 0; i < size; i++) {
+            db.add(createRandomImage(random));
+        }
+        return db;
+    }
+
+    /**
+     * Checks that two query results have the same records (the same objects)
+     * with the same distances, in the same order.
+     *
+     * @param <T> the media type of the database
+     * @param expected the expected result
+     * @param result the result to be checked
+     */
+    static <T> void assertSameResults(List<ResultMetadata<Double, ListDB<T>.Record>> expected,
+            List<ResultMetadata<Double, ListDB<T>.Record>> result) {
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getResult(), result.get(i).getResult());
+            assertSame(expected.get(i).getMetadata(), result.get(i).getMetadata());
+        }
+    }
+
+    /**
+     * Checks that two query results have the same distances, in the same
+     * order.
+     *
+     * @param <T> the media type of the database
+     * @param expected the expected result
+     * @param result the result to be checked
+     */
+    static <T> void assertSameDistances(List<ResultMetadata<Double, ListDB<T>.Record>> expected,
+            List<ResultMetadata<Double, ListDB<T>.Record>> result) {
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getResult(), result.get(i).getResult());
+        }
+    }
+
+    /**
+     * Returns the number of positions in which two query results differ (in
+     * the record or in the distance), counting the missing positions. It is
+     * used by the benchmarks, which report the mismatches instead of failing.
+     *
+     * @param <T> the media type of the database
+     * @param result the result to be checked
+     * @param expected the expected result
+     * @return the number of mismatches
+     */
+    static <T> int countMismatches(List<ResultMetadata<Double, ListDB<T>.Record>> result,
+            List<ResultMetadata<Double, ListDB<T>.Record>> expected) {
+        int mismatches = Math.abs(result.size() - expected.size());
+        for (int i = 0; i < Math.min(result.size(), expected.size()); i++) {
+            if (result.get(i).getMetadata() != expected.get(i).getMetadata()
+                    || !result.get(i).getResult().equals(expected.get(i).getResult())) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,70 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the threshold algorithm: the top-k queries of a database with
+ * three descriptors are solved by the full scan and by the threshold
+ * algorithm, with the record comparator and with a weighted fusion
+ * (compared with the brute force). Run it by means of its <code>main</code>
+ * method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ThresholdQueryBenchmark {
+
+    public static void main(String[] args) {
+        int n = 20000, k = 10, numQueries = 50;
+        ListDB<BufferedImage> db = createRandomDB(n, 1, SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        ListDB<BufferedImage> queryDB = createRandomDB(numQueries, 2, SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        double weights[] = {4.0, 0.5, 1.0};
+        int mismatches = 0;
+        long tScan = 0, tThreshold = 0, tBrute = 0, tWeighted = 0, t;
+        for (int q = 0; q < numQueries; q++) {
+            ListDB<BufferedImage>.Record query = queryDB.get(q);
+            t = System.nanoTime();
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(query, k);
+            tScan += System.nanoTime() - t;
+            t = System.nanoTime();
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryThreshold(query, k, null, 0);
+            tThreshold += System.nanoTime() - t;
+            mismatches += countMismatches(result, expected);
+
+            // Weighted fusion, compared with the brute force
+            t = System.nanoTime();
+            double distances[] = new double[n];
+            Integer order[] = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                double sum = 0.0, d;
+                for (int c = 0; c < weights.length; c++) {
+                    d = query.get(c).distance(db.get(i).get(c));
+                    sum += weights[c] * (d * d);
+                }
+                distances[i] = Math.sqrt(sum);
+                order[i] = i;
+            }
+            Arrays.sort(order, (i, j) -> Double.compare(distances[i], distances[j]));
+            tBrute += System.nanoTime() - t;
+            t = System.nanoTime();
+            result = db.queryThreshold(query, k, new Fusion(Fusion.TYPE_L2, weights), 0);
+            tWeighted += System.nanoTime() - t;
+            for (int i = 0; i < k; i++) {
+                if (result.get(i).getMetadata() != db.get(order[i]) || result.get(i).getResult() != distances[order[i]]) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("Mismatches with the full scan: " + mismatches);
+        System.out.println("Scan: " + (tScan / numQueries / 1000) + " us/query");
+        System.out.println("Threshold algorithm: " + (tThreshold / numQueries / 1000) + " us/query");
+        System.out.println("Weighted brute force: " + (tBrute / numQueries / 1000) + " us/query");
+        System.out.println("Weighted threshold algorithm: " + (tWeighted / numQueries / 1000) + " us/query");
+    }
+}
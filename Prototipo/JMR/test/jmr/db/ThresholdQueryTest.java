@@ -0,0 +1,75 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the top-k queries solved by means of the threshold algorithm
+ * ({@link ListDB#queryThreshold(jmr.db.ListDB.Record, int, jmr.db.Fusion, int...)}):
+ * the results must be the ones of a full scan.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ThresholdQueryTest {
+
+    private static final int SIZE = 3000, K = 10;
+    private static final Class DESCRIPTOR_CLASSES[] = {SingleColorDescriptor.class, MPEG7ScalableColor.class, MPEG7ColorStructure.class};
+
+    @Test
+    public void testDefaultFusion() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2, DESCRIPTOR_CLASSES);
+        for (int q = 0; q < queries.size(); q++) {
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> expected = db.queryMetadata(queries.get(q), K);
+            assertSameResults(expected, db.queryThreshold(queries.get(q), K, null, 0));
+            assertSameResults(expected, db.queryThreshold(queries.get(q), K, Fusion.DEFAULT, 0, 1));
+        }
+    }
+
+    @Test
+    public void testWeightedFusion() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(20, 2, DESCRIPTOR_CLASSES);
+        double weights[] = {4.0, 0.5, 1.0};
+        Fusion fusion = new Fusion(Fusion.TYPE_L2, weights);
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            // Brute force
+            double distances[] = new double[db.size()];
+            Integer order[] = new Integer[db.size()];
+            for (int i = 0; i < db.size(); i++) {
+                double sum = 0.0, d;
+                for (int c = 0; c < weights.length; c++) {
+                    d = query.get(c).distance(db.get(i).get(c));
+                    sum += weights[c] * (d * d);
+                }
+                distances[i] = Math.sqrt(sum);
+                order[i] = i;
+            }
+            Arrays.sort(order, (i, j) -> Double.compare(distances[i], distances[j]));
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryThreshold(query, K, fusion, 0);
+            assertEquals(K, result.size());
+            for (int i = 0; i < K; i++) {
+                assertEquals(distances[order[i]], result.get(i).getResult(), 0.0);
+                assertSame(db.get(order[i]), result.get(i).getMetadata());
+            }
+        }
+    }
+
+    @Test
+    public void testSmallDatabase() {
+        ListDB<BufferedImage> db = createRandomDB(4, 1, DESCRIPTOR_CLASSES);
+        ListDB<BufferedImage> queries = createRandomDB(1, 2, DESCRIPTOR_CLASSES);
+        List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = db.queryThreshold(queries.get(0), K, null, 0);
+        assertEquals(4, result.size());
+        assertSameResults(db.queryMetadata(queries.get(0), K), result);
+    }
+}
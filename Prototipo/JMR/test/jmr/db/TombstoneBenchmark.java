@@ -0,0 +1,135 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.result.ResultMetadata;
+import static jmr.db.TestDatabases.*;
+
+/**
+ * Benchmark of the deleted records and the compaction: a database with all
+ * the indexes is churned by id, its queries are compared with the ones of a
+ * database with the live records only, and it is compacted in memory and in
+ * its file. Run it by means of its <code>main</code> method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TombstoneBenchmark {
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int n = 20000, k = 10, numQueries = 50, churn = n / 20;
+        ListDB<BufferedImage> db = createRandomDB(n, 1, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        ListDB<BufferedImage> other = createRandomDB(2 * churn + numQueries, 2, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        db.setCompactionThreshold(1.0);
+        db.createPivotIndex(16);
+        db.createOffHeapStore(0);
+        db.createLSHIndex(0, 16, 4, 40.0);
+        db.createPQIndex(8, 1000);
+        // Churn by id: deletions, in-place updates and new records
+        Random random = new Random(3);
+        long t = System.nanoTime();
+        int deletions = 0;
+        for (int i = 0; i < n * 3 / 10; i++) {
+            if (db.delete(db.getId(random.nextInt(n)))) {
+                deletions++;
+            }
+        }
+        long tDelete = System.nanoTime() - t;
+        for (int i = 0; i < churn; i++) {
+            long id = db.getId(random.nextInt(n));
+            if (db.getById(id) != null) {
+                db.update(id, other.get(i));
+            }
+            db.add(other.get(churn + i));
+        }
+        ListDB<BufferedImage> copy = createRandomDB(n, 1, MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        copy.createPivotIndex(16);
+        copy.createOffHeapStore(0);
+        copy.createLSHIndex(0, 16, 4, 40.0);
+        copy.createPQIndex(8, 1000);
+        t = System.nanoTime();
+        for (int i = 0; i < deletions; i++) {
+            copy.remove(random.nextInt(copy.size()));
+        }
+        long tRemove = System.nanoTime() - t;
+        System.out.println(deletions + " deletions by id: " + (tDelete / 1000000) + " ms ("
+                + (tRemove / 1000000) + " ms removing by position)");
+        // Reference: a database with the live records only
+        ListDB<BufferedImage> reference = new ListDB<>(MPEG7ScalableColor.class, MPEG7ColorStructure.class);
+        Set<ListDB<BufferedImage>.Record> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < db.size(); i++) {
+            if (!db.isDeleted(i)) {
+                reference.add(db.get(i));
+                live.add(db.get(i));
+            }
+        }
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> exact = new ArrayList<>(), offHeap = new ArrayList<>();
+        int mismatches = 0, deletedHits = 0;
+        for (int q = 0; q < numQueries; q++) {
+            ListDB<BufferedImage>.Record query = other.get(2 * churn + q);
+            exact.add(db.queryMetadata(query, k));
+            offHeap.add(db.queryOffHeap(query, k));
+            mismatches += countMismatches(exact.get(q), reference.queryMetadata(query, k));
+            mismatches += countMismatches(db.queryMetadata(query, k, Fusion.DEFAULT), reference.queryMetadata(query, k, Fusion.DEFAULT));
+            mismatches += countMismatches(db.queryMetadata(query), reference.queryMetadata(query));
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> results[] = new List[]{offHeap.get(q),
+                db.queryApproximate(query, k), db.queryQuantized(query, k, 50),
+                db.queryRange(query, exact.get(q).get(k - 1).getResult(), false).collect(Collectors.toList())};
+            for (List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result : results) {
+                for (ResultMetadata<Double, ListDB<BufferedImage>.Record> item : result) {
+                    if (!live.contains(item.getMetadata())) {
+                        deletedHits++;
+                    }
+                }
+            }
+        }
+        System.out.println("Live records: " + reference.size() + ", deleted records: " + db.getDeletedCount());
+        System.out.println("Mismatches with the rebuilt database: " + mismatches + ", deleted records returned: " + deletedHits);
+        // Compaction (file and memory)
+        long ids[] = new long[db.size()];
+        ListDB<BufferedImage>.Record records[] = new ListDB.Record[db.size()];
+        for (int i = 0; i < db.size(); i++) {
+            ids[i] = db.getId(i);
+            records[i] = db.isDeleted(i) ? null : db.get(i);
+        }
+        File file = File.createTempFile("tombstones", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        long length = file.length();
+        int removed = ListDB.compact(file);
+        System.out.println("File compaction: " + removed + " records removed, " + length + " -> " + file.length() + " bytes");
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        file.delete();
+        t = System.nanoTime();
+        db.compact();
+        System.out.println("Memory compaction: " + ((System.nanoTime() - t) / 1000000) + " ms, " + db.size() + " records");
+        int idMismatches = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (db.getById(ids[i]) != records[i] || (records[i] != null) != (loaded.indexOf(ids[i]) >= 0)) {
+                idMismatches++;
+            }
+        }
+        mismatches = 0;
+        for (int q = 0; q < numQueries; q++) {
+            ListDB<BufferedImage>.Record query = other.get(2 * churn + q);
+            mismatches += countMismatches(db.queryMetadata(query, k), exact.get(q));
+            mismatches += countMismatches(db.queryOffHeap(query, k), offHeap.get(q));
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result = loaded.queryMetadata(query, k);
+            for (int i = 0; i < k; i++) {
+                if (!result.get(i).getResult().equals(exact.get(q).get(i).getResult())) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("Id mismatches after compaction: " + idMismatches + ", query mismatches: " + mismatches);
+    }
+}
@@ -0,0 +1,195 @@
+package jmr.db;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import jmr.result.ResultMetadata;
+import org.junit.Test;
+import static jmr.db.TestDatabases.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the deletion of records by id ({@link ListDB#delete(long)}): the
+ * deleted records must be ignored by all the queries until the database is
+ * compacted, and the ids of the records must not change with the
+ * compaction.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TombstoneTest {
+
+    private static final int SIZE = 2000, K = 10;
+
+    /**
+     * Deletes a random fraction of the records of the given database, by id.
+     */
+    private static void deleteRandomRecords(ListDB<BufferedImage> db, double fraction, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < db.size() * fraction; i++) {
+            db.delete(db.getId(random.nextInt(db.size())));
+        }
+    }
+
+    /**
+     * Returns a new database with the live records of the given one.
+     */
+    private static ListDB<BufferedImage> liveRecords(ListDB<BufferedImage> db) {
+        ListDB<BufferedImage> live = new ListDB<>(db.getDescriptorClasses().toArray(new Class[0]));
+        for (int i = 0; i < db.size(); i++) {
+            if (!db.isDeleted(i)) {
+                live.add(db.get(i));
+            }
+        }
+        return live;
+    }
+
+    @Test
+    public void testDeleteAndUpdate() {
+        ListDB<BufferedImage> db = createRandomDB(100, 1);
+        ListDB<BufferedImage> other = createRandomDB(2, 2);
+        for (int i = 0; i < db.size(); i++) {
+            assertEquals(i, db.getId(i));
+            assertEquals(i, db.indexOf(i));
+        }
+        ListDB<BufferedImage>.Record record = db.get(10);
+        assertSame(record, db.getById(10));
+        assertTrue(db.delete(10));
+        assertFalse(db.delete(10));
+        assertFalse(db.delete(1000));
+        assertTrue(db.isDeleted(10));
+        assertNull(db.getById(10));
+        assertEquals(-1, db.indexOf(10));
+        assertEquals(1, db.getDeletedCount());
+        // The deleted record keeps its position
+        assertEquals(100, db.size());
+        assertSame(record, db.get(10));
+        // The updated record keeps the id and the position
+        db.update(20, other.get(0));
+        assertSame(other.get(0), db.get(20));
+        assertSame(other.get(0), db.getById(20));
+        // The new records get new ids, even after removing others
+        db.remove(99);
+        db.add(other.get(1));
+        assertEquals(100, db.getId(db.size() - 1));
+        assertEquals(100, db.size());
+        assertEquals(-1, db.indexOf(99));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testUpdateDeleted() {
+        ListDB<BufferedImage> db = createRandomDB(10, 1);
+        db.delete(3);
+        db.update(3, db.get(4));
+    }
+
+    @Test
+    public void testCompactionThreshold() {
+        ListDB<BufferedImage> db = createRandomDB(100, 1);
+        db.setCompactionThreshold(0.1);
+        for (long id = 0; id < 10; id++) {
+            db.delete(id);
+            assertFalse(db.needsCompaction());
+        }
+        db.delete(10);
+        assertTrue(db.needsCompaction());
+        // The database is never compacted automatically
+        db.delete(11);
+        assertEquals(100, db.size());
+        assertEquals(12, db.getDeletedCount());
+        assertEquals(12, db.compact());
+        assertFalse(db.needsCompaction());
+        assertEquals(88, db.size());
+        assertEquals(0, db.getDeletedCount());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidThreshold() {
+        createRandomDB(1, 1).setCompactionThreshold(1.5);
+    }
+
+    @Test
+    public void testQueries() {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        db.setCompactionThreshold(1.0);
+        db.createPivotIndex(16);
+        db.createOffHeapStore(0);
+        db.createLSHIndex(0, 16, 4, 40.0);
+        db.createPQIndex(8, 500);
+        deleteRandomRecords(db, 0.3, 3);
+        ListDB<BufferedImage> reference = liveRecords(db);
+        Set<ListDB<BufferedImage>.Record> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < reference.size(); i++) {
+            live.add(reference.get(i));
+        }
+        for (int q = 0; q < queries.size(); q++) {
+            ListDB<BufferedImage>.Record query = queries.get(q);
+            List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> exact = db.queryMetadata(query, K);
+            assertSameResults(reference.queryMetadata(query, K), exact);
+            assertSameResults(reference.queryMetadata(query, K, Fusion.DEFAULT), db.queryMetadata(query, K, Fusion.DEFAULT));
+            assertSameResults(reference.queryMetadata(query), db.queryMetadata(query));
+            List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> results = new ArrayList<>();
+            results.add(db.queryOffHeap(query, K));
+            results.add(db.queryApproximate(query, K));
+            results.add(db.queryQuantized(query, K, 50));
+            results.add(db.queryRange(query, exact.get(K - 1).getResult(), false).collect(Collectors.toList()));
+            for (List<ResultMetadata<Double, ListDB<BufferedImage>.Record>> result : results) {
+                for (ResultMetadata<Double, ListDB<BufferedImage>.Record> item : result) {
+                    assertTrue(live.contains(item.getMetadata()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        ListDB<BufferedImage> db = createRandomDB(SIZE, 1);
+        ListDB<BufferedImage> queries = createRandomDB(10, 2);
+        db.setCompactionThreshold(1.0);
+        db.createPivotIndex(16);
+        db.createOffHeapStore(0);
+        deleteRandomRecords(db, 0.3, 3);
+        long ids[] = new long[db.size()];
+        List<ListDB<BufferedImage>.Record> records = new ArrayList<>();
+        for (int i = 0; i < db.size(); i++) {
+            ids[i] = db.getId(i);
+            records.add(db.isDeleted(i) ? null : db.get(i));
+        }
+        List<List<ResultMetadata<Double, ListDB<BufferedImage>.Record>>> exact = new ArrayList<>(), offHeap = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            exact.add(db.queryMetadata(queries.get(q), K));
+            offHeap.add(db.queryOffHeap(queries.get(q), K));
+        }
+        int deletedCount = db.getDeletedCount();
+        // File compaction
+        File file = File.createTempFile("tombstones", ".db");
+        file.deleteOnExit();
+        db.save(file);
+        long length = file.length();
+        assertEquals(deletedCount, ListDB.compact(file));
+        assertTrue(file.length() < length);
+        ListDB<BufferedImage> loaded = ListDB.open(file);
+        assertEquals(db.size() - deletedCount, loaded.size());
+        assertEquals(0, loaded.getDeletedCount());
+        // Memory compaction
+        assertEquals(deletedCount, db.compact());
+        assertEquals(loaded.size(), db.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertSame(records.get(i), db.getById(ids[i]));
+            assertEquals(records.get(i) != null, loaded.indexOf(ids[i]) >= 0);
+        }
+        for (int q = 0; q < queries.size(); q++) {
+            assertSameResults(exact.get(q), db.queryMetadata(queries.get(q), K));
+            assertSameResults(offHeap.get(q), db.queryOffHeap(queries.get(q), K));
+            assertSameDistances(exact.get(q), loaded.queryMetadata(queries.get(q), K));
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,238 @@
+package jmr.descriptor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.Random;
+import jmr.db.Fusion;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the bounded distances
+ * ({@link MediaDescriptor#distance(jmr.descriptor.MediaDescriptor, double)}):
+ * if the distance is not greater than the bound, the exact distance must be
+ * returned; in other case, a value greater than the bound and not greater
+ * than the distance.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class BoundedDistanceTest {
+
+    /**
+     * Descriptor given by a value, whose distance is the absolute difference
+     * of values. When the distance exceeds the bound, the smallest value
+     * greater than the bound is returned, so the callers are in the rounding
+     * limit case as often as possible.
+     */
+    static class ValueDescriptor implements MediaDescriptor<Object> {
+
+        /**
+         * Number of full distances calculated.
+         */
+        static int fullDistances = 0;
+        private final double value;
+
+        ValueDescriptor(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public void init(Object media) {
+        }
+
+        @Override
+        public Double compare(MediaDescriptor descriptor) {
+            fullDistances++;
+            return Math.abs(value - ((ValueDescriptor) descriptor).value);
+        }
+
+        @Override
+        public double distance(MediaDescriptor descriptor, double bound) {
+            double distance = Math.abs(value - ((ValueDescriptor) descriptor).value);
+            return distance > bound ? Math.nextUp(bound) : distance;
+        }
+    }
+
+    /**
+     * Returns a random image made of colored rectangles.
+     */
+    private static BufferedImage createRandomImage(Random random) {
+        BufferedImage img = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        for (int r = 0; r < 10; r++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(random.nextInt(64), random.nextInt(48), 1 + random.nextInt(32), 1 + random.nextInt(24));
+        }
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Returns a list of random value descriptors.
+     */
+    private static DescriptorList<Object> createRandomList(Random random, int size) {
+        DescriptorList<Object> list = new DescriptorList<>(null);
+        for (int i = 0; i < size; i++) {
+            list.add(new ValueDescriptor(random.nextDouble()));
+        }
+        return list;
+    }
+
+    /**
+     * Returns some bounds around the given distance.
+     */
+    private static double[] bounds(double distance) {
+        return new double[]{0.0, distance / 3, distance / 2, Math.nextDown(distance), distance,
+            Math.nextUp(distance), distance * 2, Double.POSITIVE_INFINITY};
+    }
+
+    /**
+     * Checks the result of a bounded distance.
+     */
+    private static void assertBoundedDistance(double distance, double bound, double result) {
+        if (distance <= bound) {
+            assertEquals("Bound " + bound, distance, result, 0.0);
+        } else {
+            assertTrue("Bound " + bound + ", result " + result, result > bound && result <= distance);
+        }
+    }
+
+    @Test
+    public void testMPEG7Descriptors() {
+        Random random = new Random(1);
+        BufferedImage images[] = new BufferedImage[12];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = createRandomImage(random);
+        }
+        int abandoned = 0;
+        for (BufferedImage a : images) {
+            for (BufferedImage b : images) {
+                MediaDescriptor descriptors[][] = {
+                    {new MPEG7ScalableColor(a), new MPEG7ScalableColor(b)},
+                    {new MPEG7ColorStructure(a), new MPEG7ColorStructure(b)},
+                    // Color structures with different quantization levels
+                    {new MPEG7ColorStructure(a, 64), new MPEG7ColorStructure(b, 256)},
+                    {new MPEG7ColorStructure(a, 256), new MPEG7ColorStructure(b, 128)}};
+                for (MediaDescriptor pair[] : descriptors) {
+                    double distance = pair[0].distance(pair[1]);
+                    for (double bound : bounds(distance)) {
+                        double result = pair[0].distance(pair[1], bound);
+                        assertBoundedDistance(distance, bound, result);
+                        abandoned += result < distance ? 1 : 0;
+                    }
+                }
+            }
+        }
+        assertTrue("Some distances must be abandoned", abandoned > 0);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testNotComparable() {
+        BufferedImage img = createRandomImage(new Random(2));
+        new MPEG7ScalableColor(img, 64, 0).distance(new MPEG7ScalableColor(img, 256, 0), 1.0);
+    }
+
+    @Test
+    public void testDescriptorList() {
+        Random random = new Random(3);
+        DescriptorList<BufferedImage> lists[] = new DescriptorList[12];
+        for (int i = 0; i < lists.length; i++) {
+            BufferedImage img = createRandomImage(random);
+            lists[i] = new DescriptorList<>(img);
+            lists[i].add(new MPEG7ScalableColor(img));
+            lists[i].add(new MPEG7ColorStructure(img));
+        }
+        for (DescriptorList<BufferedImage> t : lists) {
+            for (DescriptorList<BufferedImage> u : lists) {
+                double distance = t.distance(u);
+                double d0 = t.get(0).distance(u.get(0)), d1 = t.get(1).distance(u.get(1));
+                assertEquals(Math.sqrt(d0 * d0 + d1 * d1), distance, 0.0);
+                for (double bound : bounds(distance)) {
+                    assertBoundedDistance(distance, bound, t.distance(u, bound));
+                }
+                // The bounds of each descriptor
+                for (double bound : new double[]{d0 / 2, Math.nextDown(d0), d0}) {
+                    assertBoundedDistance(distance, bound, t.distance(u, bound));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundingLimitCase() {
+        // With the exact distance as bound, the bound left to the last
+        // descriptor may be lower than its distance due to rounding, so it
+        // must be calculated again
+        Random random = new Random(4);
+        ValueDescriptor.fullDistances = 0;
+        for (int n = 0; n < 5000; n++) {
+            DescriptorList<Object> t = createRandomList(random, 1 + random.nextInt(4));
+            DescriptorList<Object> u = createRandomList(random, t.size());
+            int before = ValueDescriptor.fullDistances;
+            double distance = t.distance(u);
+            ValueDescriptor.fullDistances = before;
+            for (double bound : bounds(distance)) {
+                assertBoundedDistance(distance, bound, t.distance(u, bound));
+            }
+        }
+        assertTrue("The rounding limit case must be found", ValueDescriptor.fullDistances > 0);
+    }
+
+    @Test
+    public void testGriddedDescriptor() {
+        Random random = new Random(5);
+        GriddedDescriptor<BufferedImage> descriptors[] = new GriddedDescriptor[8];
+        for (int i = 0; i < descriptors.length; i++) {
+            descriptors[i] = new GriddedDescriptor<>(createRandomImage(random), new Dimension(2, 2), MPEG7ScalableColor.class);
+        }
+        for (GriddedDescriptor<BufferedImage> t : descriptors) {
+            for (GriddedDescriptor<BufferedImage> u : descriptors) {
+                double distance = t.distance(u);
+                for (double bound : bounds(distance)) {
+                    assertBoundedDistance(distance, bound, t.distance(u, bound));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFusion() {
+        Random random = new Random(6);
+        Fusion fusions[] = {Fusion.DEFAULT, new Fusion(Fusion.TYPE_L1), new Fusion(Fusion.TYPE_MAX, 0.5, 2.0, 1.0),
+            new Fusion(Fusion.TYPE_L2, 0.25, 0.0, 3.0), new Fusion(Fusion.TYPE_WEIGHTED_SUM, 1.0, 2.0, 0.5)};
+        ValueDescriptor.fullDistances = 0;
+        for (int n = 0; n < 2000; n++) {
+            DescriptorList<Object> t = createRandomList(random, 3);
+            DescriptorList<Object> u = createRandomList(random, 3);
+            for (Fusion fusion : fusions) {
+                int before = ValueDescriptor.fullDistances;
+                double distance = fusion.distance(t, u);
+                ValueDescriptor.fullDistances = before;
+                for (double bound : bounds(distance)) {
+                    assertBoundedDistance(distance, bound, fusion.distance(t, u, bound));
+                }
+            }
+            // The default fusion gives the default record distance
+            assertEquals(t.distance(u), Fusion.DEFAULT.distance(t, u), 0.0);
+        }
+        assertTrue("The rounding limit case must be found", ValueDescriptor.fullDistances > 0);
+        // The MPEG7 descriptors
+        BufferedImage a = createRandomImage(random), b = createRandomImage(random);
+        DescriptorList<BufferedImage> t = new DescriptorList<>(a), u = new DescriptorList<>(b);
+        t.add(new MPEG7ScalableColor(a));
+        t.add(new MPEG7ColorStructure(a));
+        u.add(new MPEG7ScalableColor(b));
+        u.add(new MPEG7ColorStructure(b));
+        Fusion fusion = new Fusion(Fusion.TYPE_L1, 0.01, 100.0);
+        double distance = fusion.distance(t, u);
+        assertEquals(0.01 * t.get(0).distance(u.get(0)) + 100.0 * t.get(1).distance(u.get(1)), distance, 1e-9);
+        for (double bound : bounds(distance)) {
+            assertBoundedDistance(distance, bound, fusion.distance(t, u, bound));
+        }
+    }
+}
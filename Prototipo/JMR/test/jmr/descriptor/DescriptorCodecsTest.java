@@ -0,0 +1,141 @@
+package jmr.descriptor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the compact serialization of the descriptors by means of their
+ * codecs ({@link DescriptorCodecs}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class DescriptorCodecsTest {
+
+    private static final int VALUES[] = {0, 1, 63, 64, 127, 128, 16383, 16384,
+        Integer.MAX_VALUE, -1, -64, -65, Integer.MIN_VALUE};
+
+    /**
+     * Returns a random image of two colors.
+     */
+    private static BufferedImage createRandomImage(Random random) {
+        BufferedImage img = new BufferedImage(24, 24, BufferedImage.TYPE_INT_RGB);
+        int c1 = random.nextInt(0xFFFFFF), c2 = random.nextInt(0xFFFFFF);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, random.nextInt(3) == 0 ? c2 : c1);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Returns a copy of the given object made by serializing it.
+     */
+    private static Object serializedCopy(Object object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    @Test
+    public void testVarInt() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DescriptorCodecs.writeVarInt(out, 127);
+        assertEquals(1, bytes.size());
+        DescriptorCodecs.writeVarInt(out, 128);
+        assertEquals(3, bytes.size());
+        for (int value : VALUES) {
+            DescriptorCodecs.writeVarInt(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(127, DescriptorCodecs.readVarInt(in));
+        assertEquals(128, DescriptorCodecs.readVarInt(in));
+        for (int value : VALUES) {
+            assertEquals(value, DescriptorCodecs.readVarInt(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testSignedVarInt() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // The small negative values take one byte as well
+        DescriptorCodecs.writeSignedVarInt(out, -64);
+        assertEquals(1, bytes.size());
+        for (int value : VALUES) {
+            DescriptorCodecs.writeSignedVarInt(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(-64, DescriptorCodecs.readSignedVarInt(in));
+        for (int value : VALUES) {
+            assertEquals(value, DescriptorCodecs.readSignedVarInt(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testFits() {
+        assertTrue(DescriptorCodecs.fits(7, 4));
+        assertFalse(DescriptorCodecs.fits(8, 4));
+        assertTrue(DescriptorCodecs.fits(-8, 4));
+        assertFalse(DescriptorCodecs.fits(-9, 4));
+        assertTrue(DescriptorCodecs.fits(Integer.MIN_VALUE, 32));
+        assertTrue(DescriptorCodecs.fits(Integer.MAX_VALUE, 32));
+    }
+
+    @Test
+    public void testBits() throws IOException {
+        Random random = new Random(1);
+        int bits[] = new int[1000], values[] = new int[bits.length], total = 0;
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 1 + random.nextInt(32);
+            values[i] = random.nextInt() >> (32 - bits[i]);
+            total += bits[i];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DescriptorCodecs.BitWriter writer = new DescriptorCodecs.BitWriter(new DataOutputStream(bytes));
+        for (int i = 0; i < bits.length; i++) {
+            writer.write(values[i], bits[i]);
+        }
+        writer.flush();
+        assertEquals((total + 7) / 8, bytes.size());
+        DescriptorCodecs.BitReader reader = new DescriptorCodecs.BitReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = 0; i < bits.length; i++) {
+            assertEquals(values[i], reader.readSigned(bits[i]));
+        }
+    }
+
+    @Test
+    public void testSerializedDescriptors() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            BufferedImage img = createRandomImage(random);
+            MediaDescriptor descriptors[] = {new MPEG7ScalableColor(img),
+                new MPEG7ColorStructure(img), new SingleColorDescriptor(img)};
+            for (MediaDescriptor descriptor : descriptors) {
+                assertNotNull(DescriptorCodecs.get(descriptor.getClass()));
+                MediaDescriptor copy = (MediaDescriptor) serializedCopy(descriptor);
+                assertEquals(descriptor.toString(), copy.toString());
+                assertEquals(0.0, descriptor.distance(copy), 0.0);
+            }
+        }
+    }
+}
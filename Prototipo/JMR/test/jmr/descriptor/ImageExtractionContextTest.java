@@ -0,0 +1,115 @@
+package jmr.descriptor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import jmr.colorspace.ColorSpaceJMR;
+import jmr.descriptor.color.MPEG7ColorStructure;
+import jmr.descriptor.color.MPEG7ScalableColor;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.media.JMRExtendedBufferedImage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the extraction context for images ({@link ImageExtractionContext}):
+ * the intermediate data is calculated only once and the descriptors built
+ * from a context are the ones built from its image.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ImageExtractionContextTest {
+
+    /**
+     * Returns a random image of the given type made of colored rectangles.
+     */
+    private static BufferedImage createRandomImage(Random random, int type) {
+        BufferedImage img = new BufferedImage(64, 48, type);
+        Graphics2D g = img.createGraphics();
+        for (int r = 0; r < 10; r++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(random.nextInt(64), random.nextInt(48), 1 + random.nextInt(32), 1 + random.nextInt(24));
+        }
+        g.dispose();
+        return img;
+    }
+
+    @Test
+    public void testRGB() {
+        BufferedImage img = createRandomImage(new Random(1), BufferedImage.TYPE_INT_RGB);
+        ImageExtractionContext context = new ImageExtractionContext(img);
+        int rgb[] = context.getRGB();
+        assertArrayEquals(img.getRGB(0, 0, 64, 48, null, 0, 64), rgb);
+        assertSame(rgb, context.getRGB());
+        assertEquals(64, context.getWidth());
+        assertEquals(48, context.getHeight());
+    }
+
+    @Test
+    public void testLuminance() {
+        BufferedImage img = createRandomImage(new Random(2), BufferedImage.TYPE_INT_RGB);
+        ImageExtractionContext context = new ImageExtractionContext(img);
+        float luminance[] = context.getLuminance();
+        assertEquals(64 * 48, luminance.length);
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                Color c = new Color(img.getRGB(x, y));
+                float expected = 0.299f * c.getRed() + 0.587f * c.getGreen() + 0.114f * c.getBlue();
+                assertEquals(expected, luminance[y * 64 + x], 1e-3f);
+                assertTrue(luminance[y * 64 + x] >= 0.0f && luminance[y * 64 + x] <= 255.0f + 1e-3f);
+            }
+        }
+        assertSame(luminance, context.getLuminance());
+    }
+
+    @Test
+    public void testColorSpaceImages() {
+        BufferedImage img = createRandomImage(new Random(3), BufferedImage.TYPE_INT_RGB);
+        ImageExtractionContext context = new ImageExtractionContext(img);
+        assertSame(context.getImage(), context.getImage());
+        for (int colorSpace : new int[]{ColorSpaceJMR.CS_HSV, ColorSpaceJMR.CS_HMMD}) {
+            JMRExtendedBufferedImage converted = context.getImage(colorSpace);
+            assertEquals(colorSpace, converted.getColorModel().getColorSpace().getType());
+            assertEquals(ImageExtractionContext.getImageType(colorSpace), converted.getType());
+            assertSame(converted, context.getImage(colorSpace));
+        }
+        assertNotSame(context.getImage(ColorSpaceJMR.CS_HSV), context.getImage(ColorSpaceJMR.CS_HMMD));
+        // An image already converted is used as it is
+        JMRExtendedBufferedImage hsv = context.getImage(ColorSpaceJMR.CS_HSV);
+        assertSame(hsv, new ImageExtractionContext(hsv).getImage(ColorSpaceJMR.CS_HSV));
+    }
+
+    @Test
+    public void testDescriptors() {
+        Random random = new Random(4);
+        int types[] = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY};
+        for (int type : types) {
+            BufferedImage img = createRandomImage(random, type);
+            // One context shared by all the descriptors
+            ImageExtractionContext context = new ImageExtractionContext(img);
+            assertArrayEquals(new MPEG7ScalableColor(img).getVector(), new MPEG7ScalableColor(context).getVector(), 0.0);
+            assertArrayEquals(new MPEG7ColorStructure(img).getVector(), new MPEG7ColorStructure(context).getVector(), 0.0);
+            assertEquals(new SingleColorDescriptor(img).getColor(), new SingleColorDescriptor(context).getColor());
+            assertSame(img, new SingleColorDescriptor(context).getSource());
+            // The same descriptors by means of the factory
+            assertArrayEquals(new MPEG7ScalableColor(img).getVector(),
+                    MediaDescriptorFactory.getInstance(MPEG7ScalableColor.class, context).getVector(), 0.0);
+            assertEquals(new SingleColorDescriptor(img).getColor(),
+                    MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, context).getColor());
+        }
+    }
+
+    @Test
+    public void testSingleColorMean() {
+        // The mean of the image read row by row
+        BufferedImage img = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        int colors[] = {0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0xFFFFFF, 0x102030};
+        for (int i = 0; i < colors.length; i++) {
+            img.setRGB(i % 3, i / 3, colors[i]);
+        }
+        Color expected = new Color((0xFF + 0xFF + 0x10) / 6, (0xFF + 0xFF + 0x20) / 6, (0xFF + 0xFF + 0x30) / 6);
+        assertEquals(expected, new SingleColorDescriptor(img).getColor());
+        assertEquals(expected, new SingleColorDescriptor(new ImageExtractionContext(img)).getColor());
+    }
+}
@@ -0,0 +1,33 @@
+package jmr.descriptor;
+
+import java.awt.image.BufferedImage;
+import jmr.descriptor.color.SingleColorDescriptor;
+
+/**
+ * Benchmark of the descriptor factory ({@link MediaDescriptorFactory}): the
+ * time per descriptor of the cached constructors is compared with the one of
+ * the reflective construction. Run it by means of its <code>main</code>
+ * method.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class MediaDescriptorFactoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        int n = 1000000;
+        long t, tReflection, tFactory;
+        t = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            SingleColorDescriptor.class.getConstructor(img.getClass()).newInstance(img);
+        }
+        tReflection = System.nanoTime() - t;
+        t = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, img);
+        }
+        tFactory = System.nanoTime() - t;
+        System.out.println("Reflection: " + (tReflection / n) + " ns/descriptor");
+        System.out.println("Factory: " + (tFactory / n) + " ns/descriptor");
+    }
+}
@@ -0,0 +1,109 @@
+package jmr.descriptor;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import jmr.descriptor.color.SingleColorDescriptor;
+import jmr.media.JMRExtendedBufferedImage;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the construction of descriptors by means of the
+ * {@link MediaDescriptorFactory}.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class MediaDescriptorFactoryTest {
+
+    /**
+     * Returns an image filled with the given color.
+     */
+    private static BufferedImage createImage(Color color) {
+        BufferedImage img = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, color.getRGB());
+            }
+        }
+        return img;
+    }
+
+    @After
+    public void tearDown() {
+        MediaDescriptorFactory.unregister(SingleColorDescriptor.class);
+    }
+
+    @Test
+    public void testGetInstanceFromMedia() {
+        BufferedImage img = createImage(Color.ORANGE);
+        SingleColorDescriptor descriptor = MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, img);
+        assertEquals(new SingleColorDescriptor(img).getColor(), descriptor.getColor());
+        assertSame(img, descriptor.getSource());
+        // The cached constructor gives the same result
+        assertEquals(Color.BLUE, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, createImage(Color.BLUE)).getColor());
+    }
+
+    @Test
+    public void testGetInstanceFromContext() {
+        BufferedImage img = createImage(Color.GREEN);
+        SingleColorDescriptor descriptor = MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, new ImageExtractionContext(img));
+        assertEquals(Color.GREEN, descriptor.getColor());
+        // Without a context constructor, the media constructor is used
+        descriptor = MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, ExtractionContext.of(img));
+        assertEquals(Color.GREEN, descriptor.getColor());
+    }
+
+    @Test
+    public void testRegisteredConstructor() {
+        MediaDescriptorFactory.register(SingleColorDescriptor.class, String.class, (name) -> new SingleColorDescriptor(Color.decode(name)));
+        assertEquals(Color.RED, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, "#FF0000").getColor());
+        MediaDescriptorFactory.unregister(SingleColorDescriptor.class);
+        try {
+            MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, "#FF0000");
+            fail("The registered constructor has been removed");
+        } catch (InvalidParameterException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRegisteredSupertype() {
+        BufferedImage img = createImage(Color.ORANGE);
+        // Resolved (and cached) before the registration
+        assertEquals(Color.ORANGE, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, new JMRExtendedBufferedImage(img)).getColor());
+        MediaDescriptorFactory.register(SingleColorDescriptor.class, BufferedImage.class, (image) -> new SingleColorDescriptor(Color.RED));
+        // The function registered for the superclass is used for subclasses
+        assertEquals(Color.RED, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, new JMRExtendedBufferedImage(img)).getColor());
+        assertEquals(Color.RED, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, img).getColor());
+        // A function registered for the exact class takes precedence
+        MediaDescriptorFactory.register(SingleColorDescriptor.class, JMRExtendedBufferedImage.class, (image) -> new SingleColorDescriptor(Color.BLUE));
+        assertEquals(Color.BLUE, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, new JMRExtendedBufferedImage(img)).getColor());
+        assertEquals(Color.RED, MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, img).getColor());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testMissingConstructor() {
+        MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, Integer.valueOf(1));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testNullMedia() {
+        MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, (Object) null);
+    }
+
+    @Test
+    public void testConstructionFailure() {
+        IllegalStateException failure = new IllegalStateException();
+        MediaDescriptorFactory.register(SingleColorDescriptor.class, String.class, (name) -> {
+            throw failure;
+        });
+        try {
+            MediaDescriptorFactory.getInstance(SingleColorDescriptor.class, "#FF0000");
+            fail("The failure of the constructor must be reported");
+        } catch (InvalidParameterException ex) {
+            assertSame(failure, ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package jmr.descriptor.color;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.security.InvalidParameterException;
+import java.util.Random;
+import jmr.region.Region;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the color descriptors calculated from a region: the result must be
+ * the same as the one calculated from the image cropped to the region.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class RegionDescriptorTest {
+
+    /**
+     * Returns a random image made of colored rectangles.
+     */
+    private static BufferedImage createRandomImage(Random random, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        for (int r = 0; r < 12; r++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 2), 1 + random.nextInt(height / 2));
+        }
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Returns a random image of 96x64 pixels.
+     */
+    private static BufferedImage createRandomImage(Random random) {
+        return createRandomImage(random, 96, 64);
+    }
+
+    /**
+     * Returns a copy of the given part of the image.
+     */
+    private static BufferedImage crop(BufferedImage image, Rectangle bounds) {
+        BufferedImage img = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.drawImage(image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height), 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Checks that the descriptors of the given region are the ones of the
+     * given cropped image. The region must be larger than the structuring
+     * element of the color structure descriptor in both directions (for 
+     * smaller images, its histogram is not normalized by the number of
+     * windows).
+     */
+    private static void assertSameDescriptors(BufferedImage cropped, Region region) {
+        assertArrayEquals(new MPEG7ScalableColor(cropped).getVector(), new MPEG7ScalableColor(region).getVector(), 0.0);
+        assertArrayEquals(new MPEG7ColorStructure(cropped).getVector(), new MPEG7ColorStructure(region).getVector(), 0.0);
+        assertEquals(new SingleColorDescriptor(cropped).getColor(), new SingleColorDescriptor(region).getColor());
+        assertSame(region.getSource(), new MPEG7ScalableColor(region).getSource());
+    }
+
+    @Test
+    public void testRectangularRegion() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            BufferedImage img = createRandomImage(random);
+            int x = random.nextInt(80), y = random.nextInt(48);
+            Rectangle bounds = new Rectangle(x, y, 9 + random.nextInt(88 - x), 9 + random.nextInt(56 - y));
+            assertSameDescriptors(crop(img, bounds), new Region(img, bounds));
+        }
+    }
+
+    @Test
+    public void testWholeImage() {
+        BufferedImage img = createRandomImage(new Random(2));
+        assertSameDescriptors(img, new Region(img));
+    }
+
+    @Test
+    public void testLargeRegion() {
+        // The structuring element of the color structure is subsampled
+        BufferedImage img = createRandomImage(new Random(6), 420, 400);
+        Rectangle bounds = new Rectangle(13, 7, 400, 380);
+        assertSameDescriptors(crop(img, bounds), new Region(img, bounds));
+    }
+
+    @Test
+    public void testSmallRegion() {
+        // Smaller than the structuring element: a single window is used
+        BufferedImage img = createRandomImage(new Random(7));
+        Region region = new Region(img, new Rectangle(20, 30, 4, 3));
+        Region pixel = new Region(img, new Rectangle(21, 31, 1, 1));
+        assertEquals(12, region.getArea());
+        assertArrayEquals(new MPEG7ScalableColor(crop(img, region.getShape().getBounds())).getVector(), new MPEG7ScalableColor(region).getVector(), 0.0);
+        assertEquals(new SingleColorDescriptor(crop(img, region.getShape().getBounds())).getColor(), new SingleColorDescriptor(region).getColor());
+        assertEquals(new Color(img.getRGB(21, 31)), new SingleColorDescriptor(pixel).getColor());
+        double sum = 0.0;
+        for (double v : new MPEG7ColorStructure(pixel).getVector()) {
+            sum += v;
+        }
+        assertTrue(sum > 0.0);
+    }
+
+    @Test
+    public void testGenericShape() {
+        // A shape other than a Rectangle is scanned pixel by pixel
+        Random random = new Random(3);
+        for (int i = 0; i < 10; i++) {
+            BufferedImage img = createRandomImage(random);
+            Rectangle bounds = new Rectangle(random.nextInt(40), random.nextInt(30), 9 + random.nextInt(48), 9 + random.nextInt(26));
+            Shape shape = new Rectangle2D.Double(bounds.x, bounds.y, bounds.width, bounds.height);
+            assertSameDescriptors(crop(img, bounds), new Region(img, shape));
+        }
+    }
+
+    @Test
+    public void testClippedRegion() {
+        // Only the pixels inside the source image are taken into account
+        BufferedImage img = createRandomImage(new Random(4));
+        Rectangle bounds = new Rectangle(60, 40, 100, 100);
+        assertSameDescriptors(crop(img, bounds.intersection(new Rectangle(96, 64))), new Region(img, bounds));
+        bounds = new Rectangle(-10, -20, 40, 50);
+        assertSameDescriptors(crop(img, bounds.intersection(new Rectangle(96, 64))), new Region(img, bounds));
+    }
+
+    @Test
+    public void testEmptyRegion() {
+        BufferedImage img = createRandomImage(new Random(5));
+        Region regions[] = {new Region(img, new Rectangle(10, 10, 0, 0)), new Region(img, new Rectangle(100, 10, 20, 20)),
+            new Region(img, new Rectangle(-30, -30, 20, 20))};
+        for (Region region : regions) {
+            assertEquals(0, region.getArea());
+            // The histograms of the empty regions have no pixels
+            for (double v : new MPEG7ColorStructure(region).getVector()) {
+                assertEquals(0.0, v, 0.0);
+            }
+            // The same as a region without source
+            assertArrayEquals(new MPEG7ScalableColor(new Region((BufferedImage) null)).getVector(), new MPEG7ScalableColor(region).getVector(), 0.0);
+            // There is no mean color
+            try {
+                new SingleColorDescriptor(region);
+                fail("The mean color of an empty region is not defined");
+            } catch (InvalidParameterException ex) {
+                // Expected
+            }
+        }
+    }
+}
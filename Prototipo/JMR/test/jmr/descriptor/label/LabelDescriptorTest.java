@@ -0,0 +1,245 @@
+package jmr.descriptor.label;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import jmr.descriptor.Comparator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the label descriptors ({@link LabelDescriptor}): the inclusion,
+ * the soft inclusion and the comparators based on the label keys must give
+ * the results of the comparison of the label strings ignoring case (by
+ * means of {@link String#compareToIgnoreCase(java.lang.String)}), which are
+ * calculated here as a reference.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LabelDescriptorTest {
+
+    /**
+     * Labels with case-sensitive characters (the sharp s, the dotted and
+     * dotless i, the title case digraph, the Kelvin sign and the sigmas).
+     */
+    private static final String LABELS[] = {"dog", "Dog", "DOG", "cat", "ß", "ss", "SS", "straße", "STRASSE",
+        "İ", "i", "I", "ı", "ǅ", "Ǆ", "ǆ", "K", "k", "Σ", "σ", "ς", "İstanbul", "istanbul"};
+    private static final double WEIGHTS[] = {0.0, 0.125, 0.25, 0.5, 0.75, 1.0};
+    private static final int TYPES[] = {LabelDescriptor.WeightBasedComparator.TYPE_MAX, LabelDescriptor.WeightBasedComparator.TYPE_MIN,
+        LabelDescriptor.WeightBasedComparator.TYPE_MEAN, LabelDescriptor.WeightBasedComparator.TYPE_EUCLIDEAN};
+
+    /**
+     * A descriptor with its labels and weights, as given to the descriptor.
+     */
+    private static class Labels {
+
+        List<String> labels = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        LabelDescriptor<String> descriptor;
+    }
+
+    /**
+     * Returns a random descriptor of up to four labels (some of them may be
+     * repeated, or equal ignoring case), weighted or not.
+     */
+    private static Labels createRandomLabels(Random random, boolean weighted) {
+        Labels output = new Labels();
+        int n = random.nextInt(5);
+        for (int i = 0; i < n; i++) {
+            output.labels.add(LABELS[random.nextInt(LABELS.length)]);
+            output.weights.add(WEIGHTS[random.nextInt(WEIGHTS.length)]);
+        }
+        String first = n > 0 ? output.labels.get(0) : "empty";
+        String rest[] = n > 0 ? output.labels.subList(1, n).toArray(new String[0]) : new String[0];
+        output.descriptor = new LabelDescriptor<>(first, rest);
+        if (n == 0) {
+            // A descriptor without labels
+            output.labels.add("empty");
+            output.weights.add(0.0);
+        }
+        if (weighted) {
+            output.descriptor.setWeights(output.weights.toArray(new Double[0]));
+        }
+        return output;
+    }
+
+    /**
+     * Reference inclusion: each label of t is equal, ignoring case, to some
+     * label of u.
+     */
+    private static boolean isIncluded(Labels t, Labels u) {
+        for (String label : t.labels) {
+            boolean found = false;
+            for (int j = 0; j < u.labels.size() && !found; j++) {
+                found = label.compareToIgnoreCase(u.labels.get(j)) == 0;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reference soft inclusion: some label of t is equal, ignoring case, to
+     * some label of u.
+     */
+    private static boolean isSoftIncluded(Labels t, Labels u) {
+        if (t.labels.isEmpty()) {
+            return true;
+        }
+        for (String label : t.labels) {
+            for (String other : u.labels) {
+                if (label.compareToIgnoreCase(other) == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reference weighted inclusion distance: the weight differences with the
+     * first label of u equal to each label of t, aggregated by the given type.
+     */
+    private static double inclusionDistance(Labels t, Labels u, int type) {
+        double dist = 0.0, dist_ij = 0.0;
+        for (int i = 0; i < t.labels.size(); i++) {
+            int j = 0;
+            while (j < u.labels.size() && t.labels.get(i).compareToIgnoreCase(u.labels.get(j)) != 0) {
+                j++;
+            }
+            if (j == u.labels.size()) {
+                return Double.POSITIVE_INFINITY;
+            }
+            dist_ij = Math.abs(t.weights.get(i) - u.weights.get(j));
+            if (type == LabelDescriptor.WeightBasedComparator.TYPE_EUCLIDEAN) {
+                dist_ij *= dist_ij;
+            }
+            if (i == 0) {
+                dist = dist_ij;
+            } else if (type == LabelDescriptor.WeightBasedComparator.TYPE_MAX) {
+                dist = Math.max(dist, dist_ij);
+            } else if (type == LabelDescriptor.WeightBasedComparator.TYPE_MIN) {
+                dist = Math.min(dist, dist_ij);
+            } else {
+                dist += dist_ij;
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Reference weighted distance (see
+     * {@link LabelDescriptor.WeightBasedComparator}).
+     */
+    private static double weightedDistance(Labels t, Labels u, int type, boolean onlyInclusion) {
+        if (!onlyInclusion && t.labels.size() != u.labels.size()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double output = inclusionDistance(t, u, type);
+        if (type == LabelDescriptor.WeightBasedComparator.TYPE_MEAN) {
+            return output / t.labels.size();
+        }
+        if (type == LabelDescriptor.WeightBasedComparator.TYPE_EUCLIDEAN) {
+            return Math.sqrt(output);
+        }
+        return output;
+    }
+
+    @Test
+    public void testInclusion() {
+        Random random = new Random(1);
+        List<Labels> descriptors = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            descriptors.add(createRandomLabels(random, false));
+        }
+        Comparator<LabelDescriptor, Double> inclusion = new LabelDescriptor.InclusionComparator();
+        Comparator<LabelDescriptor, Double> equal = new LabelDescriptor.EqualComparator();
+        Comparator<LabelDescriptor, Double> softEqual = new LabelDescriptor.SoftEqualComparator();
+        int included = 0, softIncluded = 0;
+        for (Labels t : descriptors) {
+            for (Labels u : descriptors) {
+                boolean tInU = isIncluded(t, u), uInT = isIncluded(u, t);
+                assertEquals(t.labels + " in " + u.labels, tInU, t.descriptor.isIncluded(u.descriptor));
+                assertEquals(t.labels + " in " + u.labels, isSoftIncluded(t, u), t.descriptor.isSoftIncluded(u.descriptor));
+                assertEquals(tInU ? 0.0 : Double.POSITIVE_INFINITY, inclusion.distance(t.descriptor, u.descriptor), 0.0);
+                assertEquals(t.labels.size() == u.labels.size() && tInU && uInT ? 0.0 : Double.POSITIVE_INFINITY,
+                        equal.distance(t.descriptor, u.descriptor), 0.0);
+                assertEquals(tInU || uInT ? 0.0 : Double.POSITIVE_INFINITY, softEqual.distance(t.descriptor, u.descriptor), 0.0);
+                included += tInU ? 1 : 0;
+                softIncluded += isSoftIncluded(t, u) ? 1 : 0;
+            }
+        }
+        // Both cases are found
+        assertTrue(included > descriptors.size() && included < descriptors.size() * descriptors.size());
+        assertTrue(softIncluded > included && softIncluded < descriptors.size() * descriptors.size());
+    }
+
+    @Test
+    public void testCaseFolding() {
+        LabelDescriptor<String> t = new LabelDescriptor<>("STRAßE", "İstanbul", "ǅemal");
+        assertTrue(t.isIncluded(new LabelDescriptor<>("straße", "ıSTANBUL", "ǆEMAL")));
+        assertTrue(t.isIncluded(new LabelDescriptor<>("ǄEMAL", "istanbul", "Straße", "other")));
+        assertFalse(t.isIncluded(new LabelDescriptor<>("STRASSE", "istanbul", "ǅemal")));
+        assertTrue(t.isSoftIncluded(new LabelDescriptor<>("STRASSE", "ISTANBUL")));
+        assertFalse(t.isSoftIncluded(new LabelDescriptor<>("STRASSE", "Ankara")));
+        // The exact case of the labels is kept
+        assertEquals("STRAßE", t.getLabel(0));
+        assertEquals("İstanbul", t.getLabel(1));
+        assertEquals("ǅemal", t.getLabel(2));
+    }
+
+    @Test
+    public void testWeightedDistances() {
+        Random random = new Random(2);
+        List<Labels> descriptors = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            descriptors.add(createRandomLabels(random, true));
+        }
+        int finite = 0;
+        for (int type : TYPES) {
+            for (boolean onlyInclusion : new boolean[]{true, false}) {
+                LabelDescriptor.WeightBasedComparator comparator = new LabelDescriptor.WeightBasedComparator(type, onlyInclusion);
+                for (Labels t : descriptors) {
+                    for (Labels u : descriptors) {
+                        double expected = weightedDistance(t, u, type, onlyInclusion);
+                        assertEquals(t + " / " + u, expected, comparator.distance(t.descriptor, u.descriptor), 0.0);
+                        assertEquals(expected, comparator.apply(t.descriptor, u.descriptor), 0.0);
+                        finite += expected < Double.POSITIVE_INFINITY ? 1 : 0;
+                    }
+                }
+            }
+        }
+        assertTrue(finite > 0);
+        // The weight of a repeated label (ignoring case) is the first one
+        LabelDescriptor<String> t = new LabelDescriptor<>("Dog", "cat");
+        t.setWeights(0.5, 0.0);
+        LabelDescriptor<String> u = new LabelDescriptor<>("DOG", "dog", "cat");
+        u.setWeights(0.25, 1.0, 0.0);
+        assertEquals(0.25, new LabelDescriptor.WeightBasedComparator(LabelDescriptor.WeightBasedComparator.TYPE_MAX, true).distance(t, u), 0.0);
+        assertEquals(0.5, t.getWeight("Dog"), 0.0);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        LabelDescriptor<String> t = new LabelDescriptor<>("STRAßE", "İstanbul", "dog");
+        t.setWeights(0.25, 0.5, 1.0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(t);
+        }
+        LabelDescriptor<String> read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (LabelDescriptor<String>) in.readObject();
+        }
+        assertEquals(t.toString(), read.toString());
+        assertTrue(read.isIncluded(t) && t.isIncluded(read));
+        assertEquals(0.0, new LabelDescriptor.WeightBasedComparator().distance(t, read), 0.0);
+        assertTrue(read.isIncluded(new LabelDescriptor<>("strasse", "straße", "ISTANBUL", "DOG")));
+    }
+}
@@ -0,0 +1,101 @@
+package jmr.descriptor.label;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the global dictionary of labels ({@link LabelDictionary}): the
+ * labels must keep their exact case, and two labels must have the same key
+ * if and only if they are equal ignoring case (as given by
+ * {@link String#compareToIgnoreCase(java.lang.String)}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LabelDictionaryTest {
+
+    /**
+     * Checks that the given labels have the same key if and only if they are
+     * equal ignoring case.
+     */
+    private static void assertSameEquality(String a, String b) {
+        boolean equal = a.compareToIgnoreCase(b) == 0;
+        assertEquals(a + " / " + b, equal, LabelDictionary.fold(a).equals(LabelDictionary.fold(b)));
+        assertEquals(a + " / " + b, equal, LabelDictionary.getKey(LabelDictionary.getId(a)) == LabelDictionary.getKey(LabelDictionary.getId(b)));
+    }
+
+    @Test
+    public void testIds() {
+        int id = LabelDictionary.getId("LabelDictionaryTest.Dog");
+        assertEquals(id, LabelDictionary.getId("LabelDictionaryTest.Dog"));
+        assertEquals(id, LabelDictionary.findId("LabelDictionaryTest.Dog"));
+        assertEquals("LabelDictionaryTest.Dog", LabelDictionary.getLabel(id));
+        assertEquals(-1, LabelDictionary.findId("LabelDictionaryTest.Unknown"));
+        // The labels equal ignoring case have their own id, and the same key
+        int other = LabelDictionary.getId("labeldictionarytest.DOG");
+        assertNotSame(id, other);
+        assertTrue(id != other);
+        assertEquals("labeldictionarytest.DOG", LabelDictionary.getLabel(other));
+        assertEquals(LabelDictionary.getKey(id), LabelDictionary.getKey(other));
+        assertTrue(LabelDictionary.getKey(id) != LabelDictionary.getKey(LabelDictionary.getId("LabelDictionaryTest.Cat")));
+        assertTrue(LabelDictionary.size() >= 3);
+    }
+
+    @Test
+    public void testSpecialCases() {
+        // The sharp s has no single-character upper case, so it is not
+        // equal to "ss" ignoring case
+        assertEquals("ß", LabelDictionary.fold("ß"));
+        assertSameEquality("ß", "ss");
+        assertSameEquality("ß", "SS");
+        assertSameEquality("straße", "STRASSE");
+        assertSameEquality("STRAßE", "straße");
+        // The dotted capital I and the dotless small i are equal to the
+        // ASCII i ignoring case
+        assertSameEquality("İ", "i");
+        assertSameEquality("İ", "I");
+        assertSameEquality("ı", "I");
+        assertSameEquality("ı", "i");
+        assertSameEquality("İstanbul", "istanbul");
+        assertSameEquality("ıSPARTA", "Isparta");
+        // The title case digraph is equal to its upper and lower case forms
+        assertSameEquality("ǅ", "Ǆ");
+        assertSameEquality("ǅ", "ǆ");
+        assertSameEquality("ǅemal", "ǄEMAL");
+        assertSameEquality("ǅ", "DŽ");
+        // The Kelvin sign and the sigmas
+        assertSameEquality("K", "k");
+        assertSameEquality("Σ", "σ");
+        assertSameEquality("Σ", "ς");
+        assertSameEquality("σ", "ς");
+        // Different lengths
+        assertSameEquality("dog", "dogs");
+        assertSameEquality("", "");
+    }
+
+    @Test
+    public void testAllCharacters() {
+        // Each character against its upper, lower and title case forms
+        for (char c = 0; c < Character.MIN_SURROGATE; c++) {
+            String s = String.valueOf(c);
+            assertSameEquality(s, String.valueOf(Character.toUpperCase(c)));
+            assertSameEquality(s, String.valueOf(Character.toLowerCase(c)));
+            assertSameEquality(s, String.valueOf(Character.toTitleCase(c)));
+        }
+    }
+
+    @Test
+    public void testRandomLabels() {
+        String alphabet = "aAbBiIİıßsSkKKǄǅǆΣσςöÖ";
+        Random random = new Random(1);
+        for (int n = 0; n < 5000; n++) {
+            StringBuilder a = new StringBuilder(), b = new StringBuilder();
+            int length = random.nextInt(4);
+            for (int i = 0; i < length; i++) {
+                a.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameEquality(a.toString(), b.toString());
+        }
+    }
+}